@@ -18,6 +18,7 @@ import com.philkes.notallyx.presentation.widget.WidgetProvider
 import com.philkes.notallyx.utils.backup.AUTO_BACKUP_WORK_NAME
 import com.philkes.notallyx.utils.backup.autoBackupOnSave
 import com.philkes.notallyx.utils.backup.cancelAutoBackup
+import com.philkes.notallyx.utils.backup.checkPendingBackupOnSave
 import com.philkes.notallyx.utils.backup.containsNonCancelled
 import com.philkes.notallyx.utils.backup.deleteModifiedNoteBackup
 import com.philkes.notallyx.utils.backup.isEqualTo
@@ -25,6 +26,7 @@ import com.philkes.notallyx.utils.backup.modifiedNoteBackupExists
 import com.philkes.notallyx.utils.backup.scheduleAutoBackup
 import com.philkes.notallyx.utils.backup.updateAutoBackup
 import com.philkes.notallyx.utils.observeOnce
+import com.philkes.notallyx.utils.scheduleOrphanAttachmentsCleanup
 import com.philkes.notallyx.utils.security.UnlockReceiver
 import java.util.concurrent.TimeUnit
 import kotlinx.coroutines.Dispatchers
@@ -76,6 +78,9 @@ class NotallyXApplication : Application() {
             checkUpdatePeriodicBackup(backupFolder, backupFolder, value.periodInDays.toLong())
         }
 
+        getWorkManagerSafe()?.scheduleOrphanAttachmentsCleanup(this)
+        checkPendingBackupOnSave(preferences)
+
         val filter = IntentFilter().apply { addAction(Intent.ACTION_SCREEN_OFF) }
         biometricLockObserver = Observer { biometricLock ->
             if (biometricLock == BiometricLock.ENABLED) {
@@ -111,7 +116,7 @@ class NotallyXApplication : Application() {
                             withContext(Dispatchers.IO) {
                                 autoBackupOnSave(
                                     backupPath,
-                                    savedNote = null,
+                                    savedNotes = null,
                                     password = backupPassword,
                                 )
                             }
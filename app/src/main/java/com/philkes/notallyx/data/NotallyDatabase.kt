@@ -16,10 +16,21 @@ import com.philkes.notallyx.data.dao.BaseNoteDao
 import com.philkes.notallyx.data.dao.CommonDao
 import com.philkes.notallyx.data.dao.LabelDao
 import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.BaseNoteFts
 import com.philkes.notallyx.data.model.Color
 import com.philkes.notallyx.data.model.Converters
+import com.philkes.notallyx.data.model.ImportCheckpoint
 import com.philkes.notallyx.data.model.Label
+import com.philkes.notallyx.data.model.NoteAttachment
+import com.philkes.notallyx.data.model.NoteCard
+import com.philkes.notallyx.data.model.NoteChange
+import com.philkes.notallyx.data.model.NoteDrawing
+import com.philkes.notallyx.data.model.NoteItem
+import com.philkes.notallyx.data.model.NoteItemPreview
+import com.philkes.notallyx.data.model.NoteLabel
 import com.philkes.notallyx.data.model.toColorString
+import com.philkes.notallyx.data.model.toNoteAttachments
+import com.philkes.notallyx.data.model.toNoteItems
 import com.philkes.notallyx.presentation.view.misc.NotNullLiveData
 import com.philkes.notallyx.presentation.viewmodel.preference.BiometricLock
 import com.philkes.notallyx.presentation.viewmodel.preference.NotallyXPreferences
@@ -32,7 +43,22 @@ import net.sqlcipher.database.SQLiteDatabase
 import net.sqlcipher.database.SupportFactory
 
 @TypeConverters(Converters::class)
-@Database(entities = [BaseNote::class, Label::class], version = 9)
+@Database(
+    entities =
+        [
+            BaseNote::class,
+            BaseNoteFts::class,
+            Label::class,
+            NoteLabel::class,
+            NoteItem::class,
+            NoteDrawing::class,
+            NoteChange::class,
+            ImportCheckpoint::class,
+            NoteAttachment::class,
+        ],
+    views = [NoteItemPreview::class],
+    version = 18,
+)
 abstract class NotallyDatabase : RoomDatabase() {
 
     abstract fun getLabelDao(): LabelDao
@@ -41,6 +67,12 @@ abstract class NotallyDatabase : RoomDatabase() {
 
     abstract fun getBaseNoteDao(): BaseNoteDao
 
+    /** Dispatches the changes of [BaseNote]s of this database, see [NoteChangeDispatcher]. */
+    val noteChanges by lazy { NoteChangeDispatcher(this) }
+
+    /** Recently opened notes of this database, kept up to date by [noteChanges]. */
+    val noteCache by lazy { NoteCache().also { cache -> noteChanges.addListener(cache) } }
+
     fun checkpoint() {
         getBaseNoteDao().query(SimpleSQLiteQuery("pragma wal_checkpoint(FULL)"))
     }
@@ -123,16 +155,8 @@ abstract class NotallyDatabase : RoomDatabase() {
                         NotallyDatabase::class.java,
                         getCurrentDatabaseName(context),
                     )
-                    .addMigrations(
-                        Migration2,
-                        Migration3,
-                        Migration4,
-                        Migration5,
-                        Migration6,
-                        Migration7,
-                        Migration8,
-                        Migration9,
-                    )
+                    .addMigrations(*MIGRATIONS)
+                    .addCallback(TriggersCallback)
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                 SQLiteDatabase.loadLibs(context)
                 if (preferences.biometricLock.value == BiometricLock.ENABLED) {
@@ -201,6 +225,103 @@ abstract class NotallyDatabase : RoomDatabase() {
             instanceBuilder.openHelperFactory(factory)
         }
 
+        /** Every migration since version 1, in order. */
+        val MIGRATIONS: Array<Migration> =
+            arrayOf(
+                Migration2,
+                Migration3,
+                Migration4,
+                Migration5,
+                Migration6,
+                Migration7,
+                Migration8,
+                Migration9,
+                Migration10,
+                Migration11,
+                Migration12,
+                Migration13,
+                Migration14,
+                Migration15,
+                Migration16,
+                Migration17,
+                Migration18,
+            )
+
+        /** Creates the triggers which are not generated by Room, on a freshly created database. */
+        object TriggersCallback : RoomDatabase.Callback() {
+
+            override fun onCreate(db: SupportSQLiteDatabase) {
+                db.createFtsTriggers()
+                db.createNoteLabelTriggers()
+                db.createNoteItemTriggers()
+                db.createNoteDrawingTriggers()
+                db.createNoteChangeTriggers()
+                db.createNoteAttachmentTriggers()
+            }
+        }
+
+        /**
+         * Keeps [BaseNoteFts] in sync with [BaseNote]. `INSERT OR REPLACE` is used since saving a
+         * [BaseNote] replaces the existing row, which does not fire the delete trigger. The items
+         * are indexed as the plain text of the [NoteItem]s, which [BaseNoteDao.updateFtsItems]
+         * refreshes whenever they are rewritten.
+         */
+        private fun SupportSQLiteDatabase.createFtsTriggers() {
+            val items =
+                "ifnull((SELECT group_concat(`body`, ' ') FROM `NoteItem` WHERE `noteId` = NEW.`id`), '')"
+            val insertFts =
+                "INSERT OR REPLACE INTO `BaseNoteFts`(`docid`, `title`, `body`, `items`, `labels`) VALUES (NEW.`id`, NEW.`title`, NEW.`body`, $items, NEW.`labels`)"
+            execSQL(
+                "CREATE TRIGGER IF NOT EXISTS `BaseNoteFts_AFTER_INSERT` AFTER INSERT ON `BaseNote` BEGIN $insertFts; END"
+            )
+            execSQL(
+                "CREATE TRIGGER IF NOT EXISTS `BaseNoteFts_AFTER_UPDATE` AFTER UPDATE OF `title`, `body`, `labels` ON `BaseNote` BEGIN $insertFts; END"
+            )
+            execSQL(
+                "CREATE TRIGGER IF NOT EXISTS `BaseNoteFts_AFTER_DELETE` AFTER DELETE ON `BaseNote` BEGIN DELETE FROM `BaseNoteFts` WHERE `docid` = OLD.`id`; END"
+            )
+        }
+
+        private fun SupportSQLiteDatabase.createNoteLabelTriggers() {
+            execSQL(
+                "CREATE TRIGGER IF NOT EXISTS `NoteLabel_AFTER_DELETE` AFTER DELETE ON `BaseNote` BEGIN DELETE FROM `NoteLabel` WHERE `noteId` = OLD.`id`; END"
+            )
+        }
+
+        private fun SupportSQLiteDatabase.createNoteItemTriggers() {
+            execSQL(
+                "CREATE TRIGGER IF NOT EXISTS `NoteItem_AFTER_DELETE` AFTER DELETE ON `BaseNote` BEGIN DELETE FROM `NoteItem` WHERE `noteId` = OLD.`id`; END"
+            )
+        }
+
+        private fun SupportSQLiteDatabase.createNoteAttachmentTriggers() {
+            execSQL(
+                "CREATE TRIGGER IF NOT EXISTS `NoteAttachment_AFTER_DELETE` AFTER DELETE ON `BaseNote` BEGIN DELETE FROM `NoteAttachment` WHERE `noteId` = OLD.`id`; END"
+            )
+        }
+
+        private fun SupportSQLiteDatabase.createNoteDrawingTriggers() {
+            execSQL(
+                "CREATE TRIGGER IF NOT EXISTS `NoteDrawing_AFTER_DELETE` AFTER DELETE ON `BaseNote` BEGIN DELETE FROM `NoteDrawing` WHERE `noteId` = OLD.`id`; END"
+            )
+        }
+
+        /**
+         * Journals the ids of changed [BaseNote]s into [NoteChange]. Saving a note replaces its
+         * row, which only fires the insert trigger.
+         */
+        private fun SupportSQLiteDatabase.createNoteChangeTriggers() {
+            execSQL(
+                "CREATE TRIGGER IF NOT EXISTS `NoteChange_AFTER_INSERT` AFTER INSERT ON `BaseNote` BEGIN INSERT INTO `NoteChange`(`noteId`) VALUES (NEW.`id`); END"
+            )
+            execSQL(
+                "CREATE TRIGGER IF NOT EXISTS `NoteChange_AFTER_UPDATE` AFTER UPDATE ON `BaseNote` BEGIN INSERT INTO `NoteChange`(`noteId`) VALUES (NEW.`id`); END"
+            )
+            execSQL(
+                "CREATE TRIGGER IF NOT EXISTS `NoteChange_AFTER_DELETE` AFTER DELETE ON `BaseNote` BEGIN INSERT INTO `NoteChange`(`noteId`) VALUES (OLD.`id`); END"
+            )
+        }
+
         object Migration2 : Migration(1, 2) {
 
             override fun migrate(db: SupportSQLiteDatabase) {
@@ -276,5 +397,218 @@ abstract class NotallyDatabase : RoomDatabase() {
                 )
             }
         }
+
+        /**
+         * [NoteItem] does not exist yet, so the triggers index the JSON of the items, until
+         * [Migration12] replaces them.
+         */
+        object Migration10 : Migration(9, 10) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE VIRTUAL TABLE IF NOT EXISTS `BaseNoteFts` USING FTS4(`title` TEXT NOT NULL, `body` TEXT NOT NULL, `items` TEXT NOT NULL, `labels` TEXT NOT NULL, tokenize=unicode61)"
+                )
+                db.execSQL(
+                    "INSERT INTO `BaseNoteFts`(`docid`, `title`, `body`, `items`, `labels`) SELECT `id`, `title`, `body`, `items`, `labels` FROM `BaseNote`"
+                )
+                val insertFts =
+                    "INSERT OR REPLACE INTO `BaseNoteFts`(`docid`, `title`, `body`, `items`, `labels`) VALUES (NEW.`id`, NEW.`title`, NEW.`body`, NEW.`items`, NEW.`labels`)"
+                db.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS `BaseNoteFts_AFTER_INSERT` AFTER INSERT ON `BaseNote` BEGIN $insertFts; END"
+                )
+                db.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS `BaseNoteFts_AFTER_UPDATE` AFTER UPDATE OF `title`, `body`, `items`, `labels` ON `BaseNote` BEGIN $insertFts; END"
+                )
+                db.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS `BaseNoteFts_AFTER_DELETE` AFTER DELETE ON `BaseNote` BEGIN DELETE FROM `BaseNoteFts` WHERE `docid` = OLD.`id`; END"
+                )
+            }
+        }
+
+        object Migration11 : Migration(10, 11) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `NoteLabel` (`noteId` INTEGER NOT NULL, `label` TEXT NOT NULL, PRIMARY KEY(`noteId`, `label`))"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_NoteLabel_label` ON `NoteLabel` (`label`)"
+                )
+                val cursor = db.query("SELECT id, labels FROM BaseNote WHERE labels != '[]'")
+                while (cursor.moveToNext()) {
+                    val id = cursor.getLong(cursor.getColumnIndexOrThrow("id"))
+                    val labels =
+                        Converters.jsonToLabels(
+                            cursor.getString(cursor.getColumnIndexOrThrow("labels"))
+                        )
+                    labels.distinct().forEach { label ->
+                        db.execSQL(
+                            "INSERT OR IGNORE INTO NoteLabel (noteId, label) VALUES (?, ?)",
+                            arrayOf(id, label),
+                        )
+                    }
+                }
+                cursor.close()
+                db.createNoteLabelTriggers()
+            }
+        }
+
+        object Migration12 : Migration(11, 12) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `NoteItem` (`noteId` INTEGER NOT NULL, `position` INTEGER NOT NULL, `body` TEXT NOT NULL, `checked` INTEGER NOT NULL, `isChild` INTEGER NOT NULL, `order` INTEGER, PRIMARY KEY(`noteId`, `position`))"
+                )
+                val cursor = db.query("SELECT id, items FROM BaseNote WHERE items != '[]'")
+                while (cursor.moveToNext()) {
+                    val id = cursor.getLong(cursor.getColumnIndexOrThrow("id"))
+                    val items =
+                        Converters.jsonToItems(
+                            cursor.getString(cursor.getColumnIndexOrThrow("items"))
+                        )
+                    items.toNoteItems(id).forEach { item ->
+                        db.execSQL(
+                            "INSERT OR REPLACE INTO NoteItem (noteId, position, body, checked, isChild, `order`) VALUES (?, ?, ?, ?, ?, ?)",
+                            arrayOf(
+                                item.noteId,
+                                item.position,
+                                item.body,
+                                if (item.checked) 1 else 0,
+                                if (item.isChild) 1 else 0,
+                                item.order,
+                            ),
+                        )
+                    }
+                }
+                cursor.close()
+                db.createNoteItemTriggers()
+                // Indexes the plain text of the items instead of their JSON, whose keys matched
+                // every list
+                db.execSQL("DROP TRIGGER IF EXISTS `BaseNoteFts_AFTER_INSERT`")
+                db.execSQL("DROP TRIGGER IF EXISTS `BaseNoteFts_AFTER_UPDATE`")
+                db.createFtsTriggers()
+                db.execSQL(
+                    "UPDATE `BaseNoteFts` SET `items` = ifnull((SELECT group_concat(`body`, ' ') FROM `NoteItem` WHERE `noteId` = `BaseNoteFts`.`docid`), '')"
+                )
+            }
+        }
+
+        /**
+         * Moves `drawingStrokesJson` into [NoteDrawing]. `DROP COLUMN` is not available on older
+         * SQLite versions, so `BaseNote` is recreated without the column, which also drops its
+         * triggers. Its `AUTOINCREMENT` sequence is carried over to the new table.
+         */
+        object Migration13 : Migration(12, 13) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `NoteDrawing` (`noteId` INTEGER NOT NULL, `strokesJson` TEXT NOT NULL, PRIMARY KEY(`noteId`))"
+                )
+                db.execSQL(
+                    "INSERT INTO `NoteDrawing` (`noteId`, `strokesJson`) SELECT `id`, `drawingStrokesJson` FROM `BaseNote` WHERE `drawingStrokesJson` IS NOT NULL AND `drawingStrokesJson` != ''"
+                )
+                db.execSQL(
+                    "CREATE TABLE `BaseNote_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `type` TEXT NOT NULL, `folder` TEXT NOT NULL, `color` TEXT NOT NULL, `title` TEXT NOT NULL, `pinned` INTEGER NOT NULL, `timestamp` INTEGER NOT NULL, `modifiedTimestamp` INTEGER NOT NULL, `labels` TEXT NOT NULL, `body` TEXT NOT NULL, `spans` TEXT NOT NULL, `items` TEXT NOT NULL, `images` TEXT NOT NULL, `files` TEXT NOT NULL, `audios` TEXT NOT NULL, `reminders` TEXT NOT NULL)"
+                )
+                // Keeps ids of deleted notes from being reused, DROP TABLE removes the sequence
+                db.execSQL(
+                    "INSERT INTO `sqlite_sequence` (`name`, `seq`) SELECT 'BaseNote_new', `seq` FROM `sqlite_sequence` WHERE `name` = 'BaseNote'"
+                )
+                db.execSQL(
+                    "INSERT INTO `BaseNote_new` SELECT `id`, `type`, `folder`, `color`, `title`, `pinned`, `timestamp`, `modifiedTimestamp`, `labels`, `body`, `spans`, `items`, `images`, `files`, `audios`, `reminders` FROM `BaseNote`"
+                )
+                db.execSQL("DROP TABLE `BaseNote`")
+                db.execSQL("ALTER TABLE `BaseNote_new` RENAME TO `BaseNote`")
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_BaseNote_id_folder_pinned_timestamp_labels` ON `BaseNote` (`id`, `folder`, `pinned`, `timestamp`, `labels`)"
+                )
+                db.createFtsTriggers()
+                db.createNoteLabelTriggers()
+                db.createNoteItemTriggers()
+                db.createNoteDrawingTriggers()
+            }
+        }
+
+        object Migration14 : Migration(13, 14) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE VIEW `NoteItemPreview` AS SELECT * FROM NoteItem WHERE position < ${NoteCard.MAX_PREVIEW_ITEMS}"
+                )
+            }
+        }
+
+        /**
+         * Replaces the index leading with the primary key, which none of the queries could use,
+         * with the indices of [BaseNote].
+         */
+        object Migration15 : Migration(14, 15) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "DROP INDEX IF EXISTS `index_BaseNote_id_folder_pinned_timestamp_labels`"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_BaseNote_folder_pinned_timestamp` ON `BaseNote` (`folder`, `pinned`, `timestamp`)"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_BaseNote_folder_pinned_modifiedTimestamp` ON `BaseNote` (`folder`, `pinned`, `modifiedTimestamp`)"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_BaseNote_folder_pinned_title` ON `BaseNote` (`folder`, `pinned`, `title`)"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_BaseNote_reminders` ON `BaseNote` (`reminders`)"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_BaseNote_color` ON `BaseNote` (`color`)"
+                )
+            }
+        }
+
+        object Migration16 : Migration(15, 16) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `NoteChange` (`seq` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `noteId` INTEGER NOT NULL)"
+                )
+                db.createNoteChangeTriggers()
+            }
+        }
+
+        object Migration17 : Migration(16, 17) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `ImportCheckpoint` (`source` TEXT NOT NULL, `lastId` INTEGER NOT NULL, PRIMARY KEY(`source`))"
+                )
+            }
+        }
+
+        object Migration18 : Migration(17, 18) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `NoteAttachment` (`noteId` INTEGER NOT NULL, `localName` TEXT NOT NULL, PRIMARY KEY(`noteId`, `localName`))"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_NoteAttachment_localName` ON `NoteAttachment` (`localName`)"
+                )
+                val cursor =
+                    db.query(
+                        "SELECT id, images, files FROM BaseNote WHERE images != '[]' OR files != '[]'"
+                    )
+                while (cursor.moveToNext()) {
+                    val id = cursor.getLong(cursor.getColumnIndexOrThrow("id"))
+                    val images =
+                        Converters.jsonToFiles(
+                            cursor.getString(cursor.getColumnIndexOrThrow("images"))
+                        )
+                    val files =
+                        Converters.jsonToFiles(
+                            cursor.getString(cursor.getColumnIndexOrThrow("files"))
+                        )
+                    (images + files).toNoteAttachments(id).forEach { attachment ->
+                        db.execSQL(
+                            "INSERT OR IGNORE INTO NoteAttachment (noteId, localName) VALUES (?, ?)",
+                            arrayOf(attachment.noteId, attachment.localName),
+                        )
+                    }
+                }
+                cursor.close()
+                db.createNoteAttachmentTriggers()
+            }
+        }
     }
 }
@@ -0,0 +1,83 @@
+package com.philkes.notallyx.data
+
+import android.util.LruCache
+import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.deepCopy
+
+/**
+ * Keeps the most recently opened notes, bounded by their estimated size in bytes instead of holding
+ * every note of the database. Entries are replaced by the [NoteChanges] of their database, which
+ * are dispatched before every [get], so that e.g. pinning or coloring a note, which does not change
+ * its [BaseNote.modifiedTimestamp], is never missed. Entries are additionally checked against the
+ * stored [BaseNote.modifiedTimestamp], in case another database instance changed the note.
+ */
+class NoteCache(maxSizeBytes: Int = MAX_SIZE_BYTES) : NoteChangeListener {
+
+    private val cache =
+        object : LruCache<Long, BaseNote>(maxSizeBytes) {
+            override fun sizeOf(key: Long, value: BaseNote) = value.estimateSize()
+        }
+
+    /**
+     * Returns a copy of the cached note if it is up to date, otherwise loads it. Has to be called
+     * on a background thread, the cache has to be registered at the `noteChanges` of [database].
+     */
+    suspend fun get(id: Long, database: NotallyDatabase): BaseNote? {
+        database.noteChanges.dispatchPending()
+        val baseNoteDao = database.getBaseNoteDao()
+        val cached = cache.get(id)
+        if (cached != null && cached.modifiedTimestamp == baseNoteDao.getModifiedTimestamp(id)) {
+            return cached.deepCopy()
+        }
+        val baseNote = baseNoteDao.get(id)
+        if (baseNote == null) {
+            cache.remove(id)
+            return null
+        }
+        cache.put(id, baseNote)
+        return baseNote.deepCopy()
+    }
+
+    fun clear() {
+        cache.evictAll()
+    }
+
+    /** Changes only replace cached notes, so there is nothing to do while the cache is empty. */
+    override fun needsChanges() = cache.size() > 0
+
+    override fun onNotesChanged(changes: NoteChanges) {
+        changes.deletedIds.forEach { cache.remove(it) }
+        changes.notes.forEach { note ->
+            if (cache.get(note.id) != null) {
+                cache.put(note.id, note)
+            }
+        }
+    }
+
+    companion object {
+        const val MAX_SIZE_BYTES = 4 * 1024 * 1024
+
+        private const val OBJECT_OVERHEAD = 64
+
+        /** Roughly the bytes a note takes on the heap, characters are stored as UTF-16. */
+        internal fun BaseNote.estimateSize(): Int {
+            val characters =
+                title.length +
+                    body.length +
+                    labels.sumOf { it.length } +
+                    items.sumOf { it.body.length } +
+                    spans.sumOf { it.linkData?.length ?: 0 } +
+                    (images + files).sumOf { it.localName.length + it.originalName.length } +
+                    audios.sumOf { it.name.length }
+            val objects =
+                labels.size +
+                    items.size +
+                    spans.size +
+                    images.size +
+                    files.size +
+                    audios.size +
+                    reminders.size
+            return OBJECT_OVERHEAD * (objects + 1) + 2 * characters
+        }
+    }
+}
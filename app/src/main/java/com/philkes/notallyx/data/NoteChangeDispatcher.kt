@@ -0,0 +1,162 @@
+package com.philkes.notallyx.data
+
+import android.util.Log
+import androidx.room.InvalidationTracker
+import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.NoteChange
+import com.philkes.notallyx.data.model.NoteItem
+import java.util.concurrent.CopyOnWriteArraySet
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * The notes which were inserted or updated ([notes]) and the ids of the notes which were deleted
+ * ([deletedIds]) since the previous [NoteChanges].
+ */
+data class NoteChanges(val notes: List<BaseNote>, val deletedIds: Set<Long>) {
+
+    /** All affected ids, lists should drop these before adding [notes]. */
+    val ids: Set<Long> = deletedIds + notes.map { it.id }
+}
+
+fun interface NoteChangeListener {
+
+    /** Called on a background thread, never concurrently with another call or [initialLoad]. */
+    fun onNotesChanged(changes: NoteChanges)
+
+    /**
+     * Returns `false` if [onNotesChanged] would currently ignore all changes, e.g. because the
+     * listener does not hold any notes. The changed notes are only loaded if a listener needs them.
+     */
+    fun needsChanges(): Boolean = true
+}
+
+/**
+ * Turns writes to [BaseNote] into [NoteChanges]. Room only knows that the table changed, so every
+ * observing query would run again. Instead the ids of changed rows are journaled into [NoteChange]
+ * by triggers, only these notes are loaded and handed to the listeners, which patch their in-memory
+ * lists. Writes to only the [NoteItem]s of a note are journaled by
+ * [com.philkes.notallyx.data.dao.BaseNoteDao.insertNoteChange].
+ */
+class NoteChangeDispatcher(private val database: NotallyDatabase) {
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val mutex = Mutex()
+    private val registrations = CopyOnWriteArraySet<Registration>()
+
+    /** Returned by [addListener], pass it to [removeListener] to stop receiving [NoteChanges]. */
+    class Registration internal constructor(internal val listener: NoteChangeListener) {
+        @Volatile internal var isRemoved = false
+    }
+
+    private val observer =
+        object :
+            InvalidationTracker.Observer(
+                BaseNote::class.java.simpleName,
+                NoteItem::class.java.simpleName,
+            ) {
+            override fun onInvalidated(tables: Set<String>) {
+                dispatch()
+            }
+        }
+
+    init {
+        database.invalidationTracker.addObserver(observer)
+    }
+
+    /**
+     * Registers [listener] after running [initialLoad], both while no [NoteChanges] are dispatched.
+     * Changes which were written before [initialLoad] might still be dispatched afterwards, so
+     * listeners have to apply [NoteChanges] idempotently.
+     *
+     * Registering happens asynchronously, the returned [Registration] can already be removed before
+     * it completed, the listener is then never registered.
+     */
+    fun addListener(listener: NoteChangeListener, initialLoad: suspend () -> Unit): Registration {
+        val registration = Registration(listener)
+        scope.launch {
+            mutex.withLock {
+                if (registration.isRemoved) {
+                    return@withLock
+                }
+                if (registrations.isEmpty()) {
+                    // Nobody needs the journaled changes, the initial load reads the current state
+                    database.getBaseNoteDao().takeChangedNoteIds()
+                }
+                initialLoad()
+                registrations.add(registration)
+                // removeListener sets the flag before removing, so one of both drops it
+                if (registration.isRemoved) {
+                    registrations.remove(registration)
+                }
+            }
+        }
+        return registration
+    }
+
+    /**
+     * Registers [listener] right away, for listeners which do not hold any notes yet and therefore
+     * need no initial load, e.g. caches.
+     */
+    fun addListener(listener: NoteChangeListener): Registration {
+        return Registration(listener).also { registrations.add(it) }
+    }
+
+    fun removeListener(registration: Registration) {
+        registration.isRemoved = true
+        registrations.remove(registration)
+    }
+
+    /**
+     * Dispatches the changes which were written but not dispatched yet and returns once the
+     * listeners handled them. Room notifies [observer] asynchronously, callers which must not see
+     * outdated notes call this before reading their listener's state.
+     */
+    suspend fun dispatchPending() {
+        mutex.withLock { dispatchChanges() }
+    }
+
+    private fun dispatch() {
+        scope.launch { mutex.withLock { dispatchChanges() } }
+    }
+
+    private suspend fun dispatchChanges() {
+        try {
+            val listeners = registrations.filterNot { it.isRemoved }.map { it.listener }
+            if (listeners.none { it.needsChanges() }) {
+                // Only clear the journal, instead of loading notes nobody would look at
+                database.getBaseNoteDao().takeChangedNoteIds()
+                return
+            }
+            val changes = takeChanges() ?: return
+            listeners.forEach { it.onNotesChanged(changes) }
+        } catch (exception: Exception) {
+            Log.e(TAG, "Failed to dispatch note changes", exception)
+        }
+    }
+
+    private suspend fun takeChanges(): NoteChanges? {
+        val baseNoteDao = database.getBaseNoteDao()
+        val ids = baseNoteDao.takeChangedNoteIds()
+        if (ids.isEmpty()) {
+            return null
+        }
+        val notes =
+            ids.chunked(MAX_SQL_VARIABLES).flatMap { chunk ->
+                baseNoteDao.getByIds(chunk.toLongArray())
+            }
+        val deletedIds = ids - notes.mapTo(HashSet()) { it.id }
+        return NoteChanges(notes, deletedIds)
+    }
+
+    companion object {
+        private const val TAG = "NoteChangeDispatcher"
+
+        /** Lowest limit of bound variables of a statement on older SQLite versions. */
+        private const val MAX_SQL_VARIABLES = 999
+    }
+}
@@ -0,0 +1,48 @@
+package com.philkes.notallyx.data
+
+import androidx.lifecycle.LiveData
+import com.philkes.notallyx.data.model.BaseNote
+
+/**
+ * Keeps the result of [load] up to date by [patching][patch] it with [NoteChanges], instead of
+ * running the whole query again after every write to [BaseNote]. Like the LiveData returned by Room
+ * it only listens for changes while it is active and loads again whenever it becomes active.
+ */
+class NoteChangeLiveData<T : Any>(
+    private val dispatcher: NoteChangeDispatcher,
+    private val load: suspend () -> T,
+    private val patch: (T, NoteChanges) -> T,
+) : LiveData<T>(), NoteChangeListener {
+
+    @Volatile private var current: T? = null
+
+    private var registration: NoteChangeDispatcher.Registration? = null
+
+    override fun onActive() {
+        registration =
+            dispatcher.addListener(this) {
+                val loaded = load()
+                current = loaded
+                postValue(loaded)
+            }
+    }
+
+    override fun onInactive() {
+        registration?.let { dispatcher.removeListener(it) }
+        registration = null
+    }
+
+    override fun onNotesChanged(changes: NoteChanges) {
+        val patched = patch(current ?: return, changes)
+        current = patched
+        postValue(patched)
+    }
+}
+
+/**
+ * Removes all elements affected by [changes] and adds the changed notes again, unless [map] returns
+ * `null` for them, e.g. because they no longer belong to this list.
+ */
+fun <T> List<T>.patch(changes: NoteChanges, id: (T) -> Long, map: (BaseNote) -> T?): List<T> {
+    return filterNot { id(it) in changes.ids } + changes.notes.mapNotNull(map)
+}
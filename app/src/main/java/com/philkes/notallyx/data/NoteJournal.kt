@@ -0,0 +1,109 @@
+package com.philkes.notallyx.data
+
+import android.content.Context
+import android.util.Log
+import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.Converters
+import java.io.File
+import java.io.FileOutputStream
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+
+/**
+ * Append-only journal of the edits of a note which were not saved to the database yet. Every entry
+ * is a single line holding the editable fields of the note, appending one is cheap and each one is
+ * synced to disk, so that the edits survive if the app is killed before the next save. A line which
+ * was only partially written is ignored by [replay].
+ */
+class NoteJournal(private val file: File) {
+
+    /**
+     * The journaled state of a note. [drawingStrokesJson] is `null` if the drawing was not edited
+     * and empty if it was removed, since drawings are stored separately from the [BaseNote].
+     */
+    data class Entry(val note: BaseNote, val drawingStrokesJson: String?)
+
+    /**
+     * Only pass [drawingStrokesJson] if the drawing differs from the saved one, see [Entry]. Has to
+     * be called on a background thread.
+     */
+    fun append(editedAt: Long, note: BaseNote, drawingStrokesJson: String? = null) {
+        val entry =
+            JSONObject()
+                .put(EDITED_AT, editedAt)
+                .put(COLOR, note.color)
+                .put(TITLE, note.title)
+                .put(PINNED, note.pinned)
+                .put(LABELS, JSONArray(note.labels))
+                .put(BODY, note.body)
+                .put(SPANS, Converters.spansToJSONArray(note.spans))
+                .put(ITEMS, Converters.itemsToJSONArray(note.items))
+        if (drawingStrokesJson != null) {
+            entry.put(DRAWING, drawingStrokesJson)
+        }
+        file.parentFile?.mkdirs()
+        FileOutputStream(file, true).use { stream ->
+            stream.write("$entry\n".toByteArray())
+            stream.fd.sync()
+        }
+    }
+
+    /**
+     * Returns [note] with the latest journaled edits applied, or `null` if there are none which are
+     * newer than [BaseNote.modifiedTimestamp]. Has to be called on a background thread.
+     */
+    fun replay(note: BaseNote): Entry? {
+        if (!file.exists()) {
+            return null
+        }
+        val entry =
+            file.readLines().asReversed().firstNotNullOfOrNull { line ->
+                try {
+                    JSONObject(line)
+                } catch (exception: JSONException) {
+                    Log.w(TAG, "Skipping incomplete entry of $file", exception)
+                    null
+                }
+            } ?: return null
+        if (entry.getLong(EDITED_AT) < note.modifiedTimestamp) {
+            return null
+        }
+        val journaledNote =
+            note.copy(
+                color = entry.getString(COLOR),
+                title = entry.getString(TITLE),
+                pinned = entry.getBoolean(PINNED),
+                labels = Converters.jsonToLabels(entry.getJSONArray(LABELS).toString()),
+                body = entry.getString(BODY),
+                spans = Converters.jsonToSpans(entry.getJSONArray(SPANS).toString()),
+                items = Converters.jsonToItems(entry.getJSONArray(ITEMS).toString()),
+            )
+        val drawingStrokesJson = if (entry.has(DRAWING)) entry.getString(DRAWING) else null
+        return Entry(journaledNote, drawingStrokesJson)
+    }
+
+    /** Has to be called on a background thread. */
+    fun clear() {
+        file.delete()
+    }
+
+    companion object {
+        private const val TAG = "NoteJournal"
+        private const val DIRECTORY = "journal"
+
+        private const val EDITED_AT = "editedAt"
+        private const val COLOR = "color"
+        private const val TITLE = "title"
+        private const val PINNED = "pinned"
+        private const val LABELS = "labels"
+        private const val BODY = "body"
+        private const val SPANS = "spans"
+        private const val ITEMS = "items"
+        private const val DRAWING = "drawing"
+
+        fun of(context: Context, noteId: Long): NoteJournal {
+            return NoteJournal(File(File(context.filesDir, DIRECTORY), "$noteId.jsonl"))
+        }
+    }
+}
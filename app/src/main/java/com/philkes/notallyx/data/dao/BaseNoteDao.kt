@@ -1,25 +1,60 @@
 package com.philkes.notallyx.data.dao
 
 import androidx.lifecycle.LiveData
-import androidx.lifecycle.map
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.PagingSource
 import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
 import androidx.room.RawQuery
+import androidx.room.Transaction
 import androidx.room.Update
 import androidx.sqlite.db.SupportSQLiteQuery
 import com.philkes.notallyx.data.model.Audio
 import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.BaseNoteWithItems
 import com.philkes.notallyx.data.model.FileAttachment
 import com.philkes.notallyx.data.model.Folder
 import com.philkes.notallyx.data.model.LabelsInBaseNote
 import com.philkes.notallyx.data.model.ListItem
+import com.philkes.notallyx.data.model.NoteCard
+import com.philkes.notallyx.data.model.NoteAttachment
+import com.philkes.notallyx.data.model.NoteChange
+import com.philkes.notallyx.data.model.NoteDrawing
+import com.philkes.notallyx.data.model.NoteItem
+import com.philkes.notallyx.data.model.NoteLabel
 import com.philkes.notallyx.data.model.Reminder
+import com.philkes.notallyx.data.model.SpanRepresentation
 import com.philkes.notallyx.data.model.Type
+import com.philkes.notallyx.data.model.toNoteAttachments
+import com.philkes.notallyx.data.model.toNoteItems
+import com.philkes.notallyx.data.model.toNoteLabels
+import com.philkes.notallyx.presentation.viewmodel.preference.NotesSort
+import kotlinx.coroutines.flow.Flow
+
+/** Columns of a [NoteCard], the items are loaded through [NoteCard.previewItems]. */
+internal const val NOTE_CARD_COLUMNS =
+    "B.id, B.type, B.folder, B.color, B.title, B.pinned, B.timestamp, B.modifiedTimestamp, " +
+        "B.labels, substr(B.body, 1, ${NoteCard.MAX_PREVIEW_BODY_LENGTH}) AS body, B.spans, " +
+        "B.images, B.files, B.reminders, " +
+        "(SELECT COUNT(*) FROM NoteItem I WHERE I.noteId = B.id) AS itemCount"
+
+/** Unlike [ListItem.equals] this also compares [ListItem.order]. */
+private fun List<ListItem>.differsFrom(other: List<ListItem>): Boolean {
+    return size != other.size ||
+        zip(other).any { (item, otherItem) -> item != otherItem || item.order != otherItem.order }
+}
+
+/** The items are stored as [NoteItem]s, see [BaseNoteWithItems]. */
+private fun BaseNote.withoutItems() = copy(items = emptyList())
 
 data class NoteIdReminder(val id: Long, val reminders: List<Reminder>)
 
+data class NoteFileAttachments(val images: List<FileAttachment>, val files: List<FileAttachment>)
+
 data class NoteReminder(
     val id: Long,
     val title: String,
@@ -32,35 +67,242 @@ interface BaseNoteDao {
 
     @RawQuery fun query(query: SupportSQLiteQuery): Int
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE) suspend fun insert(baseNote: BaseNote): Long
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertImpl(baseNote: BaseNote): Long
+
+    @Insert suspend fun insertImpl(baseNotes: List<BaseNote>): List<Long>
+
+    @Transaction
+    suspend fun insert(baseNote: BaseNote): Long {
+        val id = insertImpl(baseNote.withoutItems())
+        deleteNoteLabels(id)
+        insertNoteLabels(baseNote.toNoteLabels(id))
+        deleteNoteItems(id)
+        insertNoteItems(baseNote.items.toNoteItems(id))
+        updateFtsItems(id)
+        deleteNoteAttachments(id)
+        insertNoteAttachments(baseNote.toNoteAttachments(id))
+        return id
+    }
+
+    @Transaction
+    suspend fun insert(baseNotes: List<BaseNote>) {
+        val insertedNotes = baseNotes.zip(insertImpl(baseNotes.map { it.withoutItems() }))
+        insertNoteLabels(insertedNotes.flatMap { (baseNote, id) -> baseNote.toNoteLabels(id) })
+        insertNoteItems(insertedNotes.flatMap { (baseNote, id) -> baseNote.items.toNoteItems(id) })
+        insertNoteAttachments(
+            insertedNotes.flatMap { (baseNote, id) -> baseNote.toNoteAttachments(id) }
+        )
+        insertedNotes
+            .filter { (baseNote, _) -> baseNote.items.isNotEmpty() }
+            .map { (_, id) -> id }
+            .chunked(MAX_SQL_VARIABLES)
+            .forEach { ids -> updateFtsItems(ids) }
+    }
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertNoteLabels(noteLabels: List<NoteLabel>)
+
+    @Query("DELETE FROM NoteLabel WHERE noteId = :id") suspend fun deleteNoteLabels(id: Long)
+
+    @Query("DELETE FROM NoteLabel WHERE noteId IN (:ids)")
+    suspend fun deleteNoteLabels(ids: LongArray)
+
+    @Query("DELETE FROM NoteLabel WHERE label = :label")
+    suspend fun deleteNoteLabels(label: String)
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertNoteItems(noteItems: List<NoteItem>)
+
+    @Update suspend fun updateNoteItems(noteItems: List<NoteItem>)
+
+    @Query("DELETE FROM NoteItem WHERE noteId = :id") suspend fun deleteNoteItems(id: Long)
+
+    @Query("DELETE FROM NoteItem WHERE noteId = :id AND position >= :size")
+    suspend fun truncateNoteItems(id: Long, size: Int)
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertNoteAttachments(noteAttachments: List<NoteAttachment>)
+
+    @Query("DELETE FROM NoteAttachment WHERE noteId = :id")
+    suspend fun deleteNoteAttachments(id: Long)
+
+    @Query("SELECT images, files FROM BaseNote WHERE id = :id")
+    suspend fun getFileAttachments(id: Long): NoteFileAttachments?
+
+    /** Rewrites the [NoteAttachment]s of the note from its current images and files. */
+    @Transaction
+    suspend fun updateNoteAttachments(id: Long) {
+        deleteNoteAttachments(id)
+        getFileAttachments(id)?.let { (images, files) ->
+            insertNoteAttachments((images + files).toNoteAttachments(id))
+        }
+    }
+
+    @Query("SELECT * FROM NoteItem WHERE noteId = :id ORDER BY position")
+    suspend fun getNoteItems(id: Long): List<NoteItem>
+
+    /**
+     * Indexes the bodies of the [NoteItem]s of the note, which have to be written after the
+     * [BaseNote] row and are thus not visible to the triggers of
+     * [com.philkes.notallyx.data.model.BaseNoteFts].
+     */
+    @Query(
+        "UPDATE BaseNoteFts SET items = ifnull((SELECT group_concat(body, ' ') FROM NoteItem " +
+            "WHERE noteId = BaseNoteFts.docid), '') WHERE docid = :id"
+    )
+    suspend fun updateFtsItems(id: Long)
+
+    /** see [updateFtsItems] */
+    @Query(
+        "UPDATE BaseNoteFts SET items = ifnull((SELECT group_concat(body, ' ') FROM NoteItem " +
+            "WHERE noteId = BaseNoteFts.docid), '') WHERE docid IN (:ids)"
+    )
+    suspend fun updateFtsItems(ids: List<Long>)
 
-    @Insert suspend fun insert(baseNotes: List<BaseNote>)
+    @Query("UPDATE NoteItem SET checked = :checked WHERE noteId = :id AND position IN (:positions)")
+    suspend fun updateNoteItemsChecked(id: Long, positions: List<Int>, checked: Boolean): Int
+
+    /** `OR REPLACE` drops the row of notes which already have [newLabel]. */
+    @Query("UPDATE OR REPLACE NoteLabel SET label = :newLabel WHERE label = :oldLabel")
+    suspend fun renameNoteLabels(oldLabel: String, newLabel: String)
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertDrawing(noteDrawing: NoteDrawing)
+
+    @Query("DELETE FROM NoteDrawing WHERE noteId = :id") suspend fun deleteDrawing(id: Long)
+
+    @Query("SELECT strokesJson FROM NoteDrawing WHERE noteId = :id")
+    suspend fun getDrawing(id: Long): String?
+
+    /** Stores the drawing of the note, `null` removes it. */
+    @Transaction
+    suspend fun updateDrawing(id: Long, strokesJson: String?) {
+        if (strokesJson == null) {
+            deleteDrawing(id)
+        } else {
+            insertDrawing(NoteDrawing(id, strokesJson))
+        }
+    }
 
     @Update(entity = BaseNote::class) suspend fun update(labelsInBaseNotes: List<LabelsInBaseNote>)
 
+    /**
+     * Saves [note], but only writes the columns in which it differs from [previous], the last saved
+     * state of the note. Replacing the row would rewrite every column as well as the [NoteLabel]s,
+     * [NoteItem]s and full text index entry of the note. If the note does not exist (anymore) it is
+     * inserted.
+     */
+    @Transaction
+    suspend fun update(previous: BaseNote, note: BaseNote): Long {
+        val id = note.id
+        if (previous.id != id || !exists(id)) {
+            return insert(note)
+        }
+        if (note.type != previous.type) updateType(id, note.type)
+        if (note.folder != previous.folder) move(longArrayOf(id), note.folder)
+        if (note.color != previous.color) updateColor(longArrayOf(id), note.color)
+        if (note.title != previous.title) updateTitle(id, note.title)
+        if (note.pinned != previous.pinned) updatePinned(longArrayOf(id), note.pinned)
+        if (note.timestamp != previous.timestamp) updateTimestamp(id, note.timestamp)
+        if (note.modifiedTimestamp != previous.modifiedTimestamp) {
+            updateModifiedTimestamp(id, note.modifiedTimestamp)
+        }
+        if (note.labels != previous.labels) updateLabels(id, note.labels)
+        if (note.body != previous.body || note.spans != previous.spans) {
+            updateBody(id, note.body, note.spans)
+        }
+        if (note.items.differsFrom(previous.items)) updateItems(id, previous.items, note.items)
+        if (note.images != previous.images) updateImages(id, note.images)
+        if (note.files != previous.files) updateFiles(id, note.files)
+        if (note.audios != previous.audios) updateAudios(id, note.audios)
+        if (note.reminders != previous.reminders) updateReminders(id, note.reminders)
+        return id
+    }
+
+    /**
+     * Saves [note] like [update] and replaces its drawing in the same transaction, so that the
+     * note and its drawing are always written together.
+     */
+    @Transaction
+    suspend fun update(previous: BaseNote, note: BaseNote, drawingStrokesJson: String?): Long {
+        val id = update(previous, note)
+        updateDrawing(id, drawingStrokesJson)
+        return id
+    }
+
     @Query("SELECT COUNT(*) FROM BaseNote") fun count(): Int
 
+    @Query("SELECT COUNT(*) FROM BaseNote WHERE folder = :folder")
+    fun countAsync(folder: Folder): LiveData<Int>
+
     @Query("DELETE FROM BaseNote WHERE id = :id") suspend fun delete(id: Long)
 
     @Query("DELETE FROM BaseNote WHERE id IN (:ids)") suspend fun delete(ids: LongArray)
 
     @Query("DELETE FROM BaseNote WHERE folder = :folder") suspend fun deleteFrom(folder: Folder)
 
-    @Query("SELECT * FROM BaseNote WHERE folder = :folder ORDER BY pinned DESC, timestamp DESC")
-    fun getFrom(folder: Folder): LiveData<List<BaseNote>>
+    /**
+     * Loads the [NoteCard]s of a listing page by page, the pages are invalidated on any change of
+     * the observed tables. Placeholders are disabled, so that adapter positions always refer to
+     * loaded notes.
+     */
+    fun getNoteCardsPaged(
+        query: NoteCardQuery,
+        sort: NotesSort,
+        pinned: Boolean? = null,
+    ): Flow<PagingData<NoteCard>> {
+        return Pager(PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = false)) {
+                getNoteCardsPagingSource(query.toSql(sort, pinned))
+            }
+            .flow
+    }
+
+    fun getNoteCardsAsync(
+        query: NoteCardQuery,
+        sort: NotesSort,
+        pinned: Boolean? = null,
+    ): LiveData<List<NoteCard>> {
+        return getNoteCardsAsync(query.toSql(sort, pinned))
+    }
+
+    suspend fun getNoteCards(query: NoteCardQuery, sort: NotesSort): List<NoteCard> {
+        return getNoteCards(query.toSql(sort))
+    }
+
+    @Transaction
+    @RawQuery(observedEntities = [BaseNote::class, NoteItem::class, NoteLabel::class])
+    fun getNoteCardsPagingSource(query: SupportSQLiteQuery): PagingSource<Int, NoteCard>
 
-    @Query("SELECT * FROM BaseNote WHERE folder = 'NOTES' ORDER BY pinned DESC, timestamp DESC")
-    suspend fun getAllNotes(): List<BaseNote>
+    @Transaction
+    @RawQuery(observedEntities = [BaseNote::class, NoteItem::class, NoteLabel::class])
+    fun getNoteCardsAsync(query: SupportSQLiteQuery): LiveData<List<NoteCard>>
 
-    @Query("SELECT * FROM BaseNote") fun getAllAsync(): LiveData<List<BaseNote>>
+    @Transaction @RawQuery suspend fun getNoteCards(query: SupportSQLiteQuery): List<NoteCard>
 
-    @Query("SELECT * FROM BaseNote") fun getAll(): List<BaseNote>
+    @Transaction @Query("SELECT * FROM BaseNote") fun getAllImpl(): List<BaseNoteWithItems>
 
-    @Query("SELECT * FROM BaseNote WHERE id IN (:ids)") fun getByIds(ids: LongArray): List<BaseNote>
+    fun getAll(): List<BaseNote> = getAllImpl().map { it.toBaseNote() }
+
+    @Transaction
+    @Query("SELECT * FROM BaseNote WHERE id IN (:ids)")
+    fun getByIdsImpl(ids: LongArray): List<BaseNoteWithItems>
+
+    fun getByIds(ids: LongArray): List<BaseNote> = getByIdsImpl(ids).map { it.toBaseNote() }
 
     @Query("SELECT B.id FROM BaseNote B") fun getAllIds(): List<Long>
 
-    @Query("SELECT * FROM BaseNote WHERE id = :id") fun get(id: Long): BaseNote?
+    @Transaction
+    @Query("SELECT * FROM BaseNote WHERE id = :id")
+    fun getImpl(id: Long): BaseNoteWithItems?
+
+    fun get(id: Long): BaseNote? = getImpl(id)?.toBaseNote()
+
+    @Query("SELECT EXISTS(SELECT 1 FROM BaseNote WHERE id = :id)")
+    suspend fun exists(id: Long): Boolean
+
+    @Query("SELECT modifiedTimestamp FROM BaseNote WHERE id = :id")
+    fun getModifiedTimestamp(id: Long): Long?
 
     @Query("SELECT images FROM BaseNote WHERE id = :id") fun getImages(id: Long): String
 
@@ -70,15 +312,25 @@ interface BaseNoteDao {
 
     @Query("SELECT audios FROM BaseNote") fun getAllAudios(): List<String>
 
-    @Query("SELECT id, reminders FROM BaseNote WHERE reminders IS NOT NULL AND reminders != '[]'")
+    /**
+     * Amount of notes whose images or files reference [localName], which are stored
+     * content-addressed by [com.philkes.notallyx.utils.AttachmentStore].
+     */
+    @Query("SELECT COUNT(*) FROM NoteAttachment WHERE localName = :localName")
+    fun countReferences(localName: String): Int
+
+    /**
+     * Every non-empty JSON array sorts after `[]`, so unlike `!= '[]'` the condition can be
+     * answered by the index on `reminders`.
+     */
+    @Query("SELECT id, reminders FROM BaseNote WHERE reminders > '[]'")
     suspend fun getAllReminders(): List<NoteIdReminder>
 
     @Query("SELECT color FROM BaseNote WHERE id = :id ") fun getColorOfNote(id: Long): String
 
-    @Query(
-        "SELECT id, title, type, reminders FROM BaseNote WHERE reminders IS NOT NULL AND reminders != '[]'"
-    )
-    fun getAllRemindersAsync(): LiveData<List<NoteReminder>>
+    /** see [getAllReminders] */
+    @Query("SELECT id, title, type, reminders FROM BaseNote WHERE reminders > '[]'")
+    suspend fun getNoteReminders(): List<NoteReminder>
 
     @Query("SELECT id FROM BaseNote WHERE folder = 'DELETED'")
     suspend fun getDeletedNoteIds(): LongArray
@@ -105,23 +357,100 @@ interface BaseNoteDao {
     @Query("UPDATE BaseNote SET color = :newColor WHERE color = :oldColor")
     suspend fun updateColor(oldColor: String, newColor: String)
 
+    @Query("UPDATE BaseNote SET type = :type WHERE id = :id")
+    suspend fun updateType(id: Long, type: Type)
+
+    @Query("UPDATE BaseNote SET title = :title WHERE id = :id")
+    suspend fun updateTitle(id: Long, title: String)
+
+    @Query("UPDATE BaseNote SET timestamp = :timestamp WHERE id = :id")
+    suspend fun updateTimestamp(id: Long, timestamp: Long)
+
+    @Query("UPDATE BaseNote SET modifiedTimestamp = :modifiedTimestamp WHERE id = :id")
+    suspend fun updateModifiedTimestamp(id: Long, modifiedTimestamp: Long)
+
+    @Query("UPDATE BaseNote SET body = :body, spans = :spans WHERE id = :id")
+    suspend fun updateBody(id: Long, body: String, spans: List<SpanRepresentation>)
+
     @Query("UPDATE BaseNote SET pinned = :pinned WHERE id IN (:ids)")
     suspend fun updatePinned(ids: LongArray, pinned: Boolean)
 
     @Query("UPDATE BaseNote SET labels = :labels WHERE id = :id")
-    suspend fun updateLabels(id: Long, labels: List<String>)
+    suspend fun updateLabelsImpl(id: Long, labels: List<String>)
 
     @Query("UPDATE BaseNote SET labels = :labels WHERE id IN (:ids)")
-    suspend fun updateLabels(ids: LongArray, labels: List<String>)
+    suspend fun updateLabelsImpl(ids: LongArray, labels: List<String>)
+
+    @Transaction
+    suspend fun updateLabels(id: Long, labels: List<String>) {
+        updateLabelsImpl(id, labels)
+        deleteNoteLabels(id)
+        insertNoteLabels(labels.distinct().map { NoteLabel(id, it) })
+    }
 
-    @Query("UPDATE BaseNote SET items = :items WHERE id = :id")
-    suspend fun updateItems(id: Long, items: List<ListItem>)
+    @Transaction
+    suspend fun updateLabels(ids: LongArray, labels: List<String>) {
+        updateLabelsImpl(ids, labels)
+        deleteNoteLabels(ids)
+        insertNoteLabels(ids.flatMap { id -> labels.distinct().map { NoteLabel(id, it) } })
+    }
+
+    /**
+     * Journals a change of the note which does not write its [BaseNote] row (e.g. only its
+     * [NoteItem]s), the triggers of [NoteChange] only see writes to [BaseNote].
+     */
+    @Query("INSERT INTO NoteChange (noteId) VALUES (:id)") suspend fun insertNoteChange(id: Long)
+
+    /** Replaces all [NoteItem]s of the note. */
+    @Transaction
+    suspend fun updateItems(id: Long, items: List<ListItem>) {
+        deleteNoteItems(id)
+        insertNoteItems(items.toNoteItems(id))
+        updateFtsItems(id)
+        insertNoteChange(id)
+    }
+
+    /**
+     * Only writes the [NoteItem]s at the positions in which [items] differs from [previous], the
+     * last saved items: changed rows are updated, added ones inserted and removed ones deleted.
+     * Moving or deleting an item shifts the items after it, whose rows are thus updated as well.
+     */
+    @Transaction
+    suspend fun updateItems(id: Long, previous: List<ListItem>, items: List<ListItem>) {
+        val noteItems = items.toNoteItems(id)
+        val previousNoteItems = previous.toNoteItems(id)
+        updateNoteItems(
+            noteItems.take(previous.size).filterIndexed { position, item ->
+                item != previousNoteItems[position]
+            }
+        )
+        insertNoteItems(noteItems.drop(previous.size))
+        if (items.size < previous.size) {
+            truncateNoteItems(id, items.size)
+        }
+        if (items.map { it.body } != previous.map { it.body }) {
+            updateFtsItems(id)
+        }
+        insertNoteChange(id)
+    }
 
     @Query("UPDATE BaseNote SET images = :images WHERE id = :id")
-    suspend fun updateImages(id: Long, images: List<FileAttachment>)
+    suspend fun updateImagesImpl(id: Long, images: List<FileAttachment>)
+
+    @Transaction
+    suspend fun updateImages(id: Long, images: List<FileAttachment>) {
+        updateImagesImpl(id, images)
+        updateNoteAttachments(id)
+    }
 
     @Query("UPDATE BaseNote SET files = :files WHERE id = :id")
-    suspend fun updateFiles(id: Long, files: List<FileAttachment>)
+    suspend fun updateFilesImpl(id: Long, files: List<FileAttachment>)
+
+    @Transaction
+    suspend fun updateFiles(id: Long, files: List<FileAttachment>) {
+        updateFilesImpl(id, files)
+        updateNoteAttachments(id)
+    }
 
     @Query("UPDATE BaseNote SET audios = :audios WHERE id = :id")
     suspend fun updateAudios(id: Long, audios: List<Audio>)
@@ -142,102 +471,48 @@ interface BaseNoteDao {
      * In this case, an exception will be thrown. It is the caller's responsibility to handle it.
      */
     suspend fun updateChecked(id: Long, position: Int, checked: Boolean) {
-        val items = requireNotNull(get(id)).items
-        items[position].checked = checked
-        updateItems(id, items)
-    }
-
-    /** see [updateChecked] */
-    suspend fun updateChecked(id: Long, positions: List<Int>, checked: Boolean) {
-        val items = requireNotNull(get(id)).items
-        positions.forEach { position -> items[position].checked = checked }
-        updateItems(id, items)
+        updateChecked(id, listOf(position), checked)
     }
 
     /**
-     * Since we store the labels as a JSON Array, it is not possible to perform operations on it.
-     * Thus, we use the 'Like' query which can return false positives sometimes.
+     * Only updates the [NoteItem] rows of [positions], without loading or writing the rest of the
+     * note.
      *
-     * For example, a request for all base notes having the label 'Important' will also return base
-     * notes with the label 'Unimportant'. To prevent this, we use the extension function `map`
-     * directly on the LiveData to filter the results accordingly.
+     * see [updateChecked]
      */
-    fun getBaseNotesByLabel(label: String): LiveData<List<BaseNote>> {
-        val result = getBaseNotesByLabel(label, Folder.NOTES)
-        return result.map { list -> list.filter { baseNote -> baseNote.labels.contains(label) } }
+    @Transaction
+    suspend fun updateChecked(id: Long, positions: List<Int>, checked: Boolean) {
+        val distinctPositions = positions.distinct()
+        val updated = updateNoteItemsChecked(id, distinctPositions, checked)
+        require(updated == distinctPositions.size) {
+            "Note $id does not have items at all of the positions $distinctPositions"
+        }
+        insertNoteChange(id)
     }
 
-    @Query(
-        "SELECT * FROM BaseNote WHERE folder = :folder AND labels LIKE '%' || :label || '%' ORDER BY pinned DESC, timestamp DESC"
-    )
-    fun getBaseNotesByLabel(label: String, folder: Folder): LiveData<List<BaseNote>>
+    @Query("SELECT * FROM NoteChange ORDER BY seq") suspend fun getNoteChanges(): List<NoteChange>
 
-    @Query(
-        "SELECT * FROM BaseNote WHERE folder = :folder AND labels == '[]' ORDER BY pinned DESC, timestamp DESC"
-    )
-    fun getBaseNotesWithoutLabel(folder: Folder): LiveData<List<BaseNote>>
-
-    suspend fun getListOfBaseNotesByLabel(label: String): List<BaseNote> {
-        val result = getListOfBaseNotesByLabelImpl(label)
-        return result.filter { baseNote -> baseNote.labels.contains(label) }
-    }
-
-    @Query("SELECT * FROM BaseNote WHERE labels LIKE '%' || :label || '%'")
-    suspend fun getListOfBaseNotesByLabelImpl(label: String): List<BaseNote>
-
-    fun getBaseNotesByKeyword(
-        keyword: String,
-        folder: Folder,
-        label: String?,
-    ): LiveData<List<BaseNote>> {
-        val result =
-            when (label) {
-                null -> getBaseNotesByKeywordUnlabeledImpl(keyword, folder)
-                "" -> getBaseNotesByKeywordImpl(keyword, folder)
-                else -> getBaseNotesByKeywordImpl(keyword, folder, label)
-            }
-        return result.map { list -> list.filter { baseNote -> matchesKeyword(baseNote, keyword) } }
+    @Query("DELETE FROM NoteChange WHERE seq <= :seq") suspend fun deleteNoteChanges(seq: Long)
+
+    /** Returns the ids of the notes which changed since the last call, at most once each. */
+    @Transaction
+    suspend fun takeChangedNoteIds(): Set<Long> {
+        val changes = getNoteChanges()
+        if (changes.isEmpty()) {
+            return emptySet()
+        }
+        deleteNoteChanges(changes.last().seq)
+        return changes.mapTo(LinkedHashSet()) { it.noteId }
     }
 
     @Query(
-        "SELECT * FROM BaseNote WHERE folder = :folder AND labels LIKE '%' || :label || '%' AND (title LIKE '%' || :keyword || '%' OR body LIKE '%' || :keyword || '%' OR items LIKE '%' || :keyword || '%') ORDER BY pinned DESC, timestamp DESC"
+        "SELECT B.id, B.labels FROM BaseNote B JOIN NoteLabel L ON B.id = L.noteId WHERE L.label = :label"
     )
-    fun getBaseNotesByKeywordImpl(
-        keyword: String,
-        folder: Folder,
-        label: String,
-    ): LiveData<List<BaseNote>>
+    suspend fun getLabelsOfBaseNotesWithLabel(label: String): List<LabelsInBaseNote>
 
-    @Query(
-        "SELECT * FROM BaseNote WHERE folder = :folder AND (title LIKE '%' || :keyword || '%' OR body LIKE '%' || :keyword || '%' OR items LIKE '%' || :keyword || '%' OR labels LIKE '%' || :keyword || '%') ORDER BY pinned DESC, timestamp DESC"
-    )
-    fun getBaseNotesByKeywordImpl(keyword: String, folder: Folder): LiveData<List<BaseNote>>
+    companion object {
+        const val PAGE_SIZE = 50
 
-    @Query(
-        "SELECT * FROM BaseNote WHERE folder = :folder AND labels == '[]' AND (title LIKE '%' || :keyword || '%' OR body LIKE '%' || :keyword || '%' OR items LIKE '%' || :keyword || '%') ORDER BY pinned DESC, timestamp DESC"
-    )
-    fun getBaseNotesByKeywordUnlabeledImpl(
-        keyword: String,
-        folder: Folder,
-    ): LiveData<List<BaseNote>>
-
-    private fun matchesKeyword(baseNote: BaseNote, keyword: String): Boolean {
-        if (baseNote.title.contains(keyword, true)) {
-            return true
-        }
-        if (baseNote.body.contains(keyword, true)) {
-            return true
-        }
-        for (label in baseNote.labels) {
-            if (label.contains(keyword, true)) {
-                return true
-            }
-        }
-        for (item in baseNote.items) {
-            if (item.body.contains(keyword, true)) {
-                return true
-            }
-        }
-        return false
+        const val MAX_SQL_VARIABLES = 999
     }
 }
@@ -1,9 +1,13 @@
 package com.philkes.notallyx.data.dao
 
 import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
 import androidx.room.Transaction
 import com.philkes.notallyx.data.NotallyDatabase
 import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.ImportCheckpoint
 import com.philkes.notallyx.data.model.Label
 import com.philkes.notallyx.data.model.LabelsInBaseNote
 
@@ -12,26 +16,30 @@ abstract class CommonDao(private val database: NotallyDatabase) {
 
     @Transaction
     open suspend fun deleteLabel(value: String) {
+        val baseNoteDao = database.getBaseNoteDao()
         val labelsInBaseNotes =
-            database.getBaseNoteDao().getListOfBaseNotesByLabel(value).map { baseNote ->
-                val labels = ArrayList(baseNote.labels)
-                labels.remove(value)
-                LabelsInBaseNote(baseNote.id, labels)
+            baseNoteDao.getLabelsOfBaseNotesWithLabel(value).map { labelsInBaseNote ->
+                LabelsInBaseNote(labelsInBaseNote.id, labelsInBaseNote.labels - value)
             }
-        database.getBaseNoteDao().update(labelsInBaseNotes)
+        baseNoteDao.update(labelsInBaseNotes)
+        baseNoteDao.deleteNoteLabels(value)
         database.getLabelDao().delete(value)
     }
 
     @Transaction
     open suspend fun updateLabel(oldValue: String, newValue: String) {
+        val baseNoteDao = database.getBaseNoteDao()
         val labelsInBaseNotes =
-            database.getBaseNoteDao().getListOfBaseNotesByLabel(oldValue).map { baseNote ->
-                val labels = ArrayList(baseNote.labels)
+            baseNoteDao.getLabelsOfBaseNotesWithLabel(oldValue).map { labelsInBaseNote ->
+                val labels = ArrayList(labelsInBaseNote.labels)
                 labels.remove(oldValue)
-                labels.add(newValue)
-                LabelsInBaseNote(baseNote.id, labels)
+                if (!labels.contains(newValue)) {
+                    labels.add(newValue)
+                }
+                LabelsInBaseNote(labelsInBaseNote.id, labels)
             }
-        database.getBaseNoteDao().update(labelsInBaseNotes)
+        baseNoteDao.update(labelsInBaseNotes)
+        baseNoteDao.renameNoteLabels(oldValue, newValue)
         database.getLabelDao().update(oldValue, newValue)
     }
 
@@ -40,4 +48,20 @@ abstract class CommonDao(private val database: NotallyDatabase) {
         database.getBaseNoteDao().insert(baseNotes)
         database.getLabelDao().insert(labels)
     }
+
+    /** Inserts [baseNotes] together with the [checkpoint] they advance the import to. */
+    @Transaction
+    open suspend fun importBatch(baseNotes: List<BaseNote>, checkpoint: ImportCheckpoint) {
+        database.getBaseNoteDao().insert(baseNotes)
+        insert(checkpoint)
+    }
+
+    @Query("SELECT lastId FROM ImportCheckpoint WHERE source = :source")
+    abstract suspend fun getImportCheckpoint(source: String): Long?
+
+    @Query("DELETE FROM ImportCheckpoint WHERE source = :source")
+    abstract suspend fun deleteImportCheckpoint(source: String)
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    abstract suspend fun insert(checkpoint: ImportCheckpoint)
 }
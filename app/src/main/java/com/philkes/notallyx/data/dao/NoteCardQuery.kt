@@ -0,0 +1,98 @@
+package com.philkes.notallyx.data.dao
+
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteQuery
+import com.philkes.notallyx.data.model.Folder
+import com.philkes.notallyx.data.model.NoteCard
+import com.philkes.notallyx.data.model.Type
+import com.philkes.notallyx.data.model.toFtsQuery
+import com.philkes.notallyx.presentation.viewmodel.preference.NotesSort
+import com.philkes.notallyx.presentation.viewmodel.preference.NotesSortBy
+
+/**
+ * Describes which [NoteCard]s a listing shows. The paged and the non-paged queries of
+ * [BaseNoteDao] are both built from it, so they always return the same notes in the same order.
+ *
+ * [label] follows [com.philkes.notallyx.presentation.viewmodel.BaseNoteModel.currentLabel]: an
+ * empty string matches notes with any labels, `null` only matches notes without labels.
+ * [withReminders] only matches notes that have at least one reminder, whether they are still due
+ * is left to the caller.
+ */
+data class NoteCardQuery(
+    val folder: Folder,
+    val label: String? = "",
+    val type: Type? = null,
+    val keyword: String = "",
+    val withReminders: Boolean = false,
+) {
+
+    /**
+     * Sorting is done in SQL, since a paged listing only ever sees a window of the notes. Pinned
+     * notes always come first, [BaseNote.id][com.philkes.notallyx.data.model.BaseNote.id] breaks
+     * ties so that the order is stable between pages.
+     *
+     * @param pinned if not `null` only returns the notes which are (not) pinned.
+     */
+    fun toSql(sort: NotesSort, pinned: Boolean? = null): SupportSQLiteQuery {
+        val conditions = mutableListOf("B.folder = ?")
+        val args = mutableListOf<Any>(folder.name)
+        if (pinned != null) {
+            conditions.add("B.pinned = ?")
+            args.add(if (pinned) 1 else 0)
+        }
+        when (label) {
+            null -> conditions.add("B.labels == '[]'")
+            "" -> {}
+            else -> {
+                conditions.add("B.id IN (SELECT noteId FROM NoteLabel WHERE label = ?)")
+                args.add(label)
+            }
+        }
+        if (type != null) {
+            conditions.add("B.type = ?")
+            args.add(type.name)
+        }
+        if (withReminders) {
+            conditions.add("B.reminders != '[]'")
+        }
+        if (keyword.isNotEmpty()) {
+            addKeywordConditions(conditions, args)
+        }
+        val column =
+            when (sort.sortedBy) {
+                NotesSortBy.TITLE -> "B.title"
+                NotesSortBy.CREATION_DATE -> "B.timestamp"
+                NotesSortBy.MODIFIED_DATE -> "B.modifiedTimestamp"
+            }
+        val direction = sort.sortDirection.name
+        return SimpleSQLiteQuery(
+            "SELECT $NOTE_CARD_COLUMNS FROM BaseNote B WHERE ${conditions.joinToString(" AND ")} " +
+                "ORDER BY B.pinned DESC, $column $direction, B.id $direction",
+            args.toTypedArray(),
+        )
+    }
+
+    /**
+     * Matches the keyword via the [com.philkes.notallyx.data.model.BaseNoteFts] index if possible,
+     * which folds case and diacritics for every script. Keywords the tokenizer can not handle fall
+     * back to a substring search over the actual content.
+     */
+    private fun addKeywordConditions(conditions: MutableList<String>, args: MutableList<Any>) {
+        val ftsQuery = keyword.toFtsQuery()
+        if (ftsQuery != null) {
+            conditions.add("B.id IN (SELECT rowid FROM BaseNoteFts WHERE BaseNoteFts MATCH ?)")
+            args.add(ftsQuery)
+            return
+        }
+        conditions.add(
+            "(B.title LIKE ? ESCAPE '\\' OR B.body LIKE ? ESCAPE '\\' " +
+                "OR B.id IN (SELECT noteId FROM NoteLabel WHERE label LIKE ? ESCAPE '\\') " +
+                "OR B.id IN (SELECT noteId FROM NoteItem WHERE body LIKE ? ESCAPE '\\'))"
+        )
+        val pattern = "%${keyword.escapeLike()}%"
+        repeat(4) { args.add(pattern) }
+    }
+
+    private fun String.escapeLike() =
+        replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_")
+}
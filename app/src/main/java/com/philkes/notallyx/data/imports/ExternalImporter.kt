@@ -20,4 +20,27 @@ interface ExternalImporter {
         destination: File,
         progress: MutableLiveData<ImportProgress>? = null,
     ): Pair<List<BaseNote>, File?>
+
+    /**
+     * Imports the [BaseNote]s from [source] into the [ImportSink] created by [createSink] for the
+     * folder containing the attached files and the total amount of notes.
+     *
+     * By default all notes are parsed with [import] first, importers which read their notes one by
+     * one override this to add each note to the sink right away.
+     *
+     * @return Amount of imported notes.
+     */
+    suspend fun importInto(
+        app: Application,
+        source: Uri,
+        destination: File,
+        progress: MutableLiveData<ImportProgress>? = null,
+        createSink: (attachmentsFolder: File?, total: Int) -> ImportSink,
+    ): Int {
+        val (notes, attachmentsFolder) = import(app, source, destination, progress)
+        val sink = createSink(attachmentsFolder, notes.size)
+        sink.addAll(notes)
+        sink.flush()
+        return sink.count
+    }
 }
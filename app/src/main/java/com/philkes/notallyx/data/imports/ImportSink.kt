@@ -0,0 +1,104 @@
+package com.philkes.notallyx.data.imports
+
+import android.app.Application
+import android.util.Log
+import androidx.core.net.toUri
+import androidx.lifecycle.MutableLiveData
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.model.Audio
+import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.FileAttachment
+import com.philkes.notallyx.data.model.Label
+import com.philkes.notallyx.utils.backup.importAudio
+import com.philkes.notallyx.utils.backup.importFile
+import com.philkes.notallyx.utils.backup.importImage
+import java.io.File
+
+/**
+ * Writes imported [BaseNote]s to the [database] in batches of [batchSize]. Each batch is committed
+ * in a single transaction together with its labels, so that neither all notes of an import end up
+ * in one huge transaction nor every note in its own one. Room binds all notes of a batch to the
+ * same prepared insert statement.
+ *
+ * Before a batch is committed, the attachments its notes reference are copied from
+ * [attachmentsFolder], if it is set. Attachments referenced by several notes are only copied once.
+ */
+class ImportSink(
+    private val app: Application,
+    private val database: NotallyDatabase,
+    private val attachmentsFolder: File?,
+    private val progress: MutableLiveData<ImportProgress>? = null,
+    private val total: Int = 0,
+    private val batchSize: Int = DEFAULT_BATCH_SIZE,
+) {
+
+    private val batch = ArrayList<BaseNote>(batchSize)
+
+    private val importedFiles = HashMap<String, FileAttachment>()
+    private val importedImages = HashMap<String, FileAttachment>()
+    private val importedAudios = HashMap<String, Audio>()
+
+    /** Amount of notes committed so far. */
+    var count = 0
+        private set
+
+    suspend fun add(baseNote: BaseNote) {
+        batch.add(baseNote)
+        if (batch.size >= batchSize) {
+            flush()
+        }
+    }
+
+    suspend fun addAll(baseNotes: List<BaseNote>) {
+        baseNotes.forEach { add(it) }
+    }
+
+    /** Commits the pending notes, has to be called once all notes were added. */
+    suspend fun flush() {
+        if (batch.isEmpty()) {
+            return
+        }
+        val notes =
+            attachmentsFolder?.let { folder -> batch.map { it.importAttachments(folder) } }
+                ?: batch.toList()
+        val labels = notes.flatMap { it.labels }.distinct().map { Label(it) }
+        database.getCommonDao().importBackup(notes, labels)
+        count += notes.size
+        batch.clear()
+        progress?.postValue(ImportProgress(count, maxOf(count, total)))
+    }
+
+    private suspend fun BaseNote.importAttachments(folder: File): BaseNote {
+        return copy(
+            images =
+                images.map { importedImages.getOrPut(it.localName) { it.copyFrom(folder, true) } },
+            files =
+                files.map { importedFiles.getOrPut(it.localName) { it.copyFrom(folder, false) } },
+            audios = audios.map { importedAudios.getOrPut(it.name) { it.copyFrom(folder) } },
+        )
+    }
+
+    /** Returns the attachment unchanged if it could not be imported. */
+    private suspend fun FileAttachment.copyFrom(folder: File, isImage: Boolean): FileAttachment {
+        val uri = File(folder, localName).toUri()
+        val (fileAttachment, error) =
+            if (isImage) app.importImage(uri, mimeType) else app.importFile(uri, mimeType)
+        error?.let { Log.e(TAG, "Failed to import: $error") }
+        return fileAttachment ?: this
+    }
+
+    private suspend fun Audio.copyFrom(folder: File): Audio {
+        return try {
+            val audio = app.importAudio(File(folder, name), false)
+            Audio(audio.name, audio.duration?.takeIf { it != 0L }, audio.timestamp)
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to import audio '$name'", e)
+            this
+        }
+    }
+
+    companion object {
+        private const val TAG = "ImportSink"
+        const val DEFAULT_BATCH_SIZE = 200
+    }
+}
@@ -3,25 +3,20 @@ package com.philkes.notallyx.data.imports
 import android.app.Application
 import android.net.Uri
 import android.util.Log
-import androidx.core.net.toUri
 import androidx.lifecycle.MutableLiveData
 import com.philkes.notallyx.R
 import com.philkes.notallyx.data.NotallyDatabase
 import com.philkes.notallyx.data.imports.evernote.EvernoteImporter
 import com.philkes.notallyx.data.imports.google.GoogleKeepImporter
 import com.philkes.notallyx.data.imports.txt.PlainTextImporter
-import com.philkes.notallyx.data.model.Audio
-import com.philkes.notallyx.data.model.FileAttachment
-import com.philkes.notallyx.data.model.Label
-import com.philkes.notallyx.presentation.viewmodel.NotallyModel
 import com.philkes.notallyx.utils.MIME_TYPE_ZIP
-import com.philkes.notallyx.utils.backup.importAudio
-import com.philkes.notallyx.utils.backup.importFile
-import com.philkes.notallyx.utils.backup.importImage
 import java.io.File
-import java.util.concurrent.atomic.AtomicInteger
 
-class NotesImporter(private val app: Application, private val database: NotallyDatabase) {
+class NotesImporter(
+    private val app: Application,
+    private val database: NotallyDatabase,
+    private val batchSize: Int = ImportSink.DEFAULT_BATCH_SIZE,
+) {
 
     suspend fun import(
         uri: Uri,
@@ -33,92 +28,27 @@ class NotesImporter(private val app: Application, private val database: NotallyD
             tempDir.mkdirs()
         }
         try {
-            val (notes, importDataFolder) =
+            val count =
                 try {
                     when (importSource) {
                         ImportSource.GOOGLE_KEEP -> GoogleKeepImporter()
                         ImportSource.EVERNOTE -> EvernoteImporter()
                         ImportSource.PLAIN_TEXT -> PlainTextImporter()
-                    }.import(app, uri, tempDir, progress)
+                    }.importInto(app, uri, tempDir, progress) { importDataFolder, total ->
+                        ImportSink(app, database, importDataFolder, progress, total, batchSize)
+                    }
                 } catch (e: Exception) {
                     Log.e(TAG, "import: failed", e)
                     progress?.postValue(ImportProgress(inProgress = false))
                     throw e
                 }
-            database.getLabelDao().insert(notes.flatMap { it.labels }.distinct().map { Label(it) })
-            val files = notes.flatMap { it.files }.distinct()
-            val images = notes.flatMap { it.images }.distinct()
-            val audios = notes.flatMap { it.audios }.distinct()
-            val totalFiles = files.size + images.size + audios.size
-            val counter = AtomicInteger(1)
-            progress?.postValue(
-                ImportProgress(total = totalFiles, stage = ImportStage.IMPORT_FILES)
-            )
-            importDataFolder?.let {
-                importFiles(files, it, NotallyModel.FileType.ANY, progress, totalFiles, counter)
-                importFiles(images, it, NotallyModel.FileType.IMAGE, progress, totalFiles, counter)
-                importAudios(audios, it, progress, totalFiles, counter)
-            }
-            database.getBaseNoteDao().insert(notes)
             progress?.postValue(ImportProgress(inProgress = false))
-            return notes.size
+            return count
         } finally {
             tempDir.deleteRecursively()
         }
     }
 
-    private suspend fun importFiles(
-        files: List<FileAttachment>,
-        sourceFolder: File,
-        fileType: NotallyModel.FileType,
-        progress: MutableLiveData<ImportProgress>?,
-        total: Int?,
-        counter: AtomicInteger?,
-    ) {
-        files.forEach { file ->
-            val uri = File(sourceFolder, file.localName).toUri()
-            val (fileAttachment, error) =
-                if (fileType == NotallyModel.FileType.IMAGE) app.importImage(uri, file.mimeType)
-                else app.importFile(uri, file.mimeType)
-            fileAttachment?.let {
-                file.localName = fileAttachment.localName
-                file.originalName = fileAttachment.originalName
-                file.mimeType = fileAttachment.mimeType
-            }
-            error?.let { Log.e(TAG, "Failed to import: $error") }
-            progress?.postValue(
-                ImportProgress(
-                    current = counter!!.getAndIncrement(),
-                    total = total!!,
-                    stage = ImportStage.IMPORT_FILES,
-                )
-            )
-        }
-    }
-
-    private suspend fun importAudios(
-        audios: List<Audio>,
-        sourceFolder: File,
-        progress: MutableLiveData<ImportProgress>?,
-        totalFiles: Int,
-        counter: AtomicInteger,
-    ) {
-        audios.forEach { originalAudio ->
-            val file = File(sourceFolder, originalAudio.name)
-            val audio = app.importAudio(file, false)
-            originalAudio.name = audio.name
-            originalAudio.duration = if (audio.duration == 0L) null else audio.duration
-            originalAudio.timestamp = audio.timestamp
-            progress?.postValue(
-                ImportProgress(
-                    current = counter.getAndIncrement(),
-                    total = totalFiles,
-                    stage = ImportStage.IMPORT_FILES,
-                )
-            )
-        }
-    }
-
     companion object {
         private const val TAG = "NotesImporter"
         const val IMPORT_CACHE_FOLDER = "imports"
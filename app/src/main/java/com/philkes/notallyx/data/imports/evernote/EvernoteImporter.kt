@@ -2,14 +2,13 @@ package com.philkes.notallyx.data.imports.evernote
 
 import android.app.Application
 import android.net.Uri
-import android.util.Base64
 import android.webkit.MimeTypeMap
 import androidx.lifecycle.MutableLiveData
 import com.philkes.notallyx.R
 import com.philkes.notallyx.data.imports.ExternalImporter
 import com.philkes.notallyx.data.imports.ImportException
 import com.philkes.notallyx.data.imports.ImportProgress
-import com.philkes.notallyx.data.imports.ImportStage
+import com.philkes.notallyx.data.imports.ImportSink
 import com.philkes.notallyx.data.imports.evernote.EvernoteImporter.Companion.parseTimestamp
 import com.philkes.notallyx.data.imports.parseBodyAndSpansFromHtml
 import com.philkes.notallyx.data.model.Audio
@@ -18,21 +17,19 @@ import com.philkes.notallyx.data.model.FileAttachment
 import com.philkes.notallyx.data.model.Folder
 import com.philkes.notallyx.data.model.ListItem
 import com.philkes.notallyx.data.model.Type
-import com.philkes.notallyx.utils.log
 import com.philkes.notallyx.utils.startsWithAnyOf
-import com.philkes.notallyx.utils.write
 import java.io.File
 import java.io.InputStream
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
 import java.util.TimeZone
-import org.simpleframework.xml.Serializer
-import org.simpleframework.xml.convert.AnnotationStrategy
-import org.simpleframework.xml.core.Persister
 
+/**
+ * Reads the notes with an [EvernoteReader] and adds each one to the [ImportSink] as soon as it was
+ * read, so that neither the whole export nor all of its notes are held in memory.
+ */
 class EvernoteImporter : ExternalImporter {
-    private val serializer: Serializer = Persister(AnnotationStrategy())
 
     override fun import(
         app: Application,
@@ -40,72 +37,60 @@ class EvernoteImporter : ExternalImporter {
         destination: File,
         progress: MutableLiveData<ImportProgress>?,
     ): Pair<List<BaseNote>, File> {
+        checkFormat(source)
         progress?.postValue(ImportProgress(indeterminate = true))
+        val notes =
+            readNotes(app, source) { inputStream ->
+                EvernoteReader(destination).read(inputStream).map { it.mapToBaseNote() }.toList()
+            }
+        return Pair(notes, destination)
+    }
+
+    override suspend fun importInto(
+        app: Application,
+        source: Uri,
+        destination: File,
+        progress: MutableLiveData<ImportProgress>?,
+        createSink: (attachmentsFolder: File?, total: Int) -> ImportSink,
+    ): Int {
+        checkFormat(source)
+        progress?.postValue(ImportProgress(indeterminate = true))
+        val total = readNotes(app, source) { EvernoteReader.countNotes(it) }
+        val sink = createSink(destination, total)
+        var current = 0
+        readNotes(app, source) { inputStream ->
+            EvernoteReader(destination).read(inputStream).forEach { note ->
+                sink.add(note.mapToBaseNote())
+                current++
+                progress?.postValue(ImportProgress(current, maxOf(current, total)))
+            }
+        }
+        sink.flush()
+        return sink.count
+    }
+
+    private fun checkFormat(source: Uri) {
         if (MimeTypeMap.getFileExtensionFromUrl(source.toString()) != "enex") {
             throw ImportException(
                 R.string.invalid_evernote,
                 IllegalArgumentException("Provided file is not in ENEX format"),
             )
         }
-        val evernoteExport: EvernoteExport =
-            parseExport(app.contentResolver.openInputStream(source)!!)!!
-
-        val total = evernoteExport.notes.size
-        progress?.postValue(ImportProgress(total = total))
-        var counter = 1
-        try {
-            val notes =
-                evernoteExport.notes.map {
-                    val note = it.mapToBaseNote()
-                    progress?.postValue(ImportProgress(current = counter++, total = total))
-                    note
-                }
-            val resources =
-                evernoteExport.notes.flatMap { it.resources }.distinctBy { it.attributes?.fileName }
-            saveResourcesToFiles(app, resources, destination, progress)
-            return Pair(notes, destination)
-        } catch (e: Exception) {
-            throw ImportException(R.string.invalid_evernote, e)
-        }
     }
 
-    fun parseExport(inputStream: InputStream): EvernoteExport? =
-        try {
-            serializer.read(EvernoteExport::class.java, inputStream)
+    private inline fun <T> readNotes(
+        app: Application,
+        source: Uri,
+        read: (inputStream: InputStream) -> T,
+    ): T {
+        return try {
+            app.contentResolver.openInputStream(source)!!.use { read(it) }
         } catch (e: Exception) {
             throw ImportException(R.string.invalid_evernote, e)
         }
-
-    private fun saveResourcesToFiles(
-        app: Application,
-        resources: Collection<EvernoteResource>,
-        dir: File,
-        progress: MutableLiveData<ImportProgress>? = null,
-    ) {
-        progress?.postValue(
-            ImportProgress(total = resources.size, stage = ImportStage.EXTRACT_FILES)
-        )
-        resources.forEachIndexed { idx, it ->
-            val file = File(dir, it.attributes!!.fileName)
-            try {
-                val data = Base64.decode(it.data!!.content.trimStart(), Base64.DEFAULT)
-                file.write(data)
-            } catch (e: Exception) {
-                app.log(TAG, throwable = e)
-            }
-            progress?.postValue(
-                ImportProgress(
-                    current = idx + 1,
-                    total = resources.size,
-                    stage = ImportStage.EXTRACT_FILES,
-                )
-            )
-        }
     }
 
     companion object {
-        private const val TAG = "EvernoteImporter"
-
         fun parseTimestamp(timestamp: String): Long {
             val format = SimpleDateFormat(EVERNOTE_DATE_FORMAT, Locale.getDefault())
             format.timeZone = TimeZone.getTimeZone("UTC")
@@ -0,0 +1,345 @@
+package com.philkes.notallyx.data.imports.evernote
+
+import android.util.Base64
+import java.io.File
+import java.io.InputStream
+import java.io.OutputStream
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserFactory
+
+/**
+ * Reads ENEX exports note by note with a [XmlPullParser], instead of building the whole
+ * [EvernoteExport] in memory. The base64 data of resources is decoded in chunks straight into files
+ * in [resourcesFolder] by a [ResourceDataInputStream] before the parser sees it, the files are then
+ * named by their `file-name`. The returned [EvernoteResource]s therefore do not hold any
+ * [EvernoteResource.data], resources without a `file-name` are skipped.
+ */
+class EvernoteReader(private val resourcesFolder: File) {
+
+    /** Notes are only read while the returned [Sequence] is iterated, [inputStream] stays open. */
+    fun read(inputStream: InputStream): Sequence<EvernoteNote> = sequence {
+        val parser = XmlPullParserFactory.newInstance().newPullParser()
+        parser.setInput(ResourceDataInputStream(inputStream, resourcesFolder), null)
+        while (parser.next() != XmlPullParser.END_DOCUMENT) {
+            if (parser.eventType == XmlPullParser.START_TAG && parser.name == "note") {
+                yield(parser.readNote())
+            }
+        }
+    }
+
+    private fun XmlPullParser.readNote(): EvernoteNote {
+        var title = ""
+        var created = ""
+        var updated = ""
+        var content = ""
+        val tags = ArrayList<EvernoteTag>()
+        val resources = ArrayList<EvernoteResource>()
+        val tasks = ArrayList<EvernoteTask>()
+        forEachChild { tag ->
+            when (tag) {
+                "title" -> title = nextText()
+                "created" -> created = nextText()
+                "updated" -> updated = nextText()
+                "tag" -> tags.add(EvernoteTag(nextText()))
+                "content" -> content = nextText().trim()
+                "resource" -> readResource()?.let { resources.add(it) }
+                "task" -> tasks.add(readTask())
+            }
+        }
+        return EvernoteNote(title, created, updated, tags, content, resources, tasks)
+    }
+
+    private fun XmlPullParser.readResource(): EvernoteResource? {
+        var data: File? = null
+        var mime = "*/*"
+        var width: Int? = null
+        var height: Int? = null
+        var fileName: String? = null
+        forEachChild { tag ->
+            when (tag) {
+                "data" -> data = readData()
+                "mime" -> mime = nextText()
+                "width" -> width = nextText().toIntOrNull()
+                "height" -> height = nextText().toIntOrNull()
+                "resource-attributes" ->
+                    forEachChild { attribute ->
+                        if (attribute == "file-name") {
+                            fileName = nextText()
+                        }
+                    }
+            }
+        }
+        // The file-name is only known after the data was read
+        val name = fileName
+        val file = data ?: return null
+        if (name.isNullOrEmpty() || !file.renameTo(File(resourcesFolder, name))) {
+            file.delete()
+            return null
+        }
+        return EvernoteResource(null, mime, width, height, EvernoteResourceAttributes(name))
+    }
+
+    /** The text was already decoded into a file, it was replaced by the name of that file. */
+    private fun XmlPullParser.readData(): File? {
+        val name = nextText().trim()
+        return if (name.isEmpty()) null else File(resourcesFolder, name)
+    }
+
+    private fun XmlPullParser.readTask(): EvernoteTask {
+        var title = ""
+        var taskStatus = TaskStatus.OPEN
+        var sortWeight = ""
+        forEachChild { tag ->
+            when (tag) {
+                "title" -> title = nextText()
+                "taskStatus" -> taskStatus = TaskStatus.fromString(nextText()) ?: TaskStatus.OPEN
+                "sortWeight" -> sortWeight = nextText()
+            }
+        }
+        return EvernoteTask(title, taskStatus, sortWeight)
+    }
+
+    /**
+     * Calls [onStartTag] for every direct child of the current element and returns at its end tag.
+     * Children which [onStartTag] does not read are skipped.
+     */
+    private inline fun XmlPullParser.forEachChild(onStartTag: (name: String) -> Unit) {
+        val parentDepth = depth
+        while (next() != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.END_TAG && depth == parentDepth) {
+                return
+            }
+            if (eventType == XmlPullParser.START_TAG && depth == parentDepth + 1) {
+                onStartTag(name)
+            }
+        }
+    }
+
+    companion object {
+        private val NOTE_START_TAG = "<note>".toByteArray()
+
+        /**
+         * Counts the `<note>` tags of an export without parsing it, which is much faster than
+         * [read], but also counts `<note>` in the content of notes. Only meant for progress.
+         */
+        fun countNotes(inputStream: InputStream): Int {
+            var count = 0
+            var matched = 0
+            val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+            var read = inputStream.read(buffer)
+            while (read != -1) {
+                for (index in 0 until read) {
+                    val byte = buffer[index]
+                    matched =
+                        when (byte) {
+                            NOTE_START_TAG[matched] -> matched + 1
+                            NOTE_START_TAG[0] -> 1
+                            else -> 0
+                        }
+                    if (matched == NOTE_START_TAG.size) {
+                        count++
+                        matched = 0
+                    }
+                }
+                read = inputStream.read(buffer)
+            }
+            return count
+        }
+    }
+}
+
+/**
+ * Passes an ENEX export through, but decodes the base64 text of every `<data>` element into a
+ * temporary file in [resourcesFolder] while reading it and replaces the text with the name of that
+ * file. A [XmlPullParser] holds the whole text of an element in memory, which for big resources
+ * would be their entire base64 encoding. Only the decoded chunk of [BASE64_CHUNK_SIZE] is held
+ * instead.
+ *
+ * Like [EvernoteReader.countNotes] the bytes are scanned without parsing, which works for the ASCII
+ * compatible encodings ENEX exports use. CDATA sections, e.g. the ENML of notes, are passed through
+ * unchanged.
+ */
+private class ResourceDataInputStream(
+    private val input: InputStream,
+    private val resourcesFolder: File,
+) : InputStream() {
+
+    private enum class State {
+        TEXT,
+        CDATA,
+        DATA_START_TAG,
+        DATA,
+    }
+
+    private var state = State.TEXT
+    private var dataTagMatched = 0
+    private var cdataStartMatched = 0
+    private var cdataEndMatched = 0
+    private var previous = -1
+
+    private val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+    private var bufferIndex = 0
+    private var bufferSize = 0
+
+    /** Name of the decoded file, which is returned instead of the text of the `<data>` element. */
+    private var replacement = ByteArray(0)
+    private var replacementIndex = 0
+    private var unread = -1
+
+    private var dataFile: File? = null
+    private var dataOutput: OutputStream? = null
+    private val chunk = ByteArray(BASE64_CHUNK_SIZE)
+    private var chunkSize = 0
+
+    override fun read(): Int {
+        while (true) {
+            if (replacementIndex < replacement.size) {
+                return replacement[replacementIndex++].toInt() and 0xFF
+            }
+            val byte = if (unread != -1) unread.also { unread = -1 } else nextByte()
+            if (byte == -1) {
+                closeData()
+                return -1
+            }
+            when (state) {
+                State.TEXT -> matchText(byte)
+                State.CDATA -> {
+                    cdataEndMatched =
+                        when {
+                            byte == ']'.code -> minOf(cdataEndMatched + 1, 2)
+                            byte == '>'.code && cdataEndMatched == 2 -> 3
+                            else -> 0
+                        }
+                    if (cdataEndMatched == 3) {
+                        cdataEndMatched = 0
+                        state = State.TEXT
+                    }
+                }
+                State.DATA_START_TAG ->
+                    if (byte == '>'.code) {
+                        // <data .../> has no text
+                        state = if (previous == '/'.code) State.TEXT else startData()
+                    }
+                State.DATA -> {
+                    // Base64 does not contain '<', it can only be the start of the end tag
+                    if (byte == '<'.code) {
+                        replacement = finishData().toByteArray()
+                        replacementIndex = 0
+                        unread = byte
+                        state = State.TEXT
+                    } else if (!byte.toChar().isWhitespace()) {
+                        writeData(byte)
+                    }
+                    continue
+                }
+            }
+            previous = byte
+            return byte
+        }
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) {
+            return 0
+        }
+        var count = 0
+        while (count < len) {
+            val byte = read()
+            if (byte == -1) {
+                return if (count == 0) -1 else count
+            }
+            b[off + count++] = byte.toByte()
+        }
+        return count
+    }
+
+    override fun close() {
+        closeData()
+        input.close()
+    }
+
+    private fun matchText(byte: Int) {
+        if (dataTagMatched == DATA_TAG.size) {
+            dataTagMatched = 0
+            when {
+                byte == '>'.code -> state = startData()
+                byte.toChar().isWhitespace() -> state = State.DATA_START_TAG
+            }
+            return
+        }
+        dataTagMatched = DATA_TAG.match(dataTagMatched, byte)
+        cdataStartMatched = CDATA_START.match(cdataStartMatched, byte)
+        if (cdataStartMatched == CDATA_START.size) {
+            cdataStartMatched = 0
+            dataTagMatched = 0
+            state = State.CDATA
+        }
+    }
+
+    private fun ByteArray.match(matched: Int, byte: Int): Int {
+        return when (byte.toByte()) {
+            this[matched] -> matched + 1
+            this[0] -> 1
+            else -> 0
+        }
+    }
+
+    private fun nextByte(): Int {
+        if (bufferIndex == bufferSize) {
+            bufferSize = input.read(buffer)
+            bufferIndex = 0
+            if (bufferSize <= 0) {
+                bufferSize = 0
+                return -1
+            }
+        }
+        return buffer[bufferIndex++].toInt() and 0xFF
+    }
+
+    private fun startData(): State {
+        val file = File.createTempFile("resource", null, resourcesFolder)
+        dataFile = file
+        dataOutput = file.outputStream().buffered()
+        chunkSize = 0
+        return State.DATA
+    }
+
+    private fun writeData(byte: Int) {
+        chunk[chunkSize++] = byte.toByte()
+        if (chunkSize == chunk.size) {
+            decodeChunk()
+        }
+    }
+
+    /** Decodes in chunks, so that only a fraction of the decoded data is in memory at once. */
+    private fun decodeChunk() {
+        if (chunkSize > 0) {
+            dataOutput!!.write(Base64.decode(chunk, 0, chunkSize, Base64.DEFAULT))
+            chunkSize = 0
+        }
+    }
+
+    /** Returns the name of the decoded file. */
+    private fun finishData(): String {
+        try {
+            decodeChunk()
+        } finally {
+            dataOutput!!.close()
+            dataOutput = null
+        }
+        return dataFile!!.name.also { dataFile = null }
+    }
+
+    private fun closeData() {
+        dataOutput?.close()
+        dataOutput = null
+    }
+
+    companion object {
+        /** Has to be a multiple of 4, the length of a base64 encoded block. */
+        private const val BASE64_CHUNK_SIZE = 64 * 1024
+
+        private val DATA_TAG = "<data".toByteArray()
+        private val CDATA_START = "<![CDATA[".toByteArray()
+    }
+}
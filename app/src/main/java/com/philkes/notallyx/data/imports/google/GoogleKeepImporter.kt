@@ -1,6 +1,7 @@
 package com.philkes.notallyx.data.imports.google
 
 import android.app.Application
+import android.content.ContextWrapper
 import android.net.Uri
 import androidx.lifecycle.MutableLiveData
 import com.philkes.notallyx.R
@@ -15,13 +16,14 @@ import com.philkes.notallyx.data.model.FileAttachment
 import com.philkes.notallyx.data.model.Folder
 import com.philkes.notallyx.data.model.ListItem
 import com.philkes.notallyx.data.model.Type
-import com.philkes.notallyx.utils.listFilesRecursive
+import com.philkes.notallyx.utils.AttachmentStore
+import com.philkes.notallyx.utils.getExternalFilesDirectory
 import com.philkes.notallyx.utils.log
 import java.io.File
-import java.io.FileOutputStream
 import java.io.IOException
-import java.io.InputStream
-import java.util.zip.ZipEntry
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import java.util.zip.ZipInputStream
 import kotlinx.serialization.ExperimentalSerializationApi
 import kotlinx.serialization.json.Json
@@ -35,59 +37,78 @@ class GoogleKeepImporter : ExternalImporter {
         allowTrailingComma = true
     }
 
+    /**
+     * Reads the Takeout zip in a single pass. Note JSONs are parsed on a pool of [PARSE_THREADS]
+     * while the zip is read further. Attachments are written once into the external media folder
+     * and afterwards only moved to the folder matching their type, see [TakeoutAttachments]. The
+     * returned notes therefore already reference the final attachments, no data folder is returned.
+     */
     override fun import(
         app: Application,
         source: Uri,
         destination: File,
         progress: MutableLiveData<ImportProgress>?,
-    ): Pair<List<BaseNote>, File> {
+    ): Pair<List<BaseNote>, File?> {
         progress?.postValue(ImportProgress(indeterminate = true, stage = ImportStage.EXTRACT_FILES))
-        val dataFolder =
+        val filesRoot = requireNotNull(app.getExternalFilesDirectory()) { "filesRoot is null" }
+        val executor = Executors.newFixedThreadPool(PARSE_THREADS)
+        val parsedNotes = ArrayList<Future<BaseNote?>>()
+        val store = AttachmentStore(filesRoot)
+        // Zip entry name -> attachment written to filesRoot, not yet moved to its final folder
+        val writtenAttachments = HashMap<String, AttachmentStore.Staged>()
+        try {
             try {
-                app.contentResolver.openInputStream(source)!!.use { unzip(destination, it) }
+                app.contentResolver.openInputStream(source)!!.use { inputStream ->
+                    val zipStream = ZipInputStream(inputStream)
+                    var entry = zipStream.nextEntry
+                    while (entry != null) {
+                        if (!entry.isDirectory) {
+                            val entryName = entry.name
+                            when (entryName.substringAfterLast('.').lowercase()) {
+                                "json" -> {
+                                    val json = zipStream.readBytes().decodeToString()
+                                    val parse = Callable { app.parse(entryName, json) }
+                                    parsedNotes.add(executor.submit(parse))
+                                }
+                                // Takeout also contains every note as HTML and the labels as text
+                                "html",
+                                "txt" -> {}
+                                else -> writtenAttachments[entryName] = store.stage(zipStream)
+                            }
+                        }
+                        entry = zipStream.nextEntry
+                    }
+                }
+                if (parsedNotes.isEmpty()) {
+                    throw IOException("Takeout does not contain any notes")
+                }
             } catch (e: Exception) {
+                writtenAttachments.values.forEach { it.file.delete() }
                 throw ImportException(R.string.invalid_google_keep, e)
             }
 
-        if (!dataFolder.exists()) {
-            throw ImportException(
-                R.string.invalid_google_keep,
-                RuntimeException("Extracting Takeout.zip failed"),
-            )
-        }
-
-        val noteFiles =
-            dataFolder
-                .listFilesRecursive { file ->
-                    file.isFile && file.extension.equals("json", ignoreCase = true)
-                }
-                .toList()
-        val total = noteFiles.size
-        progress?.postValue(ImportProgress(0, total, stage = ImportStage.IMPORT_NOTES))
-        var counter = 1
-        val baseNotes =
-            noteFiles
-                .mapNotNull { file ->
-                    val baseNote =
-                        try {
-                            val relativePath = file.parentFile!!.toRelativeString(dataFolder)
-                            file.readText().parseToBaseNote(relativePath)
-                        } catch (e: Exception) {
-                            app.log(
-                                TAG,
-                                msg =
-                                    "Could not parse BaseNote from JSON in file '${file.absolutePath}'",
-                                throwable = e,
-                            )
-                            null
-                        }
+            val total = parsedNotes.size
+            val baseNotes =
+                parsedNotes.mapIndexedNotNull { index, parsedNote ->
+                    val baseNote = parsedNote.get()
                     progress?.postValue(
-                        ImportProgress(counter++, total, stage = ImportStage.IMPORT_NOTES)
+                        ImportProgress(index + 1, total, stage = ImportStage.IMPORT_NOTES)
                     )
                     baseNote
                 }
-                .toList()
-        return Pair(baseNotes, dataFolder)
+            return Pair(TakeoutAttachments(app, writtenAttachments).resolve(baseNotes), null)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    private fun ContextWrapper.parse(entryName: String, json: String): BaseNote? {
+        return try {
+            json.parseToBaseNote(entryName.substringBeforeLast('/', "").ifEmpty { null })
+        } catch (e: Exception) {
+            log(TAG, msg = "Could not parse BaseNote from JSON in file '$entryName'", throwable = e)
+            null
+        }
     }
 
     fun String.parseToBaseNote(relativePath: String? = null): BaseNote {
@@ -165,52 +186,8 @@ class GoogleKeepImporter : ExternalImporter {
         )
     }
 
-    private fun newFile(destinationDir: File, zipEntry: ZipEntry): File {
-        val destFile = File(destinationDir, zipEntry.name)
-
-        val destDirPath = destinationDir.canonicalPath
-        val destFilePath = destFile.canonicalPath
-
-        if (!destFilePath.startsWith(destDirPath + File.separator)) {
-            throw IOException("Entry is outside of the target dir: " + zipEntry.name)
-        }
-
-        return destFile
-    }
-
-    private fun unzip(destinationPath: File, inputStream: InputStream): File {
-        val buffer = ByteArray(1024)
-        val zis = ZipInputStream(inputStream)
-        var zipEntry = zis.nextEntry
-        while (zipEntry != null) {
-            val newFile: File = newFile(destinationPath, zipEntry)
-            if (zipEntry.isDirectory) {
-                if (!newFile.isDirectory && !newFile.mkdirs()) {
-                    throw IOException("Failed to create directory $newFile")
-                }
-            } else {
-                val parent = newFile.parentFile
-                if (parent != null) {
-                    if (!parent.isDirectory && !parent.mkdirs()) {
-                        throw IOException("Failed to create directory $parent")
-                    }
-                }
-                FileOutputStream(newFile).use {
-                    var len: Int
-                    while ((zis.read(buffer).also { length -> len = length }) > 0) {
-                        it.write(buffer, 0, len)
-                    }
-                }
-            }
-            zipEntry = zis.nextEntry
-        }
-
-        zis.closeEntry()
-        zis.close()
-        return destinationPath
-    }
-
     companion object {
         private const val TAG = "GoogleKeepImporter"
+        private val PARSE_THREADS = Runtime.getRuntime().availableProcessors().coerceIn(2, 4)
     }
 }
@@ -0,0 +1,122 @@
+package com.philkes.notallyx.data.imports.google
+
+import android.content.ContextWrapper
+import android.graphics.BitmapFactory
+import android.media.MediaMetadataRetriever
+import com.philkes.notallyx.data.model.Audio
+import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.FileAttachment
+import com.philkes.notallyx.utils.AttachmentStore
+import com.philkes.notallyx.utils.getExternalAudioDirectory
+import com.philkes.notallyx.utils.getExternalFilesDirectory
+import com.philkes.notallyx.utils.getExternalImagesDirectory
+import com.philkes.notallyx.utils.log
+import com.philkes.notallyx.utils.mimeTypeToFileExtension
+import java.io.File
+import java.util.UUID
+
+/**
+ * Attachments of a Takeout zip which were written to the external media folder while reading it,
+ * by their entry name in the zip. [resolve] moves them to the folder matching how the notes
+ * reference them and names them like [com.philkes.notallyx.utils.backup.importFile] and
+ * [com.philkes.notallyx.utils.backup.importAudio] would. Moving stays on the same volume, so the
+ * data is not copied again. Images and files which are already stored are not stored twice, see
+ * [AttachmentStore].
+ */
+internal class TakeoutAttachments(
+    private val context: ContextWrapper,
+    private val writtenFiles: Map<String, AttachmentStore.Staged>,
+) {
+
+    private val imagesStore = AttachmentStore(requireNotNull(context.getExternalImagesDirectory()))
+    private val filesStore = AttachmentStore(requireNotNull(context.getExternalFilesDirectory()))
+    private val audioRoot = requireNotNull(context.getExternalAudioDirectory())
+
+    // Attachments can be referenced by several notes, each one is only moved once
+    private val resolvedFiles = HashMap<String, FileAttachment?>()
+    private val resolvedAudios = HashMap<String, Audio?>()
+
+    /**
+     * Returns [baseNotes] referencing the moved attachments, attachments which are missing or
+     * invalid are removed from them. Attachments no note references are deleted.
+     */
+    fun resolve(baseNotes: List<BaseNote>): List<BaseNote> {
+        val resolvedNotes =
+            baseNotes.map { baseNote ->
+                baseNote.copy(
+                    images =
+                        baseNote.images.mapNotNull {
+                            resolvedFiles.resolveOnce(it.localName) { resolveImage(it) }
+                        },
+                    files =
+                        baseNote.files.mapNotNull {
+                            resolvedFiles.resolveOnce(it.localName) { resolveFile(it) }
+                        },
+                    audios =
+                        baseNote.audios.mapNotNull {
+                            resolvedAudios.resolveOnce(it.name) { resolveAudio(it) }
+                        },
+                )
+            }
+        writtenFiles
+            .filterKeys { it !in resolvedFiles && it !in resolvedAudios }
+            .values
+            .forEach { it.file.delete() }
+        return resolvedNotes
+    }
+
+    private fun resolveImage(image: FileAttachment): FileAttachment? {
+        val staged = writtenFiles[image.localName] ?: return null
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeFile(staged.file.path, options)
+        val mimeType = options.outMimeType ?: image.mimeType
+        val extension = mimeType.mimeTypeToFileExtension()
+        if (extension == null) {
+            context.log(TAG, msg = "Unsupported image '${image.localName}' ($mimeType)")
+            staged.file.delete()
+            return null
+        }
+        val name = imagesStore.put(staged, ".$extension") ?: return null
+        return FileAttachment(name, image.originalName, mimeType)
+    }
+
+    private fun resolveFile(attachment: FileAttachment): FileAttachment? {
+        val staged = writtenFiles[attachment.localName] ?: return null
+        val extension = attachment.originalName.substringAfterLast(".")
+        val name = filesStore.put(staged, ".$extension") ?: return null
+        return FileAttachment(name, attachment.originalName, attachment.mimeType)
+    }
+
+    private fun resolveAudio(audio: Audio): Audio? {
+        val file = writtenFiles[audio.name]?.file ?: return null
+        val name = "${UUID.randomUUID()}.m4a"
+        val target = File(audioRoot, name)
+        file.moveTo(target)
+        val duration =
+            try {
+                val retriever = MediaMetadataRetriever()
+                retriever.setDataSource(target.path)
+                retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)?.toLong()
+            } catch (e: Exception) {
+                context.log(TAG, msg = "Could not read duration of '${audio.name}'", throwable = e)
+                null
+            }
+        return Audio(name, duration?.takeIf { it != 0L }, System.currentTimeMillis())
+    }
+
+    /** Unlike [getOrPut], also remembers attachments which could not be resolved. */
+    private inline fun <T> HashMap<String, T?>.resolveOnce(key: String, resolve: () -> T?): T? {
+        return if (containsKey(key)) get(key) else resolve().also { put(key, it) }
+    }
+
+    private fun File.moveTo(target: File) {
+        if (!renameTo(target)) {
+            copyTo(target, overwrite = true)
+            delete()
+        }
+    }
+
+    companion object {
+        private const val TAG = "TakeoutAttachments"
+    }
+}
@@ -3,11 +3,27 @@ package com.philkes.notallyx.data.model
 import androidx.room.Entity
 import androidx.room.Index
 import androidx.room.PrimaryKey
+import com.philkes.notallyx.presentation.viewmodel.preference.NotesSortBy
 
 /** Format: `#RRGGBB` or `#AARRGGBB` or [BaseNote.COLOR_DEFAULT] */
 typealias ColorString = String
 
-@Entity(indices = [Index(value = ["id", "folder", "pinned", "timestamp", "labels"])])
+/**
+ * The indices match the queries of [com.philkes.notallyx.data.dao.BaseNoteDao]: listings filter by
+ * folder (and pinned) and are sorted by one of the [NotesSortBy] columns, with the id being
+ * implicitly part of every index to break ties. `BaseNoteQueryPlanTest` verifies that they are
+ * used.
+ */
+@Entity(
+    indices =
+        [
+            Index(value = ["folder", "pinned", "timestamp"]),
+            Index(value = ["folder", "pinned", "modifiedTimestamp"]),
+            Index(value = ["folder", "pinned", "title"]),
+            Index(value = ["reminders"]),
+            Index(value = ["color"]),
+        ]
+)
 data class BaseNote(
     @PrimaryKey(autoGenerate = true) val id: Long,
     val type: Type,
@@ -25,8 +41,7 @@ data class BaseNote(
     val files: List<FileAttachment>,
     val audios: List<Audio>,
     val reminders: List<Reminder>,
-    val drawingStrokesJson: String? = null, // JSON string của drawing strokes
-) : Item {
+) {
 
     companion object {
         const val COLOR_DEFAULT = "DEFAULT"
@@ -43,6 +58,5 @@ fun BaseNote.deepCopy(): BaseNote {
         files = files.map { it.copy() }.toMutableList(),
         audios = audios.map { it.copy() }.toMutableList(),
         reminders = reminders.map { it.copy() }.toMutableList(),
-        drawingStrokesJson = drawingStrokesJson, // Copy drawing strokes JSON
     )
 }
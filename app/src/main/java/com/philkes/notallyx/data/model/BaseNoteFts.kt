@@ -0,0 +1,69 @@
+package com.philkes.notallyx.data.model
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+import androidx.room.PrimaryKey
+
+/**
+ * Full-text index over the searchable columns of [BaseNote].
+ *
+ * The table stores its own copy of the text (it is not an external content table), since
+ * [BaseNote]s are saved with `INSERT OR REPLACE`, which does not fire delete triggers and would
+ * otherwise leave stale tokens behind. It is kept in sync by the triggers in
+ * [com.philkes.notallyx.data.NotallyDatabase.createFtsTriggers], its `rowid` is the [BaseNote.id].
+ *
+ * [items] contains the bodies of the [NoteItem]s of the note, [labels] the JSON of its labels, in
+ * which the tokenizer drops the quotes and brackets, so a match is a match of the note content.
+ */
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity
+data class BaseNoteFts(
+    @PrimaryKey @ColumnInfo(name = "rowid") val id: Long,
+    val title: String,
+    val body: String,
+    val items: String,
+    val labels: String,
+)
+
+/**
+ * Converts a search keyword to a FTS `MATCH` expression, every word of the keyword has to be
+ * present as a prefix of a token. Unlike a `LIKE` substring search, words are only found at their
+ * start, e.g. "book" matches "bookmark" but not "notebook".
+ *
+ * The tokenizer splits text at whitespace and punctuation, so scripts which do not separate words
+ * (e.g. Chinese, Japanese or Thai) end up as one token per sentence, in which a keyword could only
+ * be found at the very start.
+ *
+ * @return `null` if the keyword does not contain any word that can be matched by the tokenizer
+ *   (e.g. only punctuation) or is written in a script without word separators, in that case a full
+ *   scan has to be used instead.
+ */
+fun String.toFtsQuery(): String? {
+    val terms = trim().split(WHITESPACE).filter { term -> term.any { it.isLetterOrDigit() } }
+    if (terms.isEmpty() || any { it.isInUnsegmentedScript() }) {
+        return null
+    }
+    // FTS4 only supports the prefix operator inside of the quotes, quotes in a term can not be
+    // escaped, but the tokenizer treats them as separators anyway
+    return terms.joinToString(" ") { term -> "\"${term.replace('"', ' ')}*\"" }
+}
+
+private fun Char.isInUnsegmentedScript(): Boolean {
+    return Character.UnicodeScript.of(code) in UNSEGMENTED_SCRIPTS
+}
+
+private val WHITESPACE = Regex("\\s+")
+
+private val UNSEGMENTED_SCRIPTS =
+    setOf(
+        Character.UnicodeScript.HAN,
+        Character.UnicodeScript.HIRAGANA,
+        Character.UnicodeScript.KATAKANA,
+        Character.UnicodeScript.THAI,
+        Character.UnicodeScript.LAO,
+        Character.UnicodeScript.KHMER,
+        Character.UnicodeScript.MYANMAR,
+        Character.UnicodeScript.TIBETAN,
+    )
@@ -1,16 +1,27 @@
 package com.philkes.notallyx.data.model
 
 import androidx.room.TypeConverter
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import java.io.IOException
+import java.io.StringReader
 import java.util.Date
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
 
+/**
+ * Values are stored as JSON written by `org.json`. They are read with a streaming [JsonReader]
+ * instead, which does not build a tree per value and handles absent optional fields without
+ * throwing (and catching) a [JSONException] for each of them. Like before, optional fields of an
+ * unexpected type are read as absent, while malformed JSON and missing required fields fail with a
+ * [JSONException].
+ */
 object Converters {
 
     @TypeConverter fun labelsToJson(labels: List<String>) = JSONArray(labels).toString()
 
-    @TypeConverter fun jsonToLabels(json: String) = JSONArray(json).iterable<String>().toList()
+    @TypeConverter fun jsonToLabels(json: String) = json.readArray { nextString() }
 
     @TypeConverter
     fun filesToJson(files: List<FileAttachment>): String {
@@ -24,14 +35,29 @@ object Converters {
         return JSONArray(objects).toString()
     }
 
+    /** Older versions only stored a `name`, which is used as fallback for both names. */
     @TypeConverter
     fun jsonToFiles(json: String): List<FileAttachment> {
-        val iterable = JSONArray(json).iterable<JSONObject>()
-        return iterable.map { jsonObject ->
-            val localName = getSafeLocalName(jsonObject)
-            val originalName = getSafeOriginalName(jsonObject)
-            val mimeType = jsonObject.getString("mimeType")
-            FileAttachment(localName, originalName, mimeType)
+        return json.readArray {
+            var localName: String? = null
+            var name: String? = null
+            var originalName: String? = null
+            var mimeType: String? = null
+            readObject { field ->
+                when (field) {
+                    "localName" -> localName = nextStringOrNull()
+                    "name" -> name = nextStringOrNull()
+                    "originalName" -> originalName = nextStringOrNull()
+                    "mimeType" -> mimeType = nextStringOrNull()
+                    else -> skipValue()
+                }
+            }
+            val safeLocalName = localName ?: name.required("localName")
+            FileAttachment(
+                safeLocalName,
+                originalName ?: safeLocalName.substringAfterLast("/"),
+                mimeType.required("mimeType"),
+            )
         }
     }
 
@@ -49,28 +75,44 @@ object Converters {
 
     @TypeConverter
     fun jsonToAudios(json: String): List<Audio> {
-        val iterable = JSONArray(json).iterable<JSONObject>()
-        return iterable.map { jsonObject ->
-            val name = jsonObject.getString("name")
-            val duration = jsonObject.getSafeLong("duration")
-            val timestamp = jsonObject.getLong("timestamp")
-            Audio(name, duration, timestamp)
+        return json.readArray {
+            var name: String? = null
+            var duration: Long? = null
+            var timestamp: Long? = null
+            readObject { field ->
+                when (field) {
+                    "name" -> name = nextStringOrNull()
+                    "duration" -> duration = nextLongOrNull()
+                    "timestamp" -> timestamp = nextLongOrNull()
+                    else -> skipValue()
+                }
+            }
+            Audio(name.required("name"), duration, timestamp.required("timestamp"))
         }
     }
 
     @TypeConverter
     fun jsonToSpans(json: String): List<SpanRepresentation> {
-        val iterable = JSONArray(json).iterable<JSONObject>()
-        return iterable.map { jsonObject ->
-            val bold = jsonObject.getSafeBoolean("bold")
-            val link = jsonObject.getSafeBoolean("link")
-            val linkData = jsonObject.getSafeString("linkData")
-            val italic = jsonObject.getSafeBoolean("italic")
-            val monospace = jsonObject.getSafeBoolean("monospace")
-            val strikethrough = jsonObject.getSafeBoolean("strikethrough")
-            val start = jsonObject.getInt("start")
-            val end = jsonObject.getInt("end")
-            SpanRepresentation(start, end, bold, link, linkData, italic, monospace, strikethrough)
+        return json.readArray {
+            var start: Int? = null
+            var end: Int? = null
+            val span = SpanRepresentation(0, 0)
+            readObject { field ->
+                when (field) {
+                    "start" -> start = nextIntOrNull()
+                    "end" -> end = nextIntOrNull()
+                    "bold" -> span.bold = nextBooleanOrFalse()
+                    "link" -> span.link = nextBooleanOrFalse()
+                    "linkData" -> span.linkData = nextStringOrNull()
+                    "italic" -> span.italic = nextBooleanOrFalse()
+                    "monospace" -> span.monospace = nextBooleanOrFalse()
+                    "strikethrough" -> span.strikethrough = nextBooleanOrFalse()
+                    else -> skipValue()
+                }
+            }
+            span.start = start.required("start")
+            span.end = end.required("end")
+            span
         }
     }
 
@@ -79,13 +121,27 @@ object Converters {
 
     @TypeConverter
     fun jsonToItems(json: String): List<ListItem> {
-        val iterable = JSONArray(json).iterable<JSONObject>()
-        return iterable.map { jsonObject ->
-            val body = jsonObject.getString("body")
-            val checked = jsonObject.getBoolean("checked")
-            val isChild = jsonObject.getSafeBoolean("isChild")
-            val order = jsonObject.getSafeInt("order")
-            ListItem(body, checked, isChild, order, mutableListOf())
+        return json.readArray {
+            var body: String? = null
+            var checked: Boolean? = null
+            var isChild = false
+            var order: Int? = null
+            readObject { field ->
+                when (field) {
+                    "body" -> body = nextStringOrNull()
+                    "checked" -> checked = nextBooleanOrNull()
+                    "isChild" -> isChild = nextBooleanOrFalse()
+                    "order" -> order = nextIntOrNull()
+                    else -> skipValue()
+                }
+            }
+            ListItem(
+                body.required("body"),
+                checked.required("checked"),
+                isChild,
+                order,
+                mutableListOf(),
+            )
         }
     }
 
@@ -134,12 +190,20 @@ object Converters {
 
     @TypeConverter
     fun jsonToReminders(json: String): List<Reminder> {
-        val iterable = JSONArray(json).iterable<JSONObject>()
-        return iterable.map { jsonObject ->
-            val id = jsonObject.getLong("id")
-            val dateTime = Date(jsonObject.getLong("dateTime"))
-            val repetition = jsonObject.getSafeString("repetition")?.let { jsonToRepetition(it) }
-            Reminder(id, dateTime, repetition)
+        return json.readArray {
+            var id: Long? = null
+            var dateTime: Long? = null
+            var repetition: Repetition? = null
+            readObject { field ->
+                when (field) {
+                    "id" -> id = nextLongOrNull()
+                    "dateTime" -> dateTime = nextLongOrNull()
+                    // Stored as a nested JSON string, see remindersToJson
+                    "repetition" -> repetition = nextStringOrNull()?.let { jsonToRepetition(it) }
+                    else -> skipValue()
+                }
+            }
+            Reminder(id.required("id"), Date(dateTime.required("dateTime")), repetition)
         }
     }
 
@@ -153,76 +217,127 @@ object Converters {
 
     @TypeConverter
     fun jsonToRepetition(json: String): Repetition {
-        val jsonObject = JSONObject(json)
-        val value = jsonObject.getInt("value")
-        val unit =
-            RepetitionTimeUnit.valueOf(
-                jsonObject.getString("unit")
-            ) // Convert string back to TimeUnit
-        return Repetition(value, unit)
-    }
-
-    private fun getSafeLocalName(jsonObject: JSONObject): String {
-        return try {
-            jsonObject.getString("localName")
-        } catch (e: JSONException) {
-            jsonObject.getString("name")
+        var value: Int? = null
+        var unit: String? = null
+        json.read {
+            readObject { field ->
+                when (field) {
+                    "value" -> value = nextIntOrNull()
+                    "unit" -> unit = nextStringOrNull()
+                    else -> skipValue()
+                }
+            }
+        }
+        // Convert string back to TimeUnit
+        val timeUnit = RepetitionTimeUnit.valueOf(unit.required("unit"))
+        return Repetition(value.required("value"), timeUnit)
+    }
+
+    /**
+     * [JsonReader] fails with an [IOException] or [IllegalStateException] on malformed JSON, these
+     * are rethrown as the [JSONException] `org.json` used to throw.
+     */
+    private inline fun <T> String.read(block: JsonReader.() -> T): T {
+        try {
+            return JsonReader(StringReader(this)).apply { isLenient = true }.use { it.block() }
+        } catch (e: IOException) {
+            throw e.toJSONException()
+        } catch (e: IllegalStateException) {
+            throw e.toJSONException()
         }
     }
 
-    private fun getSafeOriginalName(jsonObject: JSONObject): String {
-        return try {
-            jsonObject.getString("originalName")
-        } catch (e: JSONException) {
-            getSafeLocalName(jsonObject).substringAfterLast("/")
+    private fun Exception.toJSONException() =
+        JSONException(message ?: "Malformed JSON").also { it.initCause(this) }
+
+    private inline fun <T> String.readArray(readElement: JsonReader.() -> T): List<T> {
+        return read {
+            val list = ArrayList<T>()
+            beginArray()
+            while (hasNext()) {
+                list.add(readElement())
+            }
+            endArray()
+            list
         }
     }
 
-    private fun JSONObject.getSafeBoolean(name: String): Boolean {
-        return try {
-            getBoolean(name)
-        } catch (exception: JSONException) {
-            false
+    private inline fun JsonReader.readObject(readField: JsonReader.(name: String) -> Unit) {
+        beginObject()
+        while (hasNext()) {
+            readField(nextName())
         }
+        endObject()
     }
 
-    private fun JSONObject.getSafeString(name: String): String? {
-        return try {
-            getString(name)
-        } catch (exception: JSONException) {
-            null
+    /**
+     * Like the `getSafe*` getters used with [JSONObject] before, values which can not be read with
+     * [readValue] are skipped and read as absent.
+     */
+    private inline fun <T> JsonReader.nextOrNull(readValue: JsonReader.() -> T?): T? {
+        return when (peek()) {
+            JsonToken.NULL -> {
+                nextNull()
+                null
+            }
+            JsonToken.BEGIN_ARRAY,
+            JsonToken.BEGIN_OBJECT -> {
+                skipValue()
+                null
+            }
+            else ->
+                try {
+                    readValue()
+                } catch (e: NumberFormatException) {
+                    skipValue()
+                    null
+                }
         }
     }
 
-    private fun JSONObject.getSafeInt(name: String): Int? {
-        return try {
-            getInt(name)
-        } catch (exception: JSONException) {
-            null
+    /** Like [JSONObject.getString] this also accepts numbers and booleans. */
+    private fun JsonReader.nextStringOrNull(): String? {
+        return nextOrNull {
+            if (peek() == JsonToken.BOOLEAN) nextBoolean().toString() else nextString()
         }
     }
 
-    private fun JSONObject.getSafeLong(name: String): Long? {
-        return try {
-            getLong(name)
-        } catch (exception: JSONException) {
-            null
+    /** Like [JSONObject.getBoolean] this also accepts the strings `true` and `false`. */
+    private fun JsonReader.nextBooleanOrNull(): Boolean? {
+        return nextOrNull {
+            when (peek()) {
+                JsonToken.STRING -> nextString().lowercase().toBooleanStrictOrNull()
+                JsonToken.BOOLEAN -> nextBoolean()
+                else -> {
+                    skipValue()
+                    null
+                }
+            }
         }
     }
 
-    private fun <T> JSONArray.iterable() = Iterable {
-        object : Iterator<T> {
-            var index = 0
+    private fun JsonReader.nextBooleanOrFalse() = nextBooleanOrNull() ?: false
 
-            override fun next(): T {
-                val element = get(index)
-                index++
-                return element as T
-            }
+    private fun JsonReader.nextIntOrNull() = nextLongOrNull()?.toInt()
 
-            override fun hasNext(): Boolean {
-                return index < length()
+    /** Like [JSONObject.getLong] this also accepts decimals, which are truncated, and strings. */
+    private fun JsonReader.nextLongOrNull(): Long? {
+        return nextOrNull {
+            if (peek() == JsonToken.BOOLEAN) {
+                skipValue()
+                null
+            } else {
+                try {
+                    nextLong()
+                } catch (e: NumberFormatException) {
+                    // The value stays buffered if it is not a long
+                    nextDouble().toLong()
+                }
             }
         }
     }
+
+    private fun <T> T?.required(name: String): T {
+        return this ?: throw JSONException("No value for $name")
+    }
 }
@@ -0,0 +1,10 @@
+package com.philkes.notallyx.data.model
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Progress of a backup import which did not finish yet. [lastId] is the id, in the backup, of the
+ * last [BaseNote] which was committed, so that an interrupted import continues after it.
+ */
+@Entity data class ImportCheckpoint(@PrimaryKey val source: String, val lastId: Long)
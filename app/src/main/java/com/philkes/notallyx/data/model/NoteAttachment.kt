@@ -0,0 +1,22 @@
+package com.philkes.notallyx.data.model
+
+import androidx.room.Entity
+import androidx.room.Index
+
+/**
+ * Reference of a [BaseNote] to one of its images or files, by [FileAttachment.localName]. Since
+ * attachments are stored content-addressed (see [com.philkes.notallyx.utils.AttachmentStore]),
+ * several notes can reference the same file, which may only be deleted once none does anymore.
+ * Counting the rows of a name answers that by index instead of matching every note's JSON.
+ *
+ * Like [NoteLabel] there is no foreign key to [BaseNote], rows are deleted by a trigger when the
+ * note is deleted and are otherwise written by [com.philkes.notallyx.data.dao.BaseNoteDao] in the
+ * same transaction as the images or files of the note.
+ */
+@Entity(primaryKeys = ["noteId", "localName"], indices = [Index(value = ["localName"])])
+data class NoteAttachment(val noteId: Long, val localName: String)
+
+fun List<FileAttachment>.toNoteAttachments(noteId: Long) =
+    map { it.localName }.distinct().map { NoteAttachment(noteId, it) }
+
+fun BaseNote.toNoteAttachments(id: Long = this.id) = (images + files).toNoteAttachments(id)
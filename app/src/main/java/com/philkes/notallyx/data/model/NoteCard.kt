@@ -0,0 +1,91 @@
+package com.philkes.notallyx.data.model
+
+import androidx.room.DatabaseView
+import androidx.room.Ignore
+import androidx.room.Relation
+
+/**
+ * Lightweight projection of a [BaseNote] for the note lists, it only contains what is displayed in
+ * the overview. [body] is truncated to [MAX_PREVIEW_BODY_LENGTH] characters in SQL, which is why
+ * [previewSpans] has to be used to display it. Only the first [MAX_PREVIEW_ITEMS] list items are
+ * loaded, [itemCount] is the total amount of items.
+ *
+ * Actions that need the complete note (e.g. share or export) have to load it by its [id].
+ */
+data class NoteCard(
+    val id: Long,
+    val type: Type,
+    val folder: Folder,
+    val color: ColorString,
+    val title: String,
+    val pinned: Boolean,
+    val timestamp: Long,
+    val modifiedTimestamp: Long,
+    val labels: List<String>,
+    val body: String,
+    val spans: List<SpanRepresentation>,
+    val images: List<FileAttachment>,
+    val files: List<FileAttachment>,
+    val reminders: List<Reminder>,
+    val itemCount: Int,
+    @Relation(parentColumn = "id", entityColumn = "noteId")
+    val previewItems: List<NoteItemPreview>,
+) : Item {
+
+    /**
+     * [spans] clipped to the truncated [body], spans which start after its end are dropped, so that
+     * they can be applied to it.
+     */
+    @Ignore
+    val previewSpans: List<SpanRepresentation> =
+        spans.mapNotNull { span ->
+            val start = span.start.coerceAtLeast(0)
+            val end = span.end.coerceAtMost(body.length)
+            if (start < end) span.copy(start = start, end = end) else null
+        }
+
+    @Ignore
+    val items: List<ListItem> =
+        previewItems.sortedBy { it.position }.map { item ->
+            ListItem(item.body, item.checked, item.isChild, item.order, mutableListOf())
+        }
+
+    companion object {
+        /** Upper bound of the `maxItems` preference. */
+        const val MAX_PREVIEW_ITEMS = 10
+        const val MAX_PREVIEW_BODY_LENGTH = 1000
+    }
+}
+
+/** The first [NoteCard.MAX_PREVIEW_ITEMS] [NoteItem]s of every note. */
+@DatabaseView("SELECT * FROM NoteItem WHERE position < ${NoteCard.MAX_PREVIEW_ITEMS}")
+data class NoteItemPreview(
+    val noteId: Long,
+    val position: Int,
+    val body: String,
+    val checked: Boolean,
+    val isChild: Boolean,
+    val order: Int?,
+)
+
+fun BaseNote.toNoteCard() =
+    NoteCard(
+        id,
+        type,
+        folder,
+        color,
+        title,
+        pinned,
+        timestamp,
+        modifiedTimestamp,
+        labels,
+        body.take(NoteCard.MAX_PREVIEW_BODY_LENGTH),
+        spans,
+        images,
+        files,
+        reminders,
+        items.size,
+        items.take(NoteCard.MAX_PREVIEW_ITEMS).mapIndexed { position, item ->
+            NoteItemPreview(id, position, item.body, item.checked, item.isChild, item.order)
+        },
+    )
@@ -0,0 +1,11 @@
+package com.philkes.notallyx.data.model
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Journal of the ids of [BaseNote]s which were inserted, updated or deleted. Rows are written by
+ * triggers on [BaseNote] and consumed by [com.philkes.notallyx.data.NoteChangeDispatcher], so that
+ * in-memory lists only have to reload the notes which actually changed.
+ */
+@Entity data class NoteChange(@PrimaryKey(autoGenerate = true) val seq: Long, val noteId: Long)
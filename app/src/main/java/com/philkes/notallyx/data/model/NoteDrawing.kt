@@ -0,0 +1,14 @@
+package com.philkes.notallyx.data.model
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * The drawing of a [BaseNote], [strokesJson] is the Gson serialized list of
+ * [com.philkes.notallyx.draw.ui.newdraw.view.canvas.DrawingStroke]s.
+ *
+ * Strokes can easily be megabytes of points, so they are kept out of [BaseNote] and are only
+ * loaded when the note is opened for editing, not whenever notes are listed or searched. Like
+ * [NoteLabel] there is no foreign key to [BaseNote], rows are deleted by a trigger.
+ */
+@Entity data class NoteDrawing(@PrimaryKey val noteId: Long, val strokesJson: String)
@@ -0,0 +1,42 @@
+package com.philkes.notallyx.data.model
+
+import androidx.room.Embedded
+import androidx.room.Entity
+import androidx.room.Relation
+
+/**
+ * A single [ListItem] of a [BaseNote] stored as its own row, [position] is the index of the item
+ * in [BaseNote.items]. This allows changing a single item without loading and rewriting the whole
+ * note.
+ *
+ * The rows are the stored copy of [BaseNote.items], notes are loaded as [BaseNoteWithItems]. The
+ * `items` JSON column of [BaseNote] is not written anymore (new rows contain an empty array), it is
+ * only read when importing backups of versions before [NoteItem] existed. Like [NoteLabel] there is
+ * no foreign key to [BaseNote], rows are deleted by a trigger.
+ */
+@Entity(primaryKeys = ["noteId", "position"])
+data class NoteItem(
+    val noteId: Long,
+    val position: Int,
+    val body: String,
+    val checked: Boolean,
+    val isChild: Boolean,
+    val order: Int?,
+)
+
+/** A [BaseNote] with the [BaseNote.items] loaded from its [NoteItem]s. */
+data class BaseNoteWithItems(
+    @Embedded val baseNote: BaseNote,
+    @Relation(parentColumn = "id", entityColumn = "noteId") val noteItems: List<NoteItem>,
+) {
+
+    fun toBaseNote() = baseNote.copy(items = noteItems.sortedBy { it.position }.toListItems())
+}
+
+fun NoteItem.toListItem() = ListItem(body, checked, isChild, order, mutableListOf())
+
+fun List<NoteItem>.toListItems() = map { it.toListItem() }
+
+fun List<ListItem>.toNoteItems(noteId: Long) = mapIndexed { position, item ->
+    NoteItem(noteId, position, item.body, item.checked, item.isChild, item.order)
+}
@@ -0,0 +1,18 @@
+package com.philkes.notallyx.data.model
+
+import androidx.room.Entity
+import androidx.room.Index
+
+/**
+ * Normalized copy of [BaseNote.labels], which allows looking up the notes of a label by index
+ * instead of matching the JSON array with `LIKE`.
+ *
+ * There is deliberately no foreign key to [BaseNote]: saving a note replaces its row, which would
+ * cascade and drop all of its labels. Rows are deleted by a trigger when the note is deleted and
+ * are otherwise written by [com.philkes.notallyx.data.dao.BaseNoteDao] whenever the labels of a
+ * note change.
+ */
+@Entity(primaryKeys = ["noteId", "label"], indices = [Index(value = ["label"])])
+data class NoteLabel(val noteId: Long, val label: String)
+
+fun BaseNote.toNoteLabels(id: Long = this.id) = labels.distinct().map { NoteLabel(id, it) }
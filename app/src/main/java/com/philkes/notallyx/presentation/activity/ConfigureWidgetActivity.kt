@@ -3,7 +3,7 @@ package com.philkes.notallyx.presentation.activity
 import android.appwidget.AppWidgetManager
 import android.content.Intent
 import android.os.Bundle
-import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.presentation.activity.note.PickNoteActivity
 import com.philkes.notallyx.presentation.viewmodel.preference.NotallyXPreferences
 import com.philkes.notallyx.presentation.widget.WidgetProvider
@@ -28,7 +28,7 @@ class ConfigureWidgetActivity : PickNoteActivity() {
     override fun onClick(position: Int) {
         if (position != -1) {
             val preferences = NotallyXPreferences.getInstance(application)
-            val baseNote = adapter.getItem(position) as BaseNote
+            val baseNote = adapter.peek(position) as NoteCard
             preferences.updateWidget(id, baseNote.id, baseNote.type)
 
             val manager = AppWidgetManager.getInstance(this)
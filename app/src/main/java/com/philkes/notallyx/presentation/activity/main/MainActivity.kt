@@ -44,7 +44,7 @@ import com.google.android.material.snackbar.Snackbar
 import com.google.android.material.transition.platform.MaterialFade
 import com.philkes.notallyx.R
 import com.philkes.notallyx.data.NotallyDatabase
-import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.data.model.Folder
 import com.philkes.notallyx.data.model.Type
 import com.philkes.notallyx.data.model.toText
@@ -96,7 +96,7 @@ class MainActivity : LockedActivity<ActivityMainBinding>() {
             }
         }
 
-    var getCurrentFragmentNotes: (() -> Collection<BaseNote>?)? = null
+    var getCurrentFragmentNotes: (suspend () -> Collection<NoteCard>?)? = null
 
     override fun onSupportNavigateUp(): Boolean {
         return navController.navigateUp(configuration)
@@ -826,7 +826,7 @@ class MainActivity : LockedActivity<ActivityMainBinding>() {
         }
         
         binding.NotesSelectAllButton?.setOnClickListener {
-            getCurrentFragmentNotes?.invoke()?.let { baseModel.actionMode.add(it) }
+            selectAllNotes()
         }
         
         binding.NotesSearchButton?.setOnClickListener {
@@ -1102,14 +1102,22 @@ class MainActivity : LockedActivity<ActivityMainBinding>() {
             .show()
     }
 
+    /** The notes of the current fragment are paged, so they are loaded from the database. */
+    private fun selectAllNotes() {
+        val getNotes = getCurrentFragmentNotes ?: return
+        lifecycleScope.launch { getNotes()?.let { baseModel.actionMode.add(it) } }
+    }
+
     private fun share() {
-        val baseNote = baseModel.actionMode.getFirstNote()
-        val body =
-            when (baseNote.type) {
-                Type.NOTE -> baseNote.body.applySpans(baseNote.spans)
-                Type.LIST -> baseNote.items.toText()
-            }
-        this.shareNote(baseNote.title, body)
+        lifecycleScope.launch {
+            val baseNote = baseModel.getSelectedBaseNotes().firstOrNull() ?: return@launch
+            val body =
+                when (baseNote.type) {
+                    Type.NOTE -> baseNote.body.applySpans(baseNote.spans)
+                    Type.LIST -> baseNote.items.toText()
+                }
+            this@MainActivity.shareNote(baseNote.title, body)
+        }
     }
 
     private fun deleteForever() {
@@ -1133,7 +1141,7 @@ class MainActivity : LockedActivity<ActivityMainBinding>() {
         }
     }
 
-    private fun displaySelectLabelsDialog(labels: Array<String>, baseNotes: Collection<BaseNote>) {
+    private fun displaySelectLabelsDialog(labels: Array<String>, baseNotes: Collection<NoteCard>) {
         val checkedPositions =
             labels
                 .map { label ->
@@ -1189,12 +1197,14 @@ class MainActivity : LockedActivity<ActivityMainBinding>() {
     }
 
     private fun exportSelectedNotes(mimeType: ExportMimeType) {
-        exportNotes(
-            mimeType,
-            baseModel.actionMode.selectedNotes.values,
-            exportFileActivityResultLauncher,
-            exportNotesActivityResultLauncher,
-        )
+        lifecycleScope.launch {
+            exportNotes(
+                mimeType,
+                baseModel.getSelectedBaseNotes(),
+                exportFileActivityResultLauncher,
+                exportNotesActivityResultLauncher,
+            )
+        }
     }
 
     private fun setupNavigation() {
@@ -1480,7 +1490,7 @@ class MainActivity : LockedActivity<ActivityMainBinding>() {
                 R.drawable.select_all,
                 showAsAction = MenuItem.SHOW_AS_ACTION_ALWAYS,
             ) {
-                getCurrentFragmentNotes?.invoke()?.let { model.actionMode.add(it) }
+                selectAllNotes()
             }
             when (value) {
                 Folder.NOTES -> {
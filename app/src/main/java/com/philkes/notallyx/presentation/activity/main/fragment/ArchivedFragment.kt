@@ -3,7 +3,9 @@ package com.philkes.notallyx.presentation.activity.main.fragment
 import android.os.Bundle
 import android.view.View
 import com.philkes.notallyx.R
+import com.philkes.notallyx.data.dao.NoteCardQuery
 import com.philkes.notallyx.data.model.Folder
+import com.philkes.notallyx.presentation.view.misc.NotNullLiveData
 
 class ArchivedFragment : NotallyFragment() {
 
@@ -14,5 +16,5 @@ class ArchivedFragment : NotallyFragment() {
 
     override fun getBackground() = R.drawable.archive
 
-    override fun getObservable() = model.archivedNotes!!
+    override fun getQuery() = NotNullLiveData(NoteCardQuery(Folder.ARCHIVED))
 }
@@ -3,11 +3,11 @@ package com.philkes.notallyx.presentation.activity.main.fragment
 import android.os.Bundle
 import android.view.View
 import androidx.lifecycle.LiveData
-import androidx.lifecycle.MediatorLiveData
 import com.philkes.notallyx.R
+import com.philkes.notallyx.data.dao.NoteCardQuery
 import com.philkes.notallyx.data.model.Folder
-import com.philkes.notallyx.data.model.Item
 import com.philkes.notallyx.data.model.Type
+import com.philkes.notallyx.presentation.view.misc.NotNullLiveData
 
 class ChecklistFragment : NotallyFragment() {
 
@@ -16,14 +16,9 @@ class ChecklistFragment : NotallyFragment() {
         model.folder.value = Folder.NOTES
     }
 
-    override fun getObservable(): LiveData<List<Item>> {
-        val filtered = MediatorLiveData<List<Item>>()
-        filtered.addSource(model.baseNotes!!) { notes ->
-            filtered.value = notes.filter { it is com.philkes.notallyx.data.model.BaseNote && it.type == Type.LIST }
-        }
-        return filtered
+    override fun getQuery(): LiveData<NoteCardQuery> {
+        return NotNullLiveData(NoteCardQuery(Folder.NOTES, type = Type.LIST))
     }
 
     override fun getBackground() = R.drawable.checkbox
 }
-
@@ -6,9 +6,11 @@ import android.view.MenuInflater
 import android.view.View
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.philkes.notallyx.R
+import com.philkes.notallyx.data.dao.NoteCardQuery
 import com.philkes.notallyx.data.model.Folder
 import com.philkes.notallyx.presentation.add
 import com.philkes.notallyx.presentation.setCancelButton
+import com.philkes.notallyx.presentation.view.misc.NotNullLiveData
 
 class DeletedFragment : NotallyFragment() {
 
@@ -31,5 +33,5 @@ class DeletedFragment : NotallyFragment() {
 
     override fun getBackground() = R.drawable.delete
 
-    override fun getObservable() = model.deletedNotes!!
+    override fun getQuery() = NotNullLiveData(NoteCardQuery(Folder.DELETED))
 }
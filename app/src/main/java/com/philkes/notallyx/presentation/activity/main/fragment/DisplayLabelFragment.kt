@@ -5,8 +5,9 @@ import android.os.Bundle
 import android.view.View
 import androidx.lifecycle.LiveData
 import com.philkes.notallyx.R
+import com.philkes.notallyx.data.dao.NoteCardQuery
 import com.philkes.notallyx.data.model.Folder
-import com.philkes.notallyx.data.model.Item
+import com.philkes.notallyx.presentation.view.misc.NotNullLiveData
 
 class DisplayLabelFragment : NotallyFragment() {
 
@@ -19,9 +20,9 @@ class DisplayLabelFragment : NotallyFragment() {
 
     override fun getBackground() = R.drawable.label
 
-    override fun getObservable(): LiveData<List<Item>> {
+    override fun getQuery(): LiveData<NoteCardQuery> {
         label = requireNotNull(requireArguments().getString(EXTRA_DISPLAYED_LABEL))
-        return model.getNotesByLabel(label)
+        return NotNullLiveData(NoteCardQuery(Folder.NOTES, label))
     }
 
     override fun prepareNewNoteIntent(intent: Intent): Intent {
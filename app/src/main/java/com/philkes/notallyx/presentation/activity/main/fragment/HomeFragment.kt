@@ -17,12 +17,12 @@ import com.philkes.notallyx.presentation.view.main.HomeFilterPillAdapter
 import com.philkes.notallyx.presentation.view.main.HomeFilterPillItem
 import com.philkes.notallyx.presentation.view.main.DayChip
 import com.philkes.notallyx.presentation.view.main.DayChipAdapter
-import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.data.model.Folder
-import com.philkes.notallyx.data.model.Item
 import com.philkes.notallyx.data.model.hasAnyUpcomingNotifications
 import com.philkes.notallyx.databinding.FragmentHomeBinding
 import com.philkes.notallyx.data.model.Type
+import com.philkes.notallyx.data.dao.NoteCardQuery
 import com.philkes.notallyx.presentation.activity.note.EditActivity
 import com.philkes.notallyx.presentation.activity.note.EditListActivity
 import com.philkes.notallyx.presentation.activity.note.EditNoteActivity
@@ -46,17 +46,21 @@ class HomeFragment : Fragment() {
     private val model: BaseNoteModel by activityViewModels()
 
     private var currentFilter: FilterType = FilterType.ALL
-    private var filteredNotes: MediatorLiveData<List<BaseNote>>? = null
+    private var filteredNotes: MediatorLiveData<List<NoteCard>>? = null
     private var selectedDate: LocalDate = LocalDate.now()
-    private var currentSource: LiveData<List<Item>>? = null
+    private var currentSource: LiveData<List<NoteCard>>? = null
     private var searchKeyword = ""
     
     // Cache for date conversion to avoid repeated Instant creation
     private val dateCache = mutableMapOf<Long, LocalDate>()
     private val zoneId = ZoneId.systemDefault()
     
-    // Cache filterIsInstance results to avoid repeated filtering
-    private val baseNoteCache = mutableMapOf<List<Item>, List<BaseNote>>()
+    // Only the notes the screen shows are loaded, the reminders are filtered by day in memory
+    private var reminderNotes: LiveData<List<NoteCard>>? = null
+    private var archivedNotes: LiveData<List<NoteCard>>? = null
+    private var deletedNotes: LiveData<List<NoteCard>>? = null
+    private var pinnedNotes: LiveData<List<NoteCard>>? = null
+    private var archivedCount: LiveData<Int>? = null
     
     // Cache context and strings to avoid repeated calls
     private var cachedContext: android.content.Context? = null
@@ -79,6 +83,7 @@ class HomeFragment : Fragment() {
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
         
+        setupSources()
         setupRecyclerView()
         setupSearch()
         setupHeader()
@@ -86,6 +91,14 @@ class HomeFragment : Fragment() {
     }
 
 
+    private fun setupSources() {
+        reminderNotes = model.getNotesAsync(NoteCardQuery(Folder.NOTES, withReminders = true))
+        archivedNotes = model.getNotesAsync(NoteCardQuery(Folder.ARCHIVED))
+        deletedNotes = model.getNotesAsync(NoteCardQuery(Folder.DELETED))
+        pinnedNotes = model.getPinnedNotes(NoteCardQuery(Folder.NOTES))
+        archivedCount = model.countNotes(Folder.ARCHIVED)
+    }
+
     private fun setupRecyclerView() {
         binding?.HomeRecyclerView?.apply {
             layoutManager = LinearLayoutManager(context)
@@ -132,9 +145,7 @@ class HomeFragment : Fragment() {
                 refreshDayChips()
                 updateFilteredNotes()
                 // Update filter pills count khi đổi ngày
-                val notes = getBaseNotesFromItems(model.baseNotes?.value ?: emptyList())
-                val archivedCount = getBaseNotesFromItems(model.archivedNotes?.value ?: emptyList()).size
-                updateFilterPills(archivedCount, notes)
+                updateFilterPills(archivedCount?.value ?: 0, reminderNotes?.value)
             }
             adapter = dayChipAdapter
             clipToPadding = false
@@ -153,34 +164,17 @@ class HomeFragment : Fragment() {
         cachedArchivedString = cachedContext?.getString(R.string.archived)
         
         // Setup filter pills with counts - observe LiveData for updates
-        var archivedCount = 0
-        model.archivedNotes?.observe(viewLifecycleOwner) { archived ->
-            archivedCount = getBaseNotesFromItems(archived).size
-            updateFilterPills(archivedCount)
-        }
-        
-        model.baseNotes?.observe(viewLifecycleOwner) { items ->
-            val notes = getBaseNotesFromItems(items)
-            updateFilterPills(archivedCount, notes)
+        archivedCount?.observe(viewLifecycleOwner) { count ->
+            updateFilterPills(count)
         }
         
-        // Initial setup
-        val items = model.baseNotes?.value ?: emptyList()
-        val notes = getBaseNotesFromItems(items)
-        val archivedItems = model.archivedNotes?.value ?: emptyList()
-        val archived = getBaseNotesFromItems(archivedItems)
-        updateFilterPills(archived.size, notes)
-    }
-    
-    // Helper function to cache filterIsInstance results
-    private fun getBaseNotesFromItems(items: List<Item>): List<BaseNote> {
-        return baseNoteCache.getOrPut(items) {
-            items.filterIsInstance<BaseNote>()
+        reminderNotes?.observe(viewLifecycleOwner) { notes ->
+            updateFilterPills(archivedCount?.value ?: 0, notes)
         }
     }
     
-    private fun updateFilterPills(archivedCount: Int = 0, notes: List<BaseNote>? = null) {
-        val notesList = notes ?: getBaseNotesFromItems(model.baseNotes?.value ?: emptyList())
+    private fun updateFilterPills(archivedCount: Int = 0, notes: List<NoteCard>? = null) {
+        val notesList = notes ?: reminderNotes?.value ?: emptyList()
         // Count notes có reminder trong ngày được chọn
         val allCount = notesList.count { note ->
             note.reminders.any { reminder ->
@@ -214,7 +208,7 @@ class HomeFragment : Fragment() {
 
     private fun setupObserver() {
         if (filteredNotes == null) {
-            filteredNotes = MediatorLiveData<List<BaseNote>>()
+            filteredNotes = MediatorLiveData<List<NoteCard>>()
         }
         
         // Setup observer cho filteredNotes - optimize filtering with debounce
@@ -237,21 +231,22 @@ class HomeFragment : Fragment() {
         // Setup filteredNotes ngay lập tức
         updateFilteredNotes()
         
-        // Cũng observe baseNotes để update khi nó thay đổi (nếu filter là ALL)
-        model.baseNotes?.observe(viewLifecycleOwner) { _ ->
+        // Cũng observe reminderNotes để update khi nó thay đổi (nếu filter là ALL)
+        reminderNotes?.observe(viewLifecycleOwner) { _ ->
             if (currentFilter == FilterType.ALL) {
                 updateFilteredNotes()
             }
-            updatePinnedCarousel()
         }
         
-        model.archivedNotes?.observe(viewLifecycleOwner) { _ ->
+        pinnedNotes?.observe(viewLifecycleOwner) { _ -> updatePinnedCarousel() }
+        
+        archivedNotes?.observe(viewLifecycleOwner) { _ ->
             if (currentFilter == FilterType.ARCHIVED) {
                 updateFilteredNotes()
             }
         }
         
-        model.deletedNotes?.observe(viewLifecycleOwner) { _ ->
+        deletedNotes?.observe(viewLifecycleOwner) { _ ->
             if (currentFilter == FilterType.DELETED) {
                 updateFilteredNotes()
             }
@@ -259,9 +254,7 @@ class HomeFragment : Fragment() {
     }
 
     private fun updatePinnedCarousel() {
-        val notes = getBaseNotesFromItems(model.baseNotes?.value ?: emptyList())
-        val pinned = notes
-            .filter { it.pinned }
+        val pinned = (pinnedNotes?.value ?: emptyList())
             .sortedByDescending { it.modifiedTimestamp } // mới ghim lên đầu
         pinnedCarouselAdapter?.submitList(pinned)
         
@@ -299,7 +292,7 @@ class HomeFragment : Fragment() {
         }
     }
 
-    private fun openNote(note: BaseNote) {
+    private fun openNote(note: NoteCard) {
         val intent = when (note.type) {
             Type.NOTE -> android.content.Intent(context, EditNoteActivity::class.java)
             Type.LIST -> android.content.Intent(context, EditListActivity::class.java)
@@ -349,9 +342,9 @@ class HomeFragment : Fragment() {
     private fun updateFilteredNotes() {
         // Kiểm tra nếu source chưa sẵn sàng
         val source = when (currentFilter) {
-            FilterType.ALL -> model.baseNotes
-            FilterType.ARCHIVED -> model.archivedNotes
-            FilterType.DELETED -> model.deletedNotes
+            FilterType.ALL -> reminderNotes
+            FilterType.ARCHIVED -> archivedNotes
+            FilterType.DELETED -> deletedNotes
         }
         
         if (source == null) {
@@ -379,10 +372,7 @@ class HomeFragment : Fragment() {
         }
     }
     
-    private fun processItems(items: List<Item>): List<BaseNote> {
-        // Use cached filterIsInstance result
-        val baseNotes = getBaseNotesFromItems(items)
-        
+    private fun processItems(baseNotes: List<NoteCard>): List<NoteCard> {
         return when (currentFilter) {
             FilterType.ALL -> {
                 // Filter notes có reminder trong ngày được chọn (selectedDate)
@@ -419,9 +409,13 @@ class HomeFragment : Fragment() {
         }
         currentSource = null
         filteredNotes = null
+        reminderNotes = null
+        archivedNotes = null
+        deletedNotes = null
+        pinnedNotes = null
+        archivedCount = null
         // Clear caches to free memory
         dateCache.clear()
-        baseNoteCache.clear()
         cachedContext = null
         cachedAllString = null
         cachedArchivedString = null
@@ -13,16 +13,18 @@ import androidx.core.widget.doAfterTextChanged
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.activityViewModels
 import androidx.lifecycle.LiveData
+import androidx.lifecycle.lifecycleScope
 import androidx.navigation.findNavController
+import androidx.paging.LoadState
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import androidx.recyclerview.widget.StaggeredGridLayoutManager
 import com.google.android.material.snackbar.Snackbar
 import com.philkes.notallyx.R
-import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.dao.NoteCardQuery
 import com.philkes.notallyx.data.model.Folder
-import com.philkes.notallyx.data.model.Header
-import com.philkes.notallyx.data.model.Item
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.data.model.Type
 import com.philkes.notallyx.databinding.FragmentNotesBinding
 import com.philkes.notallyx.presentation.activity.main.MainActivity
@@ -44,8 +46,13 @@ import com.philkes.notallyx.presentation.view.main.BaseNoteVHPreferences
 import com.philkes.notallyx.presentation.view.main.PinnedNoteAdapter
 import com.philkes.notallyx.presentation.view.misc.ItemListener
 import com.philkes.notallyx.presentation.viewmodel.BaseNoteModel
+import com.philkes.notallyx.presentation.viewmodel.preference.NotesSort
 import com.philkes.notallyx.presentation.viewmodel.preference.NotesView
 import com.philkes.notallyx.presentation.viewmodel.preference.Theme
+import com.philkes.notallyx.utils.observeSkipFirst
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.launch
 
 abstract class NotallyFragment : Fragment(), ItemListener {
 
@@ -54,6 +61,10 @@ abstract class NotallyFragment : Fragment(), ItemListener {
     private lateinit var openNoteActivityResultLauncher: ActivityResultLauncher<Intent>
     private var lastSelectedNotePosition = -1
     private var adapterDataObserver: RecyclerView.AdapterDataObserver? = null
+    private var query: NoteCardQuery? = null
+    private var notesSort: NotesSort? = null
+    private var notesJob: Job? = null
+    private var pinnedNotes: LiveData<List<NoteCard>>? = null
 
     internal var binding: FragmentNotesBinding? = null
 
@@ -71,6 +82,11 @@ abstract class NotallyFragment : Fragment(), ItemListener {
         binding?.PinnedRecyclerView?.adapter = null
         notesAdapter = null
         pinnedNotesAdapter = null
+        // The observers and the paging job end with the view, the next view has to load again
+        query = null
+        notesSort = null
+        notesJob = null
+        pinnedNotes = null
         binding = null
     }
 
@@ -155,8 +171,8 @@ abstract class NotallyFragment : Fragment(), ItemListener {
     override fun onClick(position: Int) {
         // Xử lý click từ other notes (position bình thường)
         if (position != -1) {
-            notesAdapter?.getItem(position)?.let { item ->
-                if (item is BaseNote) {
+            notesAdapter?.peek(position)?.let { item ->
+                if (item is NoteCard) {
                     if (model.actionMode.isEnabled()) {
                         handleNoteSelection(item.id, position, item)
                     } else {
@@ -170,16 +186,6 @@ abstract class NotallyFragment : Fragment(), ItemListener {
         }
     }
     
-    private fun findNotePositionInList(noteId: Long): Int {
-        // Tìm position trong list gốc
-        getObservable().value?.forEachIndexed { index, item ->
-            if (item is BaseNote && item.id == noteId) {
-                return index
-            }
-        }
-        return -1
-    }
-
     override fun onLongClick(position: Int) {
         // Xử lý long click từ other notes (position bình thường)
         if (position != -1) {
@@ -190,8 +196,8 @@ abstract class NotallyFragment : Fragment(), ItemListener {
                         lastSelectedNotePosition..position
                     }
                     .forEach { pos ->
-                        notesAdapter!!.getItem(pos)?.let { item ->
-                            if (item is BaseNote) {
+                        notesAdapter!!.peek(pos)?.let { item ->
+                            if (item is NoteCard) {
                                 if (!model.actionMode.selectedNotes.contains(item.id)) {
                                     handleNoteSelection(item.id, pos, item)
                                 }
@@ -199,8 +205,8 @@ abstract class NotallyFragment : Fragment(), ItemListener {
                         }
                     }
             } else {
-                notesAdapter?.getItem(position)?.let { item ->
-                    if (item is BaseNote) {
+                notesAdapter?.peek(position)?.let { item ->
+                    if (item is NoteCard) {
                         handleNoteSelection(item.id, position, item)
                     }
                 }
@@ -230,7 +236,7 @@ abstract class NotallyFragment : Fragment(), ItemListener {
         }
     }
 
-    private fun handleNoteSelection(id: Long, position: Int, baseNote: BaseNote) {
+    private fun handleNoteSelection(id: Long, position: Int, baseNote: NoteCard) {
         if (model.actionMode.selectedNotes.contains(id)) {
             model.actionMode.remove(id)
         } else {
@@ -240,6 +246,17 @@ abstract class NotallyFragment : Fragment(), ItemListener {
         notesAdapter?.notifyItemChanged(position, 0)
     }
 
+    private fun handlePinnedNoteSelection(note: NoteCard) {
+        if (model.actionMode.selectedNotes.contains(note.id)) {
+            model.actionMode.remove(note.id)
+        } else {
+            model.actionMode.add(note.id, note)
+        }
+        pinnedNotesAdapter?.let { adapter ->
+            adapter.notifyItemChanged(adapter.currentList.indexOfFirst { it.id == note.id })
+        }
+    }
+
     private fun setupAdapter() {
         val preferences = with(model.preferences) {
             BaseNoteVHPreferences(
@@ -274,8 +291,7 @@ abstract class NotallyFragment : Fragment(), ItemListener {
             onNoteClick = { note ->
                 // Xử lý click vào pinned note
                 if (model.actionMode.isEnabled()) {
-                    val position = findNotePositionInList(note.id)
-                    handleNoteSelection(note.id, position, note)
+                    handlePinnedNoteSelection(note)
                 } else {
                     when (note.type) {
                         Type.NOTE -> goToActivity(EditNoteActivity::class.java, note)
@@ -284,30 +300,15 @@ abstract class NotallyFragment : Fragment(), ItemListener {
                 }
             },
             onNoteLongClick = { note ->
-                // Xử lý long click vào pinned note
-                val position = findNotePositionInList(note.id)
-                if (model.actionMode.selectedNotes.isNotEmpty()) {
-                    // Xử lý range selection
-                    if (lastSelectedNotePosition > position) {
-                        position..lastSelectedNotePosition
-                    } else {
-                        lastSelectedNotePosition..position
-                    }.forEach { pos ->
-                        getObservable().value?.getOrNull(pos)?.let { item ->
-                            if (item is BaseNote && !model.actionMode.selectedNotes.contains(item.id)) {
-                                handleNoteSelection(item.id, pos, item)
-                            }
-                        }
-                    }
-                } else {
-                    handleNoteSelection(note.id, position, note)
-                }
+                // Pinned notes are a separate list, so they do not take part in range selection
+                handlePinnedNoteSelection(note)
             }
         )
 
         adapterDataObserver = object : RecyclerView.AdapterDataObserver() {
             override fun onItemRangeInserted(positionStart: Int, itemCount: Int) {
-                if (itemCount > 0) {
+                // Loading the next page also inserts items, only scroll to new notes at the top
+                if (itemCount > 0 && positionStart == 0) {
                     binding?.RecyclerView?.scrollToPosition(positionStart)
                 }
             }
@@ -330,70 +331,36 @@ abstract class NotallyFragment : Fragment(), ItemListener {
         }
         if (activity is MainActivity) {
             (activity as MainActivity).getCurrentFragmentNotes = {
-                notesAdapter?.currentList?.filterIsInstance<BaseNote>()
+                query?.let { model.getNotes(it) }
             }
         }
     }
 
     private fun setupObserver() {
-        getObservable().observe(viewLifecycleOwner) { list ->
-            // Tách pinned notes và other notes
-            val pinnedNotes = mutableListOf<BaseNote>()
-            val otherItems = mutableListOf<Item>()
-            var foundOthersHeader = false
-            
-            list.forEach { item ->
-                when {
-                    item is BaseNote && item.pinned -> {
-                        pinnedNotes.add(item)
-                    }
-                    item is Header -> {
-                        if (item.label == requireContext().getString(R.string.others)) {
-                            foundOthersHeader = true
-                            // Không thêm header "Others" vào otherItems vì đã có TextView riêng
-                        }
-                        // Bỏ qua header "Pinned" vì đã có TextView riêng
-                    }
-                    foundOthersHeader && item is BaseNote && !item.pinned -> {
-                        otherItems.add(item)
-                    }
-                    !foundOthersHeader && item is BaseNote && !item.pinned -> {
-                        // Nếu chưa có header "Others" nhưng có unpinned notes, thêm vào
-                        otherItems.add(item)
-                    }
-                }
-            }
-            
-            // Cập nhật pinned notes RecyclerView
-            if (pinnedNotes.isNotEmpty()) {
-                binding?.PinnedHeader?.visibility = View.VISIBLE
-                binding?.PinnedRecyclerView?.visibility = View.VISIBLE
-                pinnedNotesAdapter?.submitList(pinnedNotes)
-            } else {
-                binding?.PinnedHeader?.visibility = View.GONE
-                binding?.PinnedRecyclerView?.visibility = View.GONE
-            }
-            
-            // Cập nhật other notes RecyclerView
-            if (otherItems.isNotEmpty()) {
-                binding?.OthersHeader?.visibility = View.VISIBLE
-                notesAdapter?.submitList(otherItems)
-            } else {
-                binding?.OthersHeader?.visibility = View.GONE
-                notesAdapter?.submitList(emptyList())
-            }
-            
-            binding?.ImageView?.isVisible = list.isEmpty()
-        }
+        getQuery().observe(viewLifecycleOwner) { query -> loadNotes(query) }
 
         model.preferences.notesSorting.observe(viewLifecycleOwner) { notesSort ->
             notesAdapter?.setNotesSort(notesSort)
+            query?.let { loadNotes(it) }
+        }
+
+        NotallyDatabase.getDatabase(requireActivity().application).observeSkipFirst(
+            viewLifecycleOwner
+        ) {
+            query?.let { loadNotes(it, force = true) }
+        }
+
+        notesAdapter?.addLoadStateListener { loadStates ->
+            if (loadStates.refresh is LoadState.NotLoading) {
+                binding?.OthersHeader?.isVisible = (notesAdapter?.itemCount ?: 0) > 0
+                updateEmptyView()
+            }
         }
 
         model.actionMode.closeListener.observe(viewLifecycleOwner) { event ->
             event.handle { ids ->
                 notesAdapter?.currentList?.forEachIndexed { index, item ->
-                    if (item is BaseNote && ids.contains(item.id)) {
+                    if (item is NoteCard && ids.contains(item.id)) {
                         notesAdapter?.notifyItemChanged(index, 0)
                     }
                 }
@@ -425,7 +392,42 @@ abstract class NotallyFragment : Fragment(), ItemListener {
         }
     }
 
-    private fun goToActivity(activity: Class<*>, baseNote: BaseNote) {
+    /**
+     * The notes which are not pinned are paged, the pinned notes are displayed in their own list
+     * and loaded completely.
+     */
+    private fun loadNotes(query: NoteCardQuery, force: Boolean = false) {
+        val notesSort = model.preferences.notesSorting.value
+        if (!force && query == this.query && notesSort == this.notesSort) {
+            return
+        }
+        this.query = query
+        this.notesSort = notesSort
+
+        notesJob?.cancel()
+        notesJob =
+            viewLifecycleOwner.lifecycleScope.launch {
+                model.getPagedNotes(query).collectLatest { notes -> notesAdapter?.submitData(notes) }
+            }
+
+        pinnedNotes?.removeObservers(viewLifecycleOwner)
+        pinnedNotes =
+            model.getPinnedNotes(query).also { liveData ->
+                liveData.observe(viewLifecycleOwner) { notes ->
+                    binding?.PinnedHeader?.isVisible = notes.isNotEmpty()
+                    binding?.PinnedRecyclerView?.isVisible = notes.isNotEmpty()
+                    pinnedNotesAdapter?.submitList(notes)
+                    updateEmptyView()
+                }
+            }
+    }
+
+    private fun updateEmptyView() {
+        val isEmpty = notesAdapter?.itemCount == 0 && pinnedNotes?.value.isNullOrEmpty()
+        binding?.ImageView?.isVisible = isEmpty
+    }
+
+    private fun goToActivity(activity: Class<*>, baseNote: NoteCard) {
         val intent = Intent(requireContext(), activity)
         intent.putExtra(EXTRA_SELECTED_BASE_NOTE, baseNote.id)
         
@@ -449,7 +451,7 @@ abstract class NotallyFragment : Fragment(), ItemListener {
 
     abstract fun getBackground(): Int
 
-    abstract fun getObservable(): LiveData<List<Item>>
+    abstract fun getQuery(): LiveData<NoteCardQuery>
 
     open fun prepareNewNoteIntent(intent: Intent): Intent {
         return intent
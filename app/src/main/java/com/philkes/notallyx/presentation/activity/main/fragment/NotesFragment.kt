@@ -3,22 +3,21 @@ package com.philkes.notallyx.presentation.activity.main.fragment
 import android.os.Bundle
 import android.view.View
 import androidx.lifecycle.LiveData
-import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.philkes.notallyx.R
+import com.philkes.notallyx.data.dao.NoteCardQuery
 import com.philkes.notallyx.data.model.Folder
-import com.philkes.notallyx.data.model.Item
 import com.philkes.notallyx.presentation.view.main.FilterTabAdapter
 import com.philkes.notallyx.presentation.view.main.FilterTabItem
+import com.philkes.notallyx.presentation.view.misc.NotNullLiveData
 import kotlinx.coroutines.launch
 
 class NotesFragment : NotallyFragment() {
 
     private var filterTabAdapter: FilterTabAdapter? = null
     private var selectedLabel: String? = FilterTabAdapter.TAB_ALL
-    private var filteredNotes: MediatorLiveData<List<Item>>? = null
-    private var currentSource: LiveData<List<Item>>? = null
+    private var notesQuery: NotNullLiveData<NoteCardQuery>? = null
 
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
@@ -55,40 +54,29 @@ class NotesFragment : NotallyFragment() {
     }
 
     private fun updateFilteredNotes() {
-        currentSource?.let { source ->
-            filteredNotes?.removeSource(source)
-        }
-        
-        val newSource = if (selectedLabel == FilterTabAdapter.TAB_ALL || selectedLabel == null) {
-            model.baseNotes!!
+        notesQuery?.value = createQuery()
+    }
+
+    private fun createQuery(): NoteCardQuery {
+        return if (selectedLabel == FilterTabAdapter.TAB_ALL || selectedLabel == null) {
+            NoteCardQuery(Folder.NOTES)
         } else {
-            model.getNotesByLabel(selectedLabel!!)
-        }
-        
-        currentSource = newSource
-        filteredNotes?.addSource(newSource) { list ->
-            filteredNotes?.value = list
+            NoteCardQuery(Folder.NOTES, selectedLabel)
         }
     }
 
-    override fun getObservable(): LiveData<List<Item>> {
-        if (filteredNotes == null) {
-            filteredNotes = MediatorLiveData()
-            updateFilteredNotes()
+    override fun getQuery(): LiveData<NoteCardQuery> {
+        if (notesQuery == null) {
+            notesQuery = NotNullLiveData(createQuery())
         }
-        return filteredNotes!!
+        return notesQuery!!
     }
 
     override fun getBackground() = R.drawable.notebook
 
     override fun onDestroyView() {
         super.onDestroyView()
-        // Cleanup MediatorLiveData sources to prevent memory leaks
-        currentSource?.let { source ->
-            filteredNotes?.removeSource(source)
-        }
-        currentSource = null
-        filteredNotes = null
+        notesQuery = null
         filterTabAdapter = null
     }
 }
@@ -48,7 +48,7 @@ class SearchFragment : NotallyFragment() {
 
     override fun getBackground() = R.drawable.search
 
-    override fun getObservable() = model.searchResults!!
+    override fun getQuery() = model.searchQuery
 
     companion object {
         const val EXTRA_INITIAL_FOLDER = "notallyx.intent.extra.INITIAL_FOLDER"
@@ -12,8 +12,9 @@ import androidx.fragment.app.activityViewModels
 import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.philkes.notallyx.R
-import com.philkes.notallyx.data.model.BaseNote
-import com.philkes.notallyx.data.model.Item
+import com.philkes.notallyx.data.dao.NoteCardQuery
+import com.philkes.notallyx.data.model.NoteCard
+import com.philkes.notallyx.data.model.Folder
 import com.philkes.notallyx.data.model.Type
 import com.philkes.notallyx.databinding.FragmentStudySetsBinding
 import com.philkes.notallyx.presentation.activity.note.EditActivity
@@ -94,23 +95,21 @@ class StudySetsFragment : Fragment() {
     }
 
     private fun setupObservers() {
-        model.baseNotes?.observe(viewLifecycleOwner) { items ->
+        model.getNotesAsync(NoteCardQuery(Folder.NOTES, type = Type.LIST)).observe(
+            viewLifecycleOwner
+        ) { checklistNotes ->
             lifecycleScope.launch {
-                val studySets = processStudySets(items)
+                val studySets = processStudySets(checklistNotes)
                 updateUI(studySets)
             }
         }
     }
 
-    private suspend fun processStudySets(items: List<Item>): List<StudySetUI> = withContext(Dispatchers.IO) {
-        val checklistNotes = items.filterIsInstance<BaseNote>()
-            .filter { it.type == Type.LIST }
-        
+    private suspend fun processStudySets(checklistNotes: List<NoteCard>): List<StudySetUI> = withContext(Dispatchers.IO) {
         checklistNotes.map { note ->
             val noteId = note.id
             // Tính total tất cả từ vựng (kể cả chưa tick)
-            val allItems = note.items ?: emptyList()
-            val total = allItems.size
+            val total = note.itemCount
             
             val hasStats = hasStatistics(noteId)
             
@@ -161,12 +160,11 @@ class StudySetsFragment : Fragment() {
     }
     
 
-    private fun calculateStats(noteId: Long, note: BaseNote): StatsResult {
+    private fun calculateStats(noteId: Long, note: NoteCard): StatsResult {
         val prefs = quizPrefs ?: return StatsResult(0, 0, 0, 0, 0)
 
         // Get all items (kể cả chưa tick)
-        val allItems = note.items ?: emptyList()
-        val total = allItems.size
+        val total = note.itemCount
 
         if (total == 0) {
             return StatsResult(0, 0, 0, 0, 0)
@@ -179,8 +177,8 @@ class StudySetsFragment : Fragment() {
         var mastered = 0
         var weak = 0
 
-        allItems.forEachIndexed { index, item ->
-            val baseId = if (item.id != -1) item.id else index
+        // ListItem ids are not persisted, so the key is always based on the item's index
+        for (baseId in 0 until total) {
             val key = "note_${noteId}_item_$baseId"
             val rawStatus = statusPrefs.getString(key, null)
             val status =
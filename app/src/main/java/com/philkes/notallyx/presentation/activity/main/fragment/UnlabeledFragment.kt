@@ -4,8 +4,9 @@ import android.os.Bundle
 import android.view.View
 import androidx.lifecycle.LiveData
 import com.philkes.notallyx.R
+import com.philkes.notallyx.data.dao.NoteCardQuery
 import com.philkes.notallyx.data.model.Folder
-import com.philkes.notallyx.data.model.Item
+import com.philkes.notallyx.presentation.view.misc.NotNullLiveData
 
 class UnlabeledFragment : NotallyFragment() {
 
@@ -16,7 +17,7 @@ class UnlabeledFragment : NotallyFragment() {
 
     override fun getBackground() = R.drawable.label_off
 
-    override fun getObservable(): LiveData<List<Item>> {
-        return model.getNotesWithoutLabel()
+    override fun getQuery(): LiveData<NoteCardQuery> {
+        return NotNullLiveData(NoteCardQuery(Folder.NOTES, label = null))
     }
 }
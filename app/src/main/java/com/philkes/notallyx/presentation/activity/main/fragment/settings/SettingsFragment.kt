@@ -88,6 +88,7 @@ class SettingsFragment : Fragment() {
         model.preferences.apply {
             setupAppearance(binding)
             setupContentDensity(binding)
+            setupImages(binding)
             setupBackup(binding)
             setupAutoBackups(binding)
             setupSecurity(binding)
@@ -332,6 +333,40 @@ class SettingsFragment : Fragment() {
         }
     }
 
+    private fun NotallyXPreferences.setupImages(binding: FragmentSettingsBinding) {
+        keepOriginalImages.observe(viewLifecycleOwner) { keepOriginal ->
+            binding.ImageMaxDimension.setup(
+                imageMaxDimension.value,
+                imageMaxDimension.titleResId!!,
+                imageMaxDimension.min,
+                imageMaxDimension.max,
+                requireContext(),
+                enabled = !keepOriginal,
+            ) { newValue ->
+                model.savePreference(imageMaxDimension, newValue)
+            }
+            binding.ImageQuality.setup(
+                imageQuality.value,
+                imageQuality.titleResId!!,
+                imageQuality.min,
+                imageQuality.max,
+                requireContext(),
+                enabled = !keepOriginal,
+            ) { newValue ->
+                model.savePreference(imageQuality, newValue)
+            }
+            binding.KeepOriginalImages.setup(
+                keepOriginalImages,
+                keepOriginal,
+                requireContext(),
+                layoutInflater,
+                R.string.keep_original_images_message,
+            ) { enabled ->
+                model.savePreference(keepOriginalImages, enabled)
+            }
+        }
+    }
+
     private fun NotallyXPreferences.setupBackup(binding: FragmentSettingsBinding) {
         binding.apply {
             ImportBackup.setOnClickListener {
@@ -387,6 +422,16 @@ class SettingsFragment : Fragment() {
             ) { enabled ->
                 model.savePreference(backupOnSave, enabled)
             }
+            binding.BackupOnSaveDelay.setup(
+                backupOnSaveDelay.value,
+                backupOnSaveDelay.titleResId!!,
+                backupOnSaveDelay.min,
+                backupOnSaveDelay.max,
+                requireContext(),
+                enabled = onSave && backupFolder != EMPTY_PATH,
+            ) { newValue ->
+                model.savePreference(backupOnSaveDelay, newValue)
+            }
         }
         periodicBackups.merge(backupsFolder).observe(viewLifecycleOwner) {
             (periodicBackup, backupFolder) ->
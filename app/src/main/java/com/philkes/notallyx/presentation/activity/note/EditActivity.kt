@@ -107,6 +107,8 @@ import java.io.File
 import kotlin.math.max
 import kotlin.math.min
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
@@ -129,6 +131,7 @@ abstract class EditActivity(private val type: Type) :
     internal val notallyModel: NotallyModel by viewModels()
 
     internal lateinit var changeHistory: ChangeHistory
+    private var journalJob: Job? = null
     protected var undo: View? = null
     protected var redo: View? = null
 
@@ -187,31 +190,12 @@ abstract class EditActivity(private val type: Type) :
     override fun finish() {
         if (isFinishing || isDestroyed) return
 
-        // Use IO dispatcher for database operations to avoid blocking main thread
-        lifecycleScope.launch {
-            if (isFinishing || isDestroyed) return@launch
-
-            try {
-                withContext(Dispatchers.IO) {
-                if (notallyModel.isEmpty()) {
-                    notallyModel.deleteBaseNote(checkAutoSave = false)
-                } else if (notallyModel.isModified()) {
-                        // saveNote() may contain database operations, ensure it runs on IO
-                    saveNote()
-                    }
-                }
-            } catch (e: Exception) {
-                // Log error but don't crash
-                e.printStackTrace()
-            } finally {
-                // Switch back to Main thread for UI operations
-                withContext(Dispatchers.Main) {
-                    if (!isDestroyed && !isFinishing) {
-                    super.finish()
-                    }
-                }
-            }
-        }
+        journalJob?.cancel()
+        updateModel()
+        persistCurrentBackground()
+        // Saves in the background, the edits are journaled until then
+        notallyModel.close()
+        super.finish()
     }
 
     override fun onActivityResult(requestCode: Int, resultCode: Int, data: Intent?) {
@@ -281,16 +265,7 @@ abstract class EditActivity(private val type: Type) :
     open suspend fun saveNote() {
         if (isDestroyed || isFinishing) return
 
-        // L?u strokes v?o notallyModel tr??c khi save
-        if (isDrawingModeActive) {
-            try {
-                val strokes = binding.DrawingCanvas.getStrokes()
-                notallyModel.drawingStrokes = ArrayList(strokes)
-            } catch (e: Exception) {
-                e.printStackTrace()
-            }
-        }
-
+        updateModel()
         notallyModel.modifiedTimestamp = System.currentTimeMillis()
         notallyModel.saveNote()
         // Persist background after note is saved (ensures correct noteId key)
@@ -492,9 +467,37 @@ abstract class EditActivity(private val type: Type) :
         }
     }
 
+    /** Copies the state which is only kept by the views into [notallyModel]. */
+    protected open fun updateModel() {
+        // L?u strokes v?o notallyModel tr??c khi save
+        if (isDrawingModeActive) {
+            try {
+                val strokes = binding.DrawingCanvas.getStrokes()
+                notallyModel.drawingStrokes = ArrayList(strokes)
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+    }
+
+    /**
+     * Journals the edits once the user stops typing for [JOURNAL_DELAY_MILLIS], see
+     * [NotallyModel.journalEdits].
+     */
+    private fun onEdited() {
+        journalJob?.cancel()
+        journalJob =
+            lifecycleScope.launch {
+                delay(JOURNAL_DELAY_MILLIS)
+                updateModel()
+                notallyModel.journalEdits()
+            }
+    }
+
     protected open fun initChangeHistory() {
         changeHistory =
             ChangeHistory().apply {
+                onChange = ::onEdited
                 canUndo.observe(this@EditActivity) { canUndo ->
                     if (!isDrawingModeActive) {
                         undo?.isEnabled = canUndo
@@ -1214,6 +1217,7 @@ abstract class EditActivity(private val type: Type) :
 
     private fun setupCanvasStrokeListener() {
         binding.DrawingCanvas.setOnStrokesChangedListener {
+            onEdited()
             if (isDrawingModeActive) {
                 val ivUndo = binding.Toolbar.findViewById<View>(R.id.ivUndo) as? ImageView
                 val ivRedo = binding.Toolbar.findViewById<View>(R.id.ivRedo) as? ImageView
@@ -2124,6 +2128,7 @@ abstract class EditActivity(private val type: Type) :
         private const val REQUEST_AUDIO_PERMISSION = 36
         private const val REQUEST_CODE_FULL_SCREEN_DRAWING = 1001
         private const val DRAWING_BG_PREFS = "drawing_background_prefs"
+        private const val JOURNAL_DELAY_MILLIS = 500L
 
         const val EXTRA_SELECTED_BASE_NOTE = "notallyx.intent.extra.SELECTED_BASE_NOTE"
         const val EXTRA_NOTE_ID = "notallyx.intent.extra.NOTE_ID"
@@ -76,9 +76,9 @@ class EditListActivity : EditActivity(Type.LIST), MoreListActions {
             }
         }
 
-    override fun finish() {
+    override fun updateModel() {
+        super.updateModel()
         notallyModel.setItems(items.toMutableList())
-        super.finish()
     }
 
     override fun onSaveInstanceState(outState: Bundle) {
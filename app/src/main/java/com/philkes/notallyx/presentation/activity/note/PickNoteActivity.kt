@@ -2,27 +2,33 @@ package com.philkes.notallyx.presentation.activity.note
 
 import android.content.Intent
 import android.os.Bundle
+import androidx.core.view.isVisible
 import androidx.lifecycle.lifecycleScope
+import androidx.paging.LoadState
+import androidx.paging.filter
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import androidx.recyclerview.widget.StaggeredGridLayoutManager
 import com.philkes.notallyx.R
 import com.philkes.notallyx.data.NotallyDatabase
-import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.dao.NoteCardQuery
+import com.philkes.notallyx.data.model.Folder
 import com.philkes.notallyx.data.model.Header
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.databinding.ActivityPickNoteBinding
 import com.philkes.notallyx.presentation.activity.LockedActivity
 import com.philkes.notallyx.presentation.view.main.BaseNoteAdapter
 import com.philkes.notallyx.presentation.view.main.BaseNoteVHPreferences
 import com.philkes.notallyx.presentation.view.misc.ItemListener
-import com.philkes.notallyx.presentation.viewmodel.BaseNoteModel
+import com.philkes.notallyx.presentation.viewmodel.BaseNoteModel.Companion.insertHeaders
 import com.philkes.notallyx.presentation.viewmodel.preference.NotallyXPreferences
 import com.philkes.notallyx.presentation.viewmodel.preference.NotesView
 import com.philkes.notallyx.utils.getExternalImagesDirectory
 import java.util.Collections
-import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
 
 open class PickNoteActivity : LockedActivity<ActivityPickNoteBinding>(), ItemListener {
 
@@ -72,24 +78,33 @@ open class PickNoteActivity : LockedActivity<ActivityPickNoteBinding>(), ItemLis
         val pinned = Header(getString(R.string.pinned))
         val others = Header(getString(R.string.others))
 
-        database.observe(this) {
-            lifecycleScope.launch {
-                val notes =
-                    withContext(Dispatchers.IO) {
-                        val raw =
-                            it.getBaseNoteDao().getAllNotes().filter { it.id != excludedNoteId }
-                        BaseNoteModel.transform(raw, pinned, others)
-                    }
-                adapter.submitList(notes)
-                binding.EmptyView.visibility =
-                    if (notes.isEmpty()) android.view.View.VISIBLE else android.view.View.GONE
+        adapter.addLoadStateListener { loadStates ->
+            if (loadStates.refresh is LoadState.NotLoading) {
+                binding.EmptyView.isVisible = adapter.itemCount == 0
             }
         }
+
+        val query = NoteCardQuery(Folder.NOTES)
+        var notesJob: Job? = null
+        database.observe(this) {
+            notesJob?.cancel()
+            notesJob =
+                lifecycleScope.launch {
+                    it.getBaseNoteDao()
+                        .getNoteCardsPaged(query, preferences.notesSorting.value)
+                        .map { notes ->
+                            notes
+                                .filter { note -> note.id != excludedNoteId }
+                                .insertHeaders(pinned, others)
+                        }
+                        .collectLatest { notes -> adapter.submitData(notes) }
+                }
+        }
     }
 
     override fun onClick(position: Int) {
         if (position != -1) {
-            val note = (adapter.getItem(position) as BaseNote)
+            val note = (adapter.peek(position) as NoteCard)
             val success = Intent()
             success.putExtra(EXTRA_PICKED_NOTE_ID, note.id)
             success.putExtra(EXTRA_PICKED_NOTE_TITLE, note.title)
@@ -2,23 +2,23 @@ package com.philkes.notallyx.presentation.view.main
 
 import android.view.LayoutInflater
 import android.view.ViewGroup
+import androidx.paging.PagingDataAdapter
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
-import androidx.recyclerview.widget.SortedList
-import androidx.recyclerview.widget.SortedListAdapterCallback
-import com.philkes.notallyx.data.model.BaseNote
 import com.philkes.notallyx.data.model.Header
 import com.philkes.notallyx.data.model.Item
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.databinding.RecyclerBaseNoteBinding
 import com.philkes.notallyx.databinding.RecyclerHeaderBinding
-import com.philkes.notallyx.presentation.view.main.sorting.BaseNoteCreationDateSort
-import com.philkes.notallyx.presentation.view.main.sorting.BaseNoteModifiedDateSort
-import com.philkes.notallyx.presentation.view.main.sorting.BaseNoteTitleSort
 import com.philkes.notallyx.presentation.view.misc.ItemListener
 import com.philkes.notallyx.presentation.viewmodel.preference.DateFormat
 import com.philkes.notallyx.presentation.viewmodel.preference.NotesSort
-import com.philkes.notallyx.presentation.viewmodel.preference.NotesSortBy
 import java.io.File
 
+/**
+ * Displays a paged listing of notes, the notes are already sorted by the query according to
+ * [notesSort], which is only used here to decide which date to display.
+ */
 class BaseNoteAdapter(
     private val selectedIds: Set<Long>,
     private val dateFormat: DateFormat,
@@ -26,31 +26,26 @@ class BaseNoteAdapter(
     private val preferences: BaseNoteVHPreferences,
     private val imageRoot: File?,
     private val listener: ItemListener,
-) : RecyclerView.Adapter<RecyclerView.ViewHolder>() {
-
-    private var list = SortedList(Item::class.java, notesSort.createCallback())
+) : PagingDataAdapter<Item, RecyclerView.ViewHolder>(DiffCallback) {
 
     override fun getItemViewType(position: Int): Int {
-        return when (list[position]) {
+        return when (peek(position)) {
             is Header -> 0
-            is BaseNote -> 1
+            else -> 1
         }
     }
 
-    override fun getItemCount(): Int {
-        return list.size()
-    }
-
     override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) {
-        when (val item = list[position]) {
+        when (val item = getItem(position)) {
             is Header -> (holder as HeaderVH).bind(item)
-            is BaseNote ->
+            is NoteCard ->
                 (holder as BaseNoteVH).bind(
                     item,
                     imageRoot,
                     selectedIds.contains(item.id),
                     notesSort.sortedBy,
                 )
+            null -> {}
         }
     }
 
@@ -79,20 +74,15 @@ class BaseNoteAdapter(
     }
 
     fun setNotesSort(notesSort: NotesSort) {
-        this.notesSort = notesSort
-        replaceSortCallback(notesSort.createCallback())
-    }
-
-    fun getItem(position: Int): Item? {
-        return list[position]
+        if (this.notesSort != notesSort) {
+            this.notesSort = notesSort
+            notifyItemRangeChanged(0, itemCount)
+        }
     }
 
+    /** Only contains the notes which are currently loaded. */
     val currentList: List<Item>
-        get() = list.toList()
-
-    fun submitList(items: List<Item>) {
-        list.replaceAll(items)
-    }
+        get() = snapshot().items
 
     override fun onViewRecycled(holder: RecyclerView.ViewHolder) {
         super.onViewRecycled(holder)
@@ -103,34 +93,23 @@ class BaseNoteAdapter(
         }
     }
 
-    private fun NotesSort.createCallback() =
-        when (sortedBy) {
-            NotesSortBy.TITLE -> BaseNoteTitleSort(this@BaseNoteAdapter, sortDirection)
-            NotesSortBy.MODIFIED_DATE ->
-                BaseNoteModifiedDateSort(this@BaseNoteAdapter, sortDirection)
-            else -> BaseNoteCreationDateSort(this@BaseNoteAdapter, sortDirection)
-        }
-
-    private fun replaceSortCallback(sortCallback: SortedListAdapterCallback<Item>) {
-        val mutableList = mutableListOf<Item>()
-        for (i in 0 until list.size()) {
-            mutableList.add(list[i])
-        }
-        list.clear()
-        list = SortedList(Item::class.java, sortCallback)
-        list.addAll(mutableList)
-    }
-
     private fun handleCheck(holder: RecyclerView.ViewHolder, position: Int) {
-        val baseNote = list[position] as BaseNote
+        val baseNote = peek(position) as? NoteCard ?: return
         (holder as BaseNoteVH).updateCheck(selectedIds.contains(baseNote.id), baseNote.color)
     }
 
-    private fun <T> SortedList<T>.toList(): List<T> {
-        val mutableList = mutableListOf<T>()
-        for (i in 0 until this.size()) {
-            mutableList.add(this[i])
+    private object DiffCallback : DiffUtil.ItemCallback<Item>() {
+
+        override fun areItemsTheSame(oldItem: Item, newItem: Item): Boolean {
+            return when {
+                oldItem is NoteCard && newItem is NoteCard -> oldItem.id == newItem.id
+                oldItem is Header && newItem is Header -> oldItem == newItem
+                else -> false
+            }
+        }
+
+        override fun areContentsTheSame(oldItem: Item, newItem: Item): Boolean {
+            return oldItem == newItem
         }
-        return mutableList.toList()
     }
 }
@@ -4,7 +4,7 @@ import android.view.LayoutInflater
 import android.view.ViewGroup
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ListAdapter
-import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.databinding.ItemHomeTaskCardBinding
 import java.text.SimpleDateFormat
 import java.util.*
@@ -14,8 +14,8 @@ enum class IconType {
 }
 
 class HomeTaskAdapter(
-    private val onNoteClick: (BaseNote) -> Unit
-) : ListAdapter<BaseNote, HomeTaskViewHolder>(HomeTaskDiffCallback()) {
+    private val onNoteClick: (NoteCard) -> Unit
+) : ListAdapter<NoteCard, HomeTaskViewHolder>(HomeTaskDiffCallback()) {
 
     companion object {
         const val VIEW_TYPE_HEADER = 0
@@ -47,7 +47,7 @@ class HomeTaskAdapter(
     }
     
     // Public method to get item by position (for transition)
-    fun getItemAt(position: Int): BaseNote? {
+    fun getItemAt(position: Int): NoteCard? {
         return if (position >= 0 && position < itemCount) {
             getItem(position)
         } else {
@@ -58,7 +58,7 @@ class HomeTaskAdapter(
 
 class HomeTaskViewHolder(
     private val binding: ItemHomeTaskCardBinding,
-    private val onNoteClick: (BaseNote) -> Unit
+    private val onNoteClick: (NoteCard) -> Unit
 ) : androidx.recyclerview.widget.RecyclerView.ViewHolder(binding.root) {
 
     private val dateFormat = SimpleDateFormat("dd MMM, yyyy", Locale.getDefault())
@@ -73,7 +73,7 @@ class HomeTaskViewHolder(
         timeFormat.applyPattern("hh:mm a")
     }
 
-    fun bind(note: BaseNote, gradientDrawable: Int) {
+    fun bind(note: NoteCard, gradientDrawable: Int) {
         binding.apply {
             // Set transition name cho Material Container Transform
             CardRoot.transitionName = "note_card_${note.id}"
@@ -135,12 +135,12 @@ class HomeTaskViewHolder(
     }
 }
 
-class HomeTaskDiffCallback : DiffUtil.ItemCallback<BaseNote>() {
-    override fun areItemsTheSame(oldItem: BaseNote, newItem: BaseNote): Boolean {
+class HomeTaskDiffCallback : DiffUtil.ItemCallback<NoteCard>() {
+    override fun areItemsTheSame(oldItem: NoteCard, newItem: NoteCard): Boolean {
         return oldItem.id == newItem.id
     }
 
-    override fun areContentsTheSame(oldItem: BaseNote, newItem: BaseNote): Boolean {
+    override fun areContentsTheSame(oldItem: NoteCard, newItem: NoteCard): Boolean {
         return oldItem == newItem
     }
 }
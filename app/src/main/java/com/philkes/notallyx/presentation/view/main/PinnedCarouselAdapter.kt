@@ -5,12 +5,12 @@ import android.view.ViewGroup
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
-import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.databinding.ItemPinnedCarouselBinding
 
 class PinnedCarouselAdapter(
-    private val onClick: (BaseNote) -> Unit,
-) : ListAdapter<BaseNote, PinnedCarouselAdapter.ViewHolder>(Diff) {
+    private val onClick: (NoteCard) -> Unit,
+) : ListAdapter<NoteCard, PinnedCarouselAdapter.ViewHolder>(Diff) {
 
     // Cache gradient for each note ID to ensure consistency and avoid random lag
     private val noteGradientCache = mutableMapOf<Long, Int>()
@@ -35,7 +35,7 @@ class PinnedCarouselAdapter(
     }
     
     // Public method to get item by position (for transition)
-    fun getItemAt(position: Int): BaseNote? {
+    fun getItemAt(position: Int): NoteCard? {
         return if (position >= 0 && position < itemCount) {
             getItem(position)
         } else {
@@ -45,9 +45,9 @@ class PinnedCarouselAdapter(
 
     class ViewHolder(
         private val binding: ItemPinnedCarouselBinding,
-        private val onClick: (BaseNote) -> Unit,
+        private val onClick: (NoteCard) -> Unit,
     ) : RecyclerView.ViewHolder(binding.root) {
-        fun bind(note: BaseNote, gradientRes: Int) {
+        fun bind(note: NoteCard, gradientRes: Int) {
             // Set transition name cho Material Container Transform
             binding.root.transitionName = "note_card_${note.id}"
             
@@ -64,9 +64,9 @@ class PinnedCarouselAdapter(
         }
     }
 
-    private object Diff : DiffUtil.ItemCallback<BaseNote>() {
-        override fun areItemsTheSame(oldItem: BaseNote, newItem: BaseNote): Boolean = oldItem.id == newItem.id
-        override fun areContentsTheSame(oldItem: BaseNote, newItem: BaseNote): Boolean = oldItem == newItem
+    private object Diff : DiffUtil.ItemCallback<NoteCard>() {
+        override fun areItemsTheSame(oldItem: NoteCard, newItem: NoteCard): Boolean = oldItem.id == newItem.id
+        override fun areContentsTheSame(oldItem: NoteCard, newItem: NoteCard): Boolean = oldItem == newItem
     }
 }
 
@@ -5,7 +5,7 @@ import android.view.ViewGroup
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
-import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.databinding.RecyclerPinnedNoteBinding
 import com.philkes.notallyx.presentation.view.misc.ItemListener
 import com.philkes.notallyx.presentation.viewmodel.preference.DateFormat
@@ -17,9 +17,9 @@ class PinnedNoteAdapter(
     private val preferences: BaseNoteVHPreferences,
     private val imageRoot: java.io.File?,
     private val listener: ItemListener,
-    private val onNoteClick: (BaseNote) -> Unit,
-    private val onNoteLongClick: (BaseNote) -> Unit,
-) : ListAdapter<BaseNote, PinnedNoteAdapter.PinnedNoteViewHolder>(PinnedNoteDiffCallback()) {
+    private val onNoteClick: (NoteCard) -> Unit,
+    private val onNoteLongClick: (NoteCard) -> Unit,
+) : ListAdapter<NoteCard, PinnedNoteAdapter.PinnedNoteViewHolder>(PinnedNoteDiffCallback()) {
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): PinnedNoteViewHolder {
         val binding = RecyclerPinnedNoteBinding.inflate(
@@ -48,7 +48,7 @@ class PinnedNoteAdapter(
         listener: ItemListener,
     ) : RecyclerView.ViewHolder(binding.root) {
 
-        private var currentNote: BaseNote? = null
+        private var currentNote: NoteCard? = null
         
         init {
             binding.root.setOnClickListener {
@@ -80,7 +80,7 @@ class PinnedNoteAdapter(
         )
 
         fun bind(
-            baseNote: BaseNote,
+            baseNote: NoteCard,
             imageRoot: java.io.File?,
             checked: Boolean,
             sortBy: NotesSortBy,
@@ -106,12 +106,12 @@ class PinnedNoteAdapter(
         }
     }
 
-    private class PinnedNoteDiffCallback : DiffUtil.ItemCallback<BaseNote>() {
-        override fun areItemsTheSame(oldItem: BaseNote, newItem: BaseNote): Boolean {
+    private class PinnedNoteDiffCallback : DiffUtil.ItemCallback<NoteCard>() {
+        override fun areItemsTheSame(oldItem: NoteCard, newItem: NoteCard): Boolean {
             return oldItem.id == newItem.id
         }
 
-        override fun areContentsTheSame(oldItem: BaseNote, newItem: BaseNote): Boolean {
+        override fun areContentsTheSame(oldItem: NoteCard, newItem: NoteCard): Boolean {
             return oldItem == newItem
         }
     }
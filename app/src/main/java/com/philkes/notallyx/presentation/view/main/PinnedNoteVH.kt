@@ -21,6 +21,7 @@ import com.philkes.notallyx.R
 import com.philkes.notallyx.data.model.BaseNote
 import com.philkes.notallyx.data.model.FileAttachment
 import com.philkes.notallyx.data.model.ListItem
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.data.model.SpanRepresentation
 import com.philkes.notallyx.data.model.Type
 import com.philkes.notallyx.data.model.hasUpcomingNotification
@@ -76,12 +77,12 @@ class PinnedNoteVH(
         binding.root.isChecked = checked
     }
 
-    fun bind(baseNote: BaseNote, imageRoot: File?, checked: Boolean, sortBy: NotesSortBy) {
+    fun bind(baseNote: NoteCard, imageRoot: File?, checked: Boolean, sortBy: NotesSortBy) {
         updateCheck(checked, baseNote.color)
 
         when (baseNote.type) {
-            Type.NOTE -> bindNote(baseNote.body, baseNote.spans, baseNote.title.isEmpty())
-            Type.LIST -> bindList(baseNote.items, baseNote.title.isEmpty())
+            Type.NOTE -> bindNote(baseNote.body, baseNote.previewSpans, baseNote.title.isEmpty())
+            Type.LIST -> bindList(baseNote.items, baseNote.itemCount, baseNote.title.isEmpty())
         }
         val (date, datePrefixResId) =
             when (sortBy) {
@@ -148,7 +149,7 @@ class PinnedNoteVH(
         }
     }
 
-    private fun bindList(items: List<ListItem>, isTitleEmpty: Boolean) {
+    private fun bindList(items: List<ListItem>, itemCount: Int, isTitleEmpty: Boolean) {
         binding.apply {
             Note.visibility = GONE
             if (items.isEmpty()) {
@@ -178,10 +179,10 @@ class PinnedNoteVH(
                     }
                 }
 
-                if (preferences.maxItems > 0 && items.size > 3) {
+                if (preferences.maxItems > 0 && itemCount > 3) {
                     ItemsRemaining.apply {
                         visibility = VISIBLE
-                        text = (items.size - 3).toString()
+                        text = (itemCount - 3).toString()
                     }
                 } else ItemsRemaining.visibility = GONE
             }
@@ -305,17 +306,17 @@ class PinnedNoteVH(
         }
     }
 
-    private fun shouldOnlyDisplayTitle(baseNote: BaseNote) =
+    private fun shouldOnlyDisplayTitle(baseNote: NoteCard) =
         when (baseNote.type) {
             Type.NOTE -> preferences.maxLines < 1
             Type.LIST -> preferences.maxItems < 1
         }
 
-    private fun BaseNote.isEmpty() = title.isBlank() && hasNoContents() && images.isEmpty()
+    private fun NoteCard.isEmpty() = title.isBlank() && hasNoContents() && images.isEmpty()
 
-    private fun BaseNote.hasNoContents() = body.isEmpty() && items.isEmpty()
+    private fun NoteCard.hasNoContents() = body.isEmpty() && itemCount == 0
 
-    private fun BaseNote.getEmptyMessage() =
+    private fun NoteCard.getEmptyMessage() =
         when (type) {
             Type.NOTE -> R.string.empty_note
             Type.LIST -> R.string.empty_list
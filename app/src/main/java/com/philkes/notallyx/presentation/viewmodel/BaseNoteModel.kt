@@ -12,15 +12,19 @@ import androidx.documentfile.provider.DocumentFile
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
-import androidx.lifecycle.Observer
 import androidx.lifecycle.viewModelScope
+import androidx.paging.PagingData
+import androidx.paging.insertSeparators
+import androidx.paging.map
 import androidx.room.withTransaction
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.philkes.notallyx.R
 import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.NoteChangeLiveData
 import com.philkes.notallyx.data.dao.BaseNoteDao
 import com.philkes.notallyx.data.dao.CommonDao
 import com.philkes.notallyx.data.dao.LabelDao
+import com.philkes.notallyx.data.dao.NoteCardQuery
 import com.philkes.notallyx.data.dao.NoteReminder
 import com.philkes.notallyx.data.imports.ImportException
 import com.philkes.notallyx.data.imports.ImportProgress
@@ -29,15 +33,15 @@ import com.philkes.notallyx.data.imports.NotesImporter
 import com.philkes.notallyx.data.model.Attachment
 import com.philkes.notallyx.data.model.Audio
 import com.philkes.notallyx.data.model.BaseNote
-import com.philkes.notallyx.data.model.Content
 import com.philkes.notallyx.data.model.Converters
 import com.philkes.notallyx.data.model.FileAttachment
 import com.philkes.notallyx.data.model.Folder
 import com.philkes.notallyx.data.model.Header
 import com.philkes.notallyx.data.model.Item
 import com.philkes.notallyx.data.model.Label
-import com.philkes.notallyx.data.model.SearchResult
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.data.model.toNoteIdReminders
+import com.philkes.notallyx.data.patch
 import com.philkes.notallyx.presentation.getQuantityString
 import com.philkes.notallyx.presentation.setCancelButton
 import com.philkes.notallyx.presentation.showToast
@@ -51,7 +55,6 @@ import com.philkes.notallyx.presentation.viewmodel.preference.NotallyXPreference
 import com.philkes.notallyx.presentation.viewmodel.preference.NotallyXPreferences.Companion.START_VIEW_UNLABELED
 import com.philkes.notallyx.presentation.viewmodel.preference.Theme
 import com.philkes.notallyx.utils.ActionMode
-import com.philkes.notallyx.utils.Cache
 import com.philkes.notallyx.utils.MIME_TYPE_JSON
 import com.philkes.notallyx.utils.backup.clearAllFolders
 import com.philkes.notallyx.utils.backup.clearAllLabels
@@ -75,6 +78,8 @@ import java.util.concurrent.atomic.AtomicInteger
 import javax.crypto.Cipher
 import kotlinx.coroutines.CoroutineExceptionHandler
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
@@ -85,35 +90,29 @@ class BaseNoteModel(private val app: Application) : AndroidViewModel(app) {
     private lateinit var commonDao: CommonDao
     private lateinit var baseNoteDao: BaseNoteDao
 
-    private val labelCache = HashMap<String, Content>()
-
     var selectedExportFile: DocumentFile? = null
     lateinit var selectedExportMimeType: ExportMimeType
 
     lateinit var labels: LiveData<List<String>>
     lateinit var reminders: LiveData<List<NoteReminder>>
-    private var allNotes: LiveData<List<BaseNote>>? = null
-    private var allNotesObserver: Observer<List<BaseNote>>? = null
-    var baseNotes: Content? = null
-    var deletedNotes: Content? = null
-    var archivedNotes: Content? = null
 
     val folder = NotNullLiveData(Folder.NOTES)
 
     var currentLabel: String? = CURRENT_LABEL_EMPTY
+        set(value) {
+            field = value
+            updateSearchQuery()
+        }
 
     var keyword = String()
         set(value) {
-            if (field != value || searchResults?.value?.isEmpty() == true) {
+            if (field != value) {
                 field = value
-                searchResults!!.fetch(keyword, folder.value, currentLabel)
+                updateSearchQuery()
             }
         }
 
-    var searchResults: SearchResult? = null
-
-    private val pinned = Header(app.getString(R.string.pinned))
-    private val others = Header(app.getString(R.string.others))
+    val searchQuery = NotNullLiveData(NoteCardQuery(Folder.NOTES))
 
     val preferences = NotallyXPreferences.getInstance(app)
 
@@ -133,9 +132,7 @@ class BaseNoteModel(private val app: Application) : AndroidViewModel(app) {
     init {
         databaseObserver = androidx.lifecycle.Observer { database -> init(database) }
         NotallyDatabase.getDatabase(app).observeForever(databaseObserver!!)
-        folderObserver = androidx.lifecycle.Observer { newFolder ->
-            searchResults?.fetch(keyword, newFolder, currentLabel)
-        }
+        folderObserver = androidx.lifecycle.Observer { updateSearchQuery() }
         folder.observeForever(folderObserver!!)
     }
 
@@ -156,17 +153,6 @@ class BaseNoteModel(private val app: Application) : AndroidViewModel(app) {
                 // Ignore if already removed
             }
         }
-        allNotes?.let { notes ->
-            allNotesObserver?.let { observer ->
-                try {
-                    notes.removeObserver(observer)
-                } catch (e: Exception) {
-                    // Ignore if already removed
-                }
-            }
-        }
-        // Clear cache to free memory
-        labelCache.clear()
     }
 
     private fun init(database: NotallyDatabase) {
@@ -177,36 +163,7 @@ class BaseNoteModel(private val app: Application) : AndroidViewModel(app) {
 
         labels = labelDao.getAll()
         //        colors = baseNoteDao.getAllColorsAsync()
-        reminders = baseNoteDao.getAllRemindersAsync()
-
-        allNotes?.removeObserver(allNotesObserver!!)
-        allNotesObserver = Observer { list -> Cache.list = list }
-        allNotes = baseNoteDao.getAllAsync()
-        allNotes!!.observeForever(allNotesObserver!!)
-
-        if (baseNotes == null) {
-            baseNotes = Content(baseNoteDao.getFrom(Folder.NOTES), ::transform)
-        } else {
-            baseNotes!!.setObserver(baseNoteDao.getFrom(Folder.NOTES))
-        }
-
-        if (deletedNotes == null) {
-            deletedNotes = Content(baseNoteDao.getFrom(Folder.DELETED), ::transform)
-        } else {
-            deletedNotes!!.setObserver(baseNoteDao.getFrom(Folder.DELETED))
-        }
-
-        if (archivedNotes == null) {
-            archivedNotes = Content(baseNoteDao.getFrom(Folder.ARCHIVED), ::transform)
-        } else {
-            archivedNotes!!.setObserver(baseNoteDao.getFrom(Folder.ARCHIVED))
-        }
-
-        if (searchResults == null) {
-            searchResults = SearchResult(viewModelScope, baseNoteDao, ::transform)
-        } else {
-            searchResults!!.baseNoteDao = baseNoteDao
-        }
+        reminders = getNoteReminders()
 
         viewModelScope.launch {
             val previousNotes = app.getPreviousNotes()
@@ -222,18 +179,52 @@ class BaseNoteModel(private val app: Application) : AndroidViewModel(app) {
         }
     }
 
-    fun getNotesByLabel(label: String): Content {
-        if (labelCache[label] == null) {
-            labelCache[label] = Content(baseNoteDao.getBaseNotesByLabel(label), ::transform)
+    private fun getNoteReminders(): LiveData<List<NoteReminder>> {
+        val load = suspend { baseNoteDao.getNoteReminders() }
+        return NoteChangeLiveData(database.noteChanges, load) { reminders, changes ->
+            reminders.patch(changes, NoteReminder::id) { note ->
+                note.takeIf { it.reminders.isNotEmpty() }?.let {
+                    NoteReminder(it.id, it.title, it.type, it.reminders)
+                }
+            }
         }
-        return requireNotNull(labelCache[label])
     }
 
-    fun getNotesWithoutLabel(): Content {
-        return Content(baseNoteDao.getBaseNotesWithoutLabel(Folder.NOTES), ::transform)
+    /**
+     * The notes of [query] which are not pinned, loaded page by page. The pinned notes are loaded
+     * separately by [getPinnedNotes].
+     */
+    fun getPagedNotes(query: NoteCardQuery): Flow<PagingData<Item>> {
+        return baseNoteDao
+            .getNoteCardsPaged(query, preferences.notesSorting.value, pinned = false)
+            .map { notes -> notes.map<NoteCard, Item> { it } }
     }
 
-    private fun transform(list: List<BaseNote>) = transform(list, pinned, others)
+    /** There are usually only a few pinned notes, so they are not paged. */
+    fun getPinnedNotes(query: NoteCardQuery): LiveData<List<NoteCard>> {
+        return baseNoteDao.getNoteCardsAsync(query, preferences.notesSorting.value, pinned = true)
+    }
+
+    suspend fun getNotes(query: NoteCardQuery): List<NoteCard> {
+        return baseNoteDao.getNoteCards(query, preferences.notesSorting.value)
+    }
+
+    /**
+     * All notes of [query] at once, for screens which group or filter the notes in memory. Unlike
+     * [getPagedNotes] the whole result is loaded, so [query] should only match the notes the screen
+     * actually needs.
+     */
+    fun getNotesAsync(query: NoteCardQuery): LiveData<List<NoteCard>> {
+        return baseNoteDao.getNoteCardsAsync(query, preferences.notesSorting.value)
+    }
+
+    fun countNotes(folder: Folder): LiveData<Int> {
+        return baseNoteDao.countAsync(folder)
+    }
+
+    private fun updateSearchQuery() {
+        searchQuery.value = NoteCardQuery(folder.value, currentLabel, keyword = keyword)
+    }
 
     fun disableBackups() {
         val value = preferences.backupsFolder.value
@@ -339,14 +330,24 @@ class BaseNoteModel(private val app: Application) : AndroidViewModel(app) {
 
     fun exportBackup(uri: Uri) {
         viewModelScope.launch {
-            withContext(Dispatchers.IO) {
-                app.exportAsZip(
-                    uri,
-                    password = preferences.backupPassword.value,
-                    backupProgress = exportProgress,
-                )
-            }
-            app.showToast(R.string.saved_to_device)
+            val exported =
+                withContext(Dispatchers.IO) {
+                    try {
+                        app.exportAsZip(
+                            uri,
+                            password = preferences.backupPassword.value,
+                            backupProgress = exportProgress,
+                        )
+                        true
+                    } catch (e: Exception) {
+                        app.log(TAG, throwable = e)
+                        exportProgress.postValue(Progress(inProgress = false))
+                        // Do not leave an incomplete backup behind
+                        DocumentFile.fromSingleUri(app, uri)?.delete()
+                        false
+                    }
+                }
+            app.showToast(if (exported) R.string.saved_to_device else R.string.something_went_wrong)
         }
     }
 
@@ -461,7 +462,13 @@ class BaseNoteModel(private val app: Application) : AndroidViewModel(app) {
     }
 
     fun exportSelectedNotesToFolder(folderUri: Uri) {
-        exportNotesToFolder(folderUri, actionMode.selectedNotes.values)
+        viewModelScope.launch { exportNotesToFolder(folderUri, getSelectedBaseNotes()) }
+    }
+
+    /** [actionMode] only holds [NoteCard]s, this loads the complete selected notes. */
+    suspend fun getSelectedBaseNotes(): List<BaseNote> {
+        val ids = actionMode.selectedIds.toLongArray()
+        return withContext(Dispatchers.IO) { baseNoteDao.getByIds(ids) }
     }
 
     fun pinBaseNotes(pinned: Boolean) {
@@ -751,7 +758,7 @@ class BaseNoteModel(private val app: Application) : AndroidViewModel(app) {
         const val CURRENT_LABEL_EMPTY = ""
         val CURRENT_LABEL_NONE: String? = null
 
-        fun transform(list: List<BaseNote>, pinned: Header, others: Header): List<Item> {
+        fun transform(list: List<NoteCard>, pinned: Header, others: Header): List<Item> {
             if (list.isEmpty()) {
                 return list
             } else {
@@ -771,6 +778,18 @@ class BaseNoteModel(private val app: Application) : AndroidViewModel(app) {
                 } else list
             }
         }
+
+        /** Paged equivalent of [transform]. */
+        fun PagingData<NoteCard>.insertHeaders(pinned: Header, others: Header): PagingData<Item> {
+            return insertSeparators { before: NoteCard?, after: NoteCard? ->
+                when {
+                    after == null -> null
+                    before == null -> if (after.pinned) pinned else null
+                    before.pinned && !after.pinned -> others
+                    else -> null
+                }
+            }
+        }
     }
 }
 
@@ -20,6 +20,7 @@ import com.google.gson.Gson
 import com.google.gson.reflect.TypeToken
 import com.philkes.notallyx.R
 import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.NoteJournal
 import com.philkes.notallyx.data.dao.BaseNoteDao
 import com.philkes.notallyx.data.dao.NoteIdReminder
 import com.philkes.notallyx.data.model.Audio
@@ -41,7 +42,6 @@ import com.philkes.notallyx.presentation.view.misc.NotNullLiveData
 import com.philkes.notallyx.presentation.view.misc.Progress
 import com.philkes.notallyx.presentation.viewmodel.preference.NotallyXPreferences
 import com.philkes.notallyx.presentation.widget.WidgetProvider
-import com.philkes.notallyx.utils.Cache
 import com.philkes.notallyx.utils.Event
 import com.philkes.notallyx.utils.FileError
 import com.philkes.notallyx.utils.backup.checkAutoSave
@@ -54,10 +54,19 @@ import com.philkes.notallyx.utils.getExternalAudioDirectory
 import com.philkes.notallyx.utils.getExternalFilesDirectory
 import com.philkes.notallyx.utils.getExternalImagesDirectory
 import com.philkes.notallyx.utils.getTempAudioFile
+import com.philkes.notallyx.utils.log
 import com.philkes.notallyx.utils.scheduleReminder
 import java.io.File
+import kotlinx.coroutines.CoroutineExceptionHandler
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 
 typealias BackupFile = Pair<String?, File>
@@ -110,6 +119,25 @@ class NotallyModel(private val app: Application) : AndroidViewModel(app) {
 
     private lateinit var originalNote: BaseNote
 
+    /** The state of the note as it was last written to the database, see [saveNote]. */
+    @Volatile private lateinit var savedNote: BaseNote
+    @Volatile private var savedDrawingStrokes: List<DrawingStroke> = emptyList()
+
+    /** Whether an autosave wrote changes which were not backed up yet, see [close]. */
+    @Volatile private var needsBackupCheck = false
+
+    /** Guards [savedNote] and the [NoteJournal] of the note. */
+    private val saveMutex = Mutex()
+    private var autosaveJob: Job? = null
+
+    /** Edits stay in the [NoteJournal] if saving fails, they are saved again with the next save. */
+    private val saveExceptionHandler = CoroutineExceptionHandler { _, throwable ->
+        app.log(TAG, throwable = throwable)
+    }
+
+    /** When the latest entry was appended to the [NoteJournal], see [journalEdits]. */
+    @Volatile private var journaledAt = 0L
+
     private var databaseObserver: Observer<NotallyDatabase>? = null
 
     init {
@@ -250,11 +278,17 @@ class NotallyModel(private val app: Application) : AndroidViewModel(app) {
         if (id != 0L) {
             isNewNote = false
 
-            val cachedNote = Cache.list.find { baseNote -> baseNote.id == id }
-            val baseNote = cachedNote ?: withContext(Dispatchers.IO) { baseNoteDao.get(id) }
+            val savedNote =
+                withContext(Dispatchers.IO) { database.value.noteCache.get(id, database.value) }
+
+            if (savedNote != null) {
+                originalNote = savedNote.deepCopy()
+                this.savedNote = originalNote
 
-            if (baseNote != null) {
-                originalNote = baseNote.deepCopy()
+                // Edits which were not saved before the app was killed
+                val journaled =
+                    withContext(Dispatchers.IO) { NoteJournal.of(app, id).replay(savedNote) }
+                val baseNote = journaled?.note ?: savedNote
 
                 this.id = id
                 folder = baseNote.folder
@@ -279,20 +313,16 @@ class NotallyModel(private val app: Application) : AndroidViewModel(app) {
 
                 // Load drawing strokes t? JSON
                 drawingStrokes.clear()
-                if (!baseNote.drawingStrokesJson.isNullOrEmpty()) {
-                    try {
-                        val strokes =
-                            gson.fromJson<List<DrawingStroke>>(
-                                baseNote.drawingStrokesJson,
-                                strokesType,
-                            )
-                        if (strokes != null) {
-                            drawingStrokes.addAll(strokes)
-                        }
-                    } catch (e: Exception) {
-                        // N?u parse l?i, b? qua
-                        e.printStackTrace()
-                    }
+                val drawingStrokesJson = withContext(Dispatchers.IO) { baseNoteDao.getDrawing(id) }
+                drawingStrokes.addAll(parseDrawingStrokes(drawingStrokesJson))
+                savedDrawingStrokes = ArrayList(drawingStrokes)
+                journaled?.drawingStrokesJson?.let { json ->
+                    drawingStrokes.clear()
+                    drawingStrokes.addAll(parseDrawingStrokes(json))
+                }
+
+                if (journaled != null) {
+                    scheduleAutosave()
                 }
             } else {
                 originalNote = createBaseNote()
@@ -304,19 +334,26 @@ class NotallyModel(private val app: Application) : AndroidViewModel(app) {
     private suspend fun createBaseNote(): BaseNote {
         val baseNote = getBaseNote()
         id = withContext(Dispatchers.IO) { baseNoteDao.insert(baseNote) }
-        return baseNote.copy(id = id)
+        savedNote = baseNote.copy(id = id).deepCopy()
+        savedDrawingStrokes = emptyList()
+        return savedNote
     }
 
     suspend fun deleteBaseNote(checkAutoSave: Boolean = true) {
         app.cancelNoteReminders(listOf(NoteIdReminder(id, reminders.value)))
-        withContext(Dispatchers.IO) { baseNoteDao.delete(id) }
+        withContext(Dispatchers.IO) {
+            baseNoteDao.delete(id)
+            saveMutex.withLock { NoteJournal.of(app, id).clear() }
+        }
         WidgetProvider.sendBroadcast(app, longArrayOf(id))
         val attachments = ArrayList(images.value + files.value + audios.value)
         if (attachments.isNotEmpty()) {
             withContext(Dispatchers.IO) { app.deleteAttachments(attachments) }
         }
         if (checkAutoSave) {
-            app.checkAutoSave(preferences, forceFullBackup = true)
+            withContext(Dispatchers.IO) {
+                app.checkAutoSave(preferences, forceFullBackup = true)
+            }
         }
     }
 
@@ -326,18 +363,132 @@ class NotallyModel(private val app: Application) : AndroidViewModel(app) {
     }
 
     suspend fun saveNote(): Long {
-        return withContext(Dispatchers.IO) {
-            val note = getBaseNote()
-            val id = baseNoteDao.insert(note)
+        return saveNote(getBaseNote(), getChangedDrawing(), checkAutoSave = true)
+    }
+
+    /**
+     * Only writes the fields which changed since the note was last saved, see [BaseNoteDao.update].
+     * [drawing] is only passed if the strokes changed, it is then saved in the same transaction as
+     * the note. The [NoteJournal] is cleared, unless it contains newer edits than [note].
+     */
+    private suspend fun saveNote(
+        note: BaseNote,
+        drawing: DrawingSnapshot?,
+        checkAutoSave: Boolean,
+    ): Long {
+        // Finish the write even if the editor is closed meanwhile, savedNote has to match the row
+        val id =
+            withContext(NonCancellable + Dispatchers.IO) {
+                saveMutex.withLock {
+                    val id =
+                        if (drawing != null) {
+                            baseNoteDao.update(savedNote, note, drawing.json).also {
+                                savedDrawingStrokes = drawing.strokes
+                            }
+                        } else {
+                            baseNoteDao.update(savedNote, note)
+                        }
+                    savedNote = note.copy(id = id).deepCopy()
+                    if (journaledAt <= note.modifiedTimestamp) {
+                        NoteJournal.of(app, id).clear()
+                    }
+                    id
+                }
+            }
+        if (checkAutoSave) {
+            checkAutoSave(note)
+        }
+        return id
+    }
+
+    private suspend fun checkAutoSave(note: BaseNote) {
+        needsBackupCheck = false
+        withContext(Dispatchers.IO) {
             app.checkAutoSave(
                 preferences,
                 note = note,
                 forceFullBackup = originalNote.attachmentsDifferFrom(note),
             )
-            return@withContext id
         }
     }
 
+    /**
+     * Appends the current state of the note to its [NoteJournal] and schedules an autosave, which
+     * coalesces all journaled edits into a single database write. Has to be called on the main
+     * thread.
+     */
+    suspend fun journalEdits() {
+        val editedAt = System.currentTimeMillis()
+        val note = getBaseNote()
+        // Only journal the drawing if it was edited, an empty string marks a removed drawing
+        val drawingStrokesJson =
+            if (drawingStrokes != savedDrawingStrokes) getDrawingStrokesJson() ?: "" else null
+        withContext(Dispatchers.IO) {
+            saveMutex.withLock {
+                NoteJournal.of(app, note.id).append(editedAt, note, drawingStrokesJson)
+                journaledAt = editedAt
+            }
+        }
+        scheduleAutosave()
+    }
+
+    private fun scheduleAutosave() {
+        if (autosaveJob?.isActive == true) {
+            return
+        }
+        autosaveJob =
+            viewModelScope.launch(saveExceptionHandler) {
+                do {
+                    delay(AUTOSAVE_DELAY_MILLIS)
+                } while (autosave())
+            }
+    }
+
+    /** Returns whether further edits were journaled while saving, which need another autosave. */
+    private suspend fun autosave(): Boolean {
+        if (!hasUnsavedChanges()) {
+            return false
+        }
+        modifiedTimestamp = System.currentTimeMillis()
+        val note = getBaseNote()
+        needsBackupCheck = true
+        saveNote(note, getChangedDrawing(), checkAutoSave = false)
+        WidgetProvider.sendBroadcast(app, longArrayOf(note.id))
+        return journaledAt > note.modifiedTimestamp
+    }
+
+    /**
+     * Saves or deletes the note without waiting for it, so that the editor can be closed
+     * immediately. Pending edits stay in the [NoteJournal] until they are saved. Changes which were
+     * already written by an autosave are backed up now, since autosaves skip the backup.
+     */
+    fun close() {
+        autosaveJob?.cancel()
+        val isEmpty = isEmpty()
+        if (!isEmpty && !hasUnsavedChanges()) {
+            val note = getBaseNote()
+            if (needsBackupCheck && note != originalNote) {
+                closeScope.launch(saveExceptionHandler) { checkAutoSave(note) }
+            }
+            return
+        }
+        modifiedTimestamp = System.currentTimeMillis()
+        val note = getBaseNote()
+        val drawing = getChangedDrawing()
+        closeScope.launch(saveExceptionHandler) {
+            if (isEmpty) {
+                deleteBaseNote(checkAutoSave = false)
+            } else {
+                saveNote(note, drawing, checkAutoSave = true)
+                WidgetProvider.sendBroadcast(app, longArrayOf(note.id))
+            }
+        }
+    }
+
+    private fun hasUnsavedChanges(): Boolean {
+        return getBaseNote() != savedNote || drawingStrokes != savedDrawingStrokes
+    }
+
     fun isEmpty(): Boolean {
         return title.isEmpty() &&
             body.isEmpty() &&
@@ -348,7 +499,7 @@ class NotallyModel(private val app: Application) : AndroidViewModel(app) {
     }
 
     fun isModified(): Boolean {
-        return getBaseNote() != originalNote
+        return getBaseNote() != originalNote || drawingStrokes != savedDrawingStrokes
     }
 
     private suspend fun updateImages() {
@@ -368,19 +519,6 @@ class NotallyModel(private val app: Application) : AndroidViewModel(app) {
         val body = this.body.toString()
         val nonEmptyItems = this.items.filter { item -> item.body.isNotEmpty() }
 
-        // Serialize drawing strokes th�nh JSON
-        val drawingStrokesJson =
-            if (drawingStrokes.isNotEmpty()) {
-                try {
-                    gson.toJson(drawingStrokes)
-                } catch (e: Exception) {
-                    e.printStackTrace()
-                    null
-                }
-            } else {
-                null
-            }
-
         return BaseNote(
             id,
             type,
@@ -398,10 +536,50 @@ class NotallyModel(private val app: Application) : AndroidViewModel(app) {
             files.value,
             audios.value,
             reminders.value,
-            drawingStrokesJson,
         )
     }
 
+    private fun parseDrawingStrokes(drawingStrokesJson: String?): List<DrawingStroke> {
+        if (drawingStrokesJson.isNullOrEmpty()) {
+            return emptyList()
+        }
+        return try {
+            gson.fromJson<List<DrawingStroke>>(drawingStrokesJson, strokesType) ?: emptyList()
+        } catch (e: Exception) {
+            // N?u parse l?i, b? qua
+            e.printStackTrace()
+            emptyList()
+        }
+    }
+
+    /**
+     * Copies the strokes and their JSON, so that they can be saved off the main thread while the
+     * drawing is edited. Returns `null` if the strokes did not change since they were last saved.
+     */
+    private fun getChangedDrawing(): DrawingSnapshot? {
+        if (drawingStrokes == savedDrawingStrokes) {
+            return null
+        }
+        return DrawingSnapshot(ArrayList(drawingStrokes), getDrawingStrokesJson())
+    }
+
+    private class DrawingSnapshot(val strokes: List<DrawingStroke>, val json: String?)
+
+    /** Drawings are stored separately from the [BaseNote], see [BaseNoteDao.updateDrawing]. */
+    private fun getDrawingStrokesJson(): String? {
+        // Serialize drawing strokes th�nh JSON
+        return if (drawingStrokes.isNotEmpty()) {
+            try {
+                gson.toJson(drawingStrokes)
+            } catch (e: Exception) {
+                e.printStackTrace()
+                null
+            }
+        } else {
+            null
+        }
+    }
+
     private fun getFilteredSpans(spanned: Spanned): ArrayList<SpanRepresentation> {
         val representations = LinkedHashSet<SpanRepresentation>()
         spanned.getSpans<CharacterStyle>().forEach { span ->
@@ -501,4 +679,12 @@ class NotallyModel(private val app: Application) : AndroidViewModel(app) {
         IMAGE,
         ANY,
     }
+
+    companion object {
+        private const val TAG = "NotallyModel"
+        private const val AUTOSAVE_DELAY_MILLIS = 5_000L
+
+        /** Outlives the [viewModelScope], which is cancelled as soon as the editor is closed. */
+        private val closeScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    }
 }
@@ -94,10 +94,38 @@ class NotallyXPreferences private constructor(private val context: Context) {
             R.string.max_labels_to_display,
         )
 
+    val imageMaxDimension =
+        IntPreference(
+            "imageMaxDimension",
+            preferences,
+            2048,
+            512,
+            4096,
+            R.string.image_max_dimension,
+        )
+    val imageQuality =
+        IntPreference("imageQuality", preferences, 85, 50, 100, R.string.image_quality)
+    val keepOriginalImages =
+        BooleanPreference(
+            "keepOriginalImages",
+            preferences,
+            false,
+            R.string.keep_original_images,
+        )
+
     val backupsFolder =
         StringPreference("autoBackup", preferences, EMPTY_PATH, R.string.auto_backups_folder)
     val backupOnSave =
         BooleanPreference("backupOnSave", preferences, false, R.string.auto_backup_on_save)
+    val backupOnSaveDelay =
+        IntPreference(
+            "backupOnSaveDelay",
+            preferences,
+            1,
+            0,
+            60,
+            R.string.auto_backup_on_save_delay,
+        )
     val periodicBackups = PeriodicBackupsPreference(preferences)
     val periodicBackupLastExecution =
         LongPreference("periodicBackupLastExecution", preferences, -1L)
@@ -219,6 +247,10 @@ class NotallyXPreferences private constructor(private val context: Context) {
                 periodicBackups,
                 backupPassword,
                 backupOnSave,
+                backupOnSaveDelay,
+                imageMaxDimension,
+                imageQuality,
+                keepOriginalImages,
             )
             .forEach { it.refresh() }
     }
@@ -15,9 +15,11 @@ import com.philkes.notallyx.R
 import com.philkes.notallyx.data.NotallyDatabase
 import com.philkes.notallyx.data.dao.BaseNoteDao
 import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.ListItem
 import com.philkes.notallyx.data.model.Type
 import com.philkes.notallyx.data.model.findChildrenPositions
 import com.philkes.notallyx.data.model.findParentPosition
+import com.philkes.notallyx.data.model.toListItems
 import com.philkes.notallyx.presentation.activity.ConfigureWidgetActivity
 import com.philkes.notallyx.presentation.activity.note.EditActivity.Companion.EXTRA_SELECTED_BASE_NOTE
 import com.philkes.notallyx.presentation.activity.note.EditListActivity
@@ -74,15 +76,15 @@ class WidgetProvider : AppWidgetProvider() {
             withContext(Dispatchers.IO) {
                 try {
                     val baseNoteDao = database.getBaseNoteDao()
-                    val note = baseNoteDao.get(noteId)!!
-                    val item = note.items[position]
+                    val items = baseNoteDao.getNoteItems(noteId).toListItems()
+                    val item = items[position]
                     if (checked == null) {
                         checked = !item.checked
                     }
                     if (item.isChild) {
-                        changeChildChecked(note, position, checked!!, baseNoteDao, noteId)
+                        changeChildChecked(items, position, checked!!, baseNoteDao, noteId)
                     } else {
-                        val childrenPositions = note.items.findChildrenPositions(position)
+                        val childrenPositions = items.findChildrenPositions(position)
                         baseNoteDao.updateChecked(noteId, childrenPositions + position, checked!!)
                     }
                 } finally {
@@ -94,19 +96,19 @@ class WidgetProvider : AppWidgetProvider() {
     }
 
     private suspend fun changeChildChecked(
-        note: BaseNote,
+        items: List<ListItem>,
         childPosition: Int,
         checked: Boolean,
         baseNoteDao: BaseNoteDao,
         noteId: Long,
     ) {
-        val parentPosition = note.items.findParentPosition(childPosition)!!
-        val parent = note.items[parentPosition]
-        val childrenPositions = note.items.findChildrenPositions(parentPosition)
+        val parentPosition = items.findParentPosition(childPosition)!!
+        val parent = items[parentPosition]
+        val childrenPositions = items.findChildrenPositions(parentPosition)
         if (parent.checked != checked) {
             if (checked) {
                 // If the last unchecked child is being checked also check parent
-                if (childrenPositions.none { !note.items[it].checked && it != childPosition }) {
+                if (childrenPositions.none { !items[it].checked && it != childPosition }) {
                     baseNoteDao.updateChecked(noteId, listOf(childPosition, parentPosition), true)
                 } else {
                     baseNoteDao.updateChecked(noteId, childPosition, true)
@@ -1,14 +1,14 @@
 package com.philkes.notallyx.utils
 
 import androidx.lifecycle.MutableLiveData
-import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.NoteCard
 import com.philkes.notallyx.presentation.view.misc.NotNullLiveData
 
 class ActionMode {
 
     val enabled = NotNullLiveData(false)
     val count = NotNullLiveData(0)
-    val selectedNotes = HashMap<Long, BaseNote>()
+    val selectedNotes = HashMap<Long, NoteCard>()
     val selectedIds = selectedNotes.keys
     val closeListener = MutableLiveData<Event<Set<Long>>>()
     var addListener: (() -> Unit)? = null
@@ -18,13 +18,13 @@ class ActionMode {
         enabled.value = selectedNotes.size != 0
     }
 
-    fun add(id: Long, baseNote: BaseNote) {
-        selectedNotes[id] = baseNote
+    fun add(id: Long, note: NoteCard) {
+        selectedNotes[id] = note
         refresh()
     }
 
-    fun add(baseNotes: Collection<BaseNote>) {
-        baseNotes.forEach { selectedNotes[it.id] = it }
+    fun add(notes: Collection<NoteCard>) {
+        notes.forEach { selectedNotes[it.id] = it }
         refresh()
         addListener?.invoke()
     }
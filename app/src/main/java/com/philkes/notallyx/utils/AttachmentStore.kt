@@ -0,0 +1,82 @@
+package com.philkes.notallyx.utils
+
+import java.io.File
+import java.io.InputStream
+import java.security.DigestInputStream
+import java.security.MessageDigest
+
+/**
+ * Stores images and files content-addressed in [root]: every attachment is named by the SHA-256
+ * hash of its content plus its extension. Identical attachments are therefore only stored once, no
+ * matter how many notes reference them or how often they are imported, and their
+ * [com.philkes.notallyx.data.model.FileAttachment.localName] still resolves directly to the file.
+ *
+ * The references of an attachment are counted by its
+ * [com.philkes.notallyx.data.model.NoteAttachment] rows, see
+ * [com.philkes.notallyx.data.dao.BaseNoteDao.countReferences]. [deleteAttachments] only removes an
+ * attachment once no note references it anymore.
+ *
+ * Storing is safe to do concurrently, a file only ever appears under its name with its full
+ * content.
+ */
+class AttachmentStore(private val root: File) {
+
+    class Staged(val file: File, val hash: String)
+
+    /** Creates an empty temporary file in [root], which can be [stage]d once it was written. */
+    fun createTempFile(): File = File.createTempFile(TEMP_PREFIX, null, root)
+
+    /** Copies [inputStream] into a temporary file, hashing it on the way. Does not close it. */
+    fun stage(inputStream: InputStream): Staged {
+        val temp = createTempFile()
+        val digest = MessageDigest.getInstance("SHA-256")
+        try {
+            val input = DigestInputStream(inputStream, digest)
+            temp.outputStream().use { output -> input.copyTo(output) }
+        } catch (exception: Exception) {
+            temp.delete()
+            throw exception
+        }
+        return Staged(temp, digest.digest().toHex())
+    }
+
+    /** Hashes an already written [file], it has to be on the same volume as [root]. */
+    fun stage(file: File): Staged {
+        val digest = MessageDigest.getInstance("SHA-256")
+        file.inputStream().use { stream ->
+            val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+            var read = stream.read(buffer)
+            while (read != -1) {
+                digest.update(buffer, 0, read)
+                read = stream.read(buffer)
+            }
+        }
+        return Staged(file, digest.digest().toHex())
+    }
+
+    /**
+     * Moves the [staged] file to its content-addressed name ending with [suffix] and returns that
+     * name, or null if it could not be renamed. If the same content is already stored, the staged
+     * file is discarded instead. Either way the stored file is touched, so that
+     * [deleteOrphanAttachments] does not collect it before the new reference to it is saved, files
+     * extracted from a zip keep the modification time of their entry.
+     */
+    fun put(staged: Staged, suffix: String): String? {
+        val name = "${staged.hash}$suffix"
+        val target = File(root, name)
+        if (target.exists() && target.length() == staged.file.length()) {
+            staged.file.delete()
+        } else if (!staged.file.renameTo(target)) {
+            staged.file.delete()
+            return null
+        }
+        target.setLastModified(System.currentTimeMillis())
+        return name
+    }
+
+    companion object {
+        const val TEMP_PREFIX = "Temp"
+
+        private fun ByteArray.toHex() = joinToString("") { "%02x".format(it) }
+    }
+}
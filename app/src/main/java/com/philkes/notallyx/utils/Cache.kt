@@ -1,8 +0,0 @@
-package com.philkes.notallyx.utils
-
-import com.philkes.notallyx.data.model.BaseNote
-
-object Cache {
-
-    var list: List<BaseNote> = ArrayList()
-}
@@ -9,6 +9,7 @@ import android.os.Build
 import android.util.Log
 import androidx.core.net.toUri
 import androidx.lifecycle.MutableLiveData
+import com.philkes.notallyx.data.NotallyDatabase
 import com.philkes.notallyx.data.model.Attachment
 import com.philkes.notallyx.data.model.Audio
 import com.philkes.notallyx.data.model.FileAttachment
@@ -111,6 +112,11 @@ fun File.recreateDir(): File {
     return this
 }
 
+/**
+ * Deletes the files of [attachments]. Images and files are shared by all notes referencing the same
+ * content (see [AttachmentStore]), so they are only deleted if no note references them anymore. The
+ * notes the [attachments] were removed from therefore have to be updated or deleted beforehand.
+ */
 fun ContextWrapper.deleteAttachments(
     attachments: Collection<Attachment>,
     ids: LongArray? = null,
@@ -121,6 +127,8 @@ fun ContextWrapper.deleteAttachments(
         val imageRoot = getExternalImagesDirectory()
         val audioRoot = getExternalAudioDirectory()
         val fileRoot = getExternalFilesDirectory()
+        val baseNoteDao =
+            NotallyDatabase.getDatabase(this, observePreferences = false).value.getBaseNoteDao()
         attachments.forEachIndexed { index, attachment ->
             val file =
                 when (attachment) {
@@ -128,7 +136,9 @@ fun ContextWrapper.deleteAttachments(
 
                     is FileAttachment -> {
                         val root = if (attachment.isImage) imageRoot else fileRoot
-                        if (root != null) File(root, attachment.localName) else null
+                        val isReferenced = baseNoteDao.countReferences(attachment.localName) > 0
+                        if (root != null && !isReferenced) File(root, attachment.localName)
+                        else null
                     }
                 }
             if (file != null && file.exists()) {
@@ -0,0 +1,149 @@
+package com.philkes.notallyx.utils
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Matrix
+import android.media.ExifInterface
+import android.os.Build
+import com.philkes.notallyx.presentation.viewmodel.preference.NotallyXPreferences
+import java.io.File
+import kotlin.math.max
+
+/**
+ * How images are compressed when they are attached, see [compress]. Camera photos are usually
+ * several times bigger than needed to display them, which costs storage, backup size and decoding
+ * time every time a note is shown.
+ */
+class ImageCompression(val maxDimension: Int, val quality: Int) {
+
+    /**
+     * Decodes the image [source] of [width] x [height], downscales it so that its longer side is at
+     * most [maxDimension], applies its EXIF orientation and encodes it into [target]. WebP is used
+     * if available, JPEG otherwise.
+     *
+     * @return MIME type of the compressed image, or null if the original should be kept because it
+     *   is already small enough, is animated or compressing it does not make it smaller.
+     */
+    fun compress(source: File, target: File, width: Int, height: Int): String? {
+        if (maxDimension <= 0 || max(width, height) <= maxDimension || source.isAnimated()) {
+            return null
+        }
+        val sampleSize = sampleSize(width, height)
+        // The decoder scales the sampled image to maxDimension itself, only the scaled image is
+        // allocated instead of the sampled one and a scaled copy of it
+        val options =
+            BitmapFactory.Options().apply {
+                inSampleSize = sampleSize
+                inScaled = true
+                inDensity = (max(width, height) + sampleSize - 1) / sampleSize
+                inTargetDensity = maxDimension
+            }
+        val decoded = BitmapFactory.decodeFile(source.path, options) ?: return null
+        val orientation = source.readOrientation()
+        val bitmap =
+            if (orientation.isIdentity) {
+                decoded
+            } else {
+                Bitmap.createBitmap(decoded, 0, 0, decoded.width, decoded.height, orientation, true)
+                    .also { if (it !== decoded) decoded.recycle() }
+            }
+        val (format, mimeType) =
+            when {
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ->
+                    Pair(Bitmap.CompressFormat.WEBP_LOSSY, "image/webp")
+                // JPEG does not support transparency
+                bitmap.hasAlpha() ->
+                    @Suppress("DEPRECATION") Pair(Bitmap.CompressFormat.WEBP, "image/webp")
+                else -> Pair(Bitmap.CompressFormat.JPEG, "image/jpeg")
+            }
+        try {
+            target.outputStream().buffered().use { bitmap.compress(format, quality, it) }
+        } finally {
+            bitmap.recycle()
+        }
+        return if (target.length() in 1 until source.length()) mimeType else null
+    }
+
+    /** Largest power of 2 which still decodes the image at least as big as [maxDimension]. */
+    private fun sampleSize(width: Int, height: Int): Int {
+        var sampleSize = 1
+        while (max(width, height) / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2
+        }
+        return sampleSize
+    }
+
+    /**
+     * Only the first frame would be decoded, so GIFs and animated WebPs are kept as they are. GIFs
+     * are not checked for more than one frame, which would require reading all of their blocks.
+     */
+    private fun File.isAnimated(): Boolean {
+        val header = ByteArray(WEBP_HEADER_SIZE)
+        var read = 0
+        inputStream().use { stream ->
+            while (read < header.size) {
+                val count = stream.read(header, read, header.size - read)
+                if (count == -1) {
+                    break
+                }
+                read += count
+            }
+        }
+        if (read >= GIF_SIGNATURE.length && header.hasText(0, GIF_SIGNATURE)) {
+            return true
+        }
+        // The extended format of WebP flags animations in its VP8X chunk
+        return read == WEBP_HEADER_SIZE &&
+            header.hasText(0, "RIFF") &&
+            header.hasText(8, "WEBP") &&
+            header.hasText(12, "VP8X") &&
+            header[20].toInt() and WEBP_ANIMATION_FLAG != 0
+    }
+
+    private fun ByteArray.hasText(offset: Int, text: String): Boolean {
+        return text.indices.all { index -> this[offset + index] == text[index].code.toByte() }
+    }
+
+    private fun File.readOrientation(): Matrix {
+        val matrix = Matrix()
+        val normal = ExifInterface.ORIENTATION_NORMAL
+        val orientation =
+            try {
+                ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION, normal)
+            } catch (e: Exception) {
+                normal
+            }
+        when (orientation) {
+            ExifInterface.ORIENTATION_FLIP_HORIZONTAL -> matrix.postScale(-1f, 1f)
+            ExifInterface.ORIENTATION_ROTATE_180 -> matrix.postRotate(180f)
+            ExifInterface.ORIENTATION_FLIP_VERTICAL -> matrix.postScale(1f, -1f)
+            ExifInterface.ORIENTATION_TRANSPOSE -> {
+                matrix.postRotate(90f)
+                matrix.postScale(-1f, 1f)
+            }
+            ExifInterface.ORIENTATION_ROTATE_90 -> matrix.postRotate(90f)
+            ExifInterface.ORIENTATION_TRANSVERSE -> {
+                matrix.postRotate(270f)
+                matrix.postScale(-1f, 1f)
+            }
+            ExifInterface.ORIENTATION_ROTATE_270 -> matrix.postRotate(270f)
+        }
+        return matrix
+    }
+
+    companion object {
+        private const val GIF_SIGNATURE = "GIF8"
+        private const val WEBP_HEADER_SIZE = 21
+        private const val WEBP_ANIMATION_FLAG = 0x02
+
+        /** Returns null if images should be kept as they are. */
+        fun of(preferences: NotallyXPreferences): ImageCompression? {
+            return if (preferences.keepOriginalImages.value) null
+            else
+                ImageCompression(
+                    preferences.imageMaxDimension.value,
+                    preferences.imageQuality.value,
+                )
+        }
+    }
+}
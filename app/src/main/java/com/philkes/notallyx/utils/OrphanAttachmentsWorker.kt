@@ -0,0 +1,157 @@
+package com.philkes.notallyx.utils
+
+import android.app.Application
+import android.content.Context
+import android.content.ContextWrapper
+import androidx.work.Constraints
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.PeriodicWorkRequest
+import androidx.work.WorkManager
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.model.Converters
+import java.util.concurrent.TimeUnit
+
+/**
+ * Deletes attachments which no note references anymore, e.g. left behind by failed imports or by
+ * crashes while saving, see [deleteOrphanAttachments].
+ */
+class OrphanAttachmentsWorker(private val context: Context, params: WorkerParameters) :
+    Worker(context, params) {
+
+    override fun doWork(): Result {
+        val app = context.applicationContext as Application
+        return try {
+            val (deletedFiles, reclaimedBytes) = app.deleteOrphanAttachments()
+            Result.success(
+                workDataOf(DELETED_FILES to deletedFiles, RECLAIMED_BYTES to reclaimedBytes)
+            )
+        } catch (e: Exception) {
+            app.log(TAG, msg = "Deleting orphaned attachments failed", throwable = e)
+            Result.failure()
+        }
+    }
+
+    companion object {
+        const val DELETED_FILES = "deletedFiles"
+        const val RECLAIMED_BYTES = "reclaimedBytes"
+    }
+}
+
+data class OrphanAttachments(val deletedFiles: Int, val reclaimedBytes: Long)
+
+/**
+ * Deletes all files in the images, files and audio folders which are not referenced by any note.
+ * Files modified within the [gracePeriod] are kept, they may belong to a note which is still being
+ * edited or imported.
+ *
+ * The referenced names are read note by note into [AttachmentNames], the folders are walked lazily,
+ * so that memory stays bounded for large libraries. If the references can not be read completely
+ * nothing is deleted.
+ */
+fun ContextWrapper.deleteOrphanAttachments(
+    database: NotallyDatabase = NotallyDatabase.getDatabase(this, observePreferences = false).value,
+    gracePeriod: Long = ORPHAN_GRACE_PERIOD,
+): OrphanAttachments {
+    val referencedNames = database.readAttachmentNames()
+    val modifiedBefore = System.currentTimeMillis() - gracePeriod
+    var deletedFiles = 0
+    var reclaimedBytes = 0L
+    listOfNotNull(
+            getExternalImagesDirectory(),
+            getExternalFilesDirectory(),
+            getExternalAudioDirectory(),
+        )
+        .forEach { root ->
+            root
+                .walkTopDown()
+                .filter { file ->
+                    file.isFile &&
+                        file.lastModified() < modifiedBefore &&
+                        file.name !in referencedNames
+                }
+                .forEach { file ->
+                    val size = file.length()
+                    if (file.delete()) {
+                        deletedFiles++
+                        reclaimedBytes += size
+                    }
+                }
+        }
+    log(TAG, msg = "Deleted $deletedFiles orphaned attachments, reclaimed $reclaimedBytes bytes")
+    return OrphanAttachments(deletedFiles, reclaimedBytes)
+}
+
+private fun NotallyDatabase.readAttachmentNames(): AttachmentNames {
+    val names = AttachmentNames.Builder()
+    // Read row by row instead of all JSONs at once, the cursor window bounds the memory needed
+    openHelper.readableDatabase.query("SELECT images, files, audios FROM BaseNote").use { cursor ->
+        while (cursor.moveToNext()) {
+            Converters.jsonToFiles(cursor.getString(0)).forEach { names.add(it.localName) }
+            Converters.jsonToFiles(cursor.getString(1)).forEach { names.add(it.localName) }
+            Converters.jsonToAudios(cursor.getString(2)).forEach { names.add(it.name) }
+        }
+    }
+    return names.build()
+}
+
+/**
+ * Set of attachment names, stored as sorted 64 bit hashes instead of strings. A hash collision can
+ * only keep an orphaned file, it never causes a referenced one to be deleted.
+ */
+internal class AttachmentNames private constructor(private val hashes: LongArray) {
+
+    operator fun contains(name: String) = hashes.binarySearch(name.hash64()) >= 0
+
+    class Builder {
+        private var hashes = LongArray(INITIAL_CAPACITY)
+        private var size = 0
+
+        fun add(name: String) {
+            if (size == hashes.size) {
+                hashes = hashes.copyOf(size * 2)
+            }
+            hashes[size++] = name.hash64()
+        }
+
+        fun build() = AttachmentNames(hashes.copyOf(size).apply { sort() })
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 1024
+
+        /** 64 bit FNV-1a */
+        private fun String.hash64(): Long {
+            var hash = -0x340d631b7bdddcdbL
+            forEach { char ->
+                hash = (hash xor char.code.toLong()) * 0x100000001b3L
+            }
+            return hash
+        }
+    }
+}
+
+fun WorkManager.scheduleOrphanAttachmentsCleanup(context: ContextWrapper) {
+    val request =
+        PeriodicWorkRequest.Builder(OrphanAttachmentsWorker::class.java, 7, TimeUnit.DAYS)
+            .setConstraints(Constraints.Builder().setRequiresBatteryNotLow(true).build())
+            .build()
+    try {
+        enqueueUniquePeriodicWork(
+            ORPHAN_ATTACHMENTS_WORK_NAME,
+            ExistingPeriodicWorkPolicy.KEEP,
+            request,
+        )
+    } catch (e: IllegalStateException) {
+        // only happens in Unit-Tests
+        context.log(TAG, "Scheduling orphaned attachments cleanup failed", throwable = e)
+    }
+}
+
+const val ORPHAN_ATTACHMENTS_WORK_NAME = "com.philkes.notallyx.OrphanAttachmentsWork"
+
+private val ORPHAN_GRACE_PERIOD = TimeUnit.DAYS.toMillis(1)
+
+private const val TAG = "OrphanAttachments"
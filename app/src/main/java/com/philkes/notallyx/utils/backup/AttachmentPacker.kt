@@ -0,0 +1,87 @@
+package com.philkes.notallyx.utils.backup
+
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import net.lingala.zip4j.io.outputstream.ZipOutputStream
+import net.lingala.zip4j.model.ZipParameters
+
+/**
+ * Packs attachments into a [ZipOutputStream] while a pool of [threads] reads the upcoming ones in
+ * the background. Attachments are usually many small files on external storage, reading them one by
+ * one leaves the writer waiting on I/O most of the time.
+ *
+ * Only the calling thread writes to the zip, in the order of the given entries. At most
+ * [threads] * [WINDOW_PER_THREAD] attachments are read ahead and only those up to
+ * [MAX_PREFETCH_SIZE] are held in memory, bigger ones are streamed from disk by the writer.
+ */
+internal class AttachmentPacker(
+    private val zipStream: ZipOutputStream,
+    private val zipParameters: ZipParameters,
+    private val threads: Int = Runtime.getRuntime().availableProcessors().coerceIn(2, MAX_THREADS),
+) {
+
+    data class Entry(val file: File?, val fileNameInZip: String)
+
+    /**
+     * Writes all [entries] whose file exists, [onPacked] is called on the calling thread after each
+     * entry with the exception it failed with, if any. An entry which fails before it was started
+     * in the zip, e.g. because its file can not be read, is skipped and does not stop the others.
+     *
+     * @throws ZipEntryException if an entry failed after it was started, the zip is incomplete.
+     */
+    fun pack(entries: List<Entry>, onPacked: (entry: Entry, exception: Exception?) -> Unit) {
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val pending = ArrayDeque<Pair<Entry, Future<ByteArray?>>>()
+            val remaining = entries.iterator()
+            fun readAhead() {
+                while (pending.size < threads * WINDOW_PER_THREAD && remaining.hasNext()) {
+                    val entry = remaining.next()
+                    pending.addLast(Pair(entry, executor.submit(Callable { entry.read() })))
+                }
+            }
+            readAhead()
+            while (pending.isNotEmpty()) {
+                val (entry, content) = pending.removeFirst()
+                readAhead()
+                val exception =
+                    try {
+                        val file = entry.file
+                        if (file != null && file.exists()) {
+                            val fileNameInZip = entry.fileNameInZip
+                            zipStream.putFile(file, zipParameters, fileNameInZip, content.await())
+                        }
+                        null
+                    } catch (exception: ZipEntryException) {
+                        throw exception
+                    } catch (exception: Exception) {
+                        exception
+                    }
+                onPacked(entry, exception)
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun Entry.read(): ByteArray? {
+        return file?.takeIf { it.exists() && it.length() <= MAX_PREFETCH_SIZE }?.readBytes()
+    }
+
+    private fun Future<ByteArray?>.await(): ByteArray? {
+        return try {
+            get()
+        } catch (exception: ExecutionException) {
+            throw exception.cause as? Exception ?: exception
+        }
+    }
+
+    companion object {
+        private const val MAX_THREADS = 4
+        private const val WINDOW_PER_THREAD = 2
+        private const val MAX_PREFETCH_SIZE = 4L * 1024 * 1024
+    }
+}
@@ -0,0 +1,14 @@
+package com.philkes.notallyx.utils.backup
+
+import android.app.Application
+import android.content.Context
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+
+class BackupOnSaveWorker(private val context: Context, params: WorkerParameters) :
+    Worker(context, params) {
+
+    override fun doWork(): Result {
+        return (context.applicationContext as Application).backupPendingChanges(runAttemptCount)
+    }
+}
@@ -0,0 +1,444 @@
+package com.philkes.notallyx.utils.backup
+
+import android.content.Context
+import android.content.ContextWrapper
+import android.net.Uri
+import androidx.core.content.edit
+import androidx.documentfile.provider.DocumentFile
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.Converters
+import com.philkes.notallyx.data.model.Folder
+import com.philkes.notallyx.data.model.Label
+import com.philkes.notallyx.data.model.Type
+import com.philkes.notallyx.presentation.viewmodel.preference.Constants.PASSWORD_EMPTY
+import com.philkes.notallyx.utils.AttachmentStore
+import com.philkes.notallyx.utils.SUBFOLDER_AUDIOS
+import com.philkes.notallyx.utils.SUBFOLDER_FILES
+import com.philkes.notallyx.utils.SUBFOLDER_IMAGES
+import com.philkes.notallyx.utils.getExternalAudioDirectory
+import com.philkes.notallyx.utils.getExternalFilesDirectory
+import com.philkes.notallyx.utils.getExternalImagesDirectory
+import com.philkes.notallyx.utils.log
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.security.MessageDigest
+import java.util.UUID
+import net.lingala.zip4j.exception.ZipException
+import net.lingala.zip4j.io.inputstream.ZipInputStream
+import net.lingala.zip4j.io.outputstream.ZipOutputStream
+import net.lingala.zip4j.model.ZipParameters
+import net.lingala.zip4j.model.enums.CompressionMethod
+import net.lingala.zip4j.model.enums.EncryptionMethod
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * Incremental backups, which store every note and attachment as a blob named by the SHA-256 of its
+ * content in the [STORE_FOLDER] of the backups folder. A snapshot is a small zip only containing a
+ * [MANIFEST], which references the blobs of all notes and attachments at the time of the backup.
+ * Blobs which are already stored are not written again, so a new snapshot only writes the notes
+ * which changed and attachments which were added. Every blob is a zip with a single entry,
+ * encrypted with the backup password like regular backups.
+ *
+ * Blobs of different passwords are never mixed: if the password changes, a new store is started.
+ *
+ * Snapshots only contain the id of their store, so they can only be restored while the store is
+ * still in [backupFolder], otherwise [restoreSnapshot] fails with a [MissingStoreException].
+ */
+class BackupStore(
+    private val context: ContextWrapper,
+    private val backupFolder: DocumentFile,
+    private val password: String,
+    private val database: NotallyDatabase =
+        NotallyDatabase.getDatabase(context, observePreferences = false).value,
+) {
+
+    class MissingStoreException(message: String) : IOException(message)
+
+    private val state = context.getSharedPreferences(STATE_PREFERENCES, Context.MODE_PRIVATE)
+
+    /** Writes a snapshot of all notes to [snapshotUri] and returns the amount of notes. */
+    fun createSnapshot(snapshotUri: Uri): Int {
+        val baseNotes = database.getBaseNoteDao().getAll()
+        val labels = database.getLabelDao().getAllValues()
+
+        val storeId = getStoreId()
+        val blobFolder = getStoreFolder(storeId, create = true)!!
+        val storedBlobs = blobFolder.listFiles().mapNotNullTo(HashSet()) { it.name }
+
+        val notes = JSONArray()
+        baseNotes.forEach { baseNote ->
+            val bytes = baseNote.toBackupJson().toByteArray()
+            val hash = bytes.sha256()
+            if (hash !in storedBlobs) {
+                writeBlob(blobFolder, hash, bytes.size.toLong(), bytes.inputStream())
+                storedBlobs.add(hash)
+            }
+            notes.put(hash)
+        }
+
+        val attachments = JSONObject()
+        val hashCache = HashCache()
+        fun putAttachment(root: File?, subFolder: String, name: String) {
+            val file = if (root != null) File(root, name) else null
+            if (file == null || !file.exists()) {
+                return
+            }
+            val hash = hashCache.sha256(file)
+            if (hash !in storedBlobs) {
+                file.inputStream().use { writeBlob(blobFolder, hash, file.length(), it) }
+                storedBlobs.add(hash)
+            }
+            attachments.put("$subFolder/$name", hash)
+        }
+        val imageRoot = context.getExternalImagesDirectory()
+        val fileRoot = context.getExternalFilesDirectory()
+        val audioRoot = context.getExternalAudioDirectory()
+        baseNotes.forEach { baseNote ->
+            baseNote.images.forEach { putAttachment(imageRoot, SUBFOLDER_IMAGES, it.localName) }
+            baseNote.files.forEach { putAttachment(fileRoot, SUBFOLDER_FILES, it.localName) }
+            baseNote.audios.forEach { putAttachment(audioRoot, SUBFOLDER_AUDIOS, it.name) }
+        }
+        hashCache.save()
+
+        val manifest =
+            JSONObject()
+                .put(VERSION, CURRENT_VERSION)
+                .put(STORE, storeId)
+                .put(LABELS, JSONArray(labels))
+                .put(NOTES, notes)
+                .put(ATTACHMENTS, attachments)
+                .toString()
+                .toByteArray()
+        val outputStream =
+            context.contentResolver.openOutputStream(snapshotUri)
+                ?: throw IOException("Can not write to '$snapshotUri'")
+        outputStream.writeZipEntry(MANIFEST, manifest.size.toLong(), manifest.inputStream())
+        return notes.length()
+    }
+
+    /**
+     * Returns the notes and labels of the snapshot with [manifest]. The attachments are copied into
+     * the local folders under new names, [onAttachment] is called for each one.
+     *
+     * @throws MissingStoreException if the store of the snapshot or one of its blobs is not in
+     *   [backupFolder], before anything was restored.
+     */
+    fun restoreSnapshot(
+        manifest: JSONObject,
+        onAttachment: (current: Int, total: Int) -> Unit,
+    ): Pair<List<BaseNote>, List<Label>> {
+        val storeId = manifest.getString(STORE)
+        val blobFolder =
+            getStoreFolder(storeId, create = false)
+                ?: throw MissingStoreException(
+                    "Store '$storeId' of the snapshot does not exist in '${backupFolder.uri}', " +
+                        "snapshots can only be restored from the folder they were created in"
+                )
+        val blobs = blobFolder.listFiles().associateBy { it.name }
+        fun openBlob(hash: String): InputStream {
+            val blob = requireNotNull(blobs[hash]) { "Blob '$hash' is missing" }
+            return requireNotNull(context.contentResolver.openInputStream(blob.uri)).readZipEntry()
+        }
+
+        val notesArray = manifest.getJSONArray(NOTES)
+        val attachments = manifest.getJSONObject(ATTACHMENTS)
+        val missingBlobs =
+            (0 until notesArray.length()).map { notesArray.getString(it) }.count { it !in blobs } +
+                attachments.keys().asSequence().count { attachments.getString(it) !in blobs }
+        if (missingBlobs > 0) {
+            throw MissingStoreException(
+                "$missingBlobs blobs of the snapshot are missing in store '$storeId' " +
+                    "of '${backupFolder.uri}'"
+            )
+        }
+        val baseNotes =
+            (0 until notesArray.length()).map { index ->
+                openBlob(notesArray.getString(index)).use { stream ->
+                    JSONObject(stream.bufferedReader().readText()).toBaseNote()
+                }
+            }
+        val labelsArray = manifest.getJSONArray(LABELS)
+        val labels = (0 until labelsArray.length()).map { Label(labelsArray.getString(it)) }
+
+        val total = baseNotes.sumOf { it.images.size + it.files.size + it.audios.size }
+        var current = 0
+        /** Returns the new name of the attachment, or `null` if it is not part of the snapshot. */
+        fun restoreAttachment(root: File?, subFolder: String, name: String, extension: String) =
+            try {
+                val key = "$subFolder/$name"
+                if (attachments.has(key)) {
+                    openBlob(attachments.getString(key)).use { stream ->
+                        if (subFolder == SUBFOLDER_AUDIOS) {
+                            val newName = "${UUID.randomUUID()}.$extension"
+                            File(requireNotNull(root), newName).outputStream().use {
+                                stream.copyTo(it)
+                            }
+                            newName
+                        } else {
+                            // Images and files are content-addressed, like the imported ones
+                            val store = AttachmentStore(requireNotNull(root))
+                            store.put(store.stage(stream), ".$extension")
+                        }
+                    }
+                } else null
+            } catch (e: Exception) {
+                context.log(TAG, throwable = e)
+                null
+            } finally {
+                onAttachment(++current, total)
+            }
+
+        val imageRoot = context.getExternalImagesDirectory()
+        val fileRoot = context.getExternalFilesDirectory()
+        val audioRoot = context.getExternalAudioDirectory()
+        baseNotes.forEach { baseNote ->
+            baseNote.images.forEach { image ->
+                val extension = image.localName.substringAfterLast(".")
+                restoreAttachment(imageRoot, SUBFOLDER_IMAGES, image.localName, extension)?.let {
+                    image.localName = it
+                }
+            }
+            baseNote.files.forEach { file ->
+                val extension = file.localName.substringAfterLast(".")
+                restoreAttachment(fileRoot, SUBFOLDER_FILES, file.localName, extension)?.let {
+                    file.localName = it
+                }
+            }
+            baseNote.audios.forEach { audio ->
+                restoreAttachment(audioRoot, SUBFOLDER_AUDIOS, audio.name, "m4a")?.let {
+                    audio.name = it
+                }
+            }
+        }
+        return baseNotes to labels
+    }
+
+    /**
+     * Deletes the blobs which are not referenced by any of the [snapshots]. Stores of a previous
+     * password are only deleted once every snapshot can be read with the current one.
+     */
+    fun deleteUnreferencedBlobs(snapshots: List<DocumentFile>) {
+        val referencedBlobs = HashMap<String, MutableSet<String>>()
+        var hasUnreadableSnapshots = false
+        snapshots.forEach { snapshot ->
+            try {
+                val manifest = readManifest(snapshot) ?: return@forEach
+                val blobs = referencedBlobs.getOrPut(manifest.getString(STORE)) { HashSet() }
+                val notes = manifest.getJSONArray(NOTES)
+                (0 until notes.length()).forEach { blobs.add(notes.getString(it)) }
+                val attachments = manifest.getJSONObject(ATTACHMENTS)
+                attachments.keys().forEach { blobs.add(attachments.getString(it)) }
+            } catch (e: ZipException) {
+                hasUnreadableSnapshots = true
+            }
+        }
+        backupFolder.findFile(STORE_FOLDER)?.listFiles()?.forEach { blobFolder ->
+            val blobs = referencedBlobs[blobFolder.name]
+            if (blobs == null) {
+                if (!hasUnreadableSnapshots) {
+                    blobFolder.delete()
+                }
+            } else {
+                blobFolder.listFiles().forEach { blob ->
+                    if (blob.name !in blobs) {
+                        blob.delete()
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns `null` if [snapshot] is a regular backup. */
+    private fun readManifest(snapshot: DocumentFile): JSONObject? {
+        val inputStream = context.contentResolver.openInputStream(snapshot.uri) ?: return null
+        ZipInputStream(inputStream, password.toPasswordOrNull()).use { zipStream ->
+            // Regular backups start with the database, no need to read through all of them
+            val entry = zipStream.nextEntry ?: return null
+            if (entry.fileName != MANIFEST) {
+                return null
+            }
+            return JSONObject(zipStream.bufferedReader().readText())
+        }
+    }
+
+    /** Written under a temporary name first, so that an interrupted write is not reused. */
+    private fun writeBlob(blobFolder: DocumentFile, hash: String, size: Long, input: InputStream) {
+        val blob =
+            requireNotNull(blobFolder.createFile(MIME_TYPE_BLOB, "$hash$PARTIAL_SUFFIX")) {
+                "Can not create blob '$hash' in '${blobFolder.uri}'"
+            }
+        val outputStream =
+            context.contentResolver.openOutputStream(blob.uri)
+                ?: throw IOException("Can not write to '${blob.uri}'")
+        outputStream.writeZipEntry(BLOB_ENTRY, size, input)
+        if (!blob.renameTo(hash)) {
+            blob.delete()
+            throw IOException("Can not rename blob '$hash' in '${blobFolder.uri}'")
+        }
+    }
+
+    private fun OutputStream.writeZipEntry(name: String, size: Long, input: InputStream) {
+        val zipParameters =
+            ZipParameters().apply {
+                fileNameInZip = name
+                compressionMethod = CompressionMethod.STORE
+                entrySize = size
+                if (password != PASSWORD_EMPTY) {
+                    isEncryptFiles = true
+                    encryptionMethod = EncryptionMethod.AES
+                }
+            }
+        ZipOutputStream(this, password.toPasswordOrNull()).use { zipStream ->
+            zipStream.putNextEntry(zipParameters)
+            input.copyTo(zipStream)
+            zipStream.closeEntry()
+        }
+    }
+
+    private fun InputStream.readZipEntry(): InputStream {
+        val zipStream = ZipInputStream(this, password.toPasswordOrNull())
+        requireNotNull(zipStream.nextEntry) { "Blob is empty" }
+        return zipStream
+    }
+
+    private fun getStoreId(): String {
+        val passwordHash = password.toByteArray().sha256()
+        val storeId = state.getString(STORE_ID, null)
+        if (storeId != null && state.getString(PASSWORD_HASH, null) == passwordHash) {
+            return storeId
+        }
+        val newStoreId = UUID.randomUUID().toString()
+        state.edit(commit = true) {
+            putString(STORE_ID, newStoreId)
+            putString(PASSWORD_HASH, passwordHash)
+        }
+        return newStoreId
+    }
+
+    private fun getStoreFolder(storeId: String, create: Boolean): DocumentFile? {
+        val storeFolder =
+            backupFolder.findFile(STORE_FOLDER)
+                ?: if (create) backupFolder.createDirectory(STORE_FOLDER) else null
+        return storeFolder?.findFile(storeId)
+            ?: if (create) storeFolder?.createDirectory(storeId) else null
+    }
+
+    /**
+     * Attachments are never modified, so their hash is only computed once per file. The cached
+     * hashes are read once and written back with a single edit by [save], instead of one edit per
+     * attachment, each of which rewrites the whole preferences file.
+     */
+    private inner class HashCache {
+        private val cached =
+            state.all.entries
+                .filter { (key, value) -> key.startsWith(HASH_PREFIX) && value is String }
+                .associate { (key, value) -> key to value as String }
+        private val hashed = HashMap<String, String>()
+
+        fun sha256(file: File): String {
+            val key = "$HASH_PREFIX${file.path}"
+            val version = "${file.length()}:${file.lastModified()}:"
+            val cachedHash = hashed[key] ?: cached[key]
+            if (cachedHash != null && cachedHash.startsWith(version)) {
+                hashed[key] = cachedHash
+                return cachedHash.removePrefix(version)
+            }
+            val digest = MessageDigest.getInstance("SHA-256")
+            file.inputStream().use { stream ->
+                val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+                var read = stream.read(buffer)
+                while (read != -1) {
+                    digest.update(buffer, 0, read)
+                    read = stream.read(buffer)
+                }
+            }
+            val hash = digest.digest().toHex()
+            hashed[key] = "$version$hash"
+            return hash
+        }
+
+        /** Stores the new hashes and forgets those of files not attached to any note anymore. */
+        fun save() {
+            val staleKeys = cached.keys - hashed.keys
+            val newHashes = hashed.filter { (key, value) -> cached[key] != value }
+            if (staleKeys.isNotEmpty() || newHashes.isNotEmpty()) {
+                state.edit {
+                    staleKeys.forEach { remove(it) }
+                    newHashes.forEach { (key, value) -> putString(key, value) }
+                }
+            }
+        }
+    }
+
+    companion object {
+        const val MANIFEST = "manifest.json"
+
+        private const val TAG = "BackupStore"
+
+        private const val STORE_FOLDER = "NotallyX_Store"
+        private const val STATE_PREFERENCES = "backup_store"
+        private const val STORE_ID = "storeId"
+        private const val PASSWORD_HASH = "passwordHash"
+        private const val HASH_PREFIX = "hash:"
+
+        private const val MIME_TYPE_BLOB = "application/octet-stream"
+        private const val BLOB_ENTRY = "blob"
+        private const val PARTIAL_SUFFIX = ".partial"
+
+        private const val CURRENT_VERSION = 1
+        private const val VERSION = "version"
+        private const val STORE = "store"
+        private const val LABELS = "labels"
+        private const val NOTES = "notes"
+        private const val ATTACHMENTS = "attachments"
+
+        private fun ByteArray.sha256() = MessageDigest.getInstance("SHA-256").digest(this).toHex()
+
+        private fun ByteArray.toHex() = joinToString("") { "%02x".format(it) }
+
+        internal fun BaseNote.toBackupJson(): String {
+            return JSONObject()
+                .put("type", type.name)
+                .put("folder", folder.name)
+                .put("color", color)
+                .put("title", title)
+                .put("pinned", pinned)
+                .put("timestamp", timestamp)
+                .put("modifiedTimestamp", modifiedTimestamp)
+                .put("labels", Converters.labelsToJson(labels))
+                .put("body", body)
+                .put("spans", Converters.spansToJson(spans))
+                .put("items", Converters.itemsToJson(items))
+                .put("images", Converters.filesToJson(images))
+                .put("files", Converters.filesToJson(files))
+                .put("audios", Converters.audiosToJson(audios))
+                .put("reminders", Converters.remindersToJson(reminders))
+                .toString()
+        }
+
+        internal fun JSONObject.toBaseNote(): BaseNote {
+            return BaseNote(
+                0,
+                Type.valueOf(getString("type")),
+                Folder.valueOf(getString("folder")),
+                getString("color"),
+                getString("title"),
+                getBoolean("pinned"),
+                getLong("timestamp"),
+                getLong("modifiedTimestamp"),
+                Converters.jsonToLabels(getString("labels")),
+                getString("body"),
+                Converters.jsonToSpans(getString("spans")),
+                Converters.jsonToItems(getString("items")),
+                Converters.jsonToFiles(getString("images")),
+                Converters.jsonToFiles(getString("files")),
+                Converters.jsonToAudios(getString("audios")),
+                Converters.jsonToReminders(getString("reminders")),
+            )
+        }
+    }
+}
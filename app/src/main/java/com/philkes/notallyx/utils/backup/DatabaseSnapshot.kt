@@ -0,0 +1,86 @@
+package com.philkes.notallyx.utils.backup
+
+import android.content.ContextWrapper
+import android.os.Build
+import com.philkes.notallyx.data.NotallyDatabase
+import java.io.File
+import net.sqlcipher.database.SQLiteDatabase as SQLCipherDatabase
+
+/**
+ * Writes a consistent and compact copy of the current database to [snapshotFile], without blocking
+ * the app from writing to the database meanwhile.
+ *
+ * The snapshot is read on a separate connection inside a single read transaction, which in WAL mode
+ * sees the database as of its start while writers keep appending to the WAL. Only live rows are
+ * copied, free pages of the original are left out. If [passphrase] is set the database is
+ * encrypted, the snapshot is always written unencrypted.
+ *
+ * Has to be called on a background thread.
+ */
+fun ContextWrapper.snapshotDatabase(snapshotFile: File, passphrase: ByteArray?) {
+    val databaseFile = NotallyDatabase.getCurrentDatabaseFile(this)
+    // VACUUM INTO and ATTACH both expect a new or empty file
+    snapshotFile.delete()
+    when {
+        passphrase != null -> exportDecrypted(databaseFile, snapshotFile, passphrase)
+        // VACUUM INTO requires SQLite 3.27, which is only bundled starting with Android 11
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.R -> vacuumInto(databaseFile, snapshotFile)
+        else -> {
+            NotallyDatabase.getDatabase(this, observePreferences = false).value.checkpoint()
+            databaseFile.copyTo(snapshotFile, overwrite = true)
+        }
+    }
+}
+
+/**
+ * Uses the framework SQLite library, which is the one Room opened the unencrypted database with.
+ * Mixing two SQLite libraries on the same file within one process would break its file locks.
+ */
+private fun vacuumInto(databaseFile: File, snapshotFile: File) {
+    android.database.sqlite.SQLiteDatabase.openDatabase(
+            databaseFile.absolutePath,
+            null,
+            android.database.sqlite.SQLiteDatabase.OPEN_READONLY,
+        )
+        .use { database -> database.execSQL("VACUUM INTO ?", arrayOf(snapshotFile.absolutePath)) }
+}
+
+private fun ContextWrapper.exportDecrypted(
+    databaseFile: File,
+    snapshotFile: File,
+    passphrase: ByteArray,
+) {
+    SQLCipherDatabase.loadLibs(this)
+    val database =
+        SQLCipherDatabase.openDatabase(
+            databaseFile.absolutePath,
+            passphrase,
+            null,
+            SQLCipherDatabase.OPEN_READWRITE,
+            null,
+            null,
+        )
+    try {
+        val attach = database.compileStatement("ATTACH DATABASE ? AS plaintext KEY ''")
+        try {
+            attach.bindString(1, snapshotFile.absolutePath)
+            attach.execute()
+        } finally {
+            attach.close()
+        }
+        // ATTACH is not allowed inside of a transaction, but the export has to run in one to be
+        // consistent. beginTransaction() would be EXCLUSIVE and block the app from writing
+        database.rawExecSQL("BEGIN")
+        try {
+            database.rawExecSQL("SELECT sqlcipher_export('plaintext')")
+            database.rawExecSQL("PRAGMA plaintext.user_version = ${database.version}")
+            database.rawExecSQL("COMMIT")
+        } catch (exception: Exception) {
+            database.rawExecSQL("ROLLBACK")
+            throw exception
+        }
+        database.rawExecSQL("DETACH DATABASE plaintext")
+    } finally {
+        database.close()
+    }
+}
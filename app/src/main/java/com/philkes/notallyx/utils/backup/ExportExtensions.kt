@@ -10,20 +10,25 @@ import android.content.Intent
 import android.content.pm.PackageManager
 import android.net.Uri
 import android.os.Build
+import android.os.SystemClock
 import android.print.PdfPrintListener
 import android.print.printPdf
 import android.util.Log
 import android.widget.Toast
 import androidx.activity.result.ActivityResultLauncher
 import androidx.core.app.NotificationCompat
+import androidx.core.content.edit
 import androidx.core.content.getSystemService
 import androidx.core.net.toUri
 import androidx.documentfile.provider.DocumentFile
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.lifecycleScope
+import androidx.work.Constraints
 import androidx.work.Data
 import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.ExistingWorkPolicy
 import androidx.work.ListenableWorker.Result
+import androidx.work.OneTimeWorkRequest
 import androidx.work.PeriodicWorkRequest
 import androidx.work.WorkInfo
 import androidx.work.WorkManager
@@ -63,11 +68,9 @@ import com.philkes.notallyx.utils.logToFile
 import com.philkes.notallyx.utils.nameWithoutExtension
 import com.philkes.notallyx.utils.recreateDir
 import com.philkes.notallyx.utils.removeTrailingParentheses
-import com.philkes.notallyx.utils.security.decryptDatabase
 import com.philkes.notallyx.utils.security.getInitializedCipherForDecryption
 import com.philkes.notallyx.utils.wrapWithChooser
 import java.io.File
-import java.io.FileInputStream
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
@@ -81,6 +84,7 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import net.lingala.zip4j.ZipFile
+import net.lingala.zip4j.io.outputstream.ZipOutputStream
 import net.lingala.zip4j.model.ZipParameters
 import net.lingala.zip4j.model.enums.CompressionLevel
 import net.lingala.zip4j.model.enums.EncryptionMethod
@@ -92,11 +96,20 @@ private const val NOTALLYX_BACKUP_LOGS_FILE = "notallyx-backup-logs.txt"
 private const val OUTPUT_DATA_BACKUP_URI = "backupUri"
 
 const val AUTO_BACKUP_WORK_NAME = "com.philkes.notallyx.AutoBackupWork"
+const val BACKUP_ON_SAVE_WORK_NAME = "com.philkes.notallyx.BackupOnSaveWork"
 const val OUTPUT_DATA_EXCEPTION = "exception"
 
 private const val ON_SAVE_BACKUP_FILE = "NotallyX_AutoBackup.zip"
+private const val ON_SAVE_SNAPSHOT_FOLDER = "backupOnSave"
+private const val PROGRESS_INTERVAL = 200L
 private const val PERIODIC_BACKUP_FILE_PREFIX = "NotallyX_Backup_"
 
+private const val PENDING_BACKUP_PREFERENCES = "pending_backup_on_save"
+private const val PENDING_NOTE_IDS = "noteIds"
+private const val PENDING_FULL_BACKUP = "fullBackup"
+private const val MAX_BACKUP_ON_SAVE_ATTEMPTS = 5
+private val pendingBackupLock = Any()
+
 fun Context.createBackup(): Result {
     val app = applicationContext as Application
     val preferences = NotallyXPreferences.getInstance(app)
@@ -124,8 +137,8 @@ fun Context.createBackup(): Result {
             log(msg = "Creating '$uri/$name.zip'...")
             try {
                 val zipUri = requireNotNull(folder.createFile(MIME_TYPE_ZIP, name)).uri
-                val exportedNotes =
-                    app.exportAsZip(zipUri, password = preferences.backupPassword.value)
+                val backupStore = BackupStore(app, folder, preferences.backupPassword.value)
+                val exportedNotes = backupStore.createSnapshot(zipUri)
                 log(msg = "Exported $exportedNotes notes")
                 val backupFiles = folder.listZipFiles(backupFilePrefix)
                 log(msg = "Found ${backupFiles.size} backups")
@@ -141,6 +154,7 @@ fun Context.createBackup(): Result {
                         it.delete()
                     }
                 }
+                backupStore.deleteUnreferencedBlobs(backupFiles.take(maxBackups))
                 log(msg = "Finished backup to '$zipUri'")
                 preferences.periodicBackupLastExecution.save(Date().time)
                 return Result.success(
@@ -160,7 +174,18 @@ fun Context.createBackup(): Result {
     return Result.success()
 }
 
-fun ContextWrapper.autoBackupOnSave(backupPath: String, password: String, savedNote: BaseNote?) {
+/**
+ * Updates the backup with the database and the attachments of [savedNotes], or creates a full
+ * backup if [savedNotes] is `null` or there is no backup yet. Returns whether the backup was
+ * written, failures are logged to the backup folder.
+ */
+fun ContextWrapper.autoBackupOnSave(
+    backupPath: String,
+    password: String,
+    savedNotes: List<BaseNote>?,
+): Boolean {
+    val notesDescription =
+        savedNotes?.joinToString(prefix = "ids: ") { "'${it.id}'" } ?: "full backup"
     val backupFolder =
         try {
             DocumentFile.fromTreeUri(this, backupPath.toUri())!!
@@ -168,56 +193,119 @@ fun ContextWrapper.autoBackupOnSave(backupPath: String, password: String, savedN
             log(
                 TAG,
                 msg =
-                    "Auto backup on note save (${savedNote?.let {"id: '${savedNote.id}, title: '${savedNote.title}'" }}) failed, because auto-backup path is invalid",
+                    "Auto backup on note save ($notesDescription) failed, because auto-backup path is invalid",
                 throwable = e,
             )
-            return
+            return false
         }
     try {
         var backupFile = backupFolder.findFile(ON_SAVE_BACKUP_FILE)
-        if (savedNote == null || backupFile == null || !backupFile.exists()) {
+        if (savedNotes == null || backupFile == null || !backupFile.exists()) {
             backupFile = backupFolder.createFile(MIME_TYPE_ZIP, ON_SAVE_BACKUP_FILE)
-            exportAsZip(backupFile!!.uri, password = password)
+            try {
+                exportAsZip(backupFile!!.uri, password = password)
+            } catch (e: Exception) {
+                // An incomplete backup could not be updated by the following saves
+                backupFile?.delete()
+                throw e
+            }
         } else {
-            NotallyDatabase.getDatabase(this, observePreferences = false).value.checkpoint()
+            val snapshotFolder = File(cacheDir, ON_SAVE_SNAPSHOT_FOLDER).recreateDir()
+            val databaseCopy = File(snapshotFolder, DATABASE_NAME)
+            copyDatabase(databaseCopy)
             val files =
-                with(savedNote) {
-                    images.map {
-                        BackupFile(
-                            SUBFOLDER_IMAGES,
-                            File(getExternalImagesDirectory(), it.localName),
-                        )
-                    } +
-                        files.map {
-                            BackupFile(
-                                SUBFOLDER_FILES,
-                                File(getExternalFilesDirectory(), it.localName),
-                            )
-                        } +
-                        audios.map {
-                            BackupFile(SUBFOLDER_AUDIOS, File(getExternalAudioDirectory(), it.name))
-                        } +
-                        BackupFile(
-                            null,
-                            NotallyDatabase.getCurrentDatabaseFile(this@autoBackupOnSave),
-                        )
-                }
-            exportToZip(backupFile.uri, files, password)
+                savedNotes
+                    .flatMap { savedNote ->
+                        with(savedNote) {
+                            images.map {
+                                BackupFile(
+                                    SUBFOLDER_IMAGES,
+                                    File(getExternalImagesDirectory(), it.localName),
+                                )
+                            } +
+                                files.map {
+                                    BackupFile(
+                                        SUBFOLDER_FILES,
+                                        File(getExternalFilesDirectory(), it.localName),
+                                    )
+                                } +
+                                audios.map {
+                                    BackupFile(
+                                        SUBFOLDER_AUDIOS,
+                                        File(getExternalAudioDirectory(), it.name),
+                                    )
+                                }
+                        }
+                    }
+                    .distinct() + BackupFile(null, databaseCopy)
+            try {
+                exportToZip(backupFile.uri, files, password)
+            } finally {
+                snapshotFolder.deleteRecursively()
+            }
         }
+        return true
     } catch (e: Exception) {
         logToFile(
             TAG,
             backupFolder,
             NOTALLYX_BACKUP_LOGS_FILE,
-            msg =
-                "Auto backup on note save (${savedNote?.let {"id: '${savedNote.id}, title: '${savedNote.title}'" }}) failed",
+            msg = "Auto backup on note save ($notesDescription) failed",
             throwable = e,
         )
         tryPostErrorNotification(e)
+        return false
+    }
+}
+
+/**
+ * Backs up the notes which were saved since the last run of the [BackupOnSaveWorker], see
+ * [checkAutoSave]. Saves which happen meanwhile are backed up by the same run. If a backup fails
+ * its saves are pending again and the worker is retried.
+ *
+ * @param runAttemptCount of the [BackupOnSaveWorker], after [MAX_BACKUP_ON_SAVE_ATTEMPTS] the saves
+ *   stay pending until the next save schedules the worker again.
+ */
+fun ContextWrapper.backupPendingChanges(runAttemptCount: Int = 0): Result {
+    val preferences = NotallyXPreferences.getInstance(this)
+    var (noteIds, fullBackup) = takePendingBackup()
+    val backupPath = preferences.backupsFolder.value
+    if (!preferences.backupOnSave.value || backupPath == EMPTY_PATH) {
+        return Result.success()
+    }
+    val password = preferences.backupPassword.value
+    while (fullBackup || noteIds.isNotEmpty()) {
+        val isBackedUp =
+            if (fullBackup) {
+                deleteModifiedNoteBackup(backupPath)
+                autoBackupOnSave(backupPath, password, savedNotes = null)
+            } else {
+                val baseNoteDao =
+                    NotallyDatabase.getDatabase(this, observePreferences = false)
+                        .value
+                        .getBaseNoteDao()
+                val savedNotes = baseNoteDao.getByIds(noteIds.toLongArray())
+                autoBackupOnSave(backupPath, password, savedNotes)
+            }
+        if (!isBackedUp) {
+            addPendingBackup(noteIds, fullBackup)
+            return if (runAttemptCount + 1 < MAX_BACKUP_ON_SAVE_ATTEMPTS) Result.retry()
+            else Result.failure()
+        }
+        takePendingBackup().let { (nextNoteIds, nextFullBackup) ->
+            noteIds = nextNoteIds
+            fullBackup = nextFullBackup
+        }
     }
+    return Result.success()
 }
 
-suspend fun ContextWrapper.checkAutoSave(
+/**
+ * Schedules a backup of [note], or a full backup. Saves are collected until the
+ * [BackupOnSaveWorker] runs after [NotallyXPreferences.backupOnSaveDelay], so that a burst of saves
+ * only rewrites the backup once. Has to be called on a background thread.
+ */
+fun ContextWrapper.checkAutoSave(
     preferences: NotallyXPreferences,
     note: BaseNote? = null,
     forceFullBackup: Boolean = false,
@@ -225,16 +313,102 @@ suspend fun ContextWrapper.checkAutoSave(
     if (preferences.backupOnSave.value) {
         val backupPath = preferences.backupsFolder.value
         if (backupPath != EMPTY_PATH) {
-            if (forceFullBackup) {
-                deleteModifiedNoteBackup(backupPath)
-            }
-            withContext(Dispatchers.IO) {
-                autoBackupOnSave(backupPath, preferences.backupPassword.value, note)
-            }
+            addPendingBackup(listOfNotNull(note?.id), forceFullBackup || note == null)
+            scheduleBackupOnSave(
+                preferences.backupOnSaveDelay.value.toLong(),
+                appendToRunningWorker = true,
+            )
+        }
+    }
+}
+
+/**
+ * Schedules the [BackupOnSaveWorker] if saves are still pending, e.g. because the app was killed or
+ * the worker gave up before they were backed up.
+ */
+fun ContextWrapper.checkPendingBackupOnSave(preferences: NotallyXPreferences) {
+    if (
+        preferences.backupOnSave.value &&
+            preferences.backupsFolder.value != EMPTY_PATH &&
+            hasPendingBackup()
+    ) {
+        scheduleBackupOnSave(
+            preferences.backupOnSaveDelay.value.toLong(),
+            appendToRunningWorker = false,
+        )
+    }
+}
+
+internal fun Context.addPendingBackup(noteIds: Collection<Long>, fullBackup: Boolean) {
+    synchronized(pendingBackupLock) {
+        val pending = getSharedPreferences(PENDING_BACKUP_PREFERENCES, Context.MODE_PRIVATE)
+        val pendingNoteIds = pending.getStringSet(PENDING_NOTE_IDS, emptySet())!!
+        val pendingFullBackup = pending.getBoolean(PENDING_FULL_BACKUP, false)
+        pending.edit(commit = true) {
+            putStringSet(PENDING_NOTE_IDS, pendingNoteIds + noteIds.map { it.toString() })
+            putBoolean(PENDING_FULL_BACKUP, pendingFullBackup || fullBackup)
         }
     }
 }
 
+internal fun Context.hasPendingBackup(): Boolean {
+    synchronized(pendingBackupLock) {
+        val pending = getSharedPreferences(PENDING_BACKUP_PREFERENCES, Context.MODE_PRIVATE)
+        return pending.getStringSet(PENDING_NOTE_IDS, emptySet())!!.isNotEmpty() ||
+            pending.getBoolean(PENDING_FULL_BACKUP, false)
+    }
+}
+
+/** Returns and clears the ids of the pending notes and whether a full backup is pending. */
+internal fun Context.takePendingBackup(): Pair<Set<Long>, Boolean> {
+    synchronized(pendingBackupLock) {
+        val pending = getSharedPreferences(PENDING_BACKUP_PREFERENCES, Context.MODE_PRIVATE)
+        val noteIds = pending.getStringSet(PENDING_NOTE_IDS, emptySet())!!
+        val fullBackup = pending.getBoolean(PENDING_FULL_BACKUP, false)
+        pending.edit(commit = true) { clear() }
+        return noteIds.mapTo(HashSet()) { it.toLong() } to fullBackup
+    }
+}
+
+/**
+ * Enqueued for every pending save, but a worker which did not start yet is kept, since it backs up
+ * all saves which are pending when it runs. A running worker may have already taken the pending
+ * saves before it finishes, so if [appendToRunningWorker] another worker is appended to it, which
+ * reads the state of the work and therefore has to be done on a background thread.
+ */
+private fun ContextWrapper.scheduleBackupOnSave(
+    delayInMinutes: Long,
+    appendToRunningWorker: Boolean,
+) {
+    val constraints =
+        Constraints.Builder().setRequiresBatteryNotLow(true).setRequiresStorageNotLow(true).build()
+    val request =
+        OneTimeWorkRequest.Builder(BackupOnSaveWorker::class.java)
+            .setInitialDelay(delayInMinutes, TimeUnit.MINUTES)
+            .setConstraints(constraints)
+            .build()
+    try {
+        val workManager = WorkManager.getInstance(this)
+        val policy =
+            if (appendToRunningWorker && workManager.isOnlyRunning(BACKUP_ON_SAVE_WORK_NAME)) {
+                ExistingWorkPolicy.APPEND_OR_REPLACE
+            } else {
+                ExistingWorkPolicy.KEEP
+            }
+        workManager.enqueueUniqueWork(BACKUP_ON_SAVE_WORK_NAME, policy, request)
+    } catch (e: IllegalStateException) {
+        // only happens in Unit-Tests
+        log(TAG, "Scheduling backup on save failed", throwable = e)
+    }
+}
+
+/** Whether a worker of [uniqueWorkName] is running and none is waiting to run after it. */
+private fun WorkManager.isOnlyRunning(uniqueWorkName: String): Boolean {
+    val workInfos = getWorkInfosForUniqueWork(uniqueWorkName).get()
+    return workInfos.any { it.state == WorkInfo.State.RUNNING } &&
+        workInfos.none { it.state == WorkInfo.State.ENQUEUED || it.state == WorkInfo.State.BLOCKED }
+}
+
 fun ContextWrapper.deleteModifiedNoteBackup(backupPath: String) {
     DocumentFile.fromTreeUri(this, backupPath.toUri())?.findFile(ON_SAVE_BACKUP_FILE)?.delete()
 }
@@ -252,80 +426,54 @@ fun ContextWrapper.exportAsZip(
     backupProgress: MutableLiveData<Progress>? = null,
 ): Int {
     backupProgress?.postValue(Progress(indeterminate = true))
-    val tempFile = File.createTempFile("export", "tmp", cacheDir)
+    val (databaseOriginal, databaseCopy) = copyDatabase()
     try {
-        val zipFile =
-            ZipFile(tempFile, if (password != PASSWORD_EMPTY) password.toCharArray() else null)
-        val zipParameters =
-            ZipParameters().apply {
-                isEncryptFiles = password != PASSWORD_EMPTY
-                if (!compress) {
-                    compressionLevel = CompressionLevel.NO_COMPRESSION
-                }
-                encryptionMethod = EncryptionMethod.AES
-            }
-
-        val (databaseOriginal, databaseCopy) = copyDatabase()
-        zipFile.addFile(databaseCopy, zipParameters.copy(DATABASE_NAME))
-        databaseCopy.delete()
-
-        val imageRoot = getExternalImagesDirectory()
-        val fileRoot = getExternalFilesDirectory()
-        val audioRoot = getExternalAudioDirectory()
-
-        val totalNotes = databaseOriginal.getBaseNoteDao().count()
-        val images = databaseOriginal.getBaseNoteDao().getAllImages().toFileAttachments()
-        val files = databaseOriginal.getBaseNoteDao().getAllFiles().toFileAttachments()
-        val audios = databaseOriginal.getBaseNoteDao().getAllAudios()
-        val totalAttachments = images.count() + files.count() + audios.size
-        backupProgress?.postValue(Progress(0, totalAttachments))
-
-        val counter = AtomicInteger(0)
-        images.export(
-            zipFile,
-            zipParameters,
-            imageRoot,
-            SUBFOLDER_IMAGES,
-            this,
-            backupProgress,
-            totalAttachments,
-            counter,
-        )
-        files.export(
-            zipFile,
-            zipParameters,
-            fileRoot,
-            SUBFOLDER_FILES,
-            this,
-            backupProgress,
-            totalAttachments,
-            counter,
-        )
-        audios
-            .asSequence()
-            .flatMap { string -> Converters.jsonToAudios(string) }
-            .forEach { audio ->
-                try {
-                    backupFile(zipFile, zipParameters, audioRoot, SUBFOLDER_AUDIOS, audio.name)
-                } catch (exception: Exception) {
-                    log(TAG, throwable = exception)
-                } finally {
-                    backupProgress?.postValue(Progress(counter.incrementAndGet(), totalAttachments))
+        val outputStream =
+            contentResolver.openOutputStream(fileUri)
+                ?: throw IOException("Can not write to '$fileUri'")
+        val zipParameters = createZipParameters(compress, password)
+        // Entries are written straight to the destination, only the database copy needs temp space
+        ZipOutputStream(outputStream, password.toPasswordOrNull()).use { zipStream ->
+            zipStream.putFile(databaseCopy, zipParameters, DATABASE_NAME)
+            databaseCopy.delete()
+
+            val imageRoot = getExternalImagesDirectory()
+            val fileRoot = getExternalFilesDirectory()
+            val audioRoot = getExternalAudioDirectory()
+
+            val totalNotes = databaseOriginal.getBaseNoteDao().count()
+            val images = databaseOriginal.getBaseNoteDao().getAllImages().toFileAttachments()
+            val files = databaseOriginal.getBaseNoteDao().getAllFiles().toFileAttachments()
+            val audios = databaseOriginal.getBaseNoteDao().getAllAudios()
+            // Notes with the same image or file share it, see AttachmentStore
+            val attachments =
+                (images.map { it.toPackerEntry(imageRoot, SUBFOLDER_IMAGES) } +
+                        files.map { it.toPackerEntry(fileRoot, SUBFOLDER_FILES) } +
+                        audios
+                            .asSequence()
+                            .flatMap { string -> Converters.jsonToAudios(string) }
+                            .map { it.name.toPackerEntry(audioRoot, SUBFOLDER_AUDIOS) })
+                    .distinctBy { it.fileNameInZip }
+                    .toList()
+            val totalAttachments = attachments.size
+            backupProgress?.postValue(Progress(0, totalAttachments))
+
+            var packed = 0
+            var progressPostedAt = 0L
+            AttachmentPacker(zipStream, zipParameters).pack(attachments) { _, exception ->
+                exception?.let { log(TAG, throwable = it) }
+                packed++
+                val now = SystemClock.elapsedRealtime()
+                if (packed == totalAttachments || now - progressPostedAt >= PROGRESS_INTERVAL) {
+                    progressPostedAt = now
+                    backupProgress?.postValue(Progress(packed, totalAttachments))
                 }
             }
-
-        zipFile.close()
-        contentResolver.openOutputStream(fileUri)?.use { outputStream ->
-            FileInputStream(zipFile.file).use { inputStream ->
-                inputStream.copyTo(outputStream)
-                outputStream.flush()
-            }
-            zipFile.file.delete()
+            backupProgress?.postValue(Progress(inProgress = false))
+            return totalNotes
         }
-        backupProgress?.postValue(Progress(inProgress = false))
-        return totalNotes
     } finally {
-        tempFile.delete()
+        databaseCopy.delete()
     }
 }
 
@@ -354,8 +502,7 @@ private fun extractZipToDirectory(zipInputStream: InputStream, outputDir: File,
     val tempZipFile = File.createTempFile("extractedZip", null, outputDir)
     try {
         tempZipFile.outputStream().use { zipOutputStream -> zipInputStream.copyTo(zipOutputStream) }
-        val zipFile =
-            ZipFile(tempZipFile, if (password != PASSWORD_EMPTY) password.toCharArray() else null)
+        val zipFile = ZipFile(tempZipFile, password.toPasswordOrNull())
         zipFile.extractAll(outputDir.absolutePath)
     } finally {
         tempZipFile.delete()
@@ -368,77 +515,95 @@ private fun createZipFromDirectory(
     password: String = PASSWORD_EMPTY,
     compress: Boolean = false,
 ) {
-    val tempZipFile = File.createTempFile("tempZip", ".zip")
-    try {
-        tempZipFile.deleteOnExit()
-        val zipFile =
-            ZipFile(tempZipFile, if (password != PASSWORD_EMPTY) password.toCharArray() else null)
-        val zipParameters =
-            ZipParameters().apply {
-                isEncryptFiles = password != PASSWORD_EMPTY
-                if (!compress) {
-                    compressionLevel = CompressionLevel.NO_COMPRESSION
-                }
-                encryptionMethod = EncryptionMethod.AES
-                isIncludeRootFolder = false
+    val zipParameters = createZipParameters(compress, password)
+    ZipOutputStream(zipOutputStream, password.toPasswordOrNull()).use { zipStream ->
+        sourceDir
+            .walkTopDown()
+            .filter { it.isFile }
+            .forEach { file ->
+                val fileNameInZip = file.relativeTo(sourceDir).invariantSeparatorsPath
+                zipStream.putFile(file, zipParameters, fileNameInZip)
             }
-        zipFile.addFolder(sourceDir, zipParameters)
-        tempZipFile.inputStream().use { inputStream -> inputStream.copyTo(zipOutputStream) }
-    } finally {
-        tempZipFile.delete()
     }
 }
 
-fun ContextWrapper.copyDatabase(): Pair<NotallyDatabase, File> {
-    val database = NotallyDatabase.getDatabase(this, observePreferences = false).value
-    database.checkpoint()
-    val preferences = NotallyXPreferences.getInstance(this)
-    return if (
-        preferences.biometricLock.value == BiometricLock.ENABLED &&
-            Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
-    ) {
-        val cipher = getInitializedCipherForDecryption(iv = preferences.iv.value!!)
-        val passphrase = cipher.doFinal(preferences.databaseEncryptionKey.value)
-        val decryptedFile = File(cacheDir, DATABASE_NAME)
-        decryptDatabase(
-            this,
-            passphrase,
-            decryptedFile,
-            NotallyDatabase.getExternalDatabaseFile(this),
-        )
-        Pair(database, decryptedFile)
-    } else {
-        val dbFile = File(cacheDir, DATABASE_NAME)
-        NotallyDatabase.getCurrentDatabaseFile(this).copyTo(dbFile, overwrite = true)
-        Pair(database, dbFile)
+private fun createZipParameters(compress: Boolean, password: String): ZipParameters {
+    return ZipParameters().apply {
+        isEncryptFiles = password != PASSWORD_EMPTY
+        if (!compress) {
+            compressionLevel = CompressionLevel.NO_COMPRESSION
+        }
+        encryptionMethod = EncryptionMethod.AES
     }
 }
 
-private fun List<String>.toFileAttachments(): Sequence<FileAttachment> {
-    return asSequence().flatMap { string -> Converters.jsonToFiles(string) }
-}
-
-private fun Sequence<FileAttachment>.export(
-    zipFile: ZipFile,
+/**
+ * Writes [file] as [fileNameInZip], using its [content] instead of reading it if given. If [file]
+ * can not be opened nothing is written, but an exception after the entry was started leaves the zip
+ * incomplete and is thrown as [ZipEntryException].
+ */
+internal fun ZipOutputStream.putFile(
+    file: File,
     zipParameters: ZipParameters,
-    fileRoot: File?,
-    subfolder: String,
-    context: ContextWrapper,
-    backupProgress: MutableLiveData<Progress>?,
-    total: Int,
-    counter: AtomicInteger,
+    fileNameInZip: String,
+    content: ByteArray? = null,
 ) {
-    forEach { file ->
+    val entryParameters =
+        zipParameters.copy(fileNameInZip).apply {
+            entrySize = file.length()
+            lastModifiedFileTime = file.lastModified()
+        }
+    val inputStream = if (content == null) file.inputStream() else null
+    inputStream.use {
         try {
-            backupFile(zipFile, zipParameters, fileRoot, subfolder, file.localName)
-        } catch (exception: Exception) {
-            context.log(TAG, throwable = exception)
-        } finally {
-            backupProgress?.postValue(Progress(counter.incrementAndGet(), total))
+            putNextEntry(entryParameters)
+            if (content != null) {
+                write(content)
+            } else {
+                inputStream!!.copyTo(this)
+            }
+            closeEntry()
+        } catch (e: Exception) {
+            throw ZipEntryException(fileNameInZip, e)
         }
     }
 }
 
+/** Writing the entry [fileNameInZip] failed after it was started, the zip can not be used. */
+internal class ZipEntryException(fileNameInZip: String, cause: Exception) :
+    IOException("Failed to write '$fileNameInZip', the zip is incomplete", cause)
+
+/** zip4j expects `null` instead of a password for unencrypted zips. */
+internal fun String.toPasswordOrNull() = takeIf { it != PASSWORD_EMPTY }?.toCharArray()
+
+/** Returns the database and an unencrypted snapshot of it, see [snapshotDatabase]. */
+fun ContextWrapper.copyDatabase(
+    databaseCopy: File = File.createTempFile(DATABASE_NAME, null, cacheDir)
+): Pair<NotallyDatabase, File> {
+    val database = NotallyDatabase.getDatabase(this, observePreferences = false).value
+    val preferences = NotallyXPreferences.getInstance(this)
+    val passphrase =
+        if (
+            preferences.biometricLock.value == BiometricLock.ENABLED &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+        ) {
+            val cipher = getInitializedCipherForDecryption(iv = preferences.iv.value!!)
+            cipher.doFinal(preferences.databaseEncryptionKey.value)
+        } else null
+    snapshotDatabase(databaseCopy, passphrase)
+    return Pair(database, databaseCopy)
+}
+
+private fun List<String>.toFileAttachments(): Sequence<FileAttachment> {
+    return asSequence().flatMap { string -> Converters.jsonToFiles(string) }
+}
+
+private fun FileAttachment.toPackerEntry(root: File?, folder: String) =
+    localName.toPackerEntry(root, folder)
+
+private fun String.toPackerEntry(root: File?, folder: String) =
+    AttachmentPacker.Entry(root?.let { File(it, this) }, "$folder/$this")
+
 fun WorkInfo.PeriodicityInfo.isEqualTo(value: Long, unit: TimeUnit): Boolean {
     return repeatIntervalMillis == unit.toMillis(value)
 }
@@ -477,19 +642,6 @@ fun WorkManager.scheduleAutoBackup(context: ContextWrapper, periodInDays: Long)
     }
 }
 
-private fun backupFile(
-    zipFile: ZipFile,
-    zipParameters: ZipParameters,
-    root: File?,
-    folder: String,
-    name: String,
-) {
-    val file = if (root != null) File(root, name) else null
-    if (file != null && file.exists()) {
-        zipFile.addFile(file, zipParameters.copy("$folder/$name"))
-    }
-}
-
 private fun ZipParameters.copy(fileNameInZip: String? = this.fileNameInZip): ZipParameters {
     return ZipParameters(this).apply { this@apply.fileNameInZip = fileNameInZip }
 }
@@ -4,12 +4,15 @@ import android.content.Context
 import android.content.ContextWrapper
 import android.content.SharedPreferences
 import android.database.Cursor
+import android.database.DatabaseUtils
 import android.database.sqlite.SQLiteDatabase
 import android.graphics.BitmapFactory
 import android.media.MediaMetadataRetriever
 import android.net.Uri
 import android.util.Log
+import androidx.core.database.getIntOrNull
 import androidx.core.database.getLongOrNull
+import androidx.core.net.toUri
 import androidx.documentfile.provider.DocumentFile
 import androidx.lifecycle.MutableLiveData
 import com.philkes.notallyx.R
@@ -21,13 +24,19 @@ import com.philkes.notallyx.data.model.BaseNote
 import com.philkes.notallyx.data.model.Converters
 import com.philkes.notallyx.data.model.FileAttachment
 import com.philkes.notallyx.data.model.Folder
+import com.philkes.notallyx.data.model.ImportCheckpoint
 import com.philkes.notallyx.data.model.Label
+import com.philkes.notallyx.data.model.ListItem
 import com.philkes.notallyx.data.model.Type
 import com.philkes.notallyx.data.model.parseToColorString
 import com.philkes.notallyx.presentation.getQuantityString
 import com.philkes.notallyx.presentation.showToast
 import com.philkes.notallyx.presentation.viewmodel.NotallyModel.FileType
+import com.philkes.notallyx.presentation.viewmodel.preference.NotallyXPreferences
+import com.philkes.notallyx.presentation.viewmodel.preference.NotallyXPreferences.Companion.EMPTY_PATH
+import com.philkes.notallyx.utils.AttachmentStore
 import com.philkes.notallyx.utils.FileError
+import com.philkes.notallyx.utils.ImageCompression
 import com.philkes.notallyx.utils.SUBFOLDER_AUDIOS
 import com.philkes.notallyx.utils.SUBFOLDER_FILES
 import com.philkes.notallyx.utils.SUBFOLDER_IMAGES
@@ -41,15 +50,17 @@ import com.philkes.notallyx.utils.getExternalImagesDirectory
 import com.philkes.notallyx.utils.getFileName
 import com.philkes.notallyx.utils.log
 import com.philkes.notallyx.utils.mimeTypeToFileExtension
-import com.philkes.notallyx.utils.rename
 import com.philkes.notallyx.utils.scheduleNoteReminders
 import java.io.File
 import java.io.FileInputStream
+import java.io.IOException
 import java.io.InputStream
 import java.util.UUID
 import java.util.concurrent.atomic.AtomicInteger
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import net.lingala.zip4j.ZipFile
 import net.lingala.zip4j.exception.ZipException
@@ -57,6 +68,9 @@ import org.json.JSONArray
 import org.json.JSONObject
 
 private const val TAG = "ImportExtensions"
+private const val IMPORT_BATCH_SIZE = 50
+private const val EXTRACT_ATTEMPTS = 3
+private val EXTRACT_THREADS = Runtime.getRuntime().availableProcessors().coerceAtLeast(2)
 
 /**
  * We only import the images/files referenced in notes. e.g If someone has added garbage to the ZIP
@@ -79,97 +93,32 @@ suspend fun ContextWrapper.importZip(
                 if (zipFile.isEncrypted) {
                     zipFile.setPassword(zipPassword.toCharArray())
                 }
-                zipFile.extractFile(
-                    NotallyDatabase.DATABASE_NAME,
-                    databaseFolder.path,
-                    NotallyDatabase.DATABASE_NAME,
-                )
-
-                val database =
-                    SQLiteDatabase.openDatabase(
-                        File(databaseFolder, NotallyDatabase.DATABASE_NAME).path,
-                        null,
-                        SQLiteDatabase.OPEN_READONLY,
-                    )
-
-                val labelCursor = database.query("Label", null, null, null, null, null, null)
-                val baseNoteCursor = database.query("BaseNote", null, null, null, null, null, null)
-
-                val labels = labelCursor.toList { cursor -> cursor.toLabel() }
-
-                var total = baseNoteCursor.count
-                var counter = 1
-                importingBackup?.postValue(ImportProgress(0, total))
-                val baseNotes =
-                    baseNoteCursor.toList { cursor ->
-                        val baseNote = cursor.toBaseNote()
-                        importingBackup?.postValue(ImportProgress(counter++, total))
-                        baseNote
-                    }
-
-                delay(1000)
-
-                total =
-                    baseNotes.fold(0) { acc, baseNote ->
-                        acc + baseNote.images.size + baseNote.files.size + baseNote.audios.size
-                    }
-                importingBackup?.postValue(
-                    ImportProgress(0, total, stage = ImportStage.IMPORT_FILES)
-                )
-
-                val current = AtomicInteger(1)
-                val imageRoot = getExternalImagesDirectory()
-                val fileRoot = getExternalFilesDirectory()
-                val audioRoot = getExternalAudioDirectory()
-                baseNotes.forEach { baseNote ->
-                    importFiles(
-                        baseNote.images,
-                        SUBFOLDER_IMAGES,
-                        imageRoot,
-                        zipFile,
-                        current,
-                        total,
-                        importingBackup,
-                    )
-                    importFiles(
-                        baseNote.files,
-                        SUBFOLDER_FILES,
-                        fileRoot,
-                        zipFile,
-                        current,
-                        total,
-                        importingBackup,
-                    )
-                    baseNote.audios.forEach { audio ->
-                        try {
-                            val audioFilePath = "$SUBFOLDER_AUDIOS/${audio.name}"
-                            val entry = zipFile.getFileHeader(audioFilePath)
-                            if (entry != null) {
-                                val name = "${UUID.randomUUID()}.m4a"
-                                zipFile.extractFile(audioFilePath, audioRoot!!.path, name)
-                                audio.name = name
-                            }
-                        } catch (exception: Exception) {
-                            log(TAG, throwable = exception)
-                        } finally {
-                            importingBackup?.postValue(
-                                ImportProgress(
-                                    current.getAndIncrement(),
-                                    total,
-                                    stage = ImportStage.IMPORT_FILES,
-                                )
-                            )
-                        }
-                    }
-                }
-
                 val notallyDatabase =
                     NotallyDatabase.getDatabase(this@importZip, observePreferences = false).value
-                notallyDatabase.getCommonDao().importBackup(baseNotes, labels)
+                val count =
+                    if (zipFile.getFileHeader(BackupStore.MANIFEST) != null) {
+                        val (baseNotes, labels) =
+                            importSnapshot(zipFile, zipPassword, importingBackup)
+                        notallyDatabase.getCommonDao().importBackup(baseNotes, labels)
+                        baseNotes.size
+                    } else {
+                        val databaseHeader = zipFile.getFileHeader(NotallyDatabase.DATABASE_NAME)
+                        val source =
+                            with(databaseHeader) {
+                                "$zipFileUri:$crc:$uncompressedSize:$lastModifiedTime"
+                            }
+                        importDatabase(
+                            zipFile,
+                            zipPassword,
+                            source,
+                            databaseFolder,
+                            importingBackup,
+                        )
+                    }
                 val reminders = notallyDatabase.getBaseNoteDao().getAllReminders()
                 cancelNoteReminders(reminders)
                 scheduleNoteReminders(reminders)
-                baseNotes.size
+                count
             }
         databaseFolder.clearDirectory()
         val message = getQuantityString(R.plurals.imported_notes, importedNotes)
@@ -181,6 +130,9 @@ suspend fun ContextWrapper.importZip(
             log(TAG, throwable = e)
             showToast(R.string.invalid_backup)
         }
+    } catch (e: BackupStore.MissingStoreException) {
+        log(TAG, throwable = e)
+        showToast(R.string.snapshot_store_missing)
     } catch (e: Exception) {
         showToast(R.string.invalid_backup)
         log(TAG, throwable = e)
@@ -189,39 +141,254 @@ suspend fun ContextWrapper.importZip(
     }
 }
 
+/**
+ * Imports the notes of the backup database in batches of [IMPORT_BATCH_SIZE], each batch is
+ * committed together with an [ImportCheckpoint] for [source]. If the import of the same backup was
+ * interrupted before, it continues after the last committed batch. Returns the number of notes in
+ * the backup.
+ */
+private suspend fun ContextWrapper.importDatabase(
+    zipFile: ZipFile,
+    zipPassword: String,
+    source: String,
+    databaseFolder: File,
+    importingBackup: MutableLiveData<ImportProgress>?,
+): Int {
+    zipFile.extractFile(
+        NotallyDatabase.DATABASE_NAME,
+        databaseFolder.path,
+        NotallyDatabase.DATABASE_NAME,
+    )
+
+    val database =
+        SQLiteDatabase.openDatabase(
+            File(databaseFolder, NotallyDatabase.DATABASE_NAME).path,
+            null,
+            SQLiteDatabase.OPEN_READONLY,
+        )
+    // zip4j's ZipFile must not be shared between threads, every extractor reads through its own
+    val extractors = listOf(zipFile) + List(EXTRACT_THREADS - 1) { zipFile.reopen(zipPassword) }
+    try {
+        val notallyDatabase = NotallyDatabase.getDatabase(this, observePreferences = false).value
+        val commonDao = notallyDatabase.getCommonDao()
+
+        val labelCursor = database.query("Label", null, null, null, null, null, null)
+        notallyDatabase.getLabelDao().insert(labelCursor.toList { cursor -> cursor.toLabel() })
+
+        // Backups of versions before NoteItem existed only contain the items JSON of BaseNote
+        val hasNoteItems =
+            DatabaseUtils.queryNumEntries(
+                database,
+                "sqlite_master",
+                "type = 'table' AND name = 'NoteItem'",
+            ) > 0
+        var lastId = commonDao.getImportCheckpoint(source) ?: Long.MIN_VALUE
+        val total = DatabaseUtils.queryNumEntries(database, "BaseNote").toInt()
+        val current =
+            DatabaseUtils.queryNumEntries(database, "BaseNote", "id <= ?", arrayOf("$lastId"))
+                .toInt()
+                .let { AtomicInteger(it) }
+        importingBackup?.postValue(ImportProgress(current.get(), total))
+
+        val attachmentRoots =
+            AttachmentRoots(
+                getExternalImagesDirectory(),
+                getExternalFilesDirectory(),
+                getExternalAudioDirectory(),
+            )
+        while (true) {
+            val batch =
+                database
+                    .query(
+                        "BaseNote",
+                        null,
+                        "id > ?",
+                        arrayOf("$lastId"),
+                        null,
+                        null,
+                        "id",
+                        "$IMPORT_BATCH_SIZE",
+                    )
+                    .toList { cursor ->
+                        cursor.getLong(cursor.getColumnIndexOrThrow("id")) to cursor.toBaseNote()
+                    }
+            if (batch.isEmpty()) {
+                break
+            }
+            val items =
+                if (hasNoteItems) database.queryItems(batch.first().first, batch.last().first)
+                else null
+            val baseNotes =
+                batch.map { (id, baseNote) ->
+                    if (items == null) baseNote else baseNote.copy(items = items[id].orEmpty())
+                }
+            importAttachments(baseNotes, extractors, attachmentRoots) {
+                importingBackup?.postValue(ImportProgress(current.incrementAndGet(), total))
+            }
+            lastId = batch.last().first
+            commonDao.importBatch(baseNotes, ImportCheckpoint(source, lastId))
+        }
+        commonDao.deleteImportCheckpoint(source)
+        return total
+    } finally {
+        database.close()
+        extractors.drop(1).forEach { extractor -> extractor.close() }
+    }
+}
+
+private class AttachmentRoots(val images: File?, val files: File?, val audios: File?)
+
+/**
+ * Extracts the attachments of [baseNotes] concurrently, every one of the [extractors] works off the
+ * notes one by one. [onImported] is called after all attachments of a note were extracted.
+ */
+private suspend fun ContextWrapper.importAttachments(
+    baseNotes: List<BaseNote>,
+    extractors: List<ZipFile>,
+    roots: AttachmentRoots,
+    onImported: () -> Unit,
+) = coroutineScope {
+    val queue = Channel<BaseNote>(Channel.UNLIMITED)
+    baseNotes.forEach { baseNote -> queue.trySend(baseNote) }
+    queue.close()
+    extractors.forEach { zipFile ->
+        launch(Dispatchers.IO) {
+            for (baseNote in queue) {
+                importAttachments(baseNote, zipFile, roots)
+                onImported()
+            }
+        }
+    }
+}
+
+/** Extracts the attachments of [baseNote] under new names and updates its references to them. */
+private fun ContextWrapper.importAttachments(
+    baseNote: BaseNote,
+    zipFile: ZipFile,
+    roots: AttachmentRoots,
+) {
+    importFiles(baseNote.images, SUBFOLDER_IMAGES, roots.images, zipFile)
+    importFiles(baseNote.files, SUBFOLDER_FILES, roots.files, zipFile)
+    baseNote.audios.forEach { audio ->
+        try {
+            val audioFilePath = "$SUBFOLDER_AUDIOS/${audio.name}"
+            val entry = zipFile.getFileHeader(audioFilePath)
+            if (entry != null) {
+                val name = "${UUID.randomUUID()}.m4a"
+                retrying { zipFile.extractFile(audioFilePath, roots.audios!!.path, name) }
+                // The entry's modification time is kept, which deleteOrphanAttachments would
+                // consider old enough to collect before the note is saved
+                File(roots.audios, name).setLastModified(System.currentTimeMillis())
+                audio.name = name
+            }
+        } catch (exception: Exception) {
+            log(TAG, throwable = exception)
+        }
+    }
+}
+
+/** Restores a snapshot of the [BackupStore] in the backups folder, see [createBackup]. */
+private fun ContextWrapper.importSnapshot(
+    zipFile: ZipFile,
+    zipPassword: String,
+    importingBackup: MutableLiveData<ImportProgress>?,
+): Pair<List<BaseNote>, List<Label>> {
+    val manifest =
+        zipFile.getInputStream(zipFile.getFileHeader(BackupStore.MANIFEST)).use { stream ->
+            JSONObject(stream.bufferedReader().readText())
+        }
+    val backupsFolder = NotallyXPreferences.getInstance(this).backupsFolder.value
+    if (backupsFolder == EMPTY_PATH) {
+        throw BackupStore.MissingStoreException("Snapshots are restored from the backups folder")
+    }
+    val folder = requireNotNull(DocumentFile.fromTreeUri(this, backupsFolder.toUri()))
+    return BackupStore(this, folder, zipPassword).restoreSnapshot(manifest) { current, total ->
+        importingBackup?.postValue(ImportProgress(current, total, stage = ImportStage.IMPORT_FILES))
+    }
+}
+
 private fun ContextWrapper.importFiles(
     files: List<FileAttachment>,
     subFolder: String,
     localFolder: File?,
     zipFile: ZipFile,
-    current: AtomicInteger,
-    total: Int,
-    importingBackup: MutableLiveData<ImportProgress>? = null,
 ) {
     files.forEach { file ->
         try {
             val entry = zipFile.getFileHeader("$subFolder/${file.localName}")
             if (entry != null) {
                 val extension = file.localName.substringAfterLast(".")
-                val name = "${UUID.randomUUID()}.$extension"
-                zipFile.extractFile("$subFolder/${file.localName}", localFolder!!.path, name)
-                file.localName = name
+                val store = AttachmentStore(localFolder!!)
+                val temp = store.createTempFile()
+                try {
+                    retrying {
+                        zipFile.extractFile("$subFolder/${file.localName}", temp.parent, temp.name)
+                    }
+                } catch (e: Exception) {
+                    temp.delete()
+                    throw e
+                }
+                store.put(store.stage(temp), ".$extension")?.let { file.localName = it }
             }
         } catch (e: Exception) {
             log(TAG, throwable = e)
-        } finally {
-            importingBackup?.postValue(
-                ImportProgress(current.getAndIncrement(), total, stage = ImportStage.IMPORT_FILES)
-            )
         }
     }
 }
 
+private fun ZipFile.reopen(password: String): ZipFile {
+    return ZipFile(file).also { zipFile ->
+        if (zipFile.isEncrypted) {
+            zipFile.setPassword(password.toCharArray())
+        }
+    }
+}
+
+/** Runs [block] up to [EXTRACT_ATTEMPTS] times if it fails with an I/O error. */
+private inline fun retrying(block: () -> Unit) {
+    repeat(EXTRACT_ATTEMPTS - 1) {
+        try {
+            return block()
+        } catch (exception: IOException) {
+            if ((exception as? ZipException)?.type == ZipException.Type.WRONG_PASSWORD) {
+                throw exception
+            }
+            Log.w(TAG, "Extracting failed, retrying", exception)
+        }
+    }
+    block()
+}
+
 private fun Cursor.toLabel(): Label {
     val value = this.getString(getColumnIndexOrThrow("value"))
     return Label(value)
 }
 
+/** The items of the notes with ids from [firstId] to [lastId], by the id of their note. */
+private fun SQLiteDatabase.queryItems(firstId: Long, lastId: Long): Map<Long, List<ListItem>> {
+    return query(
+            "NoteItem",
+            null,
+            "noteId BETWEEN ? AND ?",
+            arrayOf("$firstId", "$lastId"),
+            null,
+            null,
+            "noteId, position",
+        )
+        .toList { cursor ->
+            cursor.getLong(cursor.getColumnIndexOrThrow("noteId")) to cursor.toListItem()
+        }
+        .groupBy({ (noteId, _) -> noteId }, { (_, item) -> item })
+}
+
+private fun Cursor.toListItem(): ListItem {
+    val body = getString(getColumnIndexOrThrow("body"))
+    val checked = getInt(getColumnIndexOrThrow("checked")) == 1
+    val isChild = getInt(getColumnIndexOrThrow("isChild")) == 1
+    val order = getIntOrNull(getColumnIndexOrThrow("order"))
+    return ListItem(body, checked, isChild, order, mutableListOf())
+}
+
 private fun Cursor.toBaseNote(): BaseNote {
     val typeTmp = getString(getColumnIndexOrThrow("type"))
     val folderTmp = getString(getColumnIndexOrThrow("folder"))
@@ -359,26 +526,28 @@ suspend fun Context.importFile(
             is not null. externalRoot.exists() can be false if the folder `Images` has been deleted after
             the previous line, but externalRoot itself can't be null
             */
-            val temp = File(directory, "Temp")
-
-            val inputStream = requireNotNull(contentResolver.openInputStream(uri))
-            inputStream.copyToFile(temp)
+            val store = AttachmentStore(directory)
+            val staged =
+                requireNotNull(contentResolver.openInputStream(uri)).use { store.stage(it) }
 
             val originalName = getFileName(uri)
             when (fileType) {
                 FileType.IMAGE -> {
                     val options = BitmapFactory.Options()
                     options.inJustDecodeBounds = true
-                    BitmapFactory.decodeFile(temp.path, options)
+                    BitmapFactory.decodeFile(staged.file.path, options)
                     val mimeType = options.outMimeType ?: proposedMimeType
 
                     if (mimeType != null) {
                         val extension = mimeType.mimeTypeToFileExtension()
                         if (extension != null) {
-                            val name = "${UUID.randomUUID()}.$extension"
-                            if (temp.rename(name)) {
+                            val (image, imageMimeType) =
+                                compressImage(store, staged, options) ?: Pair(staged, mimeType)
+                            val imageExtension = imageMimeType.mimeTypeToFileExtension()
+                            val name = store.put(image, ".$imageExtension")
+                            if (name != null) {
                                 return@withContext Pair(
-                                    FileAttachment(name, originalName ?: name, mimeType),
+                                    FileAttachment(name, originalName ?: name, imageMimeType),
                                     null,
                                 )
                             } else {
@@ -389,7 +558,8 @@ suspend fun Context.importFile(
                                     FileError(displayName, getString(errorWhileRenaming), fileType),
                                 )
                             }
-                        } else
+                        } else {
+                            staged.file.delete()
                             return@withContext Pair(
                                 null,
                                 FileError(
@@ -398,18 +568,21 @@ suspend fun Context.importFile(
                                     fileType,
                                 ),
                             )
-                    } else
+                        }
+                    } else {
+                        staged.file.delete()
                         return@withContext Pair(
                             null,
                             FileError(displayName, getString(R.string.invalid_image), fileType),
                         )
+                    }
                 }
 
                 FileType.ANY -> {
                     val (mimeType, fileExtension) =
                         contentResolver.determineMimeTypeAndExtension(uri, proposedMimeType)
-                    val name = "${UUID.randomUUID()}${fileExtension}"
-                    if (temp.rename(name)) {
+                    val name = store.put(staged, fileExtension)
+                    if (name != null) {
                         return@withContext Pair(
                             FileAttachment(name, originalName ?: name, mimeType),
                             null,
@@ -437,6 +610,33 @@ suspend fun Context.importFile(
     }
 }
 
+/**
+ * Compresses the [staged] image as configured in the [NotallyXPreferences], see [ImageCompression].
+ * If it was compressed, the original is deleted and the compressed image is returned.
+ */
+private fun Context.compressImage(
+    store: AttachmentStore,
+    staged: AttachmentStore.Staged,
+    bounds: BitmapFactory.Options,
+): Pair<AttachmentStore.Staged, String>? {
+    val compression = ImageCompression.of(NotallyXPreferences.getInstance(this)) ?: return null
+    val target = store.createTempFile()
+    val mimeType =
+        try {
+            compression.compress(staged.file, target, bounds.outWidth, bounds.outHeight)
+        } catch (e: Throwable) {
+            // Decoding big images can also run out of memory
+            Log.e(TAG, "Compressing image failed, keeping the original", e)
+            null
+        }
+    if (mimeType == null) {
+        target.delete()
+        return null
+    }
+    staged.file.delete()
+    return Pair(store.stage(target), mimeType)
+}
+
 suspend fun ContextWrapper.importFile(
     uri: Uri,
     proposedMimeType: String? = null,
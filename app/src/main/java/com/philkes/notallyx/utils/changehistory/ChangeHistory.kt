@@ -11,6 +11,9 @@ class ChangeHistory {
     internal val canUndo = NotNullLiveData(false)
     internal val canRedo = NotNullLiveData(false)
 
+    /** Called after every [push], [undo] and [redo]. */
+    var onChange: (() -> Unit)? = null
+
     init {
         stackPointer.observeForever {
             canUndo.value = it > -1
@@ -23,6 +26,7 @@ class ChangeHistory {
         changeStack.add(change)
         stackPointer.value += 1
         Log.d(TAG, "addChange: $change")
+        onChange?.invoke()
     }
 
     fun redo() {
@@ -33,6 +37,7 @@ class ChangeHistory {
         val makeListAction = changeStack[stackPointer.value]
         Log.d(TAG, "redo: $makeListAction")
         makeListAction.redo()
+        onChange?.invoke()
     }
 
     fun undo() {
@@ -43,6 +48,7 @@ class ChangeHistory {
         Log.d(TAG, "undo: $makeListAction")
         makeListAction.undo()
         stackPointer.value -= 1
+        onChange?.invoke()
     }
 
     fun reset() {
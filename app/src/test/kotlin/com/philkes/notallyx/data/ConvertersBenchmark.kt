@@ -0,0 +1,173 @@
+package com.philkes.notallyx.data
+
+import com.philkes.notallyx.data.model.Converters
+import com.philkes.notallyx.data.model.ListItem
+import com.philkes.notallyx.data.model.Reminder
+import com.philkes.notallyx.data.model.Repetition
+import com.philkes.notallyx.data.model.RepetitionTimeUnit
+import com.philkes.notallyx.data.model.SpanRepresentation
+import java.lang.management.ManagementFactory
+import java.util.Date
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Compares decoding the converter columns of realistic notes with [Converters] against the
+ * previous `org.json` based implementation. Prints throughput and allocated bytes per decoded
+ * note, run manually with:
+ * ```
+ * ./gradlew testDebugUnitTest --tests "*ConvertersBenchmark*" -i
+ * ```
+ */
+@Ignore("Benchmark, run manually")
+class ConvertersBenchmark {
+
+    private val items =
+        Converters.itemsToJson(
+            (0 until 30).map {
+                ListItem("Item number $it", it % 3 == 0, it % 4 != 0, it, mutableListOf())
+            }
+        )
+    private val spans =
+        Converters.spansToJson(
+            (0 until 20).map {
+                SpanRepresentation(it * 10, it * 10 + 5, bold = it % 2 == 0, italic = it % 3 == 0)
+            }
+        )
+    private val reminders =
+        Converters.remindersToJson(
+            listOf(
+                Reminder(1, Date(), null),
+                Reminder(2, Date(), Repetition(1, RepetitionTimeUnit.WEEKS)),
+            )
+        )
+    private val labels = Converters.labelsToJson(listOf("Work", "Groceries", "Ideas"))
+
+    @Test
+    fun decode() {
+        measure("org.json") {
+            LegacyConverters.jsonToItems(items).size +
+                LegacyConverters.jsonToSpans(spans).size +
+                LegacyConverters.jsonToReminders(reminders).size +
+                LegacyConverters.jsonToLabels(labels).size
+        }
+        measure("Converters") {
+            Converters.jsonToItems(items).size +
+                Converters.jsonToSpans(spans).size +
+                Converters.jsonToReminders(reminders).size +
+                Converters.jsonToLabels(labels).size
+        }
+    }
+
+    private fun measure(name: String, decodeNote: () -> Int) {
+        repeat(WARMUP_ITERATIONS) { decodeNote() }
+        val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().id
+        var checksum = 0
+        val allocatedBefore = threadBean.getThreadAllocatedBytes(threadId)
+        val start = System.nanoTime()
+        repeat(ITERATIONS) { checksum += decodeNote() }
+        val elapsed = System.nanoTime() - start
+        val allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore
+        println(
+            "$name: ${ITERATIONS * 1_000_000_000L / elapsed} notes/s, " +
+                "${allocated / ITERATIONS} bytes/note (checksum $checksum)"
+        )
+    }
+
+    /** Copy of the decoders before they were switched to a streaming reader. */
+    private object LegacyConverters {
+
+        fun jsonToLabels(json: String) = JSONArray(json).iterable<String>().toList()
+
+        fun jsonToSpans(json: String): List<SpanRepresentation> {
+            return JSONArray(json).iterable<JSONObject>().map { jsonObject ->
+                SpanRepresentation(
+                    jsonObject.getInt("start"),
+                    jsonObject.getInt("end"),
+                    jsonObject.getSafeBoolean("bold"),
+                    jsonObject.getSafeBoolean("link"),
+                    jsonObject.getSafeString("linkData"),
+                    jsonObject.getSafeBoolean("italic"),
+                    jsonObject.getSafeBoolean("monospace"),
+                    jsonObject.getSafeBoolean("strikethrough"),
+                )
+            }
+        }
+
+        fun jsonToItems(json: String): List<ListItem> {
+            return JSONArray(json).iterable<JSONObject>().map { jsonObject ->
+                ListItem(
+                    jsonObject.getString("body"),
+                    jsonObject.getBoolean("checked"),
+                    jsonObject.getSafeBoolean("isChild"),
+                    jsonObject.getSafeInt("order"),
+                    mutableListOf(),
+                )
+            }
+        }
+
+        fun jsonToReminders(json: String): List<Reminder> {
+            return JSONArray(json).iterable<JSONObject>().map { jsonObject ->
+                val repetition =
+                    jsonObject.getSafeString("repetition")?.let {
+                        val repetitionObject = JSONObject(it)
+                        Repetition(
+                            repetitionObject.getInt("value"),
+                            RepetitionTimeUnit.valueOf(repetitionObject.getString("unit")),
+                        )
+                    }
+                Reminder(jsonObject.getLong("id"), Date(jsonObject.getLong("dateTime")), repetition)
+            }
+        }
+
+        private fun JSONObject.getSafeBoolean(name: String): Boolean {
+            return try {
+                getBoolean(name)
+            } catch (exception: JSONException) {
+                false
+            }
+        }
+
+        private fun JSONObject.getSafeString(name: String): String? {
+            return try {
+                getString(name)
+            } catch (exception: JSONException) {
+                null
+            }
+        }
+
+        private fun JSONObject.getSafeInt(name: String): Int? {
+            return try {
+                getInt(name)
+            } catch (exception: JSONException) {
+                null
+            }
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        private fun <T> JSONArray.iterable() = Iterable {
+            object : Iterator<T> {
+                var index = 0
+
+                override fun next(): T {
+                    val element = get(index)
+                    index++
+                    return element as T
+                }
+
+                override fun hasNext(): Boolean {
+                    return index < length()
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val WARMUP_ITERATIONS = 20_000
+        private const val ITERATIONS = 100_000
+    }
+}
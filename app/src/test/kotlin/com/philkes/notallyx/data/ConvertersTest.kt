@@ -1,8 +1,17 @@
 package com.philkes.notallyx.data
 
 import com.philkes.notallyx.data.model.Converters
+import com.philkes.notallyx.data.model.Audio
 import com.philkes.notallyx.data.model.FileAttachment
+import com.philkes.notallyx.data.model.ListItem
+import com.philkes.notallyx.data.model.Reminder
+import com.philkes.notallyx.data.model.Repetition
+import com.philkes.notallyx.data.model.RepetitionTimeUnit
+import com.philkes.notallyx.data.model.SpanRepresentation
+import java.util.Date
+import org.json.JSONException
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
 import org.junit.Test
 
 class ConvertersTest {
@@ -68,4 +77,119 @@ class ConvertersTest {
             files[1],
         )
     }
+
+    @Test
+    fun `jsonToItems without optional fields`() {
+        val json = """[{"body":"A","checked":true},{"body":"B","checked":false,"order":null}]"""
+
+        val items = Converters.jsonToItems(json)
+
+        assertEquals(
+            listOf(
+                ListItem("A", true, false, null, mutableListOf()),
+                ListItem("B", false, false, null, mutableListOf()),
+            ),
+            items,
+        )
+        assertEquals(listOf(null, null), items.map { it.order })
+    }
+
+    @Test
+    fun `jsonToItems ignores unknown fields`() {
+        val json = """[{"id":3,"body":"A","extra":{"a":[1,2]},"checked":"true","order":4}]"""
+
+        val items = Converters.jsonToItems(json)
+
+        assertEquals(listOf(ListItem("A", true, false, 4, mutableListOf())), items)
+        assertEquals(4, items[0].order)
+    }
+
+    @Test(expected = JSONException::class)
+    fun `jsonToItems fails without required field`() {
+        Converters.jsonToItems("""[{"body":"A"}]""")
+    }
+
+    @Test
+    fun `optional fields of another type are read as absent`() {
+        val json =
+            """[{"body":1,"checked":"TRUE","isChild":2,"order":"x"},""" +
+                """{"body":"B","checked":false,"isChild":{"a":1},"order":3.7}]"""
+
+        val items = Converters.jsonToItems(json)
+
+        assertEquals(
+            listOf(
+                ListItem("1", true, false, null, mutableListOf()),
+                ListItem("B", false, false, 3, mutableListOf()),
+            ),
+            items,
+        )
+        assertEquals(listOf(null, 3), items.map { it.order })
+        assertEquals(
+            listOf(Audio("a.m4a", null, 1000)),
+            Converters.jsonToAudios("""[{"name":"a.m4a","duration":[1],"timestamp":"1000"}]"""),
+        )
+    }
+
+    @Test
+    fun `malformed json fails with JSONException`() {
+        val malformed =
+            listOf("", "[", "{}", "[{\"body\":\"A\",\"checked\":true]", "[{\"body\" \"A\"}]")
+        malformed.forEach { json ->
+            assertThrows(json, JSONException::class.java) { Converters.jsonToItems(json) }
+            assertThrows(json, JSONException::class.java) { Converters.jsonToLabels(json) }
+        }
+        assertThrows(JSONException::class.java) {
+            Converters.jsonToReminders("""[{"id":1,"dateTime":2,"repetition":"{value:"}]""")
+        }
+        assertThrows(JSONException::class.java) {
+            Converters.jsonToItems("""[{"body":"A","checked":[true]}]""")
+        }
+    }
+
+    @Test
+    fun `items round trip`() {
+        val items =
+            listOf(
+                ListItem("Parent \"quoted\"", false, false, 0, mutableListOf()),
+                ListItem("Child\nwith newline", true, true, 1, mutableListOf()),
+            )
+
+        val decoded = Converters.jsonToItems(Converters.itemsToJson(items))
+
+        assertEquals(items, decoded)
+        assertEquals(items.map { it.order }, decoded.map { it.order })
+    }
+
+    @Test
+    fun `spans round trip`() {
+        val spans =
+            listOf(
+                SpanRepresentation(0, 5, bold = true),
+                SpanRepresentation(6, 10, link = true, linkData = "https://example.com"),
+                SpanRepresentation(11, 12, italic = true, monospace = true, strikethrough = true),
+            )
+
+        assertEquals(spans, Converters.jsonToSpans(Converters.spansToJson(spans)))
+    }
+
+    @Test
+    fun `audios and labels round trip`() {
+        val audios = listOf(Audio("a.m4a", 1200, 1000), Audio("b.m4a", null, 2000))
+        val labels = listOf("Work", "", "\u00e4\"")
+
+        assertEquals(audios, Converters.jsonToAudios(Converters.audiosToJson(audios)))
+        assertEquals(labels, Converters.jsonToLabels(Converters.labelsToJson(labels)))
+    }
+
+    @Test
+    fun `reminders round trip`() {
+        val reminders =
+            listOf(
+                Reminder(1, Date(1000), null),
+                Reminder(2, Date(2000), Repetition(3, RepetitionTimeUnit.WEEKS)),
+            )
+
+        assertEquals(reminders, Converters.jsonToReminders(Converters.remindersToJson(reminders)))
+    }
 }
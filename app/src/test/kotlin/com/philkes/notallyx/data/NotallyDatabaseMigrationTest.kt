@@ -0,0 +1,146 @@
+package com.philkes.notallyx.data
+
+import androidx.room.testing.MigrationTestHelper
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.platform.app.InstrumentationRegistry
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Migrates databases created from the exported schemas in `app/schemas` and validates the result
+ * against the exported schema of the target version.
+ */
+@RunWith(RobolectricTestRunner::class)
+class NotallyDatabaseMigrationTest {
+
+    @get:Rule
+    val helper =
+        MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(),
+            NotallyDatabase::class.java,
+        )
+
+    @Test
+    fun `every migration matches its exported schema`() {
+        helper.createDatabase(TEST_DATABASE, 9).close()
+
+        (10..LATEST_VERSION).forEach { version ->
+            helper
+                .runMigrationsAndValidate(TEST_DATABASE, version, true, *NotallyDatabase.MIGRATIONS)
+                .close()
+        }
+    }
+
+    @Test
+    fun `migrate 9 to latest moves note content into tables`() {
+        helper.createDatabase(TEST_DATABASE, 9).use { db ->
+            db.execSQL(
+                "INSERT INTO BaseNote (id, type, folder, color, title, pinned, timestamp, " +
+                    "modifiedTimestamp, labels, body, spans, items, images, files, audios, " +
+                    "reminders, drawingStrokesJson) " +
+                    "VALUES (1, 'LIST', 'NOTES', 'DEFAULT', 'Groceries', 0, 1, 2, ?, '', '[]', " +
+                    "?, '[]', '[]', '[]', '[]', '[{}]')",
+                arrayOf(
+                    "[\"Home\",\"Work\"]",
+                    "[{\"body\":\"Milk\",\"checked\":true,\"isChild\":false,\"order\":0}," +
+                        "{\"body\":\"Bread\",\"checked\":false,\"isChild\":false,\"order\":1}]",
+                ),
+            )
+        }
+
+        helper
+            .runMigrationsAndValidate(
+                TEST_DATABASE,
+                LATEST_VERSION,
+                true,
+                *NotallyDatabase.MIGRATIONS,
+            )
+            .use { db ->
+                val labels = db.queryStrings("SELECT label FROM NoteLabel WHERE noteId = 1")
+                val items =
+                    db.queryStrings(
+                        "SELECT body || ':' || checked FROM NoteItem WHERE noteId = 1 " +
+                            "ORDER BY position"
+                    )
+                val drawing = db.queryStrings("SELECT strokesJson FROM NoteDrawing")
+                val matches =
+                    db.queryStrings("SELECT rowid FROM BaseNoteFts WHERE BaseNoteFts MATCH 'groc*'")
+                val ftsItems = db.queryStrings("SELECT items FROM BaseNoteFts WHERE rowid = 1")
+
+                assertThat(labels).containsExactly("Home", "Work")
+                assertThat(items).containsExactly("Milk:1", "Bread:0")
+                assertThat(drawing).containsExactly("[{}]")
+                assertThat(matches).containsExactly("1")
+                assertThat(ftsItems).containsExactly("Milk Bread")
+            }
+    }
+
+    @Test
+    fun `migrate 12 to 13 does not reuse ids of deleted notes`() {
+        helper.createDatabase(TEST_DATABASE, 12).use { db ->
+            listOf(1, 5).forEach { id ->
+                db.execSQL(
+                    "INSERT INTO BaseNote (id, type, folder, color, title, pinned, timestamp, " +
+                        "modifiedTimestamp, labels, body, spans, items, images, files, audios, " +
+                        "reminders) VALUES (?, 'NOTE', 'NOTES', 'DEFAULT', '', 0, 1, 1, " +
+                        "'[]', '', '[]', '[]', '[]', '[]', '[]', '[]')",
+                    arrayOf(id),
+                )
+            }
+            db.execSQL("DELETE FROM BaseNote WHERE id = 5")
+        }
+
+        helper
+            .runMigrationsAndValidate(TEST_DATABASE, 13, true, *NotallyDatabase.MIGRATIONS)
+            .use { db ->
+                val sequence =
+                    db.queryStrings("SELECT seq FROM sqlite_sequence WHERE name = 'BaseNote'")
+
+                assertThat(sequence).containsExactly("5")
+            }
+    }
+
+    @Test
+    fun `migrate 17 to 18 counts attachment references`() {
+        helper.createDatabase(TEST_DATABASE, 17).use { db ->
+            val image = "[{\"localName\":\"abc.jpg\",\"mimeType\":\"image/jpeg\"}]"
+            val file = "[{\"localName\":\"abc.jpg\",\"mimeType\":\"application/pdf\"}]"
+            listOf(1 to arrayOf(image, "[]"), 2 to arrayOf(image, file)).forEach { (id, columns) ->
+                db.execSQL(
+                    "INSERT INTO BaseNote (id, type, folder, color, title, pinned, timestamp, " +
+                        "modifiedTimestamp, labels, body, spans, items, images, files, audios, " +
+                        "reminders) VALUES (?, 'NOTE', 'NOTES', 'DEFAULT', '', 0, 1, 1, " +
+                        "'[]', '', '[]', '[]', ?, ?, '[]', '[]')",
+                    arrayOf(id, *columns),
+                )
+            }
+        }
+
+        helper
+            .runMigrationsAndValidate(TEST_DATABASE, 18, true, *NotallyDatabase.MIGRATIONS)
+            .use { db ->
+                val references =
+                    db.queryStrings("SELECT noteId FROM NoteAttachment WHERE localName = 'abc.jpg'")
+
+                assertThat(references).containsExactly("1", "2")
+            }
+    }
+
+    private fun SupportSQLiteDatabase.queryStrings(sql: String): List<String> {
+        return query(sql).use { cursor ->
+            val values = mutableListOf<String>()
+            while (cursor.moveToNext()) {
+                values.add(cursor.getString(0))
+            }
+            values
+        }
+    }
+
+    companion object {
+        private const val TEST_DATABASE = "migration-test"
+        private const val LATEST_VERSION = 18
+    }
+}
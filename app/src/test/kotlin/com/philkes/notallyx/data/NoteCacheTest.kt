@@ -0,0 +1,111 @@
+package com.philkes.notallyx.data
+
+import android.app.Application
+import androidx.test.core.app.ApplicationProvider
+import com.philkes.notallyx.data.NoteCache.Companion.estimateSize
+import com.philkes.notallyx.data.dao.BaseNoteDao
+import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.test.createBaseNote
+import com.philkes.notallyx.test.createInMemoryDatabase
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class NoteCacheTest {
+
+    private lateinit var database: NotallyDatabase
+    private lateinit var baseNoteDao: BaseNoteDao
+
+    @Before
+    fun setup() {
+        val application = ApplicationProvider.getApplicationContext<Application>()
+        database = createInMemoryDatabase(application)
+        baseNoteDao = database.getBaseNoteDao()
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `get reloads note if it was modified`() {
+        val cache = createCache()
+        val id = runBlocking { baseNoteDao.insert(createBaseNote(modifiedTimestamp = 1)) }
+        assertThat(cache.getNote(id)!!.title).isEqualTo("Note")
+
+        runBlocking {
+            baseNoteDao.insert(createBaseNote(id, title = "Edited", modifiedTimestamp = 2))
+        }
+
+        assertThat(cache.getNote(id)!!.title).isEqualTo("Edited")
+    }
+
+    @Test
+    fun `get returns copies`() {
+        val cache = createCache()
+        val id = runBlocking { baseNoteDao.insert(createBaseNote(modifiedTimestamp = 1)) }
+
+        (cache.getNote(id)!!.labels as MutableList).add("Changed")
+
+        assertThat(cache.getNote(id)!!.labels).isEmpty()
+    }
+
+    @Test
+    fun `onNotesChanged replaces cached and drops deleted notes`() {
+        val cache = createCache()
+        val id = runBlocking { baseNoteDao.insert(createBaseNote(modifiedTimestamp = 1)) }
+        cache.getNote(id)
+
+        // Same modifiedTimestamp, so only the change can update the cached note
+        runBlocking { baseNoteDao.updatePinned(longArrayOf(id), true) }
+        cache.onNotesChanged(NoteChanges(listOf(baseNoteDao.get(id)!!), setOf()))
+        assertThat(cache.getNote(id)!!.pinned).isTrue()
+
+        runBlocking { baseNoteDao.delete(id) }
+        cache.onNotesChanged(NoteChanges(listOf(), setOf(id)))
+        assertThat(cache.getNote(id)).isNull()
+    }
+
+    @Test
+    fun `cache is bounded by size`() {
+        val note = createBaseNote(modifiedTimestamp = 1, body = "a".repeat(1000))
+        val cache = createCache(maxSizeBytes = note.estimateSize() * 2)
+        val ids = runBlocking { (0 until 3).map { baseNoteDao.insert(note) } }
+        ids.forEach { cache.getNote(it) }
+
+        // Only replaces cached notes, the database still contains the original ones
+        cache.onNotesChanged(NoteChanges(ids.map { note.copy(id = it, title = "Edit") }, setOf()))
+
+        // Only the two most recently used notes are still cached
+        assertThat(ids.reversed().map { cache.getNote(it)!!.title })
+            .containsExactly("Edit", "Edit", "Note")
+    }
+
+    @Test
+    fun `get returns notes changed without modifiedTimestamp`() {
+        val cache = createCache()
+        val id = runBlocking { baseNoteDao.insert(createBaseNote(modifiedTimestamp = 1)) }
+        cache.getNote(id)
+
+        runBlocking {
+            baseNoteDao.updatePinned(longArrayOf(id), true)
+            baseNoteDao.updateColor(longArrayOf(id), "#FFAA00")
+        }
+
+        val actual = cache.getNote(id)!!
+        assertThat(actual.pinned).isTrue()
+        assertThat(actual.color).isEqualTo("#FFAA00")
+    }
+
+    private fun createCache(maxSizeBytes: Int = NoteCache.MAX_SIZE_BYTES): NoteCache {
+        return NoteCache(maxSizeBytes).also { database.noteChanges.addListener(it) }
+    }
+
+    private fun NoteCache.getNote(id: Long): BaseNote? = runBlocking { get(id, database) }
+}
@@ -0,0 +1,94 @@
+package com.philkes.notallyx.data
+
+import android.app.Application
+import androidx.test.core.app.ApplicationProvider
+import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.Folder
+import com.philkes.notallyx.test.createBaseNote
+import com.philkes.notallyx.test.createInMemoryDatabase
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class NoteChangeTest {
+
+    private lateinit var database: NotallyDatabase
+
+    @Before
+    fun setup() {
+        val application = ApplicationProvider.getApplicationContext<Application>()
+        database = createInMemoryDatabase(application)
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `triggers journal ids of changed notes once`() {
+        runBlocking {
+            val baseNoteDao = database.getBaseNoteDao()
+            val first = baseNoteDao.insert(createBaseNote(0, title = "First"))
+            val second = baseNoteDao.insert(createBaseNote(0, title = "Second"))
+            assertThat(baseNoteDao.takeChangedNoteIds()).containsExactly(first, second)
+
+            baseNoteDao.updatePinned(longArrayOf(second), true)
+            baseNoteDao.insert(createBaseNote(first, title = "First edited"))
+            baseNoteDao.delete(second)
+
+            assertThat(baseNoteDao.takeChangedNoteIds()).containsExactly(second, first)
+            assertThat(baseNoteDao.takeChangedNoteIds()).isEmpty()
+        }
+    }
+
+    @Test
+    fun `changes are only cleared if no listener needs them`() {
+        runBlocking {
+            val received = mutableListOf<NoteChanges>()
+            database.noteChanges.addListener(
+                object : NoteChangeListener {
+                    override fun onNotesChanged(changes: NoteChanges) {
+                        received.add(changes)
+                    }
+
+                    override fun needsChanges() = false
+                }
+            )
+            val baseNoteDao = database.getBaseNoteDao()
+            baseNoteDao.insert(createBaseNote(0, title = "First"))
+
+            database.noteChanges.dispatchPending()
+
+            assertThat(received).isEmpty()
+            assertThat(baseNoteDao.takeChangedNoteIds()).isEmpty()
+        }
+    }
+
+    @Test
+    fun `patch replaces changed and drops deleted notes`() {
+        val notes =
+            listOf(
+                createBaseNote(1, title = "One"),
+                createBaseNote(2, title = "Two"),
+                createBaseNote(3, title = "Three"),
+            )
+        val changes =
+            NoteChanges(
+                listOf(
+                    createBaseNote(2, title = "Two edited"),
+                    createBaseNote(4, folder = Folder.ARCHIVED, title = "Four"),
+                ),
+                setOf(3),
+            )
+
+        val patched = notes.patch(changes, BaseNote::id) { it.takeIf { it.folder == Folder.NOTES } }
+
+        assertThat(patched.map { it.title }).containsExactly("One", "Two edited")
+    }
+}
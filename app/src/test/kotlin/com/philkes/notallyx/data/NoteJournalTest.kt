@@ -0,0 +1,86 @@
+package com.philkes.notallyx.data
+
+import com.philkes.notallyx.data.model.ListItem
+import com.philkes.notallyx.data.model.SpanRepresentation
+import com.philkes.notallyx.test.createBaseNote
+import java.io.File
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class NoteJournalTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private lateinit var file: File
+    private lateinit var journal: NoteJournal
+
+    @Before
+    fun setup() {
+        file = File(temporaryFolder.root, "journal/1.jsonl")
+        journal = NoteJournal(file)
+    }
+
+    @Test
+    fun `replay applies latest entry`() {
+        val saved = createBaseNote(1, title = "Title", modifiedTimestamp = 100)
+        val edited =
+            saved.copy(
+                title = "Edited",
+                pinned = true,
+                labels = listOf("Work"),
+                body = "Body\nwith two lines",
+                spans = listOf(SpanRepresentation(0, 4, bold = true)),
+                items = listOf(ListItem("A", true, false, 0, mutableListOf())),
+            )
+        journal.append(101, saved.copy(title = "Draft"))
+        journal.append(102, edited)
+
+        assertThat(journal.replay(saved)).isEqualTo(NoteJournal.Entry(edited, null))
+    }
+
+    @Test
+    fun `replay restores edited and removed drawings`() {
+        val saved = createBaseNote(1, title = "Title", modifiedTimestamp = 100)
+        journal.append(101, saved, "[{\"points\":[]}]")
+
+        assertThat(journal.replay(saved)!!.drawingStrokesJson).isEqualTo("[{\"points\":[]}]")
+
+        journal.append(102, saved, "")
+
+        assertThat(journal.replay(saved)!!.drawingStrokesJson).isEmpty()
+    }
+
+    @Test
+    fun `replay skips incomplete last line`() {
+        val saved = createBaseNote(1, title = "Title", modifiedTimestamp = 100)
+        journal.append(101, saved.copy(title = "Complete"))
+        journal.append(102, saved.copy(title = "Torn"))
+        file.writeText(file.readText().dropLast(20))
+
+        assertThat(journal.replay(saved)!!.note.title).isEqualTo("Complete")
+    }
+
+    @Test
+    fun `replay ignores entries older than saved note`() {
+        journal.append(99, createBaseNote(1, title = "Stale", modifiedTimestamp = 0))
+
+        assertThat(journal.replay(createBaseNote(1, modifiedTimestamp = 100))).isNull()
+    }
+
+    @Test
+    fun `clear removes journal`() {
+        val saved = createBaseNote(1, title = "Title", modifiedTimestamp = 100)
+        journal.append(101, saved.copy(title = "Edited"))
+
+        journal.clear()
+
+        assertThat(file).doesNotExist()
+        assertThat(journal.replay(saved)).isNull()
+    }
+}
@@ -0,0 +1,221 @@
+package com.philkes.notallyx.data.dao
+
+import android.app.Application
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.test.core.app.ApplicationProvider
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.model.FileAttachment
+import com.philkes.notallyx.data.model.Folder
+import com.philkes.notallyx.data.model.ListItem
+import com.philkes.notallyx.data.model.NoteItem
+import com.philkes.notallyx.data.model.Type
+import com.philkes.notallyx.presentation.viewmodel.preference.NotesSort
+import com.philkes.notallyx.test.createBaseNote
+import com.philkes.notallyx.test.createInMemoryDatabase
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class BaseNoteDaoTest {
+
+    private lateinit var database: NotallyDatabase
+    private lateinit var baseNoteDao: BaseNoteDao
+
+    @Before
+    fun setup() {
+        val application = ApplicationProvider.getApplicationContext<Application>()
+        database = createInMemoryDatabase(application)
+        baseNoteDao = database.getBaseNoteDao()
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `update only writes changed columns`() {
+        runBlocking {
+            val saved = createList(baseNoteDao.insert(createList(0)))
+            // Written by another screen after the note was opened
+            val image = FileAttachment("image.jpg", "image.jpg", "image/jpeg")
+            baseNoteDao.updateImages(saved.id, listOf(image))
+
+            baseNoteDao.update(saved, saved.copy(title = "Edited", labels = listOf("Work")))
+
+            val actual = baseNoteDao.get(saved.id)!!
+            assertThat(actual.title).isEqualTo("Edited")
+            assertThat(actual.labels).containsExactly("Work")
+            assertThat(actual.images).containsExactly(image)
+            assertThat(baseNoteDao.getLabelsOfBaseNotesWithLabel("Work").map { it.id })
+                .containsExactly(saved.id)
+        }
+    }
+
+    @Test
+    fun `update detects reordered items`() {
+        runBlocking {
+            val saved = createList(baseNoteDao.insert(createList(0)))
+            val items = saved.items.map { it.copy(order = 1 - it.order!!) }
+
+            baseNoteDao.update(saved, saved.copy(items = items))
+
+            assertThat(baseNoteDao.getNoteItems(saved.id).map { it.order }).containsExactly(1, 0)
+        }
+    }
+
+    @Test
+    fun `update only rewrites checked items`() {
+        runBlocking {
+            val saved = createList(baseNoteDao.insert(createList(0)))
+            val items = saved.items.map { it.copy(checked = !it.checked) }
+
+            baseNoteDao.update(saved, saved.copy(items = items))
+
+            assertThat(baseNoteDao.getNoteItems(saved.id).map { it.checked })
+                .containsExactly(true, false)
+            assertThat(baseNoteDao.get(saved.id)!!.items.map { it.checked })
+                .containsExactly(true, false)
+        }
+    }
+
+    @Test
+    fun `update writes changed, added and removed items`() {
+        runBlocking {
+            val saved = createList(baseNoteDao.insert(createList(0)))
+            val items = listOf(ListItem("A", true, false, 0, mutableListOf()))
+
+            baseNoteDao.update(saved, saved.copy(items = items))
+
+            assertThat(baseNoteDao.getNoteItems(saved.id))
+                .containsExactly(NoteItem(saved.id, 0, "A", true, false, 0))
+
+            val added = items + ListItem("C", false, false, 1, mutableListOf())
+            baseNoteDao.update(saved.copy(items = items), saved.copy(items = added))
+
+            assertThat(baseNoteDao.get(saved.id)!!.items.map { it.body to it.checked })
+                .containsExactly("A" to true, "C" to false)
+        }
+    }
+
+    @Test
+    fun `items are only stored as NoteItems`() {
+        runBlocking {
+            val id = baseNoteDao.insert(createList(0))
+            baseNoteDao.takeChangedNoteIds()
+
+            baseNoteDao.updateChecked(id, 1, false)
+
+            assertThat(baseNoteDao.get(id)!!.items.map { it.checked }).containsExactly(false, false)
+            assertThat(baseNoteDao.takeChangedNoteIds()).containsExactly(id)
+            val json =
+                database.query(SimpleSQLiteQuery("SELECT items FROM BaseNote")).use { cursor ->
+                    cursor.moveToFirst()
+                    cursor.getString(0)
+                }
+            assertThat(json).isEqualTo("[]")
+        }
+    }
+
+    @Test
+    fun `update inserts deleted note`() {
+        runBlocking {
+            val saved = createList(baseNoteDao.insert(createList(0)))
+            baseNoteDao.delete(saved.id)
+
+            baseNoteDao.update(saved, saved.copy(title = "Edited"))
+
+            assertThat(baseNoteDao.get(saved.id)!!.title).isEqualTo("Edited")
+        }
+    }
+
+    @Test
+    fun `countReferences counts notes sharing an attachment`() {
+        runBlocking {
+            val image = FileAttachment("abc.jpg", "photo.jpg", "image/jpeg")
+            val first = baseNoteDao.insert(createList(0))
+            val second = baseNoteDao.insert(createList(0))
+            baseNoteDao.updateImages(first, listOf(image))
+            baseNoteDao.updateFiles(second, listOf(image.copy(mimeType = "application/pdf")))
+
+            assertThat(baseNoteDao.countReferences("abc.jpg")).isEqualTo(2)
+            assertThat(baseNoteDao.countReferences("bc.jpg")).isEqualTo(0)
+
+            baseNoteDao.delete(first)
+
+            assertThat(baseNoteDao.countReferences("abc.jpg")).isEqualTo(1)
+        }
+    }
+
+    @Test
+    fun `countReferences follows inserted and replaced notes`() {
+        runBlocking {
+            val image = FileAttachment("abc.jpg", "photo.jpg", "image/jpeg")
+            val id =
+                baseNoteDao.insert(createBaseNote(images = listOf(image), files = listOf(image)))
+            baseNoteDao.insert(listOf(createBaseNote(images = listOf(image))))
+
+            assertThat(baseNoteDao.countReferences("abc.jpg")).isEqualTo(2)
+
+            baseNoteDao.insert(createBaseNote(id))
+
+            assertThat(baseNoteDao.countReferences("abc.jpg")).isEqualTo(1)
+        }
+    }
+
+    @Test
+    fun `search matches words by prefix and unsegmented scripts by substring`() {
+        runBlocking {
+            val id = baseNoteDao.insert(createBaseNote(title = "Notebook", body = "今日は東京に行く"))
+
+            fun search(keyword: String) =
+                baseNoteDao
+                    .getNoteCards(NoteCardQuery(Folder.NOTES, keyword = keyword), NotesSort())
+                    .map { it.id }
+
+            assertThat(search("note")).containsExactly(id)
+            assertThat(search("book")).isEmpty()
+            assertThat(search("東京")).containsExactly(id)
+            assertThat(search("大阪")).isEmpty()
+        }
+    }
+
+    @Test
+    fun `search folds case of every script and only matches item text`() {
+        runBlocking {
+            val noteId = baseNoteDao.insert(createBaseNote(title = "Ärger"))
+            val listId = baseNoteDao.insert(createList(0))
+
+            fun search(keyword: String) =
+                baseNoteDao
+                    .getNoteCards(NoteCardQuery(Folder.NOTES, keyword = keyword), NotesSort())
+                    .map { it.id }
+
+            assertThat(search("ärger")).containsExactly(noteId)
+            assertThat(search("b")).containsExactly(listId)
+            assertThat(search("checked")).isEmpty()
+
+            val items = listOf(ListItem("Milk", false, false, 0, mutableListOf()))
+            baseNoteDao.updateItems(listId, items)
+
+            assertThat(search("b")).isEmpty()
+            assertThat(search("milk")).containsExactly(listId)
+        }
+    }
+
+    private fun createList(id: Long) =
+        createBaseNote(
+            id,
+            type = Type.LIST,
+            items =
+                listOf(
+                    ListItem("A", false, false, 0, mutableListOf()),
+                    ListItem("B", true, false, 1, mutableListOf()),
+                ),
+        )
+}
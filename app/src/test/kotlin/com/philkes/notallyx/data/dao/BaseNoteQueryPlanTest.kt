@@ -0,0 +1,173 @@
+package com.philkes.notallyx.data.dao
+
+import android.app.Application
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteProgram
+import androidx.sqlite.db.SupportSQLiteQuery
+import androidx.test.core.app.ApplicationProvider
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.model.Folder
+import com.philkes.notallyx.data.model.Type
+import com.philkes.notallyx.presentation.viewmodel.preference.NotesSort
+import com.philkes.notallyx.presentation.viewmodel.preference.NotesSortBy
+import com.philkes.notallyx.presentation.viewmodel.preference.SortDirection
+import com.philkes.notallyx.test.createInMemoryDatabase
+import java.io.File
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Runs `EXPLAIN QUERY PLAN` on the queries of the DAOs and fails if one of them scans a whole
+ * table or sorts its result in a temporary B-tree, instead of using an index. The `@Query`s are
+ * read from the DAO sources, so that new queries are checked without having to be added here.
+ */
+@RunWith(RobolectricTestRunner::class)
+class BaseNoteQueryPlanTest {
+
+    private lateinit var database: NotallyDatabase
+
+    @Before
+    fun setup() {
+        val application = ApplicationProvider.getApplicationContext<Application>()
+        database = createInMemoryDatabase(application)
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `dao queries use indices`() {
+        val queries = DAO_SOURCES.flatMap { readQueries(it) }
+        assertThat(queries.map { it.first }).contains("BaseNoteDao.countAsync", "LabelDao.getAll")
+
+        queries
+            .filterNot { (name, _) -> name in FULL_SCANS }
+            .forEach { (name, sql) -> assertUsesIndices(name, SimpleSQLiteQuery(sql)) }
+    }
+
+    @Test
+    fun `listings use indices for every sort`() {
+        val queries =
+            listOf(
+                NoteCardQuery(Folder.NOTES),
+                NoteCardQuery(Folder.ARCHIVED),
+                NoteCardQuery(Folder.NOTES, label = "Work"),
+                NoteCardQuery(Folder.NOTES, label = null),
+                NoteCardQuery(Folder.NOTES, type = Type.LIST),
+                NoteCardQuery(Folder.NOTES, withReminders = true),
+            )
+        queries.forEach { query ->
+            NotesSortBy.entries.forEach { sortBy ->
+                SortDirection.entries.forEach { direction ->
+                    listOf(true, false).forEach { pinned ->
+                        val sql = query.toSql(NotesSort(sortBy, direction), pinned)
+                        assertUsesIndices("$query $sortBy $direction pinned=$pinned", sql)
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Keywords the FTS index can not handle are matched with `LIKE` against the labels and items,
+     * which can not use an index, but the notes themselves are still only read through the indices.
+     */
+    @Test
+    fun `search does not scan notes`() {
+        listOf("note", "!!").forEach { keyword ->
+            val sql = NoteCardQuery(Folder.NOTES, keyword = keyword).toSql(NotesSort(), false)
+
+            assertThat(explain(sql)).noneMatch { it.isFullScan() && it.endsWith(" B") }
+        }
+    }
+
+    private fun assertUsesIndices(name: String, query: SupportSQLiteQuery) {
+        val plan = explain(query)
+        assertThat(plan)
+            .describedAs("Query plan of $name")
+            .noneMatch { it.isFullScan() || it.contains("TEMP B-TREE") }
+    }
+
+    private fun explain(query: SupportSQLiteQuery): List<String> {
+        val explainQuery = ExplainQuery(query)
+        return database.openHelper.readableDatabase.query(explainQuery).use { cursor ->
+            val details = mutableListOf<String>()
+            val detailIndex = cursor.getColumnIndexOrThrow("detail")
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detailIndex))
+            }
+            details
+        }
+    }
+
+    /** Older SQLite versions print `SCAN TABLE BaseNote`, newer ones `SCAN BaseNote`. */
+    private fun String.isFullScan(): Boolean {
+        return startsWith("SCAN") &&
+            !contains(" USING ") &&
+            !contains("VIRTUAL TABLE") &&
+            !contains("CONSTANT ROW")
+    }
+
+    private class ExplainQuery(private val query: SupportSQLiteQuery) : SupportSQLiteQuery {
+
+        override val sql = "EXPLAIN QUERY PLAN ${query.sql}"
+
+        override val argCount = query.argCount
+
+        override fun bindTo(statement: SupportSQLiteProgram) {
+            query.bindTo(statement)
+        }
+    }
+
+    /**
+     * Returns the name of the DAO method and its SQL, with every parameter replaced by an unbound
+     * `?`, which SQLite treats as `NULL`.
+     */
+    private fun readQueries(source: File): List<Pair<String, String>> {
+        val dao = source.nameWithoutExtension
+        return QUERY_REGEX.findAll(source.readText())
+            .map { match ->
+                val sql =
+                    STRING_REGEX.findAll(match.groupValues[1])
+                        .joinToString("") { it.groupValues[1] }
+                        .replace("\\\"", "\"")
+                        .replace("\$NOTE_CARD_COLUMNS", NOTE_CARD_COLUMNS)
+                        .replace(PARAMETER_REGEX, "?")
+                "$dao.${match.groupValues[2]}" to sql
+            }
+            .toList()
+    }
+
+    companion object {
+        private val DAO_SOURCES =
+            listOf("BaseNoteDao.kt", "LabelDao.kt").map {
+                File("src/main/java/com/philkes/notallyx/data/dao", it)
+            }
+
+        /**
+         * Queries which intentionally read every row, e.g. every note for backups or the whole
+         * [com.philkes.notallyx.data.model.NoteChange] journal, which is drained at once.
+         */
+        private val FULL_SCANS =
+            setOf(
+                "BaseNoteDao.getAllImpl",
+                "BaseNoteDao.getAllImages",
+                "BaseNoteDao.getAllFiles",
+                "BaseNoteDao.getAllAudios",
+                "BaseNoteDao.getNoteChanges",
+            )
+
+        private val QUERY_REGEX =
+            Regex(
+                """@Query\(\s*((?:"(?:[^"\\]|\\.)*"\s*\+?\s*)+)\)\s*(?:@\w+\s*)*(?:suspend\s+)?fun\s+(\w+)"""
+            )
+        private val STRING_REGEX = Regex("\"((?:[^\"\\\\]|\\\\.)*)\"")
+        private val PARAMETER_REGEX = Regex(":\\w+")
+    }
+}
@@ -0,0 +1,60 @@
+package com.philkes.notallyx.data.dao
+
+import android.app.Application
+import androidx.test.core.app.ApplicationProvider
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.model.ImportCheckpoint
+import com.philkes.notallyx.test.createBaseNote
+import com.philkes.notallyx.test.createInMemoryDatabase
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class CommonDaoTest {
+
+    private lateinit var database: NotallyDatabase
+    private lateinit var commonDao: CommonDao
+
+    @Before
+    fun setup() {
+        val application = ApplicationProvider.getApplicationContext<Application>()
+        database = createInMemoryDatabase(application)
+        commonDao = database.getCommonDao()
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `importBatch commits notes with checkpoint`() {
+        runBlocking {
+            commonDao.importBatch(listOf(createBaseNote(title = "A")), ImportCheckpoint(SOURCE, 3))
+            commonDao.importBatch(listOf(createBaseNote(title = "B")), ImportCheckpoint(SOURCE, 7))
+
+            assertThat(commonDao.getImportCheckpoint(SOURCE)).isEqualTo(7)
+            assertThat(database.getBaseNoteDao().count()).isEqualTo(2)
+        }
+    }
+
+    @Test
+    fun `deleteImportCheckpoint removes checkpoint`() {
+        runBlocking {
+            commonDao.importBatch(listOf(createBaseNote(title = "A")), ImportCheckpoint(SOURCE, 3))
+
+            commonDao.deleteImportCheckpoint(SOURCE)
+
+            assertThat(commonDao.getImportCheckpoint(SOURCE)).isNull()
+        }
+    }
+
+    companion object {
+        private const val SOURCE = "content://backup.zip"
+    }
+}
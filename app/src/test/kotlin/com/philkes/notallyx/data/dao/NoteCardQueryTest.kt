@@ -0,0 +1,104 @@
+package com.philkes.notallyx.data.dao
+
+import androidx.sqlite.db.SupportSQLiteProgram
+import androidx.sqlite.db.SupportSQLiteQuery
+import com.philkes.notallyx.data.model.Folder
+import com.philkes.notallyx.data.model.Type
+import com.philkes.notallyx.presentation.viewmodel.preference.NotesSort
+import com.philkes.notallyx.presentation.viewmodel.preference.NotesSortBy
+import com.philkes.notallyx.presentation.viewmodel.preference.SortDirection
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class NoteCardQueryTest {
+
+    @Test
+    fun `toSql sorts pinned notes first and breaks ties by id`() {
+        val query =
+            NoteCardQuery(Folder.ARCHIVED)
+                .toSql(NotesSort(NotesSortBy.TITLE, SortDirection.ASC), pinned = false)
+
+        assertThat(query.sql)
+            .contains("WHERE B.folder = ? AND B.pinned = ?")
+            .endsWith("ORDER BY B.pinned DESC, B.title ASC, B.id ASC")
+        assertThat(query.bindArgs()).containsExactly("ARCHIVED", 0L)
+    }
+
+    @Test
+    fun `toSql filters label and type`() {
+        val query = NoteCardQuery(Folder.NOTES, "Work", Type.LIST).toSql(NotesSort())
+
+        assertThat(query.sql)
+            .contains("B.id IN (SELECT noteId FROM NoteLabel WHERE label = ?)")
+            .contains("B.type = ?")
+            .endsWith("ORDER BY B.pinned DESC, B.timestamp DESC, B.id DESC")
+        assertThat(query.bindArgs()).containsExactly("NOTES", "Work", "LIST")
+    }
+
+    @Test
+    fun `toSql filters unlabeled notes`() {
+        val query = NoteCardQuery(Folder.NOTES, label = null).toSql(NotesSort())
+
+        assertThat(query.sql).contains("B.labels == '[]'")
+        assertThat(query.bindArgs()).containsExactly("NOTES")
+    }
+
+    @Test
+    fun `toSql uses fts index for words`() {
+        val query = NoteCardQuery(Folder.NOTES, keyword = "50%_off").toSql(NotesSort())
+
+        assertThat(query.sql).contains("BaseNoteFts MATCH ?").doesNotContain("LIKE")
+        assertThat(query.bindArgs()).containsExactly("NOTES", "\"50%_off*\"")
+    }
+
+    @Test
+    fun `toSql filters notes with reminders`() {
+        val query = NoteCardQuery(Folder.NOTES, withReminders = true).toSql(NotesSort())
+
+        assertThat(query.sql).contains("B.reminders != '[]'")
+        assertThat(query.bindArgs()).containsExactly("NOTES")
+    }
+
+    @Test
+    fun `toSql scans without fts index for punctuation and escapes keyword`() {
+        val query = NoteCardQuery(Folder.NOTES, keyword = "%!").toSql(NotesSort())
+
+        assertThat(query.sql).doesNotContain("MATCH")
+        assertThat(query.bindArgs())
+            .containsExactly("NOTES", "%\\%!%", "%\\%!%", "%\\%!%", "%\\%!%")
+    }
+
+    private fun SupportSQLiteQuery.bindArgs(): List<Any?> {
+        val args = sortedMapOf<Int, Any?>()
+        bindTo(
+            object : SupportSQLiteProgram {
+                override fun bindNull(index: Int) {
+                    args[index] = null
+                }
+
+                override fun bindLong(index: Int, value: Long) {
+                    args[index] = value
+                }
+
+                override fun bindDouble(index: Int, value: Double) {
+                    args[index] = value
+                }
+
+                override fun bindString(index: Int, value: String) {
+                    args[index] = value
+                }
+
+                override fun bindBlob(index: Int, value: ByteArray) {
+                    args[index] = value
+                }
+
+                override fun clearBindings() {
+                    args.clear()
+                }
+
+                override fun close() {}
+            }
+        )
+        return args.values.toList()
+    }
+}
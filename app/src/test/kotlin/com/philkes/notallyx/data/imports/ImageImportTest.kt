@@ -0,0 +1,126 @@
+package com.philkes.notallyx.data.imports
+
+import android.app.Application
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.media.ExifInterface
+import androidx.core.net.toUri
+import androidx.test.core.app.ApplicationProvider
+import com.philkes.notallyx.data.model.FileAttachment
+import com.philkes.notallyx.presentation.viewmodel.preference.NotallyXPreferences
+import com.philkes.notallyx.utils.backup.importImage
+import com.philkes.notallyx.utils.getExternalImagesDirectory
+import java.io.File
+import java.util.Random
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.within
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+import org.robolectric.shadows.ShadowEnvironment
+
+/** Imported images are compressed by [com.philkes.notallyx.utils.ImageCompression]. */
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class ImageImportTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private lateinit var application: Application
+    private lateinit var preferences: NotallyXPreferences
+
+    @Before
+    fun setup() {
+        application = ApplicationProvider.getApplicationContext()
+        ShadowEnvironment.addExternalDir(temporaryFolder.newFolder("media").path)
+        preferences = NotallyXPreferences.getInstance(application)
+        preferences.imageMaxDimension.save(MAX_DIMENSION)
+    }
+
+    @Test
+    fun `import downscales big images`() {
+        val source = createImage(2400, 1200, quality = 90)
+
+        val image = import(source)
+
+        assertThat(image.mimeType).isEqualTo("image/webp")
+        val (width, height) = image.readSize()
+        assertThat(width).isCloseTo(MAX_DIMENSION, within(1))
+        assertThat(height).isCloseTo(MAX_DIMENSION / 2, within(1))
+        assertThat(image.file().length()).isLessThan(source.length())
+    }
+
+    @Test
+    fun `import applies exif orientation`() {
+        val source = createImage(2400, 1200, quality = 90)
+        ExifInterface(source.path).apply {
+            setAttribute(
+                ExifInterface.TAG_ORIENTATION,
+                ExifInterface.ORIENTATION_ROTATE_90.toString(),
+            )
+            saveAttributes()
+        }
+
+        val (width, height) = import(source).readSize()
+
+        assertThat(width).isCloseTo(MAX_DIMENSION / 2, within(1))
+        assertThat(height).isCloseTo(MAX_DIMENSION, within(1))
+    }
+
+    @Test
+    fun `import keeps original if it is smaller`() {
+        // Hardly any detail survives quality 0, the compressed image at quality 100 is bigger
+        val source = createImage(2400, 1200, quality = 0)
+        preferences.imageQuality.save(100)
+
+        val image = import(source)
+
+        assertThat(image.mimeType).isEqualTo("image/jpeg")
+        assertThat(image.file()).hasSameBinaryContentAs(source)
+    }
+
+    @Test
+    fun `import keeps original images if configured`() {
+        val source = createImage(2400, 1200, quality = 90)
+        preferences.keepOriginalImages.save(true)
+
+        val image = import(source)
+
+        assertThat(image.mimeType).isEqualTo("image/jpeg")
+        assertThat(image.file()).hasSameBinaryContentAs(source)
+    }
+
+    /** Noise does not compress well, so that the size of the image depends on its dimensions. */
+    private fun createImage(width: Int, height: Int, quality: Int): File {
+        val random = Random(width.toLong() * height)
+        val pixels = IntArray(width * height) { random.nextInt() or 0xFF000000.toInt() }
+        val bitmap = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888)
+        val file = temporaryFolder.newFile("${width}x${height}.jpg")
+        file.outputStream().use { bitmap.compress(Bitmap.CompressFormat.JPEG, quality, it) }
+        bitmap.recycle()
+        return file
+    }
+
+    private fun import(source: File): FileAttachment {
+        val (image, error) = runBlocking { application.importImage(source.toUri(), "image/jpeg") }
+        assertThat(error).isNull()
+        return image!!
+    }
+
+    private fun FileAttachment.file() = File(application.getExternalImagesDirectory(), localName)
+
+    private fun FileAttachment.readSize(): Pair<Int, Int> {
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeFile(file().path, options)
+        return Pair(options.outWidth, options.outHeight)
+    }
+
+    companion object {
+        private const val MAX_DIMENSION = 1024
+    }
+}
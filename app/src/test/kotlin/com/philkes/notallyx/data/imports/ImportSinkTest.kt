@@ -0,0 +1,70 @@
+package com.philkes.notallyx.data.imports
+
+import android.app.Application
+import androidx.test.core.app.ApplicationProvider
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.test.createBaseNote
+import com.philkes.notallyx.test.createInMemoryDatabase
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ImportSinkTest {
+
+    private lateinit var application: Application
+    private lateinit var database: NotallyDatabase
+
+    @Before
+    fun setup() {
+        application = ApplicationProvider.getApplicationContext()
+        database = createInMemoryDatabase(application)
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `add commits full batches`() {
+        runBlocking {
+            val sink = ImportSink(application, database, null, total = 5, batchSize = 2)
+
+            listOf("A", "B", "C").forEach {
+                sink.add(createBaseNote(title = it, labels = listOf("Label")))
+            }
+
+            assertThat(sink.count).isEqualTo(2)
+            assertThat(database.getBaseNoteDao().count()).isEqualTo(2)
+        }
+    }
+
+    @Test
+    fun `flush commits remaining notes with their labels`() {
+        runBlocking {
+            val sink = ImportSink(application, database, null, total = 5, batchSize = 2)
+
+            sink.addAll(
+                listOf(
+                    createBaseNote(title = "A", labels = listOf("Label1")),
+                    createBaseNote(title = "B", labels = listOf("Label2")),
+                    createBaseNote(title = "C", labels = listOf("Label1")),
+                    createBaseNote(title = "D", labels = listOf("Label3")),
+                    createBaseNote(title = "E", labels = listOf("Label1")),
+                )
+            )
+            sink.flush()
+
+            assertThat(sink.count).isEqualTo(5)
+            assertThat(database.getBaseNoteDao().getAll().map { it.title })
+                .containsExactlyInAnyOrder("A", "B", "C", "D", "E")
+            assertThat(database.getLabelDao().getAllValues())
+                .containsExactly("Label1", "Label2", "Label3")
+        }
+    }
+}
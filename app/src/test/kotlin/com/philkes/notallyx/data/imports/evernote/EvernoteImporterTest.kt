@@ -1,7 +1,7 @@
 package com.philkes.notallyx.data.imports.google
 
-import com.philkes.notallyx.data.imports.evernote.EvernoteImporter
 import com.philkes.notallyx.data.imports.evernote.EvernoteNote
+import com.philkes.notallyx.data.imports.evernote.EvernoteReader
 import com.philkes.notallyx.data.imports.evernote.EvernoteResource
 import com.philkes.notallyx.data.imports.evernote.EvernoteResourceAttributes
 import com.philkes.notallyx.data.imports.evernote.EvernoteResourceData
@@ -12,30 +12,37 @@ import com.philkes.notallyx.data.imports.evernote.mapToBaseNote
 import com.philkes.notallyx.data.model.FileAttachment
 import com.philkes.notallyx.data.model.ListItem
 import com.philkes.notallyx.data.model.Type
-import java.io.InputStream
+import java.io.File
 import org.assertj.core.api.Assertions.assertThat
 import org.assertj.core.api.Assertions.atIndex
 import org.assertj.core.api.Condition
+import org.junit.Rule
 import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
 
+@RunWith(RobolectricTestRunner::class)
 class EvernoteImporterTest {
 
-    private val importer = EvernoteImporter()
+    @get:Rule val temporaryFolder = TemporaryFolder()
 
     @Test
-    fun parseExport() {
-        val inputStream: InputStream =
-            javaClass.classLoader!!.getResourceAsStream("imports/evernote/Notebook.enex")!!
-        val actual = importer.parseExport(inputStream)!!
+    fun `read notebook`() {
+        val resourcesFolder = temporaryFolder.root
+        val actual =
+            javaClass.classLoader!!.getResourceAsStream("imports/evernote/Notebook.enex")!!.use {
+                EvernoteReader(resourcesFolder).read(it).toList()
+            }
+        fun EvernoteResource.hasFile() = File(resourcesFolder, attributes!!.fileName).length() > 0
 
-        assertThat(actual.exportDate).isEqualTo("20241026T102349Z")
-        assertThat(actual.notes.sortedBy { it.title })
+        assertThat(actual.sortedBy { it.title })
             .has(
                 Condition(
                     {
                         it.title == "Audio" &&
                             it.content.contains("This includes audio") &&
-                            it.resources[0].data!!.content.isNotEmpty() &&
+                            it.resources[0].hasFile() &&
                             it.resources[0].mime == "audio/webm"
                     },
                     "Audio",
@@ -47,7 +54,7 @@ class EvernoteImporterTest {
                     {
                         it.title == "File" &&
                             it.content.contains("This has a file") &&
-                            it.resources[0].data!!.content.isNotEmpty() &&
+                            it.resources[0].hasFile() &&
                             it.resources[0].mime == "application/msword" &&
                             it.resources[0].attributes!!.fileName == "document.doc"
                     },
@@ -60,7 +67,7 @@ class EvernoteImporterTest {
                     {
                         it.title == "Image" &&
                             it.content.contains("This has an image") &&
-                            it.resources[0].data!!.content.isNotEmpty() &&
+                            it.resources[0].hasFile() &&
                             it.resources[0].mime == "image/jpeg" &&
                             it.resources[0].width == 1200 &&
                             it.resources[0].height == 1600
@@ -0,0 +1,94 @@
+package com.philkes.notallyx.data.imports.evernote
+
+import java.io.File
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class EvernoteReaderTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    @Test
+    fun `read decodes resources into files`() {
+        val enex =
+            """
+            <en-export>
+              <note>
+                <title>Note</title>
+                <content><![CDATA[<en-note><div>Body</div></en-note>]]></content>
+                <created>20241024T072339Z</created>
+                <updated>20241025T072339Z</updated>
+                <tag>Label</tag>
+                <resource>
+                  <data encoding="base64">
+                    SGVs
+                    bG8=
+                  </data>
+                  <mime>text/plain</mime>
+                  <resource-attributes><file-name>hello.txt</file-name></resource-attributes>
+                </resource>
+                <resource>
+                  <data encoding="base64">SGVsbG8=</data>
+                  <mime>text/plain</mime>
+                </resource>
+              </note>
+              <note><title>Second</title></note>
+            </en-export>
+            """
+                .trimIndent()
+
+        val notes = EvernoteReader(temporaryFolder.root).read(enex.byteInputStream()).toList()
+
+        assertThat(notes.map { it.title }).containsExactly("Note", "Second")
+        val note = notes[0]
+        assertThat(note.content).isEqualTo("<en-note><div>Body</div></en-note>")
+        assertThat(note.tag).containsExactly(EvernoteTag("Label"))
+        val attributes = EvernoteResourceAttributes("hello.txt")
+        assertThat(note.resources)
+            .containsExactly(EvernoteResource(null, "text/plain", null, null, attributes))
+        assertThat(File(temporaryFolder.root, "hello.txt")).hasContent("Hello")
+        // The resource without file-name is skipped
+        assertThat(temporaryFolder.root.list()).containsExactly("hello.txt")
+    }
+
+    @Test
+    fun `read keeps data tags in the content of notes`() {
+        val content = "<en-note><data>SGVsbG8=</data><data/></en-note>"
+        val enex =
+            """
+            <en-export>
+              <note>
+                <content><![CDATA[$content]]></content>
+                <resource>
+                  <data/>
+                  <resource-attributes><file-name>empty.txt</file-name></resource-attributes>
+                </resource>
+              </note>
+            </en-export>
+            """
+                .trimIndent()
+
+        val note = EvernoteReader(temporaryFolder.root).read(enex.byteInputStream()).single()
+
+        assertThat(note.content).isEqualTo(content)
+        assertThat(note.resources).isEmpty()
+        assertThat(temporaryFolder.root.list()).isEmpty()
+    }
+
+    @Test
+    fun `countNotes counts note tags`() {
+        val count = openNotebook().use { EvernoteReader.countNotes(it) }
+        val read = openNotebook().use { EvernoteReader(temporaryFolder.root).read(it).count() }
+
+        assertThat(count).isEqualTo(6).isEqualTo(read)
+        assertThat(EvernoteReader.countNotes("<<note><notes><note>".byteInputStream())).isEqualTo(2)
+    }
+
+    private fun openNotebook() =
+        javaClass.classLoader!!.getResourceAsStream("imports/evernote/Notebook.enex")!!
+}
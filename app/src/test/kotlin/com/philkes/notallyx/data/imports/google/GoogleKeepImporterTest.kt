@@ -1,13 +1,11 @@
 package com.philkes.notallyx.data.imports.google
 
 import com.philkes.notallyx.data.model.Audio
-import com.philkes.notallyx.data.model.BaseNote
 import com.philkes.notallyx.data.model.FileAttachment
 import com.philkes.notallyx.data.model.Folder
 import com.philkes.notallyx.data.model.ListItem
-import com.philkes.notallyx.data.model.Reminder
-import com.philkes.notallyx.data.model.SpanRepresentation
 import com.philkes.notallyx.data.model.Type
+import com.philkes.notallyx.test.createBaseNote
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.Assert.assertEquals
 import org.junit.Test
@@ -215,44 +213,4 @@ class GoogleKeepImporterTest {
         assertThat(actual.title).isEqualTo("Audio Note")
         assertThat(actual.audios[0].name).isEqualTo("audio.3gp")
     }
-
-    companion object {
-        fun createBaseNote(
-            id: Long = 0L,
-            type: Type = Type.NOTE,
-            folder: Folder = Folder.NOTES,
-            color: String = BaseNote.COLOR_DEFAULT,
-            title: String = "Note",
-            pinned: Boolean = false,
-            timestamp: Long = System.currentTimeMillis(),
-            modifiedTimestamp: Long = System.currentTimeMillis(),
-            labels: List<String> = listOf(),
-            body: String = "",
-            spans: List<SpanRepresentation> = listOf(),
-            items: List<ListItem> = listOf(),
-            images: List<FileAttachment> = listOf(),
-            files: List<FileAttachment> = listOf(),
-            audios: List<Audio> = listOf(),
-            reminders: List<Reminder> = listOf(),
-        ): BaseNote {
-            return BaseNote(
-                id,
-                type,
-                folder,
-                color,
-                title,
-                pinned,
-                timestamp,
-                modifiedTimestamp,
-                labels,
-                body,
-                spans,
-                items,
-                images,
-                files,
-                audios,
-                reminders,
-            )
-        }
-    }
 }
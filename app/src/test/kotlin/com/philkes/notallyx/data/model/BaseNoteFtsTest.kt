@@ -0,0 +1,38 @@
+package com.philkes.notallyx.data.model
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class BaseNoteFtsTest {
+
+    @Test
+    fun `toFtsQuery single word`() {
+        assertEquals("\"note*\"", "note".toFtsQuery())
+    }
+
+    @Test
+    fun `toFtsQuery multiple words`() {
+        assertEquals("\"shopping*\" \"list*\"", "  shopping   list ".toFtsQuery())
+    }
+
+    @Test
+    fun `toFtsQuery replaces quotes`() {
+        assertEquals("\"say hi*\"", "say\"hi".toFtsQuery())
+    }
+
+    @Test
+    fun `toFtsQuery ignores punctuation only words`() {
+        assertEquals("\"todo*\"", "todo !!".toFtsQuery())
+        assertNull("!! ?".toFtsQuery())
+        assertNull("".toFtsQuery())
+    }
+
+    @Test
+    fun `toFtsQuery ignores scripts without word separators`() {
+        assertNull("東京".toFtsQuery())
+        assertNull("todo カタカナ".toFtsQuery())
+        assertNull("ภาษาไทย".toFtsQuery())
+        assertEquals("\"한국어*\"", "한국어".toFtsQuery())
+    }
+}
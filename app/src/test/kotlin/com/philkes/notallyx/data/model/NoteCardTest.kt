@@ -0,0 +1,62 @@
+package com.philkes.notallyx.data.model
+
+import com.philkes.notallyx.test.createBaseNote
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class NoteCardTest {
+
+    @Test
+    fun `toNoteCard truncates body and items`() {
+        val items =
+            (0 until 15).map { ListItem("Item $it", it % 2 == 0, false, null, mutableListOf()) }
+        val note = createBaseNote(type = Type.LIST, body = "a".repeat(2000), items = items)
+
+        val card = note.toNoteCard()
+
+        assertEquals(NoteCard.MAX_PREVIEW_BODY_LENGTH, card.body.length)
+        assertEquals(15, card.itemCount)
+        assertEquals(
+            items.take(NoteCard.MAX_PREVIEW_ITEMS).map { it.body to it.checked },
+            card.items.map { it.body to it.checked },
+        )
+    }
+
+    @Test
+    fun `items are ordered by position`() {
+        val previewItems =
+            listOf(
+                NoteItemPreview(1, 1, "Second", false, false, null),
+                NoteItemPreview(1, 0, "First", true, false, null),
+            )
+
+        val card =
+            createBaseNote(1, type = Type.LIST)
+                .toNoteCard()
+                .copy(itemCount = 2, previewItems = previewItems)
+
+        assertEquals(listOf("First", "Second"), card.items.map { it.body })
+    }
+
+    @Test
+    fun `previewSpans are clipped to the truncated body`() {
+        val length = NoteCard.MAX_PREVIEW_BODY_LENGTH
+        val spans =
+            listOf(
+                SpanRepresentation(0, 10, bold = true),
+                SpanRepresentation(length - 5, length + 5, italic = true),
+                SpanRepresentation(length + 10, length + 20, monospace = true),
+            )
+        val note = createBaseNote(body = "a".repeat(2 * length), spans = spans)
+
+        val card = note.toNoteCard()
+
+        assertEquals(
+            listOf(
+                SpanRepresentation(0, 10, bold = true),
+                SpanRepresentation(length - 5, length, italic = true),
+            ),
+            card.previewSpans,
+        )
+    }
+}
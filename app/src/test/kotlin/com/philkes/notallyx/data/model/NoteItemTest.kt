@@ -0,0 +1,40 @@
+package com.philkes.notallyx.data.model
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class NoteItemTest {
+
+    @Test
+    fun `toNoteItems uses index as position`() {
+        val items =
+            listOf(
+                ListItem("Parent", false, false, null, mutableListOf()),
+                ListItem("Child", true, true, 3, mutableListOf()),
+            )
+
+        val noteItems = items.toNoteItems(5)
+
+        assertEquals(
+            listOf(
+                NoteItem(5, 0, "Parent", false, false, null),
+                NoteItem(5, 1, "Child", true, true, 3),
+            ),
+            noteItems,
+        )
+    }
+
+    @Test
+    fun `toListItems restores items`() {
+        val items =
+            listOf(
+                ListItem("Parent", false, false, null, mutableListOf()),
+                ListItem("Child", true, true, 3, mutableListOf()),
+            )
+
+        val actual = items.toNoteItems(1).toListItems()
+
+        assertEquals(items.map { it.body to it.checked }, actual.map { it.body to it.checked })
+        assertEquals(items.map { it.isChild to it.order }, actual.map { it.isChild to it.order })
+    }
+}
@@ -1,7 +1,17 @@
 package com.philkes.notallyx.test
 
+import android.content.Context
 import android.util.Log
+import androidx.room.Room
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.model.Audio
+import com.philkes.notallyx.data.model.BaseNote
+import com.philkes.notallyx.data.model.FileAttachment
+import com.philkes.notallyx.data.model.Folder
 import com.philkes.notallyx.data.model.ListItem
+import com.philkes.notallyx.data.model.Reminder
+import com.philkes.notallyx.data.model.SpanRepresentation
+import com.philkes.notallyx.data.model.Type
 import com.philkes.notallyx.presentation.view.note.listitem.ListItemDragCallback
 import com.philkes.notallyx.presentation.view.note.listitem.sorting.ListItemSortedList
 import com.philkes.notallyx.presentation.view.note.listitem.sorting.find
@@ -27,6 +37,52 @@ fun createListItem(
     return ListItem(body, checked, isChild, order, children, id)
 }
 
+fun createBaseNote(
+    id: Long = 0L,
+    type: Type = Type.NOTE,
+    folder: Folder = Folder.NOTES,
+    color: String = BaseNote.COLOR_DEFAULT,
+    title: String = "Note",
+    pinned: Boolean = false,
+    timestamp: Long = System.currentTimeMillis(),
+    modifiedTimestamp: Long = System.currentTimeMillis(),
+    labels: List<String> = listOf(),
+    body: String = "",
+    spans: List<SpanRepresentation> = listOf(),
+    items: List<ListItem> = listOf(),
+    images: List<FileAttachment> = listOf(),
+    files: List<FileAttachment> = listOf(),
+    audios: List<Audio> = listOf(),
+    reminders: List<Reminder> = listOf(),
+): BaseNote {
+    return BaseNote(
+        id,
+        type,
+        folder,
+        color,
+        title,
+        pinned,
+        timestamp,
+        modifiedTimestamp,
+        labels,
+        body,
+        spans,
+        items,
+        images,
+        files,
+        audios,
+        reminders,
+    )
+}
+
+/** In-memory [NotallyDatabase] with the same triggers as the one of the app. */
+fun createInMemoryDatabase(context: Context): NotallyDatabase {
+    return Room.inMemoryDatabaseBuilder(context, NotallyDatabase::class.java)
+        .addCallback(NotallyDatabase.TriggersCallback)
+        .allowMainThreadQueries()
+        .build()
+}
+
 fun mockAndroidLog() {
     mockkStatic(Log::class)
     every { Log.v(any(), any()) } returns 0
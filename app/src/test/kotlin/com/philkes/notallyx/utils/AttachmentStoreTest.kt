@@ -0,0 +1,61 @@
+package com.philkes.notallyx.utils
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class AttachmentStoreTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    @Test
+    fun `put names attachments by their content`() {
+        val store = AttachmentStore(temporaryFolder.root)
+
+        val name = store.put(store.stage("Image".byteInputStream()), ".jpg")
+
+        assertThat(name)
+            .isEqualTo("1aa4cb0bcca76e92e30677e809bb3d4b5c066715ef4d558184e319496bcc5125.jpg")
+        assertThat(temporaryFolder.root.resolve(name!!).readText()).isEqualTo("Image")
+    }
+
+    @Test
+    fun `put stores identical content only once`() {
+        val store = AttachmentStore(temporaryFolder.root)
+
+        val first = store.put(store.stage("Image".byteInputStream()), ".jpg")
+        val second = store.put(store.stage("Image".byteInputStream()), ".jpg")
+        val other = store.put(store.stage("Other".byteInputStream()), ".jpg")
+
+        assertThat(second).isEqualTo(first)
+        assertThat(other).isNotEqualTo(first)
+        assertThat(temporaryFolder.root.list()).containsExactlyInAnyOrder(first, other)
+    }
+
+    @Test
+    fun `put touches stored attachments`() {
+        val store = AttachmentStore(temporaryFolder.root)
+        val extracted =
+            store.createTempFile().apply {
+                writeText("Image")
+                setLastModified(0)
+            }
+
+        val name = store.put(store.stage(extracted), ".jpg")
+
+        assertThat(temporaryFolder.root.resolve(name!!).lastModified()).isGreaterThan(0)
+    }
+
+    @Test
+    fun `stage hashes already written files`() {
+        val store = AttachmentStore(temporaryFolder.root)
+        val written = temporaryFolder.newFile("written").apply { writeText("File") }
+
+        val name = store.put(store.stage(written), ".pdf")
+
+        assertThat(name).isEqualTo(store.put(store.stage("File".byteInputStream()), ".pdf"))
+        assertThat(written).doesNotExist()
+        assertThat(temporaryFolder.root.list()).containsExactly(name)
+    }
+}
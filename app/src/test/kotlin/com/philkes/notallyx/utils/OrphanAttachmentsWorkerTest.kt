@@ -0,0 +1,84 @@
+package com.philkes.notallyx.utils
+
+import android.app.Application
+import android.os.Environment
+import androidx.test.core.app.ApplicationProvider
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.model.Audio
+import com.philkes.notallyx.data.model.FileAttachment
+import com.philkes.notallyx.test.createBaseNote
+import com.philkes.notallyx.test.createInMemoryDatabase
+import java.io.File
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class OrphanAttachmentsWorkerTest {
+
+    private lateinit var application: Application
+    private lateinit var database: NotallyDatabase
+
+    @Before
+    fun setup() {
+        application = ApplicationProvider.getApplicationContext()
+        application.getExternalFilesDir(Environment.MEDIA_MOUNTED)
+        database = createInMemoryDatabase(application)
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `deleteOrphanAttachments deletes only old unreferenced files`() {
+        val imagesRoot = application.getExternalImagesDirectory()!!
+        val filesRoot = application.getExternalFilesDirectory()!!
+        val audioRoot = application.getExternalAudioDirectory()!!
+        val image = createFile(imagesRoot, "image.jpg", old = true)
+        val file = createFile(filesRoot, "file.pdf", old = true)
+        val audio = createFile(audioRoot, "audio.m4a", old = true)
+        val orphan = createFile(imagesRoot, "orphan.jpg", old = true)
+        val temp = createFile(filesRoot, "Temp", old = true)
+        val recent = createFile(filesRoot, "recent.pdf", old = false)
+        val orphanedBytes = orphan.length() + temp.length()
+        runBlocking {
+            database
+                .getBaseNoteDao()
+                .insert(
+                    createBaseNote(
+                        images = listOf(FileAttachment("image.jpg", "image.jpg", "image/jpeg")),
+                        files = listOf(FileAttachment("file.pdf", "file.pdf", "application/pdf")),
+                        audios = listOf(Audio("audio.m4a", 1000, 0)),
+                    )
+                )
+        }
+
+        val actual = application.deleteOrphanAttachments(database)
+
+        assertThat(actual).isEqualTo(OrphanAttachments(2, orphanedBytes))
+        assertThat(image).exists()
+        assertThat(file).exists()
+        assertThat(audio).exists()
+        assertThat(recent).exists()
+        assertThat(orphan).doesNotExist()
+        assertThat(temp).doesNotExist()
+    }
+
+    private fun createFile(root: File, name: String, old: Boolean): File {
+        val file = File(root, name).apply { writeText(name) }
+        if (old) {
+            file.setLastModified(System.currentTimeMillis() - 2 * DAY)
+        }
+        return file
+    }
+
+    companion object {
+        private const val DAY = 24 * 60 * 60 * 1000L
+    }
+}
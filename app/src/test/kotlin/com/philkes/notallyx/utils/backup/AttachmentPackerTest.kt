@@ -0,0 +1,108 @@
+package com.philkes.notallyx.utils.backup
+
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.OutputStream
+import net.lingala.zip4j.io.inputstream.ZipInputStream
+import net.lingala.zip4j.io.outputstream.ZipOutputStream
+import net.lingala.zip4j.model.ZipParameters
+import net.lingala.zip4j.model.enums.EncryptionMethod
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class AttachmentPackerTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    @Test
+    fun `pack writes entries in order`() {
+        val entries =
+            (0 until 20).map { index ->
+                val file = temporaryFolder.newFile("$index.jpg").apply { writeText("Image $index") }
+                AttachmentPacker.Entry(file, "Images/${file.name}")
+            } + AttachmentPacker.Entry(File(temporaryFolder.root, "missing.jpg"), "Images/missing")
+        val zipParameters =
+            ZipParameters().apply {
+                isEncryptFiles = true
+                encryptionMethod = EncryptionMethod.AES
+            }
+        val output = ByteArrayOutputStream()
+        val packed = mutableListOf<AttachmentPacker.Entry>()
+
+        ZipOutputStream(output, PASSWORD).use { zipStream ->
+            AttachmentPacker(zipStream, zipParameters, threads = 3).pack(entries) {
+                entry,
+                exception ->
+                assertThat(exception).isNull()
+                packed.add(entry)
+            }
+        }
+
+        assertThat(packed).isEqualTo(entries)
+        val actual = mutableListOf<Pair<String, String>>()
+        ZipInputStream(output.toByteArray().inputStream(), PASSWORD).use { zipStream ->
+            while (true) {
+                val entry = zipStream.nextEntry ?: break
+                actual.add(Pair(entry.fileName, zipStream.readBytes().decodeToString()))
+            }
+        }
+        assertThat(actual)
+            .isEqualTo((0 until 20).map { index -> Pair("Images/$index.jpg", "Image $index") })
+    }
+
+    @Test
+    fun `pack skips entries which can not be read`() {
+        val unreadable = temporaryFolder.newFolder("unreadable.jpg")
+        val image = temporaryFolder.newFile("image.jpg").apply { writeText("Image") }
+        val entries =
+            listOf(
+                AttachmentPacker.Entry(unreadable, "Images/unreadable.jpg"),
+                AttachmentPacker.Entry(image, "Images/image.jpg"),
+            )
+        val output = ByteArrayOutputStream()
+        val exceptions = mutableListOf<Exception?>()
+
+        ZipOutputStream(output).use { zipStream ->
+            AttachmentPacker(zipStream, ZipParameters()).pack(entries) { _, exception ->
+                exceptions.add(exception)
+            }
+        }
+
+        assertThat(exceptions[0]).isNotNull()
+        assertThat(exceptions[1]).isNull()
+        ZipInputStream(output.toByteArray().inputStream()).use { zipStream ->
+            assertThat(zipStream.nextEntry!!.fileName).isEqualTo("Images/image.jpg")
+            assertThat(zipStream.nextEntry).isNull()
+        }
+    }
+
+    @Test
+    fun `pack fails if an entry fails after it was started`() {
+        val entries =
+            (0 until 2).map { index ->
+                val file = temporaryFolder.newFile("$index.jpg").apply { writeText("Image") }
+                AttachmentPacker.Entry(file, "Images/${file.name}")
+            }
+        val failingOutput =
+            object : OutputStream() {
+                override fun write(b: Int) {
+                    throw IOException("Disk full")
+                }
+            }
+        val packed = mutableListOf<AttachmentPacker.Entry>()
+
+        val packer = AttachmentPacker(ZipOutputStream(failingOutput), ZipParameters())
+
+        assertThatThrownBy { packer.pack(entries) { entry, _ -> packed.add(entry) } }
+            .isInstanceOf(ZipEntryException::class.java)
+        assertThat(packed).isEmpty()
+    }
+
+    companion object {
+        private val PASSWORD = "Password".toCharArray()
+    }
+}
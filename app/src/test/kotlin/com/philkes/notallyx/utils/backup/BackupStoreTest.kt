@@ -0,0 +1,194 @@
+package com.philkes.notallyx.utils.backup
+
+import android.app.Application
+import android.content.Context
+import android.net.Uri
+import androidx.documentfile.provider.DocumentFile
+import androidx.test.core.app.ApplicationProvider
+import com.philkes.notallyx.data.NotallyDatabase
+import com.philkes.notallyx.data.dao.BaseNoteDao
+import com.philkes.notallyx.data.model.Audio
+import com.philkes.notallyx.data.model.FileAttachment
+import com.philkes.notallyx.data.model.Folder
+import com.philkes.notallyx.data.model.Label
+import com.philkes.notallyx.data.model.ListItem
+import com.philkes.notallyx.data.model.Reminder
+import com.philkes.notallyx.data.model.Repetition
+import com.philkes.notallyx.data.model.RepetitionTimeUnit
+import com.philkes.notallyx.data.model.SpanRepresentation
+import com.philkes.notallyx.data.model.Type
+import com.philkes.notallyx.presentation.viewmodel.preference.Constants.PASSWORD_EMPTY
+import com.philkes.notallyx.test.createBaseNote
+import com.philkes.notallyx.test.createInMemoryDatabase
+import com.philkes.notallyx.utils.backup.BackupStore.Companion.toBackupJson
+import com.philkes.notallyx.utils.backup.BackupStore.Companion.toBaseNote
+import com.philkes.notallyx.utils.getExternalImagesDirectory
+import java.io.File
+import java.util.Date
+import kotlinx.coroutines.runBlocking
+import net.lingala.zip4j.ZipFile
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class BackupStoreTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private val application = ApplicationProvider.getApplicationContext<Application>()
+    private lateinit var database: NotallyDatabase
+    private lateinit var baseNoteDao: BaseNoteDao
+    private lateinit var backupFolder: File
+    private lateinit var backupStore: BackupStore
+
+    @Before
+    fun setup() {
+        database = createInMemoryDatabase(application)
+        baseNoteDao = database.getBaseNoteDao()
+        backupFolder = temporaryFolder.newFolder("backups")
+        backupStore =
+            BackupStore(application, DocumentFile.fromFile(backupFolder), PASSWORD_EMPTY, database)
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun `snapshot restores notes, labels and attachments`() {
+        val image = createImage()
+        runBlocking {
+            database.getLabelDao().insert(Label("Work"))
+            baseNoteDao.insert(createBaseNote(title = "A", labels = listOf("Work")))
+            baseNoteDao.insert(createBaseNote(title = "B", images = listOf(image)))
+        }
+
+        val manifest = createSnapshot("snapshot.zip")
+        val (baseNotes, labels) = backupStore.restoreSnapshot(manifest) { _, _ -> }
+
+        assertThat(baseNotes.map { it.title }).containsExactly("A", "B")
+        assertThat(baseNotes[0].labels).containsExactly("Work")
+        assertThat(labels).containsExactly(Label("Work"))
+        val restoredImage = baseNotes[1].images.single()
+        assertThat(restoredImage.localName).isNotEqualTo(image.localName)
+        // Restored images are content-addressed, see AttachmentStore
+        assertThat(restoredImage.localName)
+            .isEqualTo("039058c6f2c0cb492c533b0a4d14ef77cc0f78abccced5287d84a1a2011cfb81.jpg")
+        assertThat(File(application.getExternalImagesDirectory(), restoredImage.localName))
+            .hasBinaryContent(byteArrayOf(1, 2, 3))
+    }
+
+    @Test
+    fun `snapshots only write changed notes`() {
+        val image = createImage()
+        val note = createBaseNote(title = "A", timestamp = 1, modifiedTimestamp = 1)
+        val id = runBlocking {
+            baseNoteDao.insert(createBaseNote(title = "B", images = listOf(image)))
+            baseNoteDao.insert(note)
+        }
+        createSnapshot("snapshot1.zip")
+        assertThat(storedBlobs()).hasSize(3)
+
+        runBlocking { baseNoteDao.insert(note.copy(id = id, title = "Edited")) }
+        val manifest = createSnapshot("snapshot2.zip")
+
+        assertThat(storedBlobs()).hasSize(4)
+        assertThat(manifest.getJSONArray("notes").length()).isEqualTo(2)
+    }
+
+    @Test
+    fun `snapshot forgets hashes of removed attachments`() {
+        val image = createImage()
+        val id = runBlocking { baseNoteDao.insert(createBaseNote(images = listOf(image))) }
+        createSnapshot("snapshot1.zip")
+        val state = application.getSharedPreferences("backup_store", Context.MODE_PRIVATE)
+        assertThat(state.all.keys).anyMatch { it.startsWith("hash:") }
+
+        runBlocking { baseNoteDao.delete(id) }
+        createSnapshot("snapshot2.zip")
+
+        assertThat(state.all.keys).noneMatch { it.startsWith("hash:") }
+    }
+
+    @Test
+    fun `restore fails if the store is missing`() {
+        runBlocking { baseNoteDao.insert(createBaseNote()) }
+        val manifest = createSnapshot("snapshot.zip")
+
+        File(backupFolder, "NotallyX_Store").deleteRecursively()
+
+        assertThatThrownBy { backupStore.restoreSnapshot(manifest) { _, _ -> } }
+            .isInstanceOf(BackupStore.MissingStoreException::class.java)
+    }
+
+    @Test
+    fun `restore fails if blobs are missing`() {
+        runBlocking { baseNoteDao.insert(createBaseNote()) }
+        val manifest = createSnapshot("snapshot.zip")
+
+        storedBlobs().forEach { it.delete() }
+
+        assertThatThrownBy { backupStore.restoreSnapshot(manifest) { _, _ -> } }
+            .isInstanceOf(BackupStore.MissingStoreException::class.java)
+    }
+
+    @Test
+    fun `note survives backup json`() {
+        val baseNote =
+            createBaseNote(
+                type = Type.LIST,
+                folder = Folder.ARCHIVED,
+                color = "#FFAA00",
+                title = "Title",
+                pinned = true,
+                timestamp = 1000,
+                modifiedTimestamp = 2000,
+                labels = listOf("Work", "Ideas"),
+                body = "Body",
+                spans = listOf(SpanRepresentation(0, 4, bold = true, link = true, linkData = "x")),
+                items =
+                    listOf(
+                        ListItem("A", true, false, 0, mutableListOf()),
+                        ListItem("B", false, true, 1, mutableListOf()),
+                    ),
+                images = listOf(FileAttachment("image.jpg", "Image.jpg", "image/jpeg")),
+                files = listOf(FileAttachment("file.pdf", "File.pdf", "application/pdf")),
+                audios = listOf(Audio("audio.m4a", 1234, 5678)),
+                reminders =
+                    listOf(Reminder(1, Date(3000), Repetition(2, RepetitionTimeUnit.DAYS))),
+            )
+
+        val json = baseNote.toBackupJson()
+
+        assertThat(JSONObject(json).toBaseNote()).isEqualTo(baseNote)
+        assertThat(baseNote.copy().toBackupJson()).isEqualTo(json)
+    }
+
+    private fun createImage(): FileAttachment {
+        File(application.getExternalImagesDirectory(), "image.jpg").writeBytes(byteArrayOf(1, 2, 3))
+        return FileAttachment("image.jpg", "Image.jpg", "image/jpeg")
+    }
+
+    private fun createSnapshot(name: String): JSONObject {
+        val snapshot = File(backupFolder, name)
+        backupStore.createSnapshot(Uri.fromFile(snapshot))
+        val zipFile = ZipFile(snapshot)
+        return zipFile.getInputStream(zipFile.getFileHeader(BackupStore.MANIFEST)).use { stream ->
+            JSONObject(stream.bufferedReader().readText())
+        }
+    }
+
+    private fun storedBlobs(): List<File> {
+        val storeFolder = File(backupFolder, "NotallyX_Store").listFiles()!!.single()
+        return storeFolder.listFiles()!!.toList()
+    }
+}
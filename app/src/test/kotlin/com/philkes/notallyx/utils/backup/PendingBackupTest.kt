@@ -0,0 +1,46 @@
+package com.philkes.notallyx.utils.backup
+
+import android.app.Application
+import androidx.test.core.app.ApplicationProvider
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class PendingBackupTest {
+
+    private val application = ApplicationProvider.getApplicationContext<Application>()
+
+    @Test
+    fun `saves are collected until they are taken`() {
+        assertThat(application.hasPendingBackup()).isFalse()
+        application.addPendingBackup(listOf(1), fullBackup = false)
+        application.addPendingBackup(listOf(2), fullBackup = false)
+        application.addPendingBackup(listOf(1), fullBackup = false)
+        assertThat(application.hasPendingBackup()).isTrue()
+
+        assertThat(application.takePendingBackup()).isEqualTo(setOf(1L, 2L) to false)
+        assertThat(application.takePendingBackup()).isEqualTo(emptySet<Long>() to false)
+        assertThat(application.hasPendingBackup()).isFalse()
+    }
+
+    @Test
+    fun `full backup is kept until taken`() {
+        application.addPendingBackup(listOf(), fullBackup = true)
+        application.addPendingBackup(listOf(1), fullBackup = false)
+
+        assertThat(application.takePendingBackup()).isEqualTo(setOf(1L) to true)
+    }
+
+    @Test
+    fun `taken saves can be restored after a failed backup`() {
+        application.addPendingBackup(listOf(1, 2), fullBackup = false)
+        val (noteIds, fullBackup) = application.takePendingBackup()
+        application.addPendingBackup(listOf(3), fullBackup = false)
+
+        application.addPendingBackup(noteIds, fullBackup)
+
+        assertThat(application.takePendingBackup()).isEqualTo(setOf(1L, 2L, 3L) to false)
+    }
+}